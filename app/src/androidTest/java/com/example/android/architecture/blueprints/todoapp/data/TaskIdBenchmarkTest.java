@@ -0,0 +1,140 @@
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmark of the insert throughput and the size of the primary key index of the tasks table,
+ * with random UUID ids and with time-ordered {@link TaskId}s, stored as text or in binary form.
+ * The index is measured in database files, by difference with a table without it.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class TaskIdBenchmarkTest {
+
+    private static final String TAG = "TaskIdBenchmark";
+
+    private static final int TASK_COUNT = 20_000;
+
+    private static final String DATABASE_NAME = "TaskIdBenchmark.db";
+
+    @Test
+    public void timeOrderedIds_insertFasterIntoASmallerIndex() {
+        Result uuid = insertTasks("TEXT", i -> UUID.randomUUID().toString(), false);
+        Result timeOrdered = insertTasks("TEXT", i -> TaskId.next(), false);
+        Result binary = insertTasks("BLOB", i -> TaskId.next(), true);
+
+        Log.i(TAG, "UUID text: " + uuid);
+        Log.i(TAG, "Time-ordered text: " + timeOrdered);
+        Log.i(TAG, "Time-ordered binary: " + binary);
+        // Appending to the index fills its pages instead of splitting them.
+        assertTrue(timeOrdered.mIndexBytes < uuid.mIndexBytes);
+        assertTrue(binary.mIndexBytes <= timeOrdered.mIndexBytes);
+    }
+
+    private interface IdGenerator {
+        String generate(int index);
+    }
+
+    /**
+     * Inserts the same tasks into a table keyed by their id and into one without any index. The
+     * size of the primary key index is the difference between the sizes of the two databases,
+     * which are files so that the pages are really allocated as they would be on the device.
+     */
+    private static Result insertTasks(String idType, IdGenerator idGenerator, boolean binary) {
+        List<String> ids = new ArrayList<>(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            ids.add(idGenerator.generate(i));
+        }
+        long start = System.nanoTime();
+        long indexedBytes = insertTasks(idType + " PRIMARY KEY", ids, binary);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        long tableBytes = insertTasks(idType, ids, binary);
+        return new Result(elapsedMillis, indexedBytes - tableBytes);
+    }
+
+    /**
+     * @return the size of the database once the tasks are inserted, in bytes
+     */
+    private static long insertTasks(String idDefinition, List<String> ids, boolean binary) {
+        Context context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL("CREATE TABLE tasks (entryid " + idDefinition + ", title TEXT,"
+                    + " description TEXT, completed INTEGER)");
+            SQLiteStatement statement = db.compileStatement(
+                    "INSERT INTO tasks (entryid, title, description, completed) VALUES (?,?,?,0)");
+            try {
+                // One transaction per task, like tasks created one at a time in the app.
+                for (int i = 0; i < ids.size(); i++) {
+                    String id = ids.get(i);
+                    db.beginTransaction();
+                    try {
+                        if (binary) {
+                            statement.bindBlob(1, TaskId.toBytes(id));
+                        } else {
+                            statement.bindString(1, id);
+                        }
+                        statement.bindString(2, "Title " + i);
+                        statement.bindString(3, "Description " + i);
+                        statement.executeInsert();
+                        db.setTransactionSuccessful();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+            } finally {
+                statement.close();
+            }
+            return pragma(db, "page_count") * pragma(db, "page_size");
+        } finally {
+            db.close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    private static long pragma(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("PRAGMA " + name, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static final class Result {
+        final long mElapsedMillis;
+
+        final long mIndexBytes;
+
+        Result(long elapsedMillis, long indexBytes) {
+            mElapsedMillis = elapsedMillis;
+            mIndexBytes = indexBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d inserts in %d ms (%d/s), index of %d KB",
+                    TASK_COUNT, mElapsedMillis, TASK_COUNT * 1000L / Math.max(1, mElapsedMillis),
+                    mIndexBytes / 1024);
+        }
+    }
+}
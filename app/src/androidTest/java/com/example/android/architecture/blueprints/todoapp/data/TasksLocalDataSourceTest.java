@@ -20,9 +20,13 @@ import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 import android.test.suitebuilder.annotation.LargeTest;
 
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskBucket;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskHashTree;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksQuery;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksDbHelper;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksLocalDataSource;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksFilterType;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.ImmediateSchedulerProvider;
 
@@ -31,7 +35,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import io.reactivex.observers.TestObserver;
 
@@ -180,6 +188,57 @@ public class TasksLocalDataSourceTest {
         assertThat(result, hasItems(newTask1, newTask2));
     }
 
+    @Test
+    public void getTasksWithQuery_filtersSortsAndLimitsInTheDatabase() {
+        // Given 2 active tasks and a completed one in the persistent repository
+        final Task newTask1 = new Task(TITLE3, "");
+        mLocalDataSource.saveTask(newTask1);
+        final Task newTask2 = new Task(TITLE2, "");
+        mLocalDataSource.saveTask(newTask2);
+        final Task newTask3 = new Task(TITLE, "", true);
+        mLocalDataSource.saveTask(newTask3);
+
+        // When querying the first active task by title
+        TestObserver<List<Task>> testObserver = new TestObserver<>();
+        mLocalDataSource.getTasks(TasksQuery.builder()
+                .filterType(TasksFilterType.ACTIVE_TASKS)
+                .sort(TasksQuery.Sort.TITLE)
+                .limit(1)
+                .build())
+                .subscribe(testObserver);
+
+        // Then only that task is retrieved
+        testObserver.assertValue(Collections.singletonList(newTask2));
+    }
+
+    @Test
+    public void getTaskBucketsAndHashes_matchTheHashTreeOfTheSavedTasks() {
+        // Given active and completed tasks saved in the persistent repository
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tasks.add(new Task(TITLE + i, "Description " + i, i % 3 == 0));
+        }
+        mLocalDataSource.saveTasks(tasks);
+        // And one of them completed afterwards
+        mLocalDataSource.completeTask(tasks.get(1));
+        tasks.set(1, new Task(tasks.get(1).getTitle(), tasks.get(1).getDescription(),
+                tasks.get(1).getId(), true));
+        TaskHashTree hashTree = TaskHashTree.of(tasks);
+
+        // When the buckets and the task hashes are computed by the database
+        Map<String, TaskBucket> rootBucket = mLocalDataSource
+                .getTaskBuckets(0, Collections.singletonList("")).blockingGet();
+        Map<String, TaskBucket> buckets = mLocalDataSource
+                .getTaskBuckets(1, Collections.singletonList("")).blockingGet();
+        Map<String, Long> taskHashes = mLocalDataSource
+                .getTaskHashes(Arrays.asList("0", "8", "f")).blockingGet();
+
+        // Then they are the ones of the hash tree of the tasks
+        assertThat(rootBucket, is(hashTree.getBuckets(0, Collections.singletonList(""))));
+        assertThat(buckets, is(hashTree.getBuckets(1, Collections.singletonList(""))));
+        assertThat(taskHashes, is(hashTree.getTaskHashes(Arrays.asList("0", "8", "f"))));
+    }
+
     @Test
     public void getTask_whenTaskNotSaved() {
         //Given that no task has been saved
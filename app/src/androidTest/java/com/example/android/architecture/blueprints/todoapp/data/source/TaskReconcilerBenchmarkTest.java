@@ -0,0 +1,92 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.ReconciliationFixtures.DivergentTasks;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksLocalDataSource;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.ImmediateSchedulerProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Locale;
+
+import static com.example.android.architecture.blueprints.todoapp.data.source.ReconciliationFixtures.setTaskHashTreeAvailable;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Benchmark of a {@link TaskReconciler} run between 100k tasks stored in the database, of which
+ * 0.1% differ, and a remote data source, compared to what a full refresh transfers.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class TaskReconcilerBenchmarkTest {
+
+    private static final String TAG = "TaskReconcilerBenchmark";
+
+    private static final int TASK_COUNT = 100_000;
+
+    /**
+     * 0.1% of the tasks.
+     */
+    private static final int DIVERGENT_COUNT = 100;
+
+    private TasksLocalDataSource mLocalDataSource;
+
+    @Before
+    public void setup() {
+        TasksLocalDataSource.destroyInstance();
+        mLocalDataSource = TasksLocalDataSource.getInstance(
+                InstrumentationRegistry.getTargetContext(), new ImmediateSchedulerProvider());
+        mLocalDataSource.deleteAllTasks();
+    }
+
+    @After
+    public void cleanUp() {
+        mLocalDataSource.deleteAllTasks();
+    }
+
+    @Test
+    public void reconcile_100kTasks_transfersOnlyTheDivergentOnes() {
+        // Given 100k tasks, 0.1% of which differ: edited, missing locally or deleted remotely
+        DivergentTasks tasks = new DivergentTasks(TASK_COUNT, DIVERGENT_COUNT);
+        mLocalDataSource.saveTasks(tasks.mLocalTasks);
+        TasksDataSource remoteDataSource = mock(TasksDataSource.class);
+        setTaskHashTreeAvailable(remoteDataSource, tasks.mRemoteTasks);
+        TaskReconciler taskReconciler = new TaskReconciler(mLocalDataSource, remoteDataSource);
+
+        // When reconciled
+        long start = System.nanoTime();
+        TaskReconciliation reconciliation = taskReconciler.reconcile().blockingGet();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // Then exactly the divergent tasks are found
+        assertThat(new HashSet<>(reconciliation.updated()), is(new HashSet<>(tasks.mUpdatedTasks)));
+        assertThat(reconciliation.deletedIds().size(), is(tasks.mDeletedCount));
+        // And a tiny fraction of what a full refresh downloads is transferred
+        long fullRefreshBytes = 0;
+        for (Task task : tasks.mRemoteTasks) {
+            fullRefreshBytes += TaskReconciler.sizeOf(task);
+        }
+        Log.i(TAG, String.format(Locale.US,
+                "Reconciled %d tasks with %d divergent in %d ms: %d bytes in %d round trips,"
+                        + " %d bucket hashes, %d task hashes and %d rows transferred, versus"
+                        + " %d bytes in 1 round trip and %d rows for a full refresh",
+                TASK_COUNT, DIVERGENT_COUNT, elapsedMillis, reconciliation.bytesTransferred(),
+                reconciliation.roundTrips(), reconciliation.bucketsCompared(),
+                reconciliation.taskHashesCompared(), reconciliation.updated().size(),
+                fullRefreshBytes, tasks.mRemoteTasks.size()));
+        assertTrue(reconciliation.bytesTransferred() < fullRefreshBytes / 50);
+        assertTrue(reconciliation.taskHashesCompared() < DIVERGENT_COUNT * TaskReconciler.LEAF_SIZE);
+    }
+}
@@ -0,0 +1,279 @@
+package com.example.android.architecture.blueprints.todoapp.mvibase;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Benchmark of how many intents per second go through the stream the view models used to
+ * compose by hand, and through {@link MviStore}.
+ * <p>
+ * The hand-written stream dispatches through {@code instanceof} chains, as the view models did,
+ * the store looks up the intents and results registered by class. Both run the same actions on
+ * the trampoline scheduler. The numbers are logged, the test only checks that both reach the same
+ * state.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class MviStoreBenchmarkTest {
+
+    private static final String TAG = "MviStoreBenchmark";
+
+    private static final int INTENT_COUNT = 200_000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    @Test
+    public void intentsPerSecond_beforeAndAfter() {
+        Intent[] intents = new Intent[INTENT_COUNT];
+        for (int i = 0; i < INTENT_COUNT; i++) {
+            intents[i] = newIntent(i);
+        }
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runHandWritten(intents);
+            runStore(intents);
+        }
+        long handWrittenNanos = 0;
+        long storeNanos = 0;
+        int handWrittenTotal = 0;
+        int storeTotal = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            handWrittenTotal = runHandWritten(intents);
+            handWrittenNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            storeTotal = runStore(intents);
+            storeNanos += System.nanoTime() - start;
+        }
+
+        Log.i(TAG, String.format(Locale.US, "hand-written: %,d intents/s, MviStore: %,d intents/s",
+                intentsPerSecond(handWrittenNanos), intentsPerSecond(storeNanos)));
+        assertThat(storeTotal, is(handWrittenTotal));
+    }
+
+    private static long intentsPerSecond(long nanos) {
+        return (long) INTENT_COUNT * MEASURED_ROUNDS * 1_000_000_000L / nanos;
+    }
+
+    private static Intent newIntent(int i) {
+        switch (i % 8) {
+            case 0:
+                return new Intent0();
+            case 1:
+                return new Intent1();
+            case 2:
+                return new Intent2();
+            case 3:
+                return new Intent3();
+            case 4:
+                return new Intent4();
+            case 5:
+                return new Intent5();
+            case 6:
+                return new Intent6();
+            default:
+                return new Intent7();
+        }
+    }
+
+    /**
+     * The stream the view models used to compose, with the same shape and dispatch, including the
+     * subject the intents were proxied through.
+     */
+    private static int runHandWritten(Intent[] intents) {
+        PublishSubject<Intent> subject = PublishSubject.create();
+        PublishSubject<Intent> intentsSubject = PublishSubject.create();
+        ObservableTransformer<Intent, Intent> intentFilter =
+                shared -> shared.publish(intentsShared -> Observable.merge(
+                        intentsShared.ofType(Intent0.class).take(1),
+                        intentsShared.filter(intent -> !(intent instanceof Intent0))));
+        State[] last = new State[1];
+        intentsSubject.compose(intentFilter)
+                .map(MviStoreBenchmarkTest::actionFromIntent)
+                .compose(MviStoreBenchmarkTest::process)
+                .observeOn(Schedulers.trampoline())
+                .scan(new State(0), MviStoreBenchmarkTest::reduce)
+                .distinctUntilChanged()
+                .observeOn(Schedulers.trampoline())
+                .replay(1)
+                .autoConnect(0)
+                .subscribe(state -> last[0] = state);
+        Disposable disposable = subject.subscribe(intentsSubject::onNext);
+        for (Intent intent : intents) {
+            subject.onNext(intent);
+        }
+        disposable.dispose();
+        return last[0].mTotal;
+    }
+
+    private static Action actionFromIntent(Intent intent) {
+        if (intent instanceof Intent0) return new Action(0);
+        if (intent instanceof Intent1) return new Action(1);
+        if (intent instanceof Intent2) return new Action(2);
+        if (intent instanceof Intent3) return new Action(3);
+        if (intent instanceof Intent4) return new Action(4);
+        if (intent instanceof Intent5) return new Action(5);
+        if (intent instanceof Intent6) return new Action(6);
+        if (intent instanceof Intent7) return new Action(7);
+        throw new IllegalArgumentException("do not know how to treat this intent " + intent);
+    }
+
+    private static State reduce(State previousState, Result result) {
+        if (result instanceof Result0) return previousState.plus(0);
+        if (result instanceof Result1) return previousState.plus(1);
+        if (result instanceof Result2) return previousState.plus(2);
+        if (result instanceof Result3) return previousState.plus(3);
+        if (result instanceof Result4) return previousState.plus(4);
+        if (result instanceof Result5) return previousState.plus(5);
+        if (result instanceof Result6) return previousState.plus(6);
+        if (result instanceof Result7) return previousState.plus(7);
+        throw new IllegalArgumentException("Don't know this result " + result);
+    }
+
+    private static int runStore(Intent[] intents) {
+        PublishSubject<Intent> subject = PublishSubject.create();
+        MviStore<Intent, Action, Result, State> store =
+                MviStore.<Intent, Action, Result, State>builder(new State(0),
+                        MviStoreBenchmarkTest::process)
+                        .initialIntent(Intent0.class)
+                        .intent(Intent0.class, intent -> new Action(0))
+                        .intent(Intent1.class, intent -> new Action(1))
+                        .intent(Intent2.class, intent -> new Action(2))
+                        .intent(Intent3.class, intent -> new Action(3))
+                        .intent(Intent4.class, intent -> new Action(4))
+                        .intent(Intent5.class, intent -> new Action(5))
+                        .intent(Intent6.class, intent -> new Action(6))
+                        .intent(Intent7.class, intent -> new Action(7))
+                        .result(Result0.class, (previousState, result) -> previousState.plus(0))
+                        .result(Result1.class, (previousState, result) -> previousState.plus(1))
+                        .result(Result2.class, (previousState, result) -> previousState.plus(2))
+                        .result(Result3.class, (previousState, result) -> previousState.plus(3))
+                        .result(Result4.class, (previousState, result) -> previousState.plus(4))
+                        .result(Result5.class, (previousState, result) -> previousState.plus(5))
+                        .result(Result6.class, (previousState, result) -> previousState.plus(6))
+                        .result(Result7.class, (previousState, result) -> previousState.plus(7))
+                        .reduceOn(Schedulers.trampoline())
+                        .renderOn(Schedulers.trampoline())
+                        .build();
+        State[] last = new State[1];
+        store.states().subscribe(state -> last[0] = state);
+        store.processIntents(subject);
+        for (Intent intent : intents) {
+            subject.onNext(intent);
+        }
+        store.dispose();
+        return last[0].mTotal;
+    }
+
+    private static Observable<Result> process(Observable<Action> actions) {
+        return actions.map(action -> {
+            switch (action.mType) {
+                case 0:
+                    return new Result0();
+                case 1:
+                    return new Result1();
+                case 2:
+                    return new Result2();
+                case 3:
+                    return new Result3();
+                case 4:
+                    return new Result4();
+                case 5:
+                    return new Result5();
+                case 6:
+                    return new Result6();
+                default:
+                    return new Result7();
+            }
+        });
+    }
+
+    private interface Intent extends MviIntent {
+    }
+
+    private static class Intent0 implements Intent {
+    }
+
+    private static class Intent1 implements Intent {
+    }
+
+    private static class Intent2 implements Intent {
+    }
+
+    private static class Intent3 implements Intent {
+    }
+
+    private static class Intent4 implements Intent {
+    }
+
+    private static class Intent5 implements Intent {
+    }
+
+    private static class Intent6 implements Intent {
+    }
+
+    private static class Intent7 implements Intent {
+    }
+
+    private static class Action implements MviAction {
+        final int mType;
+
+        Action(int type) {
+            mType = type;
+        }
+    }
+
+    private interface Result extends MviResult {
+    }
+
+    private static class Result0 implements Result {
+    }
+
+    private static class Result1 implements Result {
+    }
+
+    private static class Result2 implements Result {
+    }
+
+    private static class Result3 implements Result {
+    }
+
+    private static class Result4 implements Result {
+    }
+
+    private static class Result5 implements Result {
+    }
+
+    private static class Result6 implements Result {
+    }
+
+    private static class Result7 implements Result {
+    }
+
+    private static class State implements MviViewState {
+        final int mTotal;
+
+        State(int total) {
+            mTotal = total;
+        }
+
+        State plus(int delta) {
+            return new State(mTotal + delta);
+        }
+    }
+}
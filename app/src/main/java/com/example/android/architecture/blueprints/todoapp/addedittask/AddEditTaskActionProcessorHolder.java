@@ -3,15 +3,18 @@ package com.example.android.architecture.blueprints.todoapp.addedittask;
 import android.support.annotation.NonNull;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.FetchStrategy;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviAction;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviResult;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
+import com.example.android.architecture.blueprints.todoapp.router.ActionRouter;
+import com.example.android.architecture.blueprints.todoapp.router.RoutesAction;
+import com.example.android.architecture.blueprints.todoapp.util.ConcurrencyPolicy;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 
 import io.reactivex.Observable;
 import io.reactivex.ObservableTransformer;
-import io.reactivex.functions.Function;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -22,22 +25,41 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * This could have been included inside the {@link MviViewModel}
  * but was separated to ease maintenance, as the {@link MviViewModel} was getting too big.
  */
+@ActionRouter(actions = AddEditTaskAction.class, results = AddEditTaskResult.class,
+        // Dropped by the view model already.
+        ignore = AddEditTaskAction.SkipMe.class)
 public class AddEditTaskActionProcessorHolder {
     @NonNull
     private TasksRepository mTasksRepository;
     @NonNull
     private BaseSchedulerProvider mSchedulerProvider;
+    @NonNull
+    private FetchStrategy mFetchStrategy;
 
     public AddEditTaskActionProcessorHolder(@NonNull TasksRepository tasksRepository,
                                             @NonNull BaseSchedulerProvider schedulerProvider) {
+        this(tasksRepository, schedulerProvider, FetchStrategy.sequential());
+    }
+
+    /**
+     * @param fetchStrategy how the repository queries its data sources for the tasks loaded here
+     */
+    public AddEditTaskActionProcessorHolder(@NonNull TasksRepository tasksRepository,
+                                            @NonNull BaseSchedulerProvider schedulerProvider,
+                                            @NonNull FetchStrategy fetchStrategy) {
         this.mTasksRepository = checkNotNull(tasksRepository, "tasksRepository cannot be null");
         this.mSchedulerProvider = checkNotNull(schedulerProvider, "schedulerProvider cannot be null");
+        this.mFetchStrategy = checkNotNull(fetchStrategy, "fetchStrategy cannot be null");
     }
 
-    private ObservableTransformer<AddEditTaskAction.PopulateTask, AddEditTaskResult.PopulateTask>
+    /**
+     * The latest task requested wins, the loading of the previous one is cancelled.
+     */
+    @RoutesAction
+    ObservableTransformer<AddEditTaskAction.PopulateTask, AddEditTaskResult.PopulateTask>
             populateTaskProcessor =
-            actions -> actions.flatMap(action ->
-                    mTasksRepository.getTask(action.taskId())
+            ConcurrencyPolicy.SWITCH.apply(action ->
+                    mTasksRepository.getTask(action.taskId(), mFetchStrategy)
                             // Transform the Single to an Observable to allow emission of multiple
                             // events down the stream (e.g. the InFlight event)
                             .toObservable()
@@ -48,14 +70,12 @@ public class AddEditTaskActionProcessorHolder {
                             // Because errors are data and hence, should just be part of the stream.
                             .onErrorReturn(AddEditTaskResult.PopulateTask::failure)
                             .subscribeOn(mSchedulerProvider.io())
-                            .observeOn(mSchedulerProvider.ui())
                             // Emit an InFlight event to notify the subscribers (e.g. the UI) we are
                             // doing work and waiting on a response.
-                            // We emit it after observing on the UI thread to allow the event to be emitted
-                            // on the current frame and avoid jank.
                             .startWith(AddEditTaskResult.PopulateTask.inFlight()));
 
-    private ObservableTransformer<AddEditTaskAction.CreateTask, AddEditTaskResult.CreateTask>
+    @RoutesAction
+    ObservableTransformer<AddEditTaskAction.CreateTask, AddEditTaskResult.CreateTask>
             createTaskProcessor =
             actions -> actions.map(action -> {
                 Task task = new Task(action.title(), action.description());
@@ -66,42 +86,26 @@ public class AddEditTaskActionProcessorHolder {
                 return AddEditTaskResult.CreateTask.success();
             });
 
-    private ObservableTransformer<AddEditTaskAction.UpdateTask, AddEditTaskResult.UpdateTask>
+    /**
+     * Updates are saved one after the other, in the order they were requested.
+     */
+    @RoutesAction
+    ObservableTransformer<AddEditTaskAction.UpdateTask, AddEditTaskResult.UpdateTask>
             updateTaskProcessor =
-            actions -> actions.flatMap(action ->
+            ConcurrencyPolicy.CONCAT.apply(action ->
                     mTasksRepository.saveTask(
                             new Task(action.title(), action.description(), action.taskId())
                     )
                             .andThen(Observable.just(AddEditTaskResult.UpdateTask.create())));
 
     /**
-     * Splits the {@link Observable<MviAction>} to match each type of {@link MviAction} to
-     * its corresponding business logic processor. Each processor takes a defined {@link MviAction},
-     * returns a defined {@link MviResult}
-     * The global actionProcessor then merges all {@link Observable<MviResult>} back to
-     * one unique {@link Observable<MviResult>}.
+     * Routes each {@link MviAction} to its business logic processor, the field annotated with
+     * {@link RoutesAction} for its type. Each processor takes a defined {@link MviAction},
+     * returns a defined {@link MviResult}, and the router merges all of them back to one unique
+     * {@link Observable<MviResult>}.
      * <p>
-     * The splitting is done using {@link Observable#publish(Function)} which allows almost anything
-     * on the passed {@link Observable} as long as one and only one {@link Observable} is returned.
-     * <p>
-     * An security layer is also added for unhandled {@link MviAction} to allow early crash
-     * at runtime to easy the maintenance.
+     * The router is generated at compile time, which fails if an action has no processor.
      */
     ObservableTransformer<AddEditTaskAction, AddEditTaskResult> actionProcessor =
-            actions -> actions.publish(shared -> Observable.merge(
-                    // Match PopulateTasks to populateTaskProcessor
-                    shared.ofType(AddEditTaskAction.PopulateTask.class).compose(populateTaskProcessor),
-                    // Match CreateTasks to createTaskProcessor
-                    shared.ofType(AddEditTaskAction.CreateTask.class).compose(createTaskProcessor),
-                    // Match UpdateTasks to updateTaskProcessor
-                    shared.ofType(AddEditTaskAction.UpdateTask.class).compose(updateTaskProcessor))
-                    .mergeWith(
-                            // Error for not implemented actions
-                            shared.filter(v -> !(v instanceof AddEditTaskAction.PopulateTask) &&
-                                    !(v instanceof AddEditTaskAction.CreateTask) &&
-                                    !(v instanceof AddEditTaskAction.UpdateTask))
-                                    .flatMap(w -> Observable.error(
-                                            new IllegalArgumentException("Unknown Action type: " + w)))));
-
-
+            AddEditTaskActionProcessorHolder_ActionRouter.create(this);
 }
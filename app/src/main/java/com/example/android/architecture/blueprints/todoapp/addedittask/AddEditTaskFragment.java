@@ -28,8 +28,11 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.example.android.architecture.blueprints.todoapp.Injection;
 import com.example.android.architecture.blueprints.todoapp.R;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviIntent;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviRenderGate;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviStateDiff;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviView;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewState;
@@ -50,6 +53,8 @@ public class AddEditTaskFragment extends Fragment implements MviView<AddEditTask
     private AddEditTaskViewModel mViewModel;
     // Used to manage the data flow lifecycle and avoid memory leak.
     private CompositeDisposable mDisposables = new CompositeDisposable();
+    // Last rendered state next to the one being rendered, to only bind what changed.
+    private final MviStateDiff<AddEditTaskViewState> mStateDiff = new MviStateDiff<>();
 
     public static AddEditTaskFragment newInstance() {
         return new AddEditTaskFragment();
@@ -66,6 +71,8 @@ public class AddEditTaskFragment extends Fragment implements MviView<AddEditTask
     public View onCreateView(LayoutInflater inflater, @Nullable ViewGroup container,
                              @Nullable Bundle savedInstanceState) {
         View root = inflater.inflate(R.layout.addtask_frag, container, false);
+        // The new views display nothing yet, the next state is bound in full.
+        mStateDiff.reset();
         mTitle = (TextView) root.findViewById(R.id.add_task_title);
         mDescription = (TextView) root.findViewById(R.id.add_task_description);
         setHasOptionsMenu(true);
@@ -92,8 +99,9 @@ public class AddEditTaskFragment extends Fragment implements MviView<AddEditTask
      * emitted {@link MviViewState}s could be lost
      */
     private void bind() {
-        // Subscribe to the ViewModel and call render for every emitted state
-        mDisposables.add(mViewModel.states().subscribe(this::render));
+        // Subscribe to the ViewModel and call render with the latest state of every frame
+        mDisposables.add(MviRenderGate.bind(mViewModel, this,
+                Injection.provideSchedulerProvider().frame()));
         // Pass the UI's intents to the ViewModel
         mViewModel.processIntents(intents());
     }
@@ -124,19 +132,21 @@ public class AddEditTaskFragment extends Fragment implements MviView<AddEditTask
 
     @Override
     public void render(AddEditTaskViewState state) {
+        mStateDiff.next(state);
         if (state.isSaved()) {
             showTasksList();
             return;
         }
-        if (state.isEmpty()) {
-            showEmptyTaskError();
-        }
-        if (!state.title().isEmpty()) {
-            setTitle(state.title());
-        }
-        if (!state.description().isEmpty()) {
-            setDescription(state.description());
-        }
+        mStateDiff.bind(AddEditTaskViewState::isEmpty, isEmpty -> {
+            if (isEmpty) showEmptyTaskError();
+        });
+        // Setting the same text again would move the cursor of the field being edited.
+        mStateDiff.bind(AddEditTaskViewState::title, title -> {
+            if (!title.isEmpty()) setTitle(title);
+        });
+        mStateDiff.bind(AddEditTaskViewState::description, description -> {
+            if (!description.isEmpty()) setDescription(description);
+        });
     }
 
     private void showEmptyTaskError() {
@@ -23,15 +23,13 @@ import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviAction;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviIntent;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviResult;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviStore;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviView;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewState;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 
 import io.reactivex.Observable;
-import io.reactivex.ObservableTransformer;
-import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.functions.BiFunction;
-import io.reactivex.subjects.PublishSubject;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -43,154 +41,116 @@ public class AddEditTaskViewModel extends ViewModel
         implements MviViewModel<AddEditTaskIntent, AddEditTaskViewState> {
 
     /**
-     * Proxy subject used to keep the stream alive even after the UI gets recycled.
-     * This is basically used to keep ongoing events and the last cached State alive
-     * while the UI disconnects and reconnects on config changes.
+     * Translates the intents, runs their actions and reduces the results.
      */
     @NonNull
-    private PublishSubject<AddEditTaskIntent> mIntentsSubject;
-    @NonNull
-    private Observable<AddEditTaskViewState> mStatesObservable;
-    @NonNull
-    private CompositeDisposable mDisposables = new CompositeDisposable();
-    /**
-     * Contains and executes the business logic of all emitted actions.
-     */
-    @NonNull
-    private AddEditTaskActionProcessorHolder mActionProcessorHolder;
-
-    public AddEditTaskViewModel(@NonNull AddEditTaskActionProcessorHolder actionProcessorHolder) {
-        mActionProcessorHolder = checkNotNull(actionProcessorHolder);
-
-        mIntentsSubject = PublishSubject.create();
-        mStatesObservable = compose();
+    private final MviStore<AddEditTaskIntent, AddEditTaskAction, AddEditTaskResult, AddEditTaskViewState>
+            mStore;
+
+    public AddEditTaskViewModel(@NonNull AddEditTaskActionProcessorHolder actionProcessorHolder,
+                                @NonNull BaseSchedulerProvider schedulerProvider) {
+        checkNotNull(actionProcessorHolder);
+        checkNotNull(schedulerProvider);
+
+        mStore = MviStore.<AddEditTaskIntent, AddEditTaskAction, AddEditTaskResult, AddEditTaskViewState>builder(
+                AddEditTaskViewState.idle(), actionProcessorHolder.actionProcessor)
+                .initialIntent(AddEditTaskIntent.InitialIntent.class)
+                .intent(AddEditTaskIntent.InitialIntent.class, AddEditTaskViewModel::populateTask)
+                .intent(AddEditTaskIntent.SaveTask.class, AddEditTaskViewModel::saveTask)
+                // Special case where we do not want to pass this event down the stream
+                .ignoreAction(AddEditTaskAction.SkipMe.class)
+                .result(AddEditTaskResult.PopulateTask.class, AddEditTaskViewModel::reducePopulateTask)
+                .result(AddEditTaskResult.CreateTask.class, AddEditTaskViewModel::reduceCreateTask)
+                .result(AddEditTaskResult.UpdateTask.class, AddEditTaskViewModel::reduceUpdateTask)
+                // Reduce off the main thread, like the other screens.
+                .reduceOn(schedulerProvider.computation())
+                .renderOn(schedulerProvider.ui())
+                .build();
     }
 
     @Override
     public void processIntents(Observable<AddEditTaskIntent> intents) {
-        mDisposables.add(intents.subscribe(mIntentsSubject::onNext));
+        mStore.processIntents(intents);
     }
 
     @Override
     public Observable<AddEditTaskViewState> states() {
-        return mStatesObservable;
+        return mStore.states();
     }
 
-    /**
-     * Compose all components to create the stream logic
-     */
-    private Observable<AddEditTaskViewState> compose() {
-        return mIntentsSubject
-                .compose(intentFilter)
-                .map(this::actionFromIntent)
-                // Special case where we do not want to pass this event down the stream
-                .filter(action -> !(action instanceof AddEditTaskAction.SkipMe))
-                .compose(mActionProcessorHolder.actionProcessor)
-                // Cache each state and pass it to the reducer to create a new state from
-                // the previous cached one and the latest Result emitted from the action processor.
-                // The Scan operator is used here for the caching.
-                .scan(AddEditTaskViewState.idle(), reducer)
-                // When a reducer just emits previousState, there's no reason to call render. In fact,
-                // redrawing the UI in cases like this can cause jank (e.g. messing up snackbar animations
-                // by showing the same snackbar twice in rapid succession).
-                .distinctUntilChanged()
-                // Emit the last one event of the stream on subscription
-                // Useful when a View rebinds to the ViewModel after rotation.
-                .replay(1)
-                // Create the stream on creation without waiting for anyone to subscribe
-                // This allows the stream to stay alive even when the UI disconnects and
-                // match the stream's lifecycle to the ViewModel's one.
-                .autoConnect(0);
+    @Override
+    protected void onCleared() {
+        mStore.dispose();
     }
 
-    /**
-     * take only the first ever InitialIntent and all intents of other types
-     * to avoid reloading data on config changes
-     */
-    private ObservableTransformer<AddEditTaskIntent, AddEditTaskIntent> intentFilter =
-            intents -> intents.publish(shared ->
-                    Observable.merge(
-                            shared.ofType(AddEditTaskIntent.InitialIntent.class).take(1),
-                            shared.filter(intent -> !(intent instanceof AddEditTaskIntent.InitialIntent))
-                    )
-            );
-
     /**
      * Translate an {@link MviIntent} to an {@link MviAction}.
      * Used to decouple the UI and the business logic to allow easy testings and reusability.
      */
-    private AddEditTaskAction actionFromIntent(MviIntent intent) {
-        if (intent instanceof AddEditTaskIntent.InitialIntent) {
-            String taskId = ((AddEditTaskIntent.InitialIntent) intent).taskId();
-            if (taskId == null) {
-                // new Task, so nothing to do
-                return AddEditTaskAction.SkipMe.create();
-            } else {
-                return AddEditTaskAction.PopulateTask.create(taskId);
-            }
-        }
-        if (intent instanceof AddEditTaskIntent.SaveTask) {
-            AddEditTaskIntent.SaveTask saveTaskIntent = (AddEditTaskIntent.SaveTask) intent;
-            final String taskId = saveTaskIntent.taskId();
-            if (taskId == null) {
-                return AddEditTaskAction.CreateTask.create(
-                        saveTaskIntent.title(), saveTaskIntent.description());
-            } else {
-                return AddEditTaskAction.UpdateTask.create(
-                        taskId, saveTaskIntent.title(), saveTaskIntent.description());
-            }
+    private static AddEditTaskAction populateTask(@NonNull AddEditTaskIntent.InitialIntent intent) {
+        String taskId = intent.taskId();
+        if (taskId == null) {
+            // new Task, so nothing to do
+            return AddEditTaskAction.SkipMe.create();
+        } else {
+            return AddEditTaskAction.PopulateTask.create(taskId);
         }
-        // Fail for unhandled intents
-        throw new IllegalArgumentException("do not know how to treat this intent " + intent);
     }
 
-    @Override
-    protected void onCleared() {
-        mDisposables.dispose();
+    private static AddEditTaskAction saveTask(@NonNull AddEditTaskIntent.SaveTask saveTaskIntent) {
+        final String taskId = saveTaskIntent.taskId();
+        if (taskId == null) {
+            return AddEditTaskAction.CreateTask.create(
+                    saveTaskIntent.title(), saveTaskIntent.description());
+        } else {
+            return AddEditTaskAction.UpdateTask.create(
+                    taskId, saveTaskIntent.title(), saveTaskIntent.description());
+        }
     }
 
     /**
-     * The Reducer is where {@link MviViewState}, that the {@link MviView} will use to
+     * The reducers are where {@link MviViewState}, that the {@link MviView} will use to
      * render itself, are created.
-     * It takes the last cached {@link MviViewState}, the latest {@link MviResult} and
-     * creates a new {@link MviViewState} by only updating the related fields.
-     * This is basically like a big switch statement of all possible types for the {@link MviResult}
+     * Each takes the last cached {@link MviViewState}, the latest {@link MviResult} of its type
+     * and creates a new {@link MviViewState} by only updating the related fields.
      */
-    private static BiFunction<AddEditTaskViewState, AddEditTaskResult, AddEditTaskViewState> reducer =
-            (previousState, result) -> {
-                AddEditTaskViewState.Builder stateBuilder = previousState.buildWith();
-                if (result instanceof AddEditTaskResult.PopulateTask) {
-                    AddEditTaskResult.PopulateTask populateTaskResult =
-                            (AddEditTaskResult.PopulateTask) result;
-                    switch (populateTaskResult.status()) {
-                        case SUCCESS:
-                            Task task = checkNotNull(populateTaskResult.task());
-                            if (task.isActive()) {
-                                stateBuilder.title(task.getTitle());
-                                stateBuilder.description(task.getDescription());
-                            }
-                            return stateBuilder.build();
-                        case FAILURE:
-                            Throwable error = checkNotNull(populateTaskResult.error());
-                            return stateBuilder.error(error).build();
-                        case IN_FLIGHT:
-                            // nothing to do
-                            return stateBuilder.build();
-                    }
-                }
-                if (result instanceof AddEditTaskResult.CreateTask) {
-                    AddEditTaskResult.CreateTask createTaskResult =
-                            (AddEditTaskResult.CreateTask) result;
-                    if (createTaskResult.isEmpty()) {
-                        return stateBuilder.isEmpty(true).build();
-                    } else {
-                        return stateBuilder.isEmpty(false).isSaved(true).build();
-                    }
-                }
-                if (result instanceof AddEditTaskResult.UpdateTask) {
-                    return stateBuilder.isSaved(true).build();
+    private static AddEditTaskViewState reducePopulateTask(
+            @NonNull AddEditTaskViewState previousState,
+            @NonNull AddEditTaskResult.PopulateTask populateTaskResult) {
+        AddEditTaskViewState.Builder stateBuilder = previousState.buildWith();
+        switch (populateTaskResult.status()) {
+            case SUCCESS:
+                Task task = checkNotNull(populateTaskResult.task());
+                if (task.isActive()) {
+                    stateBuilder.title(task.getTitle());
+                    stateBuilder.description(task.getDescription());
                 }
-                // Fail for unhandled results
-                throw new IllegalStateException("Mishandled result? Should not happen―as always: " + result);
-            };
+                return stateBuilder.build();
+            case FAILURE:
+                Throwable error = checkNotNull(populateTaskResult.error());
+                return stateBuilder.error(error).build();
+            case IN_FLIGHT:
+                // nothing to do
+                return stateBuilder.build();
+        }
+        // Fail for unhandled results
+        throw new IllegalStateException("Mishandled result? Should not happen―as always: " + populateTaskResult);
+    }
+
+    private static AddEditTaskViewState reduceCreateTask(
+            @NonNull AddEditTaskViewState previousState,
+            @NonNull AddEditTaskResult.CreateTask createTaskResult) {
+        AddEditTaskViewState.Builder stateBuilder = previousState.buildWith();
+        if (createTaskResult.isEmpty()) {
+            return stateBuilder.isEmpty(true).build();
+        } else {
+            return stateBuilder.isEmpty(false).isSaved(true).build();
+        }
+    }
+
+    private static AddEditTaskViewState reduceUpdateTask(
+            @NonNull AddEditTaskViewState previousState,
+            @NonNull AddEditTaskResult.UpdateTask updateTaskResult) {
+        return previousState.buildWith().isSaved(true).build();
+    }
 }
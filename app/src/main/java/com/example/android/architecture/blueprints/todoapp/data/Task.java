@@ -22,8 +22,6 @@ import android.support.annotation.Nullable;
 import com.google.common.base.Objects;
 import com.google.common.base.Strings;
 
-import java.util.UUID;
-
 /**
  * Immutable model class for a Task.
  */
@@ -46,7 +44,7 @@ public final class Task {
      * @param description description of the task
      */
     public Task(@Nullable String title, @Nullable String description) {
-        this(title, description, UUID.randomUUID().toString(), false);
+        this(title, description, TaskId.next(), false);
     }
 
     /**
@@ -69,7 +67,7 @@ public final class Task {
      * @param completed   true if the task is completed, false if it's active
      */
     public Task(@Nullable String title, @Nullable String description, boolean completed) {
-        this(title, description, UUID.randomUUID().toString(), completed);
+        this(title, description, TaskId.next(), completed);
     }
 
     /**
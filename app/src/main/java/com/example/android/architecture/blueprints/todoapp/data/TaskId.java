@@ -0,0 +1,219 @@
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generates and parses task ids.
+ * <p>
+ * New ids are <a href="https://github.com/ulid/spec">ULIDs</a>: a 48-bit millisecond timestamp
+ * followed by 80 random bits, written as 26 Crockford base 32 characters. Ids generated later
+ * sort after the ones generated before, even within the same millisecond, so new tasks are
+ * appended at the end of the primary key index instead of being scattered through it. Their
+ * randomness doesn't need to be unpredictable, only unlikely to collide, so it doesn't go through
+ * {@link java.security.SecureRandom} like {@link UUID#randomUUID()}.
+ * <p>
+ * Ids created before were random UUIDs, which are still accepted everywhere an id is parsed.
+ */
+public final class TaskId {
+
+    /**
+     * Number of characters of a generated id.
+     */
+    public static final int LENGTH = 26;
+
+    /**
+     * Number of bytes of the binary form of a time-ordered id, see {@link #toBytes(String)}.
+     */
+    public static final int BINARY_LENGTH = 16;
+
+    /**
+     * Number of bytes of the binary form of a legacy UUID id: {@link #LEGACY_TAG} followed by the
+     * 16 bytes of the UUID.
+     */
+    public static final int LEGACY_BINARY_LENGTH = 17;
+
+    /**
+     * First byte of the binary form of a legacy UUID id. A time-ordered id would only start with
+     * it from the year 10889 on, so legacy ids sort after the time-ordered ones.
+     */
+    private static final byte LEGACY_TAG = (byte) 0xFF;
+
+    private static final int TIMESTAMP_LENGTH = 10;
+
+    private static final int UUID_LENGTH = 36;
+
+    private static final char[] ENCODING = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private static final long RANDOM_HIGH_MASK = 0xFFFFL;
+
+    private static final Object sLock = new Object();
+
+    private static final Random sRandom = new Random();
+
+    private static long sLastMillis = -1;
+
+    /**
+     * High 16 bits of the random part of the last generated id.
+     */
+    private static long sRandomHigh;
+
+    /**
+     * Low 64 bits of the random part of the last generated id.
+     */
+    private static long sRandomLow;
+
+    private TaskId() {
+    }
+
+    /**
+     * Generates a new id, greater than all the ids generated before by this process.
+     */
+    @NonNull
+    public static String next() {
+        return next(System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static String next(long nowMillis) {
+        synchronized (sLock) {
+            if (nowMillis > sLastMillis) {
+                sLastMillis = nowMillis;
+                sRandomHigh = sRandom.nextInt() & RANDOM_HIGH_MASK;
+                sRandomLow = sRandom.nextLong();
+            } else if (++sRandomLow == 0) {
+                // Same millisecond, or the clock went back: increment the random part instead.
+                sRandomHigh = (sRandomHigh + 1) & RANDOM_HIGH_MASK;
+                if (sRandomHigh == 0) {
+                    // 2^80 ids in a millisecond, borrow the next one.
+                    sLastMillis++;
+                }
+            }
+            return encode(sLastMillis, sRandomHigh, sRandomLow);
+        }
+    }
+
+    /**
+     * Returns true if the id was generated by {@link #next()}, false if it is a legacy UUID or
+     * anything else.
+     */
+    public static boolean isTimeOrdered(@NonNull String id) {
+        if (id.length() != LENGTH || decodeChar(id.charAt(0)) > 7) return false;
+        for (int i = 1; i < LENGTH; i++) {
+            if (decodeChar(id.charAt(i)) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns when a time-ordered id was generated, in milliseconds since the epoch.
+     *
+     * @throws IllegalArgumentException if the id isn't time-ordered, such as a legacy UUID
+     */
+    public static long getTimestamp(@NonNull String id) {
+        checkTimeOrdered(id);
+        long timestamp = 0;
+        for (int i = 0; i < TIMESTAMP_LENGTH; i++) {
+            timestamp = (timestamp << 5) | decodeChar(id.charAt(i));
+        }
+        return timestamp;
+    }
+
+    /**
+     * Returns the binary form of an id: the 16 bytes of the timestamp then the random part of a
+     * time-ordered id, or {@link #LEGACY_TAG} followed by the 16 bytes of a legacy UUID. Ids of
+     * each kind sort like their text form when compared as unsigned bytes.
+     *
+     * @throws IllegalArgumentException if the id is neither time-ordered nor a UUID
+     */
+    @NonNull
+    public static byte[] toBytes(@NonNull String id) {
+        if (isTimeOrdered(id)) {
+            // 130 bits of text, the 2 highest being always zero.
+            long high = 0;
+            long low = 0;
+            for (int i = 0; i < LENGTH; i++) {
+                high = (high << 5) | (low >>> 59);
+                low = (low << 5) | decodeChar(id.charAt(i));
+            }
+            byte[] bytes = new byte[BINARY_LENGTH];
+            putLongs(bytes, 0, high, low);
+            return bytes;
+        } else if (id.length() == UUID_LENGTH) {
+            UUID uuid = UUID.fromString(id);
+            byte[] bytes = new byte[LEGACY_BINARY_LENGTH];
+            bytes[0] = LEGACY_TAG;
+            putLongs(bytes, 1, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            return bytes;
+        } else {
+            throw new IllegalArgumentException("Not a task id: " + id);
+        }
+    }
+
+    /**
+     * Returns the id whose binary form, as returned by {@link #toBytes(String)}, is the bytes.
+     *
+     * @throws IllegalArgumentException if the bytes are not the binary form of an id
+     */
+    @NonNull
+    public static String fromBytes(@NonNull byte[] bytes) {
+        if (bytes.length == BINARY_LENGTH) {
+            long high = getLong(bytes, 0);
+            return encode(high >>> 16, high & RANDOM_HIGH_MASK, getLong(bytes, 8));
+        } else if (bytes.length == LEGACY_BINARY_LENGTH && bytes[0] == LEGACY_TAG) {
+            return new UUID(getLong(bytes, 1), getLong(bytes, 9)).toString();
+        } else {
+            throw new IllegalArgumentException("Expected " + BINARY_LENGTH + " bytes, or "
+                    + LEGACY_BINARY_LENGTH + " tagged ones");
+        }
+    }
+
+    private static void putLongs(@NonNull byte[] bytes, int offset, long high, long low) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (high >>> (56 - 8 * i));
+            bytes[offset + 8 + i] = (byte) (low >>> (56 - 8 * i));
+        }
+    }
+
+    private static long getLong(@NonNull byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    @NonNull
+    private static String encode(long timestamp, long randomHigh, long randomLow) {
+        char[] chars = new char[LENGTH];
+        for (int i = TIMESTAMP_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ENCODING[(int) (timestamp & 31)];
+            timestamp >>>= 5;
+        }
+        for (int i = LENGTH - 1; i >= TIMESTAMP_LENGTH; i--) {
+            chars[i] = ENCODING[(int) (randomLow & 31)];
+            randomLow = (randomLow >>> 5) | ((randomHigh & 31) << 59);
+            randomHigh >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    private static int decodeChar(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        char upper = Character.toUpperCase(c);
+        for (int i = 10; i < ENCODING.length; i++) {
+            if (ENCODING[i] == upper) return i;
+        }
+        return -1;
+    }
+
+    private static void checkTimeOrdered(@NonNull String id) {
+        if (!isTimeOrdered(id)) {
+            throw new IllegalArgumentException("Not a time-ordered task id: " + id);
+        }
+    }
+}
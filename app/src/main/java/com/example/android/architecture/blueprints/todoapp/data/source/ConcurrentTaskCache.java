@@ -0,0 +1,289 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksFilterType;
+import com.google.common.base.Predicate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * In-memory cache of {@link Task}s, safe to be read and mutated from any thread.
+ * <p>
+ * Like a {@link java.util.LinkedHashMap}, tasks are iterated in the order they were first inserted
+ * and replacing a task keeps its position. Reads never lock: {@link #get(String)} is a plain
+ * {@link ConcurrentHashMap} lookup and {@link #values()} walks a {@link ConcurrentSkipListMap}
+ * ordered by insertion sequence. Writes to the same id are serialised by one of a fixed number of
+ * lock stripes so that the id index and the ordered view always agree.
+ * <p>
+ * The active and the completed tasks are also indexed apart, in the same order, so that reading
+ * or clearing the tasks of one status only walks the tasks of that status.
+ */
+final class ConcurrentTaskCache {
+
+    private static final int STRIPE_COUNT = 16;
+
+    @NonNull
+    private final ConcurrentMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    @NonNull
+    private final ConcurrentNavigableMap<Long, Task> mOrdered = new ConcurrentSkipListMap<>();
+
+    @NonNull
+    private final ConcurrentNavigableMap<Long, Task> mActive = new ConcurrentSkipListMap<>();
+
+    @NonNull
+    private final ConcurrentNavigableMap<Long, Task> mCompleted = new ConcurrentSkipListMap<>();
+
+    @NonNull
+    private final AtomicInteger mActiveCount = new AtomicInteger();
+
+    @NonNull
+    private final AtomicInteger mCompletedCount = new AtomicInteger();
+
+    @NonNull
+    private final AtomicLong mSequence = new AtomicLong();
+
+    @NonNull
+    private final Object[] mStripes = new Object[STRIPE_COUNT];
+
+    ConcurrentTaskCache() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            mStripes[i] = new Object();
+        }
+    }
+
+    @Nullable
+    Task get(@NonNull String id) {
+        Entry entry = mEntries.get(id);
+        return entry == null ? null : entry.task;
+    }
+
+    boolean containsKey(@NonNull String id) {
+        return mEntries.containsKey(id);
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * Inserts or replaces the task with the same id. A replaced task keeps its original position.
+     *
+     * @return the replaced task, or null if the task was inserted
+     */
+    @Nullable
+    Task put(@NonNull Task task) {
+        checkNotNull(task);
+        String id = task.getId();
+        synchronized (stripeFor(id)) {
+            Entry previous = mEntries.get(id);
+            long sequence = previous == null ? mSequence.incrementAndGet() : previous.sequence;
+            // Publish to the ordered views first so a reader that finds the id can also iterate it.
+            mOrdered.put(sequence, task);
+            if (previous == null) {
+                countOf(task).incrementAndGet();
+            } else if (previous.task.isCompleted() != task.isCompleted()) {
+                byStatus(previous.task).remove(sequence);
+                countOf(previous.task).decrementAndGet();
+                countOf(task).incrementAndGet();
+            }
+            byStatus(task).put(sequence, task);
+            mEntries.put(id, new Entry(sequence, task));
+            return previous == null ? null : previous.task;
+        }
+    }
+
+    @Nullable
+    Task remove(@NonNull String id) {
+        synchronized (stripeFor(id)) {
+            Entry removed = mEntries.remove(id);
+            if (removed == null) return null;
+            removeOrdered(removed);
+            return removed.task;
+        }
+    }
+
+    /**
+     * Removes every task matching the predicate. Tasks concurrently replaced by a version that no
+     * longer matches are kept.
+     *
+     * @return the removed tasks, in insertion order
+     */
+    @NonNull
+    List<Task> removeIf(@NonNull Predicate<Task> predicate) {
+        checkNotNull(predicate);
+        List<Task> removed = new ArrayList<>();
+        for (Task task : mOrdered.values()) {
+            if (!predicate.apply(task)) continue;
+            String id = task.getId();
+            synchronized (stripeFor(id)) {
+                Entry current = mEntries.get(id);
+                if (current != null && predicate.apply(current.task)) {
+                    mEntries.remove(id);
+                    removeOrdered(current);
+                    removed.add(current.task);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every completed task, only walking the completed ones. Tasks concurrently activated
+     * are kept.
+     *
+     * @return the removed tasks, in insertion order
+     */
+    @NonNull
+    List<Task> removeCompleted() {
+        List<Task> removed = new ArrayList<>();
+        for (Task task : mCompleted.values()) {
+            String id = task.getId();
+            synchronized (stripeFor(id)) {
+                Entry current = mEntries.get(id);
+                if (current != null && current.task.isCompleted()) {
+                    mEntries.remove(id);
+                    removeOrdered(current);
+                    removed.add(current.task);
+                }
+            }
+        }
+        return removed;
+    }
+
+    void clear() {
+        for (String id : mEntries.keySet()) {
+            remove(id);
+        }
+    }
+
+    /**
+     * Weakly consistent, insertion ordered view of the cached tasks. It never throws
+     * {@link java.util.ConcurrentModificationException}.
+     */
+    @NonNull
+    Collection<Task> values() {
+        return Collections.unmodifiableCollection(mOrdered.values());
+    }
+
+    /**
+     * Like {@link #values()}, limited to the tasks matching the filter. Only the matching tasks
+     * are walked.
+     */
+    @NonNull
+    Collection<Task> values(@NonNull TasksFilterType filterType) {
+        switch (filterType) {
+            case ACTIVE_TASKS:
+                return Collections.unmodifiableCollection(mActive.values());
+            case COMPLETED_TASKS:
+                return Collections.unmodifiableCollection(mCompleted.values());
+            default:
+                return values();
+        }
+    }
+
+    /**
+     * Copies the cached tasks, in insertion order, into a new list.
+     */
+    @NonNull
+    List<Task> snapshot() {
+        return new ArrayList<>(mOrdered.values());
+    }
+
+    /**
+     * Copies the cached tasks matching the filter, in insertion order, into a new list.
+     */
+    @NonNull
+    List<Task> snapshot(@NonNull TasksFilterType filterType) {
+        return new ArrayList<>(values(filterType));
+    }
+
+    /**
+     * Counts the cached tasks of each status, in constant time. The counts are kept along with
+     * the status indexes rather than counted from them, which would walk them.
+     */
+    @NonNull
+    TaskCounts counts() {
+        return TaskCounts.create(mActiveCount.get(), mCompletedCount.get());
+    }
+
+    /**
+     * Evaluates the query on the cached tasks, only walking the ones with the status it filters.
+     */
+    @NonNull
+    List<Task> query(@NonNull TasksQuery query) {
+        return query.apply(values(query.filterType()));
+    }
+
+    /**
+     * Removes the entry from the ordered views. Must be called holding the lock of its stripe.
+     */
+    private void removeOrdered(@NonNull Entry entry) {
+        mOrdered.remove(entry.sequence);
+        byStatus(entry.task).remove(entry.sequence);
+        countOf(entry.task).decrementAndGet();
+    }
+
+    @NonNull
+    private AtomicInteger countOf(@NonNull Task task) {
+        return task.isCompleted() ? mCompletedCount : mActiveCount;
+    }
+
+    @NonNull
+    private ConcurrentNavigableMap<Long, Task> byStatus(@NonNull Task task) {
+        return task.isCompleted() ? mCompleted : mActive;
+    }
+
+    @NonNull
+    private Object stripeFor(@NonNull String id) {
+        int hash = id.hashCode();
+        // Spread the higher bits since String hash codes of similar ids differ mostly in low bits.
+        hash ^= (hash >>> 16);
+        return mStripes[hash & (STRIPE_COUNT - 1)];
+    }
+
+    private static final class Entry {
+        final long sequence;
+        @NonNull
+        final Task task;
+
+        Entry(long sequence, @NonNull Task task) {
+            this.sequence = sequence;
+            this.task = task;
+        }
+    }
+}
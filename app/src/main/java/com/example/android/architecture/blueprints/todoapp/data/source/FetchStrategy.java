@@ -0,0 +1,60 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Tells {@link TasksRepository} how to query its local and remote data sources when the cache
+ * cannot answer a request.
+ * <p>
+ * {@link #sequential()} only queries the remote data source once the local one came back empty.
+ * {@link #race(long, TimeUnit)} queries the local data source and, after the hedge delay, the
+ * remote one, taking whichever non-empty result comes first. A zero hedge delay starts both at
+ * once; a longer one avoids a network request when the local storage answers quickly.
+ */
+@AutoValue
+public abstract class FetchStrategy {
+    private static final FetchStrategy SEQUENTIAL =
+            new AutoValue_FetchStrategy(false, 0, null);
+
+    public abstract boolean parallel();
+
+    /**
+     * How long, in milliseconds, the remote query waits for the local one before starting.
+     */
+    public abstract long hedgeDelayMillis();
+
+    /**
+     * Scheduler on which the hedge delay is waited, {@link Schedulers#computation()} if not set.
+     */
+    @Nullable
+    abstract Scheduler hedgeScheduler();
+
+    @NonNull
+    public static FetchStrategy sequential() {
+        return SEQUENTIAL;
+    }
+
+    @NonNull
+    public static FetchStrategy race(long hedgeDelay, @NonNull TimeUnit unit) {
+        return race(hedgeDelay, unit, Schedulers.computation());
+    }
+
+    @NonNull
+    public static FetchStrategy race(long hedgeDelay, @NonNull TimeUnit unit,
+                                     @NonNull Scheduler hedgeScheduler) {
+        checkArgument(hedgeDelay >= 0, "hedgeDelay cannot be negative");
+        return new AutoValue_FetchStrategy(true, checkNotNull(unit).toMillis(hedgeDelay),
+                checkNotNull(hedgeScheduler));
+    }
+}
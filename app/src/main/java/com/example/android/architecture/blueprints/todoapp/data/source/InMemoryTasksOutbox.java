@@ -0,0 +1,45 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link TasksOutbox} kept in memory, hence lost when the process dies. Used when no durable
+ * outbox is provided.
+ */
+final class InMemoryTasksOutbox implements TasksOutbox {
+
+    @NonNull
+    private final List<OutboxOperation> mOperations = new ArrayList<>();
+
+    @Override
+    public synchronized void append(@NonNull Collection<OutboxOperation> operations) {
+        mOperations.addAll(operations);
+    }
+
+    @NonNull
+    @Override
+    public synchronized List<OutboxOperation> peek(int limit) {
+        return new ArrayList<>(mOperations.subList(0, Math.min(limit, mOperations.size())));
+    }
+
+    @Override
+    public synchronized void removeFirst(int count) {
+        mOperations.subList(0, Math.min(count, mOperations.size())).clear();
+    }
+
+    @NonNull
+    @Override
+    public synchronized Set<String> pendingTaskIds() {
+        Set<String> taskIds = new HashSet<>();
+        for (OutboxOperation operation : mOperations) {
+            if (operation.taskId() != null) taskIds.add(operation.taskId());
+        }
+        return taskIds;
+    }
+}
@@ -0,0 +1,333 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Sends the operations waiting in a {@link TasksOutbox} to the remote data source, in batches and
+ * from a background thread.
+ * <p>
+ * Every batch is compacted first, so that writes cancelling or overriding each other are not sent:
+ * completing then activating a task sends nothing, several saves of a task only send the last
+ * one, and a delete only sends the delete. The operations of a batch are only removed from the
+ * outbox once the remote data source accepted all of them.
+ * <p>
+ * If it fails with an {@link IOException}, for instance while offline, they are kept and sent
+ * again after a delay doubling on every failure, or sooner along with the next writes. Any other
+ * failure means the remote data source rejected an operation, which would fail again on every
+ * retry: the batch is then sent again one operation at a time, and the rejected ones are dropped
+ * so that the operations behind them still get sent.
+ */
+final class OutboxDrainer {
+
+    @VisibleForTesting
+    static final int BATCH_SIZE = 500;
+
+    @VisibleForTesting
+    static final long INITIAL_RETRY_DELAY_MILLIS = 1000;
+
+    @VisibleForTesting
+    static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    @NonNull
+    private final TasksOutbox mOutbox;
+
+    @NonNull
+    private final TasksDataSource mTasksRemoteDataSource;
+
+    @NonNull
+    private final Scheduler mScheduler;
+
+    /**
+     * Number of drain requests not yet handled. Only the request moving it from 0 schedules a
+     * drain, which then loops until it handled all the requests made while it was running.
+     */
+    @NonNull
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    /**
+     * Delay before the next retry after the remote data source couldn't be reached, and that
+     * retry. Only used by the running drain.
+     */
+    private long mRetryDelayMillis = INITIAL_RETRY_DELAY_MILLIS;
+
+    @Nullable
+    private Disposable mRetry;
+
+    OutboxDrainer(@NonNull TasksOutbox outbox, @NonNull TasksDataSource tasksRemoteDataSource,
+                  @NonNull Scheduler scheduler) {
+        mOutbox = checkNotNull(outbox);
+        mTasksRemoteDataSource = checkNotNull(tasksRemoteDataSource);
+        mScheduler = checkNotNull(scheduler);
+    }
+
+    /**
+     * Sends the operations waiting in the outbox, unless a drain is already running, in which case
+     * it will also send the operations appended until now.
+     */
+    void requestDrain() {
+        if (mRequests.getAndIncrement() == 0) {
+            mScheduler.scheduleDirect(this::drain);
+        }
+    }
+
+    private void drain() {
+        int requests = 1;
+        while (true) {
+            if (sendPendingOperations()) {
+                mRetryDelayMillis = INITIAL_RETRY_DELAY_MILLIS;
+            } else {
+                scheduleRetry();
+            }
+            // Requests made while sending, even a failed send, carry new writes to send now.
+            requests = mRequests.addAndGet(-requests);
+            if (requests == 0) return;
+        }
+    }
+
+    private void scheduleRetry() {
+        if (mRetry != null) mRetry.dispose();
+        mRetry = mScheduler.scheduleDirect(
+                this::requestDrain, mRetryDelayMillis, TimeUnit.MILLISECONDS);
+        mRetryDelayMillis = Math.min(2 * mRetryDelayMillis, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * @return false if the remote data source couldn't be reached
+     */
+    private boolean sendPendingOperations() {
+        while (true) {
+            List<OutboxOperation> operations = mOutbox.peek(BATCH_SIZE);
+            if (operations.isEmpty()) return true;
+            try {
+                send(compact(operations));
+            } catch (RuntimeException e) {
+                if (isTransient(e)) return false;
+                if (!sendOneByOne(operations)) return false;
+                continue;
+            }
+            mOutbox.removeFirst(operations.size());
+        }
+    }
+
+    /**
+     * Sends operations of a rejected batch one at a time, removing each from the outbox once
+     * accepted, or once rejected.
+     *
+     * @return false if the remote data source couldn't be reached
+     */
+    private boolean sendOneByOne(@NonNull List<OutboxOperation> operations) {
+        for (OutboxOperation operation : operations) {
+            try {
+                send(Collections.singletonList(operation));
+            } catch (RuntimeException e) {
+                if (isTransient(e)) return false;
+                // Rejected: dropped rather than blocking the operations behind it forever.
+            }
+            mOutbox.removeFirst(1);
+        }
+        return true;
+    }
+
+    /**
+     * Whether a failure is worth retrying, as opposed to the remote data source rejecting an
+     * operation. Blocking on a {@link Completable} wraps checked exceptions, hence the walk through
+     * the causes.
+     */
+    private static boolean isTransient(@NonNull Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends compacted operations, using one bulk write per type of operation between
+     * {@link OutboxOperation.Type#CLEAR_COMPLETED} and {@link OutboxOperation.Type#DELETE_ALL}
+     * operations, which apply to all the tasks written before them.
+     */
+    private void send(@NonNull List<OutboxOperation> operations) {
+        List<Task> saved = new ArrayList<>();
+        List<String> completed = new ArrayList<>();
+        List<String> activated = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (OutboxOperation operation : operations) {
+            switch (operation.type()) {
+                case SAVE:
+                    saved.add(operation.task());
+                    break;
+                case COMPLETE:
+                    completed.add(operation.taskId());
+                    break;
+                case ACTIVATE:
+                    activated.add(operation.taskId());
+                    break;
+                case DELETE:
+                    deleted.add(operation.taskId());
+                    break;
+                case CLEAR_COMPLETED:
+                    sendWrites(saved, completed, activated, deleted);
+                    await(mTasksRemoteDataSource.clearCompletedTasks());
+                    break;
+                case DELETE_ALL:
+                    sendWrites(saved, completed, activated, deleted);
+                    mTasksRemoteDataSource.deleteAllTasks();
+                    break;
+            }
+        }
+        sendWrites(saved, completed, activated, deleted);
+    }
+
+    private void sendWrites(@NonNull List<Task> saved, @NonNull List<String> completed,
+                            @NonNull List<String> activated, @NonNull List<String> deleted) {
+        // After compaction a task has at most one operation, so their order doesn't matter.
+        if (!saved.isEmpty()) await(mTasksRemoteDataSource.saveTasks(new ArrayList<>(saved)));
+        if (!completed.isEmpty()) {
+            await(mTasksRemoteDataSource.completeTasks(new ArrayList<>(completed)));
+        }
+        if (!activated.isEmpty()) {
+            await(mTasksRemoteDataSource.activateTasks(new ArrayList<>(activated)));
+        }
+        if (!deleted.isEmpty()) await(mTasksRemoteDataSource.deleteTasks(new ArrayList<>(deleted)));
+        saved.clear();
+        completed.clear();
+        activated.clear();
+        deleted.clear();
+    }
+
+    private static void await(@Nullable Completable completable) {
+        // Some data sources return null for writes which completed synchronously.
+        if (completable != null) completable.blockingAwait();
+    }
+
+    /**
+     * Folds the operations of each task into at most one operation, keeping the
+     * {@link OutboxOperation.Type#CLEAR_COMPLETED} operations in between, and dropping everything
+     * before a {@link OutboxOperation.Type#DELETE_ALL}.
+     */
+    @VisibleForTesting
+    @NonNull
+    static List<OutboxOperation> compact(@NonNull List<OutboxOperation> operations) {
+        List<OutboxOperation> compacted = new ArrayList<>(operations.size());
+        Map<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+        for (OutboxOperation operation : operations) {
+            switch (operation.type()) {
+                case DELETE_ALL:
+                    // Whatever was written before is deleted anyway.
+                    compacted.clear();
+                    pendingWrites.clear();
+                    compacted.add(operation);
+                    break;
+                case CLEAR_COMPLETED:
+                    addPendingWrites(pendingWrites, compacted);
+                    compacted.add(operation);
+                    break;
+                default:
+                    PendingWrite pendingWrite = pendingWrites.get(operation.taskId());
+                    if (pendingWrite == null) {
+                        pendingWrite = new PendingWrite(operation.taskId());
+                        pendingWrites.put(operation.taskId(), pendingWrite);
+                    }
+                    pendingWrite.apply(operation);
+            }
+        }
+        addPendingWrites(pendingWrites, compacted);
+        return compacted;
+    }
+
+    private static void addPendingWrites(@NonNull Map<String, PendingWrite> pendingWrites,
+                                         @NonNull List<OutboxOperation> compacted) {
+        for (PendingWrite pendingWrite : pendingWrites.values()) {
+            OutboxOperation operation = pendingWrite.toOperation();
+            if (operation != null) compacted.add(operation);
+        }
+        pendingWrites.clear();
+    }
+
+    /**
+     * Net effect of the operations of one task.
+     */
+    private static final class PendingWrite {
+        @NonNull
+        private final String mTaskId;
+
+        @Nullable
+        private Task mSaved;
+
+        /**
+         * Completion change not folded into {@link #mSaved}, null if none.
+         */
+        @Nullable
+        private Boolean mCompleted;
+
+        private boolean mDeleted;
+
+        PendingWrite(@NonNull String taskId) {
+            mTaskId = taskId;
+        }
+
+        void apply(@NonNull OutboxOperation operation) {
+            switch (operation.type()) {
+                case SAVE:
+                    mSaved = operation.task();
+                    mCompleted = null;
+                    mDeleted = false;
+                    break;
+                case COMPLETE:
+                    setCompleted(true);
+                    break;
+                case ACTIVATE:
+                    setCompleted(false);
+                    break;
+                case DELETE:
+                    mSaved = null;
+                    mCompleted = null;
+                    mDeleted = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Not a task operation: " + operation);
+            }
+        }
+
+        private void setCompleted(boolean completed) {
+            if (mDeleted) return;
+            if (mSaved != null) {
+                mSaved = new Task(mSaved.getTitle(), mSaved.getDescription(), mTaskId, completed);
+            } else if (mCompleted != null && mCompleted != completed) {
+                // Completing then activating a task, or the other way around, cancels out.
+                mCompleted = null;
+            } else {
+                mCompleted = completed;
+            }
+        }
+
+        @Nullable
+        OutboxOperation toOperation() {
+            if (mDeleted) return OutboxOperation.delete(mTaskId);
+            if (mSaved != null) return OutboxOperation.save(mSaved);
+            if (mCompleted != null) {
+                return mCompleted
+                        ? OutboxOperation.complete(mTaskId) : OutboxOperation.activate(mTaskId);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.auto.value.AutoValue;
+
+/**
+ * Immutable write waiting in the {@link TasksOutbox} to be sent to the remote data source.
+ */
+@AutoValue
+public abstract class OutboxOperation {
+    public enum Type {
+        SAVE, COMPLETE, ACTIVATE, DELETE, CLEAR_COMPLETED, DELETE_ALL
+    }
+
+    @NonNull
+    public abstract Type type();
+
+    /**
+     * Id of the written task, not set for {@link Type#CLEAR_COMPLETED} and {@link Type#DELETE_ALL}.
+     */
+    @Nullable
+    public abstract String taskId();
+
+    /**
+     * The saved task, only set for {@link Type#SAVE}.
+     */
+    @Nullable
+    public abstract Task task();
+
+    @NonNull
+    public static OutboxOperation save(@NonNull Task task) {
+        return new AutoValue_OutboxOperation(Type.SAVE, task.getId(), task);
+    }
+
+    @NonNull
+    public static OutboxOperation complete(@NonNull String taskId) {
+        return new AutoValue_OutboxOperation(Type.COMPLETE, taskId, null);
+    }
+
+    @NonNull
+    public static OutboxOperation activate(@NonNull String taskId) {
+        return new AutoValue_OutboxOperation(Type.ACTIVATE, taskId, null);
+    }
+
+    @NonNull
+    public static OutboxOperation delete(@NonNull String taskId) {
+        return new AutoValue_OutboxOperation(Type.DELETE, taskId, null);
+    }
+
+    @NonNull
+    public static OutboxOperation clearCompleted() {
+        return new AutoValue_OutboxOperation(Type.CLEAR_COMPLETED, null, null);
+    }
+
+    @NonNull
+    public static OutboxOperation deleteAll() {
+        return new AutoValue_OutboxOperation(Type.DELETE_ALL, null, null);
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Immutable summary of the tasks whose id starts with the same prefix, see {@link TaskHashTree}.
+ */
+@AutoValue
+public abstract class TaskBucket {
+
+    /**
+     * Order independent combination of the hashes of the tasks in the bucket.
+     */
+    public abstract long hash();
+
+    public abstract int count();
+
+    /**
+     * Longest prefix of the ids of the tasks in the bucket. The levels of the hash tree between
+     * the prefix of the bucket and this one hold a single bucket, and can be skipped.
+     */
+    @NonNull
+    public abstract String commonPrefix();
+
+    @NonNull
+    public static TaskBucket create(long hash, int count, @NonNull String commonPrefix) {
+        return new AutoValue_TaskBucket(hash, count, commonPrefix);
+    }
+}
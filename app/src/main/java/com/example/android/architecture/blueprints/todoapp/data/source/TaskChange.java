@@ -0,0 +1,72 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.auto.value.AutoValue;
+
+import java.util.List;
+
+/**
+ * Immutable description of a change applied to the {@link TasksRepository} cache.
+ * <p>
+ * A {@link Type#SNAPSHOT} carries the full list of tasks and replaces anything known before.
+ * A {@link Type#BATCH_DELETE} carries the tasks deleted at once, such as the cleared completed
+ * ones. The other types carry the single affected task. All but the snapshot can be applied on
+ * top of the last snapshot.
+ */
+@AutoValue
+public abstract class TaskChange {
+    public enum Type {
+        SNAPSHOT, INSERT, UPDATE, DELETE, BATCH_DELETE
+    }
+
+    @NonNull
+    public abstract Type type();
+
+    /**
+     * All the tasks for a {@link Type#SNAPSHOT}, the deleted ones for a
+     * {@link Type#BATCH_DELETE}. Not set for the other types.
+     */
+    @Nullable
+    public abstract List<Task> tasks();
+
+    /**
+     * The inserted, updated or deleted task. Not set for {@link Type#SNAPSHOT} nor
+     * {@link Type#BATCH_DELETE}.
+     */
+    @Nullable
+    public abstract Task task();
+
+    /**
+     * The version of the task replaced by an {@link Type#UPDATE}.
+     */
+    @Nullable
+    public abstract Task previous();
+
+    @NonNull
+    public static TaskChange snapshot(@NonNull List<Task> tasks) {
+        return new AutoValue_TaskChange(Type.SNAPSHOT, tasks, null, null);
+    }
+
+    @NonNull
+    public static TaskChange insert(@NonNull Task task) {
+        return new AutoValue_TaskChange(Type.INSERT, null, task, null);
+    }
+
+    @NonNull
+    public static TaskChange update(@NonNull Task previous, @NonNull Task task) {
+        return new AutoValue_TaskChange(Type.UPDATE, null, task, previous);
+    }
+
+    @NonNull
+    public static TaskChange delete(@NonNull Task task) {
+        return new AutoValue_TaskChange(Type.DELETE, null, task, null);
+    }
+
+    @NonNull
+    public static TaskChange batchDelete(@NonNull List<Task> tasks) {
+        return new AutoValue_TaskChange(Type.BATCH_DELETE, tasks, null, null);
+    }
+}
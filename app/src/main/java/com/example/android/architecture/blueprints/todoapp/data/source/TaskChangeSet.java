@@ -0,0 +1,52 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.auto.value.AutoValue;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable result of {@link TasksDataSource#getChangesSince(String)}.
+ * <p>
+ * A full change set holds every task and nothing else needs to be known to apply it. A delta only
+ * holds the tasks inserted or updated since the sync token it was requested with, as well as a
+ * tombstone, the id, of every task deleted since.
+ */
+@AutoValue
+public abstract class TaskChangeSet {
+
+    /**
+     * True if {@link #updated()} holds all the tasks rather than the ones changed since a token.
+     */
+    public abstract boolean full();
+
+    @NonNull
+    public abstract List<Task> updated();
+
+    /**
+     * Ids of the tasks deleted since the requested sync token. Always empty for a full change set.
+     */
+    @NonNull
+    public abstract List<String> deletedIds();
+
+    /**
+     * Token to request the next changes with, or null if the data source doesn't support deltas.
+     */
+    @Nullable
+    public abstract String syncToken();
+
+    @NonNull
+    public static TaskChangeSet full(@NonNull List<Task> tasks, @Nullable String syncToken) {
+        return new AutoValue_TaskChangeSet(true, tasks, Collections.emptyList(), syncToken);
+    }
+
+    @NonNull
+    public static TaskChangeSet delta(@NonNull List<Task> updated, @NonNull List<String> deletedIds,
+                                      @NonNull String syncToken) {
+        return new AutoValue_TaskChangeSet(false, updated, deletedIds, syncToken);
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.auto.value.AutoValue;
+
+/**
+ * Immutable result of {@link TasksDataSource#getTaskCounts()}: how many tasks there are of each
+ * status, without the tasks themselves.
+ */
+@AutoValue
+public abstract class TaskCounts {
+
+    public abstract int activeCount();
+
+    public abstract int completedCount();
+
+    public int totalCount() {
+        return activeCount() + completedCount();
+    }
+
+    @NonNull
+    public static TaskCounts create(int activeCount, int completedCount) {
+        return new AutoValue_TaskCounts(activeCount, completedCount);
+    }
+
+    /**
+     * Counts the tasks in memory.
+     */
+    @NonNull
+    public static TaskCounts of(@NonNull Iterable<Task> tasks) {
+        int activeCount = 0;
+        int completedCount = 0;
+        for (Task task : tasks) {
+            if (task.isCompleted()) {
+                completedCount++;
+            } else {
+                activeCount++;
+            }
+        }
+        return create(activeCount, completedCount);
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Hash tree summarising a set of tasks, so that two data sources can find where they differ by
+ * exchanging hashes rather than tasks.
+ * <p>
+ * The nodes of the tree are buckets of tasks sharing an id prefix: the root is the empty prefix
+ * and the children of a bucket are the prefixes one character longer. The hash of a bucket is the
+ * sum of the hashes of its tasks, so two buckets holding the same tasks have the same hash
+ * whatever the order the tasks were read in, and it can be computed on either side.
+ */
+public final class TaskHashTree {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Hash of every task, sorted by id so that the tasks of a bucket are read as a range.
+     */
+    @NonNull
+    private final TreeMap<String, Long> mTaskHashes = new TreeMap<>();
+
+    private TaskHashTree(@NonNull Collection<Task> tasks) {
+        for (Task task : tasks) {
+            mTaskHashes.put(task.getId(), hash(task));
+        }
+    }
+
+    @NonNull
+    public static TaskHashTree of(@NonNull Collection<Task> tasks) {
+        return new TaskHashTree(tasks);
+    }
+
+    /**
+     * Adds the task, or replaces the task with the same id, so that a data source can keep its
+     * tree up to date as it is written rather than building it again on every comparison.
+     */
+    public void put(@NonNull Task task) {
+        mTaskHashes.put(task.getId(), hash(task));
+    }
+
+    /**
+     * Removes the task with the id, if any.
+     */
+    public void remove(@NonNull String taskId) {
+        mTaskHashes.remove(taskId);
+    }
+
+    /**
+     * Returns the non-empty buckets whose prefix is {@code prefixLength} characters long and
+     * starts with one of the parent prefixes. The ids shorter than {@code prefixLength} have a
+     * bucket of their own, keyed by the whole id.
+     */
+    @NonNull
+    public Map<String, TaskBucket> getBuckets(int prefixLength,
+                                              @NonNull Collection<String> parentPrefixes) {
+        Map<String, BucketSum> sums = new LinkedHashMap<>();
+        for (String parentPrefix : parentPrefixes) {
+            for (Map.Entry<String, Long> entry : withPrefix(parentPrefix).entrySet()) {
+                String id = entry.getKey();
+                String prefix = id.substring(0, Math.min(prefixLength, id.length()));
+                BucketSum sum = sums.get(prefix);
+                if (sum == null) {
+                    sum = new BucketSum(id);
+                    sums.put(prefix, sum);
+                }
+                sum.add(id, entry.getValue());
+            }
+        }
+        Map<String, TaskBucket> buckets = new LinkedHashMap<>(sums.size());
+        for (Map.Entry<String, BucketSum> sum : sums.entrySet()) {
+            buckets.put(sum.getKey(), sum.getValue().toBucket());
+        }
+        return buckets;
+    }
+
+    /**
+     * Returns the hash of every task whose id starts with one of the prefixes, by id.
+     */
+    @NonNull
+    public Map<String, Long> getTaskHashes(@NonNull Collection<String> prefixes) {
+        Map<String, Long> taskHashes = new HashMap<>();
+        for (String prefix : prefixes) {
+            taskHashes.putAll(withPrefix(prefix));
+        }
+        return taskHashes;
+    }
+
+    @NonNull
+    private SortedMap<String, Long> withPrefix(@NonNull String prefix) {
+        String end = nextPrefix(prefix);
+        return end == null ? mTaskHashes.tailMap(prefix) : mTaskHashes.subMap(prefix, end);
+    }
+
+    /**
+     * Returns the smallest string greater than all the strings starting with the prefix, or null
+     * if there is none. The ids starting with the prefix are the ones from the prefix included to
+     * this string excluded.
+     */
+    @Nullable
+    public static String nextPrefix(@NonNull String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return prefix.substring(0, i) + (char) (c + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the longest prefix of both strings.
+     */
+    @NonNull
+    public static String commonPrefix(@NonNull String first, @NonNull String second) {
+        int length = Math.min(first.length(), second.length());
+        int i = 0;
+        while (i < length && first.charAt(i) == second.charAt(i)) i++;
+        return first.substring(0, i);
+    }
+
+    /**
+     * 64-bit hash of everything which is synced about a task. Any edit, including of the
+     * completion flag, changes it.
+     */
+    public static long hash(@NonNull Task task) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, task.getId());
+        hash = hash(hash, task.getTitle());
+        hash = hash(hash, task.getDescription());
+        hash = (hash ^ (task.isCompleted() ? 1 : 0)) * FNV_PRIME;
+        // Mixes the bits so that the sums of similar tasks don't cancel out.
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    private static long hash(long hash, @Nullable String value) {
+        if (value == null) return (hash ^ 0xff) * FNV_PRIME;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // Separates the fields, so that moving text from one to the next changes the hash.
+        return (hash ^ 0xfe) * FNV_PRIME;
+    }
+
+    /**
+     * Tasks of a bucket read so far, in id order.
+     */
+    private static final class BucketSum {
+        @NonNull
+        private final String mFirstId;
+
+        @NonNull
+        private String mLastId;
+
+        private long mHash;
+
+        private int mCount;
+
+        BucketSum(@NonNull String firstId) {
+            mFirstId = firstId;
+            mLastId = firstId;
+        }
+
+        void add(@NonNull String id, long hash) {
+            mLastId = id;
+            mHash += hash;
+            mCount++;
+        }
+
+        @NonNull
+        TaskBucket toBucket() {
+            return TaskBucket.create(mHash, mCount, commonPrefix(mFirstId, mLastId));
+        }
+    }
+}
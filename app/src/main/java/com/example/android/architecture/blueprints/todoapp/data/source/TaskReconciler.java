@@ -0,0 +1,248 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import io.reactivex.Single;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Finds the tasks which differ between the local and the remote data sources by walking down
+ * their {@link TaskHashTree}s, and fetches only those from the remote data source.
+ * <p>
+ * Starting from the root, both sides return the hashes of the children of the buckets which
+ * differed at the previous level, so matching subtrees are never looked into. The children are
+ * taken below the longest id prefix shared by the tasks of the bucket on both sides rather than
+ * one character below the bucket: time ordered ids share their leading characters, and each of
+ * those levels would cost a round trip to find the single bucket it holds. Once a differing
+ * bucket holds at most {@link #LEAF_SIZE} tasks on both sides, the hashes of its tasks are
+ * compared, and the tasks missing or different locally are fetched in a single request.
+ */
+final class TaskReconciler {
+
+    /**
+     * Number of tasks under which the tasks of a bucket are compared one by one rather than
+     * through the hashes of its children.
+     */
+    @VisibleForTesting
+    static final int LEAF_SIZE = 16;
+
+    private static final int HASH_BYTES = 8;
+
+    private static final int COUNT_BYTES = 4;
+
+    @NonNull
+    private final TasksDataSource mTasksLocalDataSource;
+
+    @NonNull
+    private final TasksDataSource mTasksRemoteDataSource;
+
+    TaskReconciler(@NonNull TasksDataSource tasksLocalDataSource,
+                   @NonNull TasksDataSource tasksRemoteDataSource) {
+        mTasksLocalDataSource = checkNotNull(tasksLocalDataSource);
+        mTasksRemoteDataSource = checkNotNull(tasksRemoteDataSource);
+    }
+
+    /**
+     * Compares the data sources and fetches the divergent remote tasks. Neither data source is
+     * written to, applying the result is up to the caller.
+     */
+    @NonNull
+    Single<TaskReconciliation> reconcile() {
+        return Single.defer(() -> {
+            Progress progress = new Progress();
+            return findDivergentBuckets(
+                    Collections.singletonMap(0, Collections.singletonList("")), progress)
+                    .flatMap(leafPrefixes -> compareTasks(leafPrefixes, progress));
+        });
+    }
+
+    /**
+     * Compares the buckets under the parent prefixes, keyed by the length of the prefixes of the
+     * buckets to compare under them, then the children of the ones which differ, until only small
+     * buckets are left.
+     *
+     * @return the prefixes of the small buckets which differ
+     */
+    @NonNull
+    private Single<List<String>> findDivergentBuckets(
+            @NonNull Map<Integer, List<String>> parentPrefixesByLength,
+            @NonNull Progress progress) {
+        if (parentPrefixesByLength.isEmpty()) return Single.just(progress.mLeafPrefixes);
+        return Single.zip(
+                getTaskBuckets(mTasksLocalDataSource, parentPrefixesByLength),
+                getTaskBuckets(mTasksRemoteDataSource, parentPrefixesByLength),
+                (localBuckets, remoteBuckets) -> {
+                    progress.onBucketsReceived(parentPrefixesByLength, remoteBuckets);
+                    Set<String> prefixes = new LinkedHashSet<>(remoteBuckets.keySet());
+                    prefixes.addAll(localBuckets.keySet());
+                    Map<Integer, List<String>> divergentPrefixesByLength = new TreeMap<>();
+                    for (String prefix : prefixes) {
+                        TaskBucket local = localBuckets.get(prefix);
+                        TaskBucket remote = remoteBuckets.get(prefix);
+                        if (remote != null && remote.equals(local)) continue;
+                        if (local == null || remote == null || isLeaf(local, remote)) {
+                            // A bucket missing on one side has all its tasks compared anyway.
+                            progress.mLeafPrefixes.add(prefix);
+                        } else {
+                            // The levels down to the prefix shared on both sides hold a single
+                            // bucket, the children below it are the first to tell tasks apart.
+                            String commonPrefix = TaskHashTree.commonPrefix(
+                                    local.commonPrefix(), remote.commonPrefix());
+                            int childLength = commonPrefix.length() + 1;
+                            List<String> divergentPrefixes =
+                                    divergentPrefixesByLength.get(childLength);
+                            if (divergentPrefixes == null) {
+                                divergentPrefixes = new ArrayList<>();
+                                divergentPrefixesByLength.put(childLength, divergentPrefixes);
+                            }
+                            divergentPrefixes.add(commonPrefix);
+                        }
+                    }
+                    return divergentPrefixesByLength;
+                })
+                .flatMap(divergentPrefixesByLength ->
+                        findDivergentBuckets(divergentPrefixesByLength, progress));
+    }
+
+    /**
+     * Gets the buckets of every length at once, in a single round trip.
+     */
+    @NonNull
+    private static Single<Map<String, TaskBucket>> getTaskBuckets(
+            @NonNull TasksDataSource dataSource,
+            @NonNull Map<Integer, List<String>> parentPrefixesByLength) {
+        List<Single<Map<String, TaskBucket>>> requests = new ArrayList<>();
+        for (Map.Entry<Integer, List<String>> parentPrefixes : parentPrefixesByLength.entrySet()) {
+            requests.add(dataSource.getTaskBuckets(
+                    parentPrefixes.getKey(), parentPrefixes.getValue()));
+        }
+        return Single.merge(requests)
+                .collect(HashMap::new, Map::putAll);
+    }
+
+    private static boolean isLeaf(@NonNull TaskBucket local, @NonNull TaskBucket remote) {
+        return local.count() <= LEAF_SIZE && remote.count() <= LEAF_SIZE;
+    }
+
+    @NonNull
+    private Single<TaskReconciliation> compareTasks(@NonNull List<String> leafPrefixes,
+                                                    @NonNull Progress progress) {
+        if (leafPrefixes.isEmpty()) return Single.just(progress.toReconciliation());
+        return Single.zip(
+                mTasksLocalDataSource.getTaskHashes(leafPrefixes),
+                mTasksRemoteDataSource.getTaskHashes(leafPrefixes),
+                (localHashes, remoteHashes) -> {
+                    progress.onTaskHashesReceived(leafPrefixes, remoteHashes);
+                    List<String> updatedIds = new ArrayList<>();
+                    for (Map.Entry<String, Long> remoteHash : remoteHashes.entrySet()) {
+                        if (!remoteHash.getValue().equals(localHashes.get(remoteHash.getKey()))) {
+                            updatedIds.add(remoteHash.getKey());
+                        }
+                    }
+                    for (String localId : localHashes.keySet()) {
+                        if (!remoteHashes.containsKey(localId)) progress.mDeletedIds.add(localId);
+                    }
+                    return updatedIds;
+                })
+                .flatMap(updatedIds -> updatedIds.isEmpty()
+                        ? Single.just(Collections.<Task>emptyList())
+                        : mTasksRemoteDataSource.getTasks(updatedIds)
+                                .doOnSuccess(tasks -> progress.onTasksReceived(updatedIds, tasks)))
+                .map(updated -> {
+                    progress.mUpdated.addAll(updated);
+                    return progress.toReconciliation();
+                });
+    }
+
+    /**
+     * Estimated size of a task once transferred, counting one byte per character.
+     */
+    static long sizeOf(@NonNull Task task) {
+        return length(task.getId()) + length(task.getTitle()) + length(task.getDescription()) + 1;
+    }
+
+    private static int length(@Nullable String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    private static long sizeOf(@NonNull Collection<String> prefixes) {
+        long size = COUNT_BYTES;
+        for (String prefix : prefixes) {
+            size += prefix.length();
+        }
+        return size;
+    }
+
+    /**
+     * What a reconciliation found and exchanged so far.
+     */
+    private static final class Progress {
+        @NonNull
+        final List<String> mLeafPrefixes = new ArrayList<>();
+
+        @NonNull
+        final List<Task> mUpdated = new ArrayList<>();
+
+        @NonNull
+        final List<String> mDeletedIds = new ArrayList<>();
+
+        int mRoundTrips;
+
+        int mBucketsCompared;
+
+        int mTaskHashesCompared;
+
+        long mBytesTransferred;
+
+        void onBucketsReceived(@NonNull Map<Integer, List<String>> parentPrefixesByLength,
+                               @NonNull Map<String, TaskBucket> buckets) {
+            mRoundTrips++;
+            mBucketsCompared += buckets.size();
+            for (List<String> parentPrefixes : parentPrefixesByLength.values()) {
+                mBytesTransferred += COUNT_BYTES + sizeOf(parentPrefixes);
+            }
+            mBytesTransferred += sizeOf(buckets.keySet())
+                    + buckets.size() * (HASH_BYTES + COUNT_BYTES);
+            for (TaskBucket bucket : buckets.values()) {
+                mBytesTransferred += bucket.commonPrefix().length();
+            }
+        }
+
+        void onTaskHashesReceived(@NonNull Collection<String> prefixes,
+                                  @NonNull Map<String, Long> taskHashes) {
+            mRoundTrips++;
+            mTaskHashesCompared += taskHashes.size();
+            mBytesTransferred += sizeOf(prefixes)
+                    + sizeOf(taskHashes.keySet()) + taskHashes.size() * HASH_BYTES;
+        }
+
+        void onTasksReceived(@NonNull Collection<String> ids, @NonNull List<Task> tasks) {
+            mRoundTrips++;
+            mBytesTransferred += sizeOf(ids);
+            for (Task task : tasks) {
+                mBytesTransferred += sizeOf(task);
+            }
+        }
+
+        @NonNull
+        TaskReconciliation toReconciliation() {
+            return TaskReconciliation.create(mUpdated, mDeletedIds, mRoundTrips,
+                    mBucketsCompared, mTaskHashesCompared, mBytesTransferred);
+        }
+    }
+}
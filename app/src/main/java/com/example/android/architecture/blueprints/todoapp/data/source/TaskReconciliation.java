@@ -0,0 +1,57 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.auto.value.AutoValue;
+
+import java.util.List;
+
+/**
+ * Immutable result of reconciling the local tasks with the remote ones by comparing their
+ * {@link TaskHashTree}s, along with what it cost.
+ */
+@AutoValue
+public abstract class TaskReconciliation {
+
+    /**
+     * Remote version of the tasks missing or different locally.
+     */
+    @NonNull
+    public abstract List<Task> updated();
+
+    /**
+     * Ids of the local tasks which don't exist remotely.
+     */
+    @NonNull
+    public abstract List<String> deletedIds();
+
+    /**
+     * Number of requests made to the remote data source.
+     */
+    public abstract int roundTrips();
+
+    /**
+     * Number of bucket hashes received from the remote data source.
+     */
+    public abstract int bucketsCompared();
+
+    /**
+     * Number of task hashes received from the remote data source.
+     */
+    public abstract int taskHashesCompared();
+
+    /**
+     * Estimated payload exchanged with the remote data source, in bytes, counting one byte per
+     * character, eight per hash and four per count.
+     */
+    public abstract long bytesTransferred();
+
+    @NonNull
+    static TaskReconciliation create(@NonNull List<Task> updated, @NonNull List<String> deletedIds,
+                                     int roundTrips, int bucketsCompared, int taskHashesCompared,
+                                     long bytesTransferred) {
+        return new AutoValue_TaskReconciliation(updated, deletedIds, roundTrips, bucketsCompared,
+                taskHashesCompared, bytesTransferred);
+    }
+}
@@ -17,10 +17,19 @@
 package com.example.android.architecture.blueprints.todoapp.data.source;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksFilterType;
+import com.google.common.base.Strings;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import io.reactivex.Completable;
 import io.reactivex.Single;
@@ -37,8 +46,133 @@ public interface TasksDataSource {
 
     Single<List<Task>> getTasks();
 
+    /**
+     * Gets the tasks matching the query, sorted and limited as it tells.
+     * <p>
+     * The default implementation evaluates the query on {@link #getTasks()} in memory. Data
+     * sources able to filter, sort and limit the tasks they read should override it.
+     */
+    default Single<List<Task>> getTasks(@NonNull TasksQuery query) {
+        return getTasks().map(query::apply);
+    }
+
+    /**
+     * Counts the active and the completed tasks.
+     * <p>
+     * The default implementation counts {@link #getTasks()} in memory. Data sources able to count
+     * the tasks without reading them should override it.
+     */
+    default Single<TaskCounts> getTaskCounts() {
+        return getTasks().map(TaskCounts::of);
+    }
+
+    /**
+     * Gets one page of the tasks matching the filter, ordered by id.
+     * <p>
+     * Pages are addressed by key rather than by offset: the page starts right after the task whose
+     * id is {@code afterKey}, so that loading a page costs the same whatever its position and is
+     * not shifted by tasks inserted or deleted before it.
+     * <p>
+     * The default implementation pages through {@link #getTasks()} in memory. Data sources able to
+     * query a single page should override it.
+     *
+     * @param afterKey   id of the last task of the previous page, or null for the first page
+     * @param limit      maximum number of tasks in the page
+     * @param filterType which tasks to include
+     * @return the page, holding less than {@code limit} tasks if it is the last one
+     */
+    default Single<List<Task>> getTasksPage(@Nullable String afterKey, int limit,
+                                            @NonNull TasksFilterType filterType) {
+        return getTasks().map(tasks -> {
+            List<Task> sortedTasks = new ArrayList<>(tasks);
+            Collections.sort(sortedTasks, (t1, t2) -> t1.getId().compareTo(t2.getId()));
+            List<Task> page = new ArrayList<>(limit);
+            for (Task task : sortedTasks) {
+                if (page.size() == limit) break;
+                if (afterKey != null && task.getId().compareTo(afterKey) <= 0) continue;
+                if (filterType.matches(task)) page.add(task);
+            }
+            return page;
+        });
+    }
+
     Single<Task> getTask(@NonNull String taskId);
 
+    /**
+     * Gets what changed since the sync token returned by a previous call, so that a refresh only
+     * transfers and writes the tasks which changed.
+     * <p>
+     * The default implementation, for data sources which don't track changes, returns a full
+     * change set of {@link #getTasks()} without sync token.
+     *
+     * @param syncToken token of the previous change set, or null to get all the tasks
+     */
+    default Single<TaskChangeSet> getChangesSince(@Nullable String syncToken) {
+        return getTasks().map(tasks -> TaskChangeSet.full(tasks, null));
+    }
+
+    /**
+     * Gets the sync token of the current state of the data source, without any change, so that
+     * the tasks can be compared by other means and the changes made since synced afterwards.
+     * <p>
+     * The default implementation takes it from a full {@link #getChangesSince(String)}. Data
+     * sources which don't issue tokens return an empty string.
+     */
+    default Single<String> getLatestSyncToken() {
+        return getChangesSince(null).map(changes -> Strings.nullToEmpty(changes.syncToken()));
+    }
+
+    /**
+     * Sync token of the last changes applied to this data source, or null if none were.
+     */
+    @Nullable
+    default String getSyncToken() {
+        return null;
+    }
+
+    default void setSyncToken(@Nullable String syncToken) {
+        // Data sources which aren't synced don't keep a token.
+    }
+
+    /**
+     * Gets the tasks with the given ids in one request. Ids which are not found are skipped, so the
+     * list may hold less tasks than ids and is in no particular order.
+     * <p>
+     * The default implementation looks the ids up in {@link #getTasks()}. Data sources able to
+     * query several tasks by id at once should override it.
+     */
+    default Single<List<Task>> getTasks(@NonNull Collection<String> taskIds) {
+        return getTasks().map(tasks -> {
+            Set<String> ids = new HashSet<>(taskIds);
+            List<Task> found = new ArrayList<>(ids.size());
+            for (Task task : tasks) {
+                if (ids.contains(task.getId())) found.add(task);
+            }
+            return found;
+        });
+    }
+
+    /**
+     * Gets the {@link TaskHashTree} buckets whose prefix is {@code prefixLength} characters long
+     * and starts with one of the parent prefixes, so that another data source can find which of
+     * them differ from its own without transferring tasks.
+     * <p>
+     * The default implementation builds the hash tree from {@link #getTasks()}.
+     */
+    default Single<Map<String, TaskBucket>> getTaskBuckets(int prefixLength,
+                                                            @NonNull Collection<String> parentPrefixes) {
+        return getTasks().map(tasks ->
+                TaskHashTree.of(tasks).getBuckets(prefixLength, parentPrefixes));
+    }
+
+    /**
+     * Gets the {@link TaskHashTree#hash(Task)} of every task whose id starts with one of the
+     * prefixes, by id.
+     */
+    default Single<Map<String, Long>> getTaskHashes(@NonNull Collection<String> prefixes) {
+        return getTasks().map(tasks -> TaskHashTree.of(tasks).getTaskHashes(prefixes));
+    }
+
     Completable saveTask(@NonNull Task task);
 
     Completable completeTask(@NonNull Task task);
@@ -56,4 +190,36 @@ public interface TasksDataSource {
     void deleteAllTasks();
 
     Completable deleteTask(@NonNull String taskId);
+
+    /**
+     * Saves all the tasks at once. The default implementation saves them one by one; data sources
+     * able to write several tasks in one go should override it, as well as the other bulk writes.
+     */
+    default Completable saveTasks(@NonNull Collection<Task> tasks) {
+        for (Task task : tasks) {
+            saveTask(task);
+        }
+        return Completable.complete();
+    }
+
+    default Completable completeTasks(@NonNull Collection<String> taskIds) {
+        for (String taskId : taskIds) {
+            completeTask(taskId);
+        }
+        return Completable.complete();
+    }
+
+    default Completable activateTasks(@NonNull Collection<String> taskIds) {
+        for (String taskId : taskIds) {
+            activateTask(taskId);
+        }
+        return Completable.complete();
+    }
+
+    default Completable deleteTasks(@NonNull Collection<String> taskIds) {
+        for (String taskId : taskIds) {
+            deleteTask(taskId);
+        }
+        return Completable.complete();
+    }
 }
@@ -0,0 +1,51 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * First in, first out queue of the writes made locally which still have to be sent to the remote
+ * data source.
+ * <p>
+ * Writes are appended by {@link TasksRepository} and only ever removed, from the head, by a single
+ * {@link OutboxDrainer} once the remote data source accepted them. The methods are blocking and
+ * should not be called from the main thread.
+ */
+public interface TasksOutbox {
+
+    /**
+     * Appends the operations, in order, as a whole: either all of them are kept or none is.
+     */
+    void append(@NonNull Collection<OutboxOperation> operations);
+
+    /**
+     * Runs the local write, then appends the operations sending it to the remote data source.
+     * An outbox stored along with the local tasks overrides this to do both atomically, so that
+     * the write is never kept without its operations, or the other way around.
+     */
+    default void writeAndAppend(@NonNull Runnable localWrite,
+                                @NonNull Collection<OutboxOperation> operations) {
+        localWrite.run();
+        append(operations);
+    }
+
+    /**
+     * Returns, without removing them, the oldest operations, at most {@code limit}.
+     */
+    @NonNull
+    List<OutboxOperation> peek(int limit);
+
+    /**
+     * Removes the {@code count} oldest operations.
+     */
+    void removeFirst(int count);
+
+    /**
+     * Ids of the tasks with operations still waiting to be sent.
+     */
+    @NonNull
+    Set<String> pendingTaskIds();
+}
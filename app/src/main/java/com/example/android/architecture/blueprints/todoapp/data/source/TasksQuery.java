@@ -0,0 +1,133 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import android.support.annotation.NonNull;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksFilterType;
+import com.google.auto.value.AutoValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable query of {@link TasksDataSource#getTasks(TasksQuery)}: which tasks to get, in which
+ * order and how many of them.
+ * <p>
+ * Data sources backed by a database translate it into a query so that the tasks left out are
+ * never read. The others evaluate it in memory with {@link #apply(Iterable)}, which gives the
+ * same result.
+ */
+@AutoValue
+public abstract class TasksQuery {
+
+    /**
+     * Value of {@link #limit()} for a query returning all the matching tasks.
+     */
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    public enum Sort {
+        /**
+         * The order the data source stores the tasks in, which is the cheapest to read.
+         */
+        NONE,
+
+        /**
+         * By id, which is the creation order of tasks with time-ordered ids.
+         */
+        ID,
+
+        /**
+         * By title, tasks without title first, then by id for the same title.
+         */
+        TITLE
+    }
+
+    @NonNull
+    public abstract TasksFilterType filterType();
+
+    @NonNull
+    public abstract Sort sort();
+
+    /**
+     * Maximum number of tasks returned, or {@link #NO_LIMIT}.
+     */
+    public abstract int limit();
+
+    @NonNull
+    public static Builder builder() {
+        return new AutoValue_TasksQuery.Builder()
+                .filterType(TasksFilterType.ALL_TASKS)
+                .sort(Sort.NONE)
+                .limit(NO_LIMIT);
+    }
+
+    /**
+     * All the tasks matching the filter, in no particular order.
+     */
+    @NonNull
+    public static TasksQuery filtered(@NonNull TasksFilterType filterType) {
+        return builder().filterType(filterType).build();
+    }
+
+    public boolean matches(@NonNull Task task) {
+        return filterType().matches(task);
+    }
+
+    /**
+     * Evaluates the query on tasks in memory, keeping their order unless sorted. Without sort,
+     * the tasks are only iterated until the limit is reached.
+     */
+    @NonNull
+    public List<Task> apply(@NonNull Iterable<Task> tasks) {
+        List<Task> result = new ArrayList<>();
+        for (Task task : tasks) {
+            if (sort() == Sort.NONE && result.size() == limit()) break;
+            if (matches(task)) result.add(task);
+        }
+        if (sort() != Sort.NONE) {
+            Collections.sort(result, comparator(sort()));
+            if (result.size() > limit()) {
+                result = new ArrayList<>(result.subList(0, limit()));
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    private static Comparator<Task> comparator(@NonNull Sort sort) {
+        if (sort == Sort.TITLE) {
+            return (t1, t2) -> {
+                int byTitle = compareNullsFirst(t1.getTitle(), t2.getTitle());
+                return byTitle != 0 ? byTitle : t1.getId().compareTo(t2.getId());
+            };
+        }
+        return (t1, t2) -> t1.getId().compareTo(t2.getId());
+    }
+
+    private static int compareNullsFirst(String s1, String s2) {
+        if (s1 == null) return s2 == null ? 0 : -1;
+        return s2 == null ? 1 : s1.compareTo(s2);
+    }
+
+    @AutoValue.Builder
+    public abstract static class Builder {
+        public abstract Builder filterType(@NonNull TasksFilterType filterType);
+
+        public abstract Builder sort(@NonNull Sort sort);
+
+        public abstract Builder limit(int limit);
+
+        abstract TasksQuery autoBuild();
+
+        @NonNull
+        public TasksQuery build() {
+            TasksQuery query = autoBuild();
+            if (query.limit() < 0) {
+                throw new IllegalArgumentException("limit cannot be negative: " + query.limit());
+            }
+            return query;
+        }
+    }
+}
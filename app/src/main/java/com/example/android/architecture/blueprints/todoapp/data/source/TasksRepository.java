@@ -21,15 +21,33 @@ import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksFilterType;
+import com.example.android.architecture.blueprints.todoapp.util.BatchLoader;
+import com.example.android.architecture.blueprints.todoapp.util.SingleFlight;
+import com.google.common.base.Strings;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
+import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -38,10 +56,28 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * <p/>
  * For simplicity, this implements a dumb synchronisation between locally persisted data and data
  * obtained from the server, by using the remote data source only if the local database doesn't
- * exist or is empty.
+ * exist or is empty. Writes are applied locally and queued in a {@link TasksOutbox}, from which
+ * they are sent to the server in the background.
  */
 public class TasksRepository implements TasksDataSource {
 
+    /**
+     * How long single task lookups are collected before being loaded together.
+     */
+    private static final long TASK_BATCH_WINDOW_MILLIS = 10;
+
+    /**
+     * Most task ids whose last local write is remembered to protect it from older remote loads.
+     */
+    @VisibleForTesting
+    static final int MAX_LOCAL_WRITES = 1000;
+
+    /**
+     * Most tasks loaded by a single lookup, as SQLite refuses statements with more than 999 bound
+     * arguments.
+     */
+    private static final int TASK_BATCH_MAX_SIZE = 999;
+
     @Nullable
     private static TasksRepository INSTANCE = null;
 
@@ -53,23 +89,132 @@ public class TasksRepository implements TasksDataSource {
 
     /**
      * This variable has package local visibility so it can be accessed from tests.
+     * <p>
+     * The cache is written from the io threads loading the data sources and read from the UI
+     * thread, hence it is lazily created through {@link #cache()} and never reassigned afterwards.
      */
     @VisibleForTesting
     @Nullable
-    Map<String, Task> mCachedTasks;
+    volatile ConcurrentTaskCache mCachedTasks;
 
     /**
      * Marks the cache as invalid, to force an update the next time data is requested. This variable
      * has package local visibility so it can be accessed from tests.
      */
     @VisibleForTesting
-    boolean mCacheIsDirty = false;
+    volatile boolean mCacheIsDirty = false;
+
+    /**
+     * Tells whether the cache holds every task, as it does once all the tasks were loaded or
+     * synced, rather than only the ones read or written one by one, like the tasks of a page. Only
+     * a complete cache answers the reads, counts and snapshots of all the tasks. This variable has
+     * package local visibility so it can be accessed from tests.
+     */
+    @VisibleForTesting
+    volatile boolean mCacheIsComplete = false;
+
+    /**
+     * Emits every change applied to the cache. Mutating the cache and emitting the matching
+     * {@link TaskChange} is done while holding {@link #mChangesLock} so that a subscriber of
+     * {@link #changes()} never misses nor reorders a change relative to its initial snapshot.
+     */
+    @NonNull
+    private final PublishSubject<TaskChange> mChanges = PublishSubject.create();
+
+    @NonNull
+    private final Object mChangesLock = new Object();
+
+    /**
+     * Shares the loading of all the tasks between concurrent callers. The key tells whether the
+     * load syncs the remote changes, as it does when the cache is dirty, rather than reading the
+     * local data source first.
+     */
+    @NonNull
+    private final SingleFlight<Boolean, List<Task>> mTasksRequests = new SingleFlight<>();
+
+    /**
+     * Shares the loading of a task, by id, between concurrent callers.
+     */
+    @NonNull
+    private final SingleFlight<String, Task> mTaskRequests = new SingleFlight<>();
+
+    /**
+     * Incremented on every local write. A remote load remembers its value when it starts so that
+     * the tasks it returns never overwrite a task written locally while it was in flight.
+     */
+    @NonNull
+    private final AtomicLong mLocalWriteSequence = new AtomicLong();
+
+    /**
+     * Value of {@link #mLocalWriteSequence} at the last local write of each task id, the oldest
+     * write first. Only the last {@link #MAX_LOCAL_WRITES} are kept. Guarded by itself.
+     */
+    @NonNull
+    private final LinkedHashMap<String, Long> mLocalWrites =
+            new LinkedHashMap<String, Long>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    if (size() <= MAX_LOCAL_WRITES) return false;
+                    mEvictedLocalWriteSequence = eldest.getValue();
+                    return true;
+                }
+            };
+
+    /**
+     * Value of {@link #mLocalWriteSequence} at the last write evicted from {@link #mLocalWrites}.
+     * A remote load started before it can't tell which tasks were written since, so it treats them
+     * all as written locally, like after a delete of all the tasks.
+     */
+    private volatile long mEvictedLocalWriteSequence = 0;
+
+    /**
+     * Value of {@link #mLocalWriteSequence} when all the tasks were last deleted locally.
+     */
+    private volatile long mLocalDeleteAllSequence = 0;
+
+    /**
+     * Value of {@link #mLocalWriteSequence} when the completed tasks were last cleared locally.
+     * The cache may not hold all of them, so a remote load started before it treats every
+     * completed task it returns as deleted locally, rather than only the ones it knows about.
+     */
+    private volatile long mLocalClearCompletedSequence = 0;
+
+    /**
+     * Loads the tasks missing from the cache which are requested by id within the same
+     * {@link #TASK_BATCH_WINDOW_MILLIS} with a single query per data source.
+     */
+    @NonNull
+    private final BatchLoader<String, Task> mTaskLoader;
+
+    /**
+     * Writes made locally which still have to be sent to the remote data source. Local writes are
+     * applied to the local data source and the cache right away, and only queued here, so that
+     * they are neither lost nor waiting for the network while offline.
+     */
+    @NonNull
+    private final TasksOutbox mOutbox;
+
+    @NonNull
+    private final OutboxDrainer mOutboxDrainer;
+
+    @NonNull
+    private final TaskReconciler mTaskReconciler;
 
     // Prevent direct instantiation.
     private TasksRepository(@NonNull TasksDataSource tasksRemoteDataSource,
-                            @NonNull TasksDataSource tasksLocalDataSource) {
+                            @NonNull TasksDataSource tasksLocalDataSource,
+                            @NonNull TasksOutbox outbox,
+                            @NonNull Scheduler batchScheduler,
+                            @NonNull Scheduler outboxScheduler) {
         mTasksRemoteDataSource = checkNotNull(tasksRemoteDataSource);
         mTasksLocalDataSource = checkNotNull(tasksLocalDataSource);
+        mOutbox = checkNotNull(outbox);
+        mTaskLoader = new BatchLoader<>(this::loadTasks, TASK_BATCH_MAX_SIZE,
+                TASK_BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS, checkNotNull(batchScheduler));
+        mOutboxDrainer = new OutboxDrainer(mOutbox, mTasksRemoteDataSource, outboxScheduler);
+        mTaskReconciler = new TaskReconciler(mTasksLocalDataSource, mTasksRemoteDataSource);
+        // Sends the writes left over by a previous run, if the outbox is durable.
+        mOutboxDrainer.requestDrain();
     }
 
     /**
@@ -81,8 +226,42 @@ public class TasksRepository implements TasksDataSource {
      */
     public static TasksRepository getInstance(@NonNull TasksDataSource tasksRemoteDataSource,
                                               @NonNull TasksDataSource tasksLocalDataSource) {
+        return getInstance(tasksRemoteDataSource, tasksLocalDataSource, Schedulers.computation());
+    }
+
+    /**
+     * Returns the single instance of this class, creating it if necessary.
+     *
+     * @param tasksRemoteDataSource the backend data source
+     * @param tasksLocalDataSource  the device storage data source
+     * @param batchScheduler        the scheduler on which task lookups are batched
+     * @return the {@link TasksRepository} instance, queuing its remote writes in memory
+     */
+    public static TasksRepository getInstance(@NonNull TasksDataSource tasksRemoteDataSource,
+                                              @NonNull TasksDataSource tasksLocalDataSource,
+                                              @NonNull Scheduler batchScheduler) {
+        return getInstance(tasksRemoteDataSource, tasksLocalDataSource, new InMemoryTasksOutbox(),
+                batchScheduler, Schedulers.io());
+    }
+
+    /**
+     * Returns the single instance of this class, creating it if necessary.
+     *
+     * @param tasksRemoteDataSource the backend data source
+     * @param tasksLocalDataSource  the device storage data source
+     * @param outbox                the queue of writes to send to the backend
+     * @param batchScheduler        the scheduler on which task lookups are batched
+     * @param outboxScheduler       the scheduler on which queued writes are sent
+     * @return the {@link TasksRepository} instance
+     */
+    public static TasksRepository getInstance(@NonNull TasksDataSource tasksRemoteDataSource,
+                                              @NonNull TasksDataSource tasksLocalDataSource,
+                                              @NonNull TasksOutbox outbox,
+                                              @NonNull Scheduler batchScheduler,
+                                              @NonNull Scheduler outboxScheduler) {
         if (INSTANCE == null) {
-            INSTANCE = new TasksRepository(tasksRemoteDataSource, tasksLocalDataSource);
+            INSTANCE = new TasksRepository(tasksRemoteDataSource, tasksLocalDataSource, outbox,
+                    batchScheduler, outboxScheduler);
         }
         return INSTANCE;
     }
@@ -101,69 +280,498 @@ public class TasksRepository implements TasksDataSource {
      */
     @Override
     public Single<List<Task>> getTasks() {
+        return getTasks(FetchStrategy.sequential());
+    }
+
+    /**
+     * Like {@link #getTasks()}, querying the data sources as told by the {@link FetchStrategy}.
+     * A caller joining a load already in flight gets its result, whatever strategy started it.
+     */
+    public Single<List<Task>> getTasks(@NonNull FetchStrategy fetchStrategy) {
+        checkNotNull(fetchStrategy);
         // Respond immediately with cache if available and not dirty
-        if (mCachedTasks != null && !mCacheIsDirty) {
-            return Observable.fromIterable(mCachedTasks.values()).toList();
-        } else if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
+        ConcurrentTaskCache cachedTasks = completeCache();
+        if (cachedTasks != null) {
+            return Single.fromCallable(cachedTasks::snapshot);
         }
+        cache();
 
-        Single<List<Task>> remoteTasks = getAndSaveRemoteTasks();
+        // Concurrent callers share the same load instead of each querying the data sources.
+        boolean remoteOnly = mCacheIsDirty;
+        return mTasksRequests.execute(remoteOnly, () -> {
+            if (remoteOnly) {
+                // Only fetch what changed remotely since the last sync.
+                return syncRemoteTasks();
+            } else {
+                // Query the local storage if available. If not, query the network.
+                Single<List<Task>> localTasks = getAndCacheLocalTasks();
+                Single<List<Task>> remoteTasks = getAndSaveRemoteTasks();
+                return firstAvailable(localTasks, remoteTasks, fetchStrategy,
+                        tasks -> !tasks.isEmpty());
+            }
+        });
+    }
 
-        if (mCacheIsDirty) {
-            return remoteTasks;
-        } else {
-            // Query the local storage if available. If not, query the network.
-            Single<List<Task>> localTasks = getAndCacheLocalTasks();
-            return Single.concat(localTasks, remoteTasks)
-                    .filter(tasks -> !tasks.isEmpty())
-                    .firstOrError();
+    /**
+     * Gets the tasks matching the filter, like {@link #getTasks()}. Once the tasks are cached,
+     * only the matching ones are read.
+     */
+    public Single<List<Task>> getTasks(@NonNull TasksFilterType filterType) {
+        return getTasks(FetchStrategy.sequential(), filterType);
+    }
+
+    /**
+     * Like {@link #getTasks(TasksFilterType)}, querying the data sources as told by the
+     * {@link FetchStrategy}.
+     */
+    public Single<List<Task>> getTasks(@NonNull FetchStrategy fetchStrategy,
+                                       @NonNull TasksFilterType filterType) {
+        checkNotNull(filterType);
+        return getTasks(fetchStrategy, TasksQuery.filtered(filterType));
+    }
+
+    /**
+     * Evaluates the query on the cached tasks, loading them first if needed. All the tasks are
+     * loaded rather than only the matching ones since the cache must hold every task once
+     * loaded, for the writes to update it.
+     */
+    @Override
+    public Single<List<Task>> getTasks(@NonNull TasksQuery query) {
+        return getTasks(FetchStrategy.sequential(), query);
+    }
+
+    /**
+     * Like {@link #getTasks(TasksQuery)}, querying the data sources as told by the
+     * {@link FetchStrategy}.
+     */
+    public Single<List<Task>> getTasks(@NonNull FetchStrategy fetchStrategy,
+                                       @NonNull TasksQuery query) {
+        checkNotNull(query);
+        ConcurrentTaskCache cachedTasks = completeCache();
+        if (cachedTasks != null) {
+            return Single.fromCallable(() -> cachedTasks.query(query));
+        }
+        // The loaded tasks are all in the cache, from which the matching ones are read.
+        return getTasks(fetchStrategy).map(ignored -> cache().query(query));
+    }
+
+    /**
+     * Counts the tasks from the counters of the cache. Before the tasks are cached, the local data
+     * source counts them without reading them, and they are only loaded if it has none.
+     */
+    @Override
+    public Single<TaskCounts> getTaskCounts() {
+        return getTaskCounts(FetchStrategy.sequential());
+    }
+
+    /**
+     * Like {@link #getTaskCounts()}, querying the data sources as told by the
+     * {@link FetchStrategy} if the tasks have to be loaded.
+     */
+    public Single<TaskCounts> getTaskCounts(@NonNull FetchStrategy fetchStrategy) {
+        checkNotNull(fetchStrategy);
+        ConcurrentTaskCache cachedTasks = completeCache();
+        if (cachedTasks != null) {
+            return Single.fromCallable(cachedTasks::counts);
+        }
+        Single<TaskCounts> loadedCounts = getTasks(fetchStrategy).map(ignored -> cache().counts());
+        if (mCacheIsDirty) return loadedCounts;
+        // Only no local task at all tells the tasks have to be fetched from the network.
+        return mTasksLocalDataSource.getTaskCounts()
+                .flatMap(counts -> counts.totalCount() == 0 ? loadedCounts : Single.just(counts));
+    }
+
+    /**
+     * Streams the changes applied to the cached tasks.
+     * <p>
+     * If all the tasks are cached, a {@link TaskChange.Type#SNAPSHOT} of them is emitted on
+     * subscription. It is followed by a {@link TaskChange} for every insert, update or delete, and
+     * by a new snapshot every time the whole cache is reloaded from a data source. This allows
+     * subscribers to keep their own copy up to date without copying the whole cache on every
+     * mutation.
+     */
+    public Observable<TaskChange> changes() {
+        return Observable.create(emitter -> {
+            synchronized (mChangesLock) {
+                ConcurrentTaskCache cachedTasks = completeCache();
+                if (cachedTasks != null) {
+                    emitter.onNext(TaskChange.snapshot(cachedTasks.snapshot()));
+                }
+                emitter.setDisposable(mChanges.subscribe(emitter::onNext));
+            }
+        });
+    }
+
+    /**
+     * Streams the counts of active and completed tasks, on subscription then whenever a
+     * {@link #changes() change} is applied to the cache.
+     * <p>
+     * If all the tasks are cached, the counts are read from the counters of the cache, so that no
+     * task is walked. Otherwise the cache only knows some of the tasks, and the local data source
+     * counts them all instead. Changes which don't move a task to another status, like an edited
+     * title, don't emit.
+     */
+    public Observable<TaskCounts> taskCounts() {
+        return Observable.<Observable<TaskCounts>>create(emitter -> {
+            synchronized (mChangesLock) {
+                emitter.onNext(currentTaskCounts());
+                // Changes are published holding the lock, right after being applied to the
+                // cache, so the counters read here include them.
+                emitter.setDisposable(mChanges.subscribe(change ->
+                        emitter.onNext(currentTaskCounts())));
+            }
+        }).concatMap(counts -> counts).distinctUntilChanged();
+    }
+
+    /**
+     * Reads the counts from the cache right away if it holds all the tasks, or else counts the
+     * tasks in the local data source on subscription. A failed count is skipped.
+     */
+    @NonNull
+    private Observable<TaskCounts> currentTaskCounts() {
+        ConcurrentTaskCache cachedTasks = completeCache();
+        if (cachedTasks != null) return Observable.just(cachedTasks.counts());
+        return mTasksLocalDataSource.getTaskCounts()
+                .toObservable()
+                .onErrorResumeNext(Observable.<TaskCounts>empty());
+    }
+
+    /**
+     * Stale-while-revalidate variant of {@link #getTasks(FetchStrategy, TasksFilterType)} with a
+     * forced update.
+     * <p>
+     * Emits the tasks already known, from the cache or else the local data source, as soon as they
+     * are available, without waiting for the network. The remote data source is queried at the
+     * same time and its tasks are emitted, and saved, when they arrive. Nothing is emitted for an
+     * empty cache and local storage, so that a refresh never replaces displayed tasks by an empty
+     * list before the network responds.
+     */
+    public Observable<List<Task>> getTasksAndRevalidate() {
+        return getTasksAndRevalidate(TasksFilterType.ALL_TASKS);
+    }
+
+    /**
+     * Like {@link #getTasksAndRevalidate()}, emitting the tasks matching the filter.
+     */
+    public Observable<List<Task>> getTasksAndRevalidate(@NonNull TasksFilterType filterType) {
+        checkNotNull(filterType);
+        ConcurrentTaskCache cachedTasks = mCacheIsComplete ? mCachedTasks : null;
+        Single<List<Task>> staleTasks = cachedTasks != null && !cachedTasks.isEmpty()
+                ? Single.fromCallable(cachedTasks::snapshot)
+                : getAndCacheLocalTasks();
+        // Shares the remote load with a concurrent getTasks() on a dirty cache.
+        Single<List<Task>> freshTasks = mTasksRequests.execute(true, this::syncRemoteTasks);
+
+        // Both are subscribed to at once, but the stale tasks are always emitted first.
+        Observable<List<Task>> tasks = Observable.concatEager(Arrays.asList(
+                staleTasks.filter(loaded -> !loaded.isEmpty()).toObservable(),
+                freshTasks.toObservable()));
+        if (filterType == TasksFilterType.ALL_TASKS) return tasks;
+        // The loaded tasks are all in the cache, from which the matching ones are read.
+        return tasks.map(ignored -> cache().snapshot(filterType));
+    }
+
+    /**
+     * Gets a page of tasks from the local data source (SQLite), without loading all of them in
+     * memory. If the local storage is empty, all the tasks are first fetched through
+     * {@link #getTasks()}, which saves them locally, before reading the first page again.
+     */
+    @Override
+    public Single<List<Task>> getTasksPage(@Nullable String afterKey, int limit,
+                                           @NonNull TasksFilterType filterType) {
+        checkNotNull(filterType);
+        Single<List<Task>> localPage =
+                mTasksLocalDataSource.getTasksPage(afterKey, limit, filterType);
+        if (afterKey != null || filterType != TasksFilterType.ALL_TASKS) {
+            // Only an empty unfiltered first page tells the local storage is empty.
+            return localPage;
         }
+        return localPage.flatMap(page -> page.isEmpty()
+                ? getTasks().flatMap(ignored ->
+                        mTasksLocalDataSource.getTasksPage(null, limit, filterType))
+                : Single.just(page));
     }
 
     private Single<List<Task>> getAndCacheLocalTasks() {
         return mTasksLocalDataSource.getTasks()
                 .flatMap(tasks -> Observable.fromIterable(tasks)
-                        .doOnNext(task -> mCachedTasks.put(task.getId(), task))
-                        .toList());
+                        .doOnNext(task -> cache().put(task))
+                        .toList())
+                .doOnSuccess(tasks -> {
+                    // An empty local source is followed by the remote one, which will publish.
+                    if (!tasks.isEmpty()) {
+                        mCacheIsComplete = true;
+                        publishSnapshot();
+                    }
+                });
+    }
+
+    /**
+     * Queries the local data source first and the remote one only if the local result isn't
+     * available, or both in parallel, according to the {@link FetchStrategy}.
+     */
+    private static <T> Single<T> firstAvailable(@NonNull Single<T> local,
+                                                @NonNull Single<T> remote,
+                                                @NonNull FetchStrategy fetchStrategy,
+                                                @NonNull Predicate<T> isAvailable) {
+        if (!fetchStrategy.parallel()) {
+            return Single.concat(local, remote).filter(isAvailable).firstOrError();
+        }
+        Observable<T> hedgedRemote = fetchStrategy.hedgeDelayMillis() == 0
+                ? remote.toObservable()
+                : remote.toObservable().delaySubscription(fetchStrategy.hedgeDelayMillis(),
+                        TimeUnit.MILLISECONDS, fetchStrategy.hedgeScheduler());
+        // The first available result disposes of the other query, and a failing source lets the
+        // other one answer instead of failing the whole load.
+        return Observable.mergeDelayError(local.toObservable(), hedgedRemote)
+                .filter(isAvailable)
+                .firstOrError();
     }
 
     private Single<List<Task>> getAndSaveRemoteTasks() {
-        return mTasksRemoteDataSource.getTasks()
-                .flatMap(tasks -> Observable.fromIterable(tasks).doOnNext(task -> {
-                    mTasksLocalDataSource.saveTask(task);
-                    mCachedTasks.put(task.getId(), task);
-                }).toList())
-                .doOnSuccess(ignored -> mCacheIsDirty = false);
+        Single<List<Task>> remoteTasks = mTasksRemoteDataSource.getTasks();
+        return Single.defer(() -> {
+            long fetchSequence = mLocalWriteSequence.get();
+            return remoteTasks.map(tasks -> {
+                List<Task> savedTasks = saveRemoteTasks(tasks, fetchSequence);
+                for (Task task : savedTasks) {
+                    cache().put(task);
+                }
+                return savedTasks;
+            });
+        }).doOnSuccess(ignored -> {
+            mCacheIsComplete = true;
+            mCacheIsDirty = false;
+            publishSnapshot();
+        });
+    }
+
+    /**
+     * Fetches the remote changes since the last sync, applies them to the local data source and
+     * the cache, and returns all the tasks.
+     * <p>
+     * Without a sync token, or if the remote data source can't compute a delta, the change set
+     * holds all the remote tasks, and the tasks known only locally are deleted. Otherwise only the
+     * changed tasks are transferred and written, on top of the tasks already known. Tasks stored
+     * locally but never synced are reconciled instead, see {@link #reconcileRemoteTasks(long)}.
+     */
+    private Single<List<Task>> syncRemoteTasks() {
+        return Single.defer(() -> {
+            // Retries sending the writes which failed to, for instance while offline.
+            mOutboxDrainer.requestDrain();
+            String syncToken = mTasksLocalDataSource.getSyncToken();
+            long fetchSequence = mLocalWriteSequence.get();
+            // The changes are applied on top of all the tasks known locally, which aren't all
+            // cached yet if only some of them were read, like the tasks of a page.
+            Single<List<Task>> knownTasks = !mCacheIsComplete
+                    ? getAndCacheLocalTasks()
+                    : Single.just(Collections.<Task>emptyList());
+            return knownTasks.flatMap(ignored -> syncToken == null && !cache().isEmpty()
+                    ? reconcileRemoteTasks(fetchSequence)
+                    : mTasksRemoteDataSource.getChangesSince(syncToken)
+                            .map(changes -> applyRemoteChanges(changes, fetchSequence)));
+        }).doOnSuccess(ignored -> {
+            mCacheIsComplete = true;
+            mCacheIsDirty = false;
+            publishSnapshot();
+        });
+    }
+
+    @NonNull
+    private List<Task> applyRemoteChanges(@NonNull TaskChangeSet changes, long fetchSequence) {
+        List<String> deletedIds = changes.deletedIds();
+        if (changes.full()) {
+            // Every remote task is listed, so the known tasks which aren't were deleted remotely.
+            Set<String> remoteIds = new HashSet<>(changes.updated().size());
+            for (Task task : changes.updated()) {
+                remoteIds.add(task.getId());
+            }
+            deletedIds = new ArrayList<>();
+            for (Task task : cache().values()) {
+                if (!remoteIds.contains(task.getId())) deletedIds.add(task.getId());
+            }
+        }
+        applyRemoteTasks(changes.updated(), deletedIds, fetchSequence);
+        mTasksLocalDataSource.setSyncToken(changes.syncToken());
+        return cache().snapshot();
+    }
+
+    /**
+     * Saves the updated remote tasks and deletes the ones deleted remotely, from the local data
+     * source and the cache, except the tasks written locally since {@code fetchSequence} or still
+     * waiting in the outbox.
+     *
+     * @return the tasks saved, see {@link #saveRemoteTasks(List, long)}
+     */
+    @NonNull
+    private List<Task> applyRemoteTasks(@NonNull List<Task> updated,
+                                        @NonNull List<String> remotelyDeletedIds,
+                                        long fetchSequence) {
+        List<Task> savedTasks = saveRemoteTasks(updated, fetchSequence);
+        for (Task task : savedTasks) {
+            cache().put(task);
+        }
+        List<String> deletedIds = new ArrayList<>(remotelyDeletedIds.size());
+        Set<String> pendingIds = remotelyDeletedIds.isEmpty()
+                ? Collections.<String>emptySet() : mOutbox.pendingTaskIds();
+        for (String taskId : remotelyDeletedIds) {
+            if (!isWrittenLocallySince(taskId, fetchSequence) && !pendingIds.contains(taskId)) {
+                deletedIds.add(taskId);
+            }
+        }
+        if (!deletedIds.isEmpty()) {
+            mTasksLocalDataSource.deleteTasks(deletedIds);
+            for (String taskId : deletedIds) {
+                cache().remove(taskId);
+            }
+        }
+        return savedTasks;
+    }
+
+    /**
+     * Repairs any drift between the local and the remote data sources without downloading all the
+     * tasks, unlike {@link #refreshTasks()}.
+     * <p>
+     * Both sides summarise their tasks in a {@link TaskHashTree}, and only the hashes of the
+     * buckets which differ are exchanged, down to the divergent tasks, which are then fetched and
+     * saved. Local tasks missing remotely are deleted, unless they were written locally and not
+     * sent yet.
+     *
+     * @return what was found and what it cost
+     */
+    public Single<TaskReconciliation> reconcileTasks() {
+        return Single.defer(() -> {
+            long fetchSequence = mLocalWriteSequence.get();
+            return mTaskReconciler.reconcile().doOnSuccess(reconciliation -> {
+                applyRemoteTasks(reconciliation.updated(), reconciliation.deletedIds(),
+                        fetchSequence);
+                publishSnapshot();
+            });
+        });
+    }
+
+    /**
+     * Syncs the tasks stored locally without a sync token, like after an upgrade, by fetching only
+     * the ones which differ, as {@link #reconcileTasks()} does, rather than all the remote tasks.
+     * The sync token is taken first, so that the writes made while reconciling are synced next
+     * time.
+     */
+    private Single<List<Task>> reconcileRemoteTasks(long fetchSequence) {
+        return mTasksRemoteDataSource.getLatestSyncToken()
+                .flatMap(syncToken -> mTaskReconciler.reconcile().map(reconciliation -> {
+                    applyRemoteTasks(reconciliation.updated(), reconciliation.deletedIds(),
+                            fetchSequence);
+                    mTasksLocalDataSource.setSyncToken(Strings.emptyToNull(syncToken));
+                    return cache().snapshot();
+                }));
+    }
+
+    private Single<Task> getAndSaveRemoteTask(@NonNull String taskId) {
+        Single<Task> remoteTask = mTasksRemoteDataSource.getTask(taskId);
+        return Single.defer(() -> {
+            long fetchSequence = mLocalWriteSequence.get();
+            return remoteTask.flatMap(task -> {
+                if (isWrittenLocallySince(taskId, fetchSequence)
+                        || isClearedLocallySince(task, fetchSequence)
+                        || mOutbox.pendingTaskIds().contains(taskId)) {
+                    Task localTask = cache().get(taskId);
+                    return localTask != null
+                            ? Single.just(localTask)
+                            : Single.<Task>error(new IllegalStateException(
+                                    "Task " + taskId + " was deleted while being loaded"));
+                }
+                mTasksLocalDataSource.saveTask(task);
+                putAndPublish(task);
+                return Single.just(task);
+            });
+        });
+    }
+
+    /**
+     * Saves the tasks returned by a remote load started at {@code fetchSequence} to the local data
+     * source in one bulk write, except the ones written locally since or whose local writes are
+     * still waiting in the outbox, which the remote data source doesn't know about yet.
+     *
+     * @return the tasks to cache, holding the local version of the tasks written locally, unless
+     * they were deleted
+     */
+    @NonNull
+    private List<Task> saveRemoteTasks(@NonNull List<Task> tasks, long fetchSequence) {
+        List<Task> savedTasks = new ArrayList<>(tasks.size());
+        List<Task> remoteTasks = new ArrayList<>(tasks.size());
+        Set<String> pendingIds = tasks.isEmpty()
+                ? Collections.<String>emptySet() : mOutbox.pendingTaskIds();
+        for (Task task : tasks) {
+            if (isWrittenLocallySince(task.getId(), fetchSequence)
+                    || isClearedLocallySince(task, fetchSequence)
+                    || pendingIds.contains(task.getId())) {
+                Task localTask = cache().get(task.getId());
+                if (localTask != null) savedTasks.add(localTask);
+            } else {
+                remoteTasks.add(task);
+                savedTasks.add(task);
+            }
+        }
+        if (!remoteTasks.isEmpty()) mTasksLocalDataSource.saveTasks(remoteTasks);
+        return savedTasks;
+    }
+
+    private void recordLocalWrite(@NonNull String taskId) {
+        synchronized (mLocalWrites) {
+            // Removed first so that the write moves to the end, as the latest one.
+            mLocalWrites.remove(taskId);
+            mLocalWrites.put(taskId, mLocalWriteSequence.incrementAndGet());
+        }
+    }
+
+    /**
+     * Runs the local write and queues the operations sending it to the remote data source as a
+     * whole, then wakes the drainer up to send them.
+     */
+    private void writeAndSend(@NonNull Runnable localWrite,
+                              @NonNull List<OutboxOperation> operations) {
+        mOutbox.writeAndAppend(localWrite, operations);
+        if (!operations.isEmpty()) mOutboxDrainer.requestDrain();
+    }
+
+    private boolean isWrittenLocallySince(@NonNull String taskId, long sequence) {
+        if (mLocalDeleteAllSequence > sequence || mEvictedLocalWriteSequence > sequence) {
+            return true;
+        }
+        Long lastWrite;
+        synchronized (mLocalWrites) {
+            lastWrite = mLocalWrites.get(taskId);
+        }
+        return lastWrite != null && lastWrite > sequence;
+    }
+
+    private boolean isClearedLocallySince(@NonNull Task remoteTask, long sequence) {
+        return remoteTask.isCompleted() && mLocalClearCompletedSequence > sequence;
     }
 
     @Override
     public Completable saveTask(@NonNull Task task) {
         checkNotNull(task);
-        mTasksRemoteDataSource.saveTask(task);
-        mTasksLocalDataSource.saveTask(task);
+        recordLocalWrite(task.getId());
+        writeAndSend(() -> mTasksLocalDataSource.saveTask(task),
+                Collections.singletonList(OutboxOperation.save(task)));
 
         // Do in memory cache update to keep the app UI up to date
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
-        }
-        mCachedTasks.put(task.getId(), task);
+        putAndPublish(task);
         return Completable.complete();
     }
 
     @Override
     public Completable completeTask(@NonNull Task task) {
         checkNotNull(task);
-        mTasksRemoteDataSource.completeTask(task);
-        mTasksLocalDataSource.completeTask(task);
+        recordLocalWrite(task.getId());
+        writeAndSend(() -> mTasksLocalDataSource.completeTask(task),
+                Collections.singletonList(OutboxOperation.complete(task.getId())));
 
         Task completedTask = new Task(task.getTitle(), task.getDescription(), task.getId(), true);
 
         // Do in memory cache update to keep the app UI up to date
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
-        }
-        mCachedTasks.put(task.getId(), completedTask);
+        putAndPublish(completedTask);
         return Completable.complete();
     }
 
@@ -173,24 +781,24 @@ public class TasksRepository implements TasksDataSource {
         Task taskWithId = getTaskWithId(taskId);
         if (taskWithId != null) {
             return completeTask(taskWithId);
-        } else {
-            return Completable.complete();
         }
+        // Not cached, as when only a page of the tasks was read.
+        return mTasksLocalDataSource.getTask(taskId)
+                .flatMapCompletable(this::completeTask)
+                .onErrorComplete(NoSuchElementException.class::isInstance);
     }
 
     @Override
     public Completable activateTask(@NonNull Task task) {
         checkNotNull(task);
-        mTasksRemoteDataSource.activateTask(task);
-        mTasksLocalDataSource.activateTask(task);
+        recordLocalWrite(task.getId());
+        writeAndSend(() -> mTasksLocalDataSource.activateTask(task),
+                Collections.singletonList(OutboxOperation.activate(task.getId())));
 
         Task activeTask = new Task(task.getTitle(), task.getDescription(), task.getId());
 
         // Do in memory cache update to keep the app UI up to date
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
-        }
-        mCachedTasks.put(task.getId(), activeTask);
+        putAndPublish(activeTask);
         return Completable.complete();
     }
 
@@ -200,36 +808,131 @@ public class TasksRepository implements TasksDataSource {
         Task taskWithId = getTaskWithId(taskId);
         if (taskWithId != null) {
             return activateTask(taskWithId);
-        } else {
-            return Completable.complete();
         }
+        // Not cached, as when only a page of the tasks was read.
+        return mTasksLocalDataSource.getTask(taskId)
+                .flatMapCompletable(this::activateTask)
+                .onErrorComplete(NoSuchElementException.class::isInstance);
     }
 
     @Override
     public Completable deleteTask(@NonNull String taskId) {
         checkNotNull(taskId);
-        mTasksRemoteDataSource.deleteTask(checkNotNull(taskId));
-        mTasksLocalDataSource.deleteTask(checkNotNull(taskId));
+        recordLocalWrite(taskId);
+        writeAndSend(() -> mTasksLocalDataSource.deleteTask(taskId),
+                Collections.singletonList(OutboxOperation.delete(taskId)));
 
-        mCachedTasks.remove(taskId);
+        synchronized (mChangesLock) {
+            Task removed = cache().remove(taskId);
+            if (removed != null) mChanges.onNext(TaskChange.delete(removed));
+        }
         return Completable.complete();
     }
 
     @Override
     public Completable clearCompletedTasks() {
-        mTasksRemoteDataSource.clearCompletedTasks();
-        mTasksLocalDataSource.clearCompletedTasks();
+        mLocalClearCompletedSequence = mLocalWriteSequence.incrementAndGet();
+        writeAndSend(() -> mTasksLocalDataSource.clearCompletedTasks(),
+                Collections.singletonList(OutboxOperation.clearCompleted()));
 
         // Do in memory cache update to keep the app UI up to date
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
-        }
-        Iterator<Map.Entry<String, Task>> it = mCachedTasks.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, Task> entry = it.next();
-            if (entry.getValue().isCompleted()) {
-                it.remove();
+        synchronized (mChangesLock) {
+            List<Task> removedTasks = cache().removeCompleted();
+            for (Task removed : removedTasks) {
+                recordLocalWrite(removed.getId());
             }
+            if (!removedTasks.isEmpty()) mChanges.onNext(TaskChange.batchDelete(removedTasks));
+        }
+        return Completable.complete();
+    }
+
+    @Override
+    public Completable saveTasks(@NonNull Collection<Task> tasks) {
+        checkNotNull(tasks);
+        for (Task task : tasks) {
+            recordLocalWrite(task.getId());
+        }
+        List<OutboxOperation> operations = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            operations.add(OutboxOperation.save(task));
+        }
+        writeAndSend(() -> mTasksLocalDataSource.saveTasks(tasks), operations);
+
+        // Do in memory cache update to keep the app UI up to date
+        for (Task task : tasks) {
+            putAndPublish(task);
+        }
+        return Completable.complete();
+    }
+
+    @Override
+    public Completable completeTasks(@NonNull Collection<String> taskIds) {
+        checkNotNull(taskIds);
+        for (String taskId : taskIds) {
+            recordLocalWrite(taskId);
+        }
+        List<OutboxOperation> operations = new ArrayList<>(taskIds.size());
+        for (String taskId : taskIds) {
+            operations.add(OutboxOperation.complete(taskId));
+        }
+        writeAndSend(() -> mTasksLocalDataSource.completeTasks(taskIds), operations);
+
+        List<String> uncachedIds = new ArrayList<>();
+        for (String taskId : taskIds) {
+            Task task = getTaskWithId(taskId);
+            if (task != null) {
+                putAndPublish(
+                        new Task(task.getTitle(), task.getDescription(), task.getId(), true));
+            } else {
+                uncachedIds.add(taskId);
+            }
+        }
+        return putAndPublishLocalTasks(uncachedIds);
+    }
+
+    @Override
+    public Completable activateTasks(@NonNull Collection<String> taskIds) {
+        checkNotNull(taskIds);
+        for (String taskId : taskIds) {
+            recordLocalWrite(taskId);
+        }
+        List<OutboxOperation> operations = new ArrayList<>(taskIds.size());
+        for (String taskId : taskIds) {
+            operations.add(OutboxOperation.activate(taskId));
+        }
+        writeAndSend(() -> mTasksLocalDataSource.activateTasks(taskIds), operations);
+
+        List<String> uncachedIds = new ArrayList<>();
+        for (String taskId : taskIds) {
+            Task task = getTaskWithId(taskId);
+            if (task != null) {
+                putAndPublish(new Task(task.getTitle(), task.getDescription(), task.getId()));
+            } else {
+                uncachedIds.add(taskId);
+            }
+        }
+        return putAndPublishLocalTasks(uncachedIds);
+    }
+
+    @Override
+    public Completable deleteTasks(@NonNull Collection<String> taskIds) {
+        checkNotNull(taskIds);
+        for (String taskId : taskIds) {
+            recordLocalWrite(taskId);
+        }
+        List<OutboxOperation> operations = new ArrayList<>(taskIds.size());
+        for (String taskId : taskIds) {
+            operations.add(OutboxOperation.delete(taskId));
+        }
+        writeAndSend(() -> mTasksLocalDataSource.deleteTasks(taskIds), operations);
+
+        synchronized (mChangesLock) {
+            List<Task> removedTasks = new ArrayList<>(taskIds.size());
+            for (String taskId : taskIds) {
+                Task removed = cache().remove(taskId);
+                if (removed != null) removedTasks.add(removed);
+            }
+            if (!removedTasks.isEmpty()) mChanges.onNext(TaskChange.batchDelete(removedTasks));
         }
         return Completable.complete();
     }
@@ -237,10 +940,23 @@ public class TasksRepository implements TasksDataSource {
     /**
      * Gets tasks from local data source (sqlite) unless the table is new or empty. In that case it
      * uses the network data source. This is done to simplify the sample.
+     * <p>
+     * Tasks missing from the cache are loaded through {@link #getTasks(Collection)} together with
+     * the other tasks requested within a few milliseconds.
      */
     @Override
     public Single<Task> getTask(@NonNull final String taskId) {
+        return getTask(taskId, FetchStrategy.sequential());
+    }
+
+    /**
+     * Like {@link #getTask(String)}, querying the data sources as told by the
+     * {@link FetchStrategy}.
+     */
+    public Single<Task> getTask(@NonNull final String taskId,
+                                @NonNull FetchStrategy fetchStrategy) {
         checkNotNull(taskId);
+        checkNotNull(fetchStrategy);
 
         final Task cachedTask = getTaskWithId(taskId);
 
@@ -249,21 +965,90 @@ public class TasksRepository implements TasksDataSource {
             return Single.just(cachedTask);
         }
 
-        // Load from server/persisted if needed.
+        // Load from server/persisted if needed, sharing the load with concurrent callers.
+        return mTaskRequests.execute(taskId, () -> {
+            if (!fetchStrategy.parallel()) {
+                // Batched with the other lookups requested at the same time.
+                return mTaskLoader.load(taskId);
+            }
 
-        // Do in memory cache update to keep the app UI up to date
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
+            // Is the task in the local data source? If not, query the network.
+            Single<Task> localTask = getTaskWithIdFromLocalRepository(taskId);
+            Single<Task> remoteTask = getAndSaveRemoteTask(taskId);
+
+            return firstAvailable(localTask, remoteTask, fetchStrategy, task -> true);
+        });
+    }
+
+    /**
+     * Gets the tasks with the given ids from the cache and, for the ones missing, from the local
+     * data source (SQLite) then the remote data source, with a single request to each.
+     *
+     * @return the tasks found, in the order of the ids
+     */
+    @Override
+    public Single<List<Task>> getTasks(@NonNull Collection<String> taskIds) {
+        checkNotNull(taskIds);
+        Set<String> missingIds = new LinkedHashSet<>();
+        for (String taskId : taskIds) {
+            if (getTaskWithId(taskId) == null) missingIds.add(taskId);
         }
+        Single<Map<String, Task>> loadedTasks = missingIds.isEmpty()
+                ? Single.just(Collections.<String, Task>emptyMap())
+                : loadTasks(missingIds);
+        return loadedTasks.map(loaded -> {
+            List<Task> tasks = new ArrayList<>(taskIds.size());
+            for (String taskId : new LinkedHashSet<>(taskIds)) {
+                Task task = loaded.containsKey(taskId) ? loaded.get(taskId) : getTaskWithId(taskId);
+                if (task != null) tasks.add(task);
+            }
+            return tasks;
+        });
+    }
 
-        // Is the task in the local data source? If not, query the network.
-        Single<Task> localTask = getTaskWithIdFromLocalRepository(taskId);
-        Single<Task> remoteTask = mTasksRemoteDataSource.getTask(taskId).doOnSuccess(task -> {
-            mTasksLocalDataSource.saveTask(task);
-            mCachedTasks.put(task.getId(), task);
+    /**
+     * Loads the tasks from the local data source, then the ones it doesn't have from the remote
+     * data source, and caches them.
+     */
+    private Single<Map<String, Task>> loadTasks(@NonNull Set<String> taskIds) {
+        Single<List<Task>> localTasks = mTasksLocalDataSource.getTasks(taskIds);
+        return localTasks.flatMap(tasks -> {
+            Map<String, Task> loaded = new HashMap<>(taskIds.size());
+            for (Task task : tasks) {
+                putAndPublish(task);
+                loaded.put(task.getId(), task);
+            }
+            if (loaded.size() == taskIds.size()) return Single.just(loaded);
+
+            List<String> missingIds = new ArrayList<>(taskIds.size() - loaded.size());
+            for (String taskId : taskIds) {
+                if (!loaded.containsKey(taskId)) missingIds.add(taskId);
+            }
+            long fetchSequence = mLocalWriteSequence.get();
+            return mTasksRemoteDataSource.getTasks(missingIds).map(remoteTasks -> {
+                for (Task savedTask : saveRemoteTasks(remoteTasks, fetchSequence)) {
+                    putAndPublish(savedTask);
+                    loaded.put(savedTask.getId(), savedTask);
+                }
+                return loaded;
+            });
         });
+    }
 
-        return Single.concat(localTask, remoteTask).firstOrError();
+    /**
+     * Number of {@link #getTasks()} and {@link #getTask(String)} calls which had to load data from
+     * the data sources.
+     */
+    public long getLoadCallCount() {
+        return mTasksRequests.getCallCount() + mTaskRequests.getCallCount();
+    }
+
+    /**
+     * Number of {@link #getTasks()} and {@link #getTask(String)} calls which joined a load already
+     * in flight instead of starting their own.
+     */
+    public long getDeduplicatedLoadCount() {
+        return mTasksRequests.getDeduplicatedCount() + mTaskRequests.getDeduplicatedCount();
     }
 
     @Override
@@ -273,28 +1058,95 @@ public class TasksRepository implements TasksDataSource {
 
     @Override
     public void deleteAllTasks() {
-        mTasksRemoteDataSource.deleteAllTasks();
-        mTasksLocalDataSource.deleteAllTasks();
+        mLocalDeleteAllSequence = mLocalWriteSequence.incrementAndGet();
+        synchronized (mLocalWrites) {
+            mLocalWrites.clear();
+        }
+        writeAndSend(() -> mTasksLocalDataSource.deleteAllTasks(),
+                Collections.singletonList(OutboxOperation.deleteAll()));
 
-        if (mCachedTasks == null) {
-            mCachedTasks = new LinkedHashMap<>();
+        synchronized (mChangesLock) {
+            cache().clear();
+            mCacheIsComplete = true;
+            mChanges.onNext(TaskChange.snapshot(Collections.emptyList()));
         }
-        mCachedTasks.clear();
     }
 
     @Nullable
     private Task getTaskWithId(@NonNull String id) {
         checkNotNull(id);
-        if (mCachedTasks == null || mCachedTasks.isEmpty()) {
+        ConcurrentTaskCache cachedTasks = mCachedTasks;
+        if (cachedTasks == null) {
             return null;
         } else {
-            return mCachedTasks.get(id);
+            return cachedTasks.get(id);
         }
     }
 
+    /**
+     * Returns the cache if it holds every task and isn't dirty, null otherwise.
+     */
+    @Nullable
+    private ConcurrentTaskCache completeCache() {
+        ConcurrentTaskCache cachedTasks = mCachedTasks;
+        return cachedTasks != null && mCacheIsComplete && !mCacheIsDirty ? cachedTasks : null;
+    }
+
     @NonNull
     Single<Task> getTaskWithIdFromLocalRepository(@NonNull final String taskId) {
+        // Only cached: reading a task changes nothing the subscribers of changes() don't know.
         return mTasksLocalDataSource.getTask(taskId)
-                .doOnSuccess(task -> mCachedTasks.put(taskId, task));
+                .doOnSuccess(task -> cache().put(task));
+    }
+
+    /**
+     * Caches and publishes the tasks written locally which weren't cached, as read back from the
+     * local data source.
+     */
+    private Completable putAndPublishLocalTasks(@NonNull List<String> taskIds) {
+        if (taskIds.isEmpty()) return Completable.complete();
+        return mTasksLocalDataSource.getTasks(taskIds)
+                .doOnSuccess(tasks -> {
+                    for (Task task : tasks) {
+                        putAndPublish(task);
+                    }
+                })
+                .toCompletable();
+    }
+
+    private void putAndPublish(@NonNull Task task) {
+        synchronized (mChangesLock) {
+            Task previous = cache().put(task);
+            mChanges.onNext(previous == null
+                    ? TaskChange.insert(task) : TaskChange.update(previous, task));
+        }
+    }
+
+    /**
+     * Publishes a snapshot of all the tasks, unless only some of them are cached.
+     */
+    private void publishSnapshot() {
+        synchronized (mChangesLock) {
+            if (mCacheIsComplete) mChanges.onNext(TaskChange.snapshot(cache().snapshot()));
+        }
+    }
+
+    /**
+     * Returns the cache, creating it on first use. Creation is guarded so that concurrent callers
+     * from the UI and io threads always share the same instance.
+     */
+    @NonNull
+    private ConcurrentTaskCache cache() {
+        ConcurrentTaskCache cachedTasks = mCachedTasks;
+        if (cachedTasks == null) {
+            synchronized (this) {
+                cachedTasks = mCachedTasks;
+                if (cachedTasks == null) {
+                    cachedTasks = new ConcurrentTaskCache();
+                    mCachedTasks = cachedTasks;
+                }
+            }
+        }
+        return cachedTasks;
     }
 }
@@ -17,11 +17,17 @@
 package com.example.android.architecture.blueprints.todoapp.data.source.local;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskHashTree;
 
 public class TasksDbHelper extends SQLiteOpenHelper {
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 6;
 
     public static final String DATABASE_NAME = "Tasks.db";
 
@@ -29,6 +35,8 @@ public class TasksDbHelper extends SQLiteOpenHelper {
 
     private static final String BOOLEAN_TYPE = " INTEGER";
 
+    private static final String HASH_TYPE = " INTEGER NOT NULL DEFAULT 0";
+
     private static final String COMMA_SEP = ",";
 
     private static final String SQL_CREATE_ENTRIES =
@@ -36,7 +44,45 @@ public class TasksDbHelper extends SQLiteOpenHelper {
                     TasksPersistenceContract.TaskEntry.COLUMN_NAME_ENTRY_ID + TEXT_TYPE + " PRIMARY KEY," +
                     TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE + TEXT_TYPE + COMMA_SEP +
                     TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION + TEXT_TYPE + COMMA_SEP +
-                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_COMPLETED + BOOLEAN_TYPE +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_COMPLETED + BOOLEAN_TYPE + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_ACTIVE_HASH + HASH_TYPE + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_COMPLETED_HASH + HASH_TYPE +
+                    " )";
+
+    private static final String SQL_CREATE_SYNC_TOKEN =
+            "CREATE TABLE " + TasksPersistenceContract.SyncTokenEntry.TABLE_NAME + " (" +
+                    TasksPersistenceContract.SyncTokenEntry.COLUMN_NAME_TOKEN + TEXT_TYPE +
+                    " )";
+
+    private static final String SQL_CREATE_OUTBOX =
+            "CREATE TABLE " + TasksPersistenceContract.OutboxEntry.TABLE_NAME + " (" +
+                    TasksPersistenceContract.OutboxEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    TasksPersistenceContract.OutboxEntry.COLUMN_NAME_OPERATION + TEXT_TYPE + " NOT NULL," +
+                    TasksPersistenceContract.OutboxEntry.COLUMN_NAME_ENTRY_ID + TEXT_TYPE + COMMA_SEP +
+                    TasksPersistenceContract.OutboxEntry.COLUMN_NAME_TITLE + TEXT_TYPE + COMMA_SEP +
+                    TasksPersistenceContract.OutboxEntry.COLUMN_NAME_DESCRIPTION + TEXT_TYPE + COMMA_SEP +
+                    TasksPersistenceContract.OutboxEntry.COLUMN_NAME_COMPLETED + BOOLEAN_TYPE +
+                    " )";
+
+    /**
+     * Index of the tasks by status then id, so that filtering on the status, with or without
+     * paging by id, only reads the matching rows.
+     */
+    private static final String SQL_CREATE_COMPLETED_INDEX =
+            "CREATE INDEX " + TasksPersistenceContract.TaskEntry.INDEX_NAME_COMPLETED + " ON " +
+                    TasksPersistenceContract.TaskEntry.TABLE_NAME + " (" +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_COMPLETED + COMMA_SEP +
+                    TasksPersistenceContract.TaskEntry.COLUMN_NAME_ENTRY_ID +
+                    " )";
+
+    /**
+     * Index of the queued writes by task id, so that listing the tasks with pending writes doesn't
+     * read the whole outbox.
+     */
+    private static final String SQL_CREATE_OUTBOX_ENTRY_ID_INDEX =
+            "CREATE INDEX " + TasksPersistenceContract.OutboxEntry.INDEX_NAME_ENTRY_ID + " ON " +
+                    TasksPersistenceContract.OutboxEntry.TABLE_NAME + " (" +
+                    TasksPersistenceContract.OutboxEntry.COLUMN_NAME_ENTRY_ID +
                     " )";
 
     public TasksDbHelper(Context context) {
@@ -45,13 +91,85 @@ public class TasksDbHelper extends SQLiteOpenHelper {
 
     public void onCreate(SQLiteDatabase db) {
         db.execSQL(SQL_CREATE_ENTRIES);
+        db.execSQL(SQL_CREATE_SYNC_TOKEN);
+        db.execSQL(SQL_CREATE_OUTBOX);
+        db.execSQL(SQL_CREATE_COMPLETED_INDEX);
+        db.execSQL(SQL_CREATE_OUTBOX_ENTRY_ID_INDEX);
     }
 
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Not required as at version 1
+        if (oldVersion < 2) {
+            // Version 2 stores the remote sync token for delta syncs. Without a token, the next
+            // refresh is a full one.
+            db.execSQL(SQL_CREATE_SYNC_TOKEN);
+        }
+        if (oldVersion < 3) {
+            // Version 3 queues the writes made offline until the server accepts them.
+            db.execSQL(SQL_CREATE_OUTBOX);
+        }
+        if (oldVersion < 4) {
+            // Version 4 indexes the tasks by status for filtered queries.
+            db.execSQL(SQL_CREATE_COMPLETED_INDEX);
+        }
+        if (oldVersion < 5) {
+            // Version 5 stores the hashes compared when reconciling with the server.
+            addHashColumns(db);
+        }
+        if (oldVersion < 6) {
+            // Version 6 indexes the queued writes by task id.
+            db.execSQL(SQL_CREATE_OUTBOX_ENTRY_ID_INDEX);
+        }
     }
 
     public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // Not required as at version 1
+        // Not required as at version 6
+    }
+
+    /**
+     * {@link TaskHashTree#hash(Task)} of the task when active.
+     */
+    static long activeHash(@NonNull Task task) {
+        return TaskHashTree.hash(
+                new Task(task.getTitle(), task.getDescription(), task.getId(), false));
+    }
+
+    /**
+     * {@link TaskHashTree#hash(Task)} of the task when completed.
+     */
+    static long completedHash(@NonNull Task task) {
+        return TaskHashTree.hash(
+                new Task(task.getTitle(), task.getDescription(), task.getId(), true));
+    }
+
+    private static void addHashColumns(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TasksPersistenceContract.TaskEntry.TABLE_NAME +
+                " ADD COLUMN " + TasksPersistenceContract.TaskEntry.COLUMN_NAME_ACTIVE_HASH +
+                HASH_TYPE);
+        db.execSQL("ALTER TABLE " + TasksPersistenceContract.TaskEntry.TABLE_NAME +
+                " ADD COLUMN " + TasksPersistenceContract.TaskEntry.COLUMN_NAME_COMPLETED_HASH +
+                HASH_TYPE);
+        // The hashes are computed in Java, like the ones of the server, for the tasks stored.
+        SQLiteStatement statement = db.compileStatement("UPDATE " +
+                TasksPersistenceContract.TaskEntry.TABLE_NAME + " SET " +
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_ACTIVE_HASH + " = ?" + COMMA_SEP +
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_COMPLETED_HASH + " = ? WHERE " +
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_ENTRY_ID + " = ?");
+        Cursor cursor = db.query(TasksPersistenceContract.TaskEntry.TABLE_NAME, new String[]{
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_ENTRY_ID,
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_TITLE,
+                TasksPersistenceContract.TaskEntry.COLUMN_NAME_DESCRIPTION
+        }, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                Task task = new Task(cursor.getString(1), cursor.getString(2), cursor.getString(0));
+                statement.bindLong(1, activeHash(task));
+                statement.bindLong(2, completedHash(task));
+                statement.bindString(3, task.getId());
+                statement.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            statement.close();
+        }
     }
 }
@@ -19,19 +19,37 @@ package com.example.android.architecture.blueprints.todoapp.data.source.local;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.OutboxOperation;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskBucket;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskCounts;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskHashTree;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksOutbox;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksQuery;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksPersistenceContract.OutboxEntry;
+import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksPersistenceContract.SyncTokenEntry;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksPersistenceContract.TaskEntry;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksFilterType;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 import com.squareup.sqlbrite2.BriteDatabase;
 import com.squareup.sqlbrite2.SqlBrite;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import io.reactivex.Completable;
 import io.reactivex.Single;
@@ -40,9 +58,27 @@ import io.reactivex.functions.Function;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Concrete implementation of a data source as a db.
+ * Concrete implementation of a data source as a db, also keeping the outbox of the writes to
+ * send to the server so that they survive the process.
  */
-public class TasksLocalDataSource implements TasksDataSource {
+public class TasksLocalDataSource implements TasksDataSource, TasksOutbox {
+
+    /**
+     * SQLite refuses statements with more than 999 bound arguments.
+     */
+    private static final int MAX_QUERY_ARGS = 999;
+
+    /**
+     * Number of id prefixes per query, each bound as the two ends of a range.
+     */
+    private static final int MAX_QUERY_PREFIXES = MAX_QUERY_ARGS / 2;
+
+    /**
+     * Hash of each task as stored, read from the column matching its status.
+     */
+    private static final String TASK_HASH = String.format("CASE %s WHEN 1 THEN %s ELSE %s END",
+            TaskEntry.COLUMN_NAME_COMPLETED, TaskEntry.COLUMN_NAME_COMPLETED_HASH,
+            TaskEntry.COLUMN_NAME_ACTIVE_HASH);
 
     @Nullable
     private static TasksLocalDataSource INSTANCE;
@@ -98,6 +134,115 @@ public class TasksLocalDataSource implements TasksDataSource {
                 .firstOrError();
     }
 
+    /**
+     * Reads a single page through the primary key index, so that the cost of a page does not depend
+     * on the number of tasks stored.
+     */
+    @Override
+    public Single<List<Task>> getTasksPage(@Nullable String afterKey, int limit,
+                                           @NonNull TasksFilterType filterType) {
+        String[] projection = {
+                TaskEntry.COLUMN_NAME_ENTRY_ID, TaskEntry.COLUMN_NAME_TITLE,
+                TaskEntry.COLUMN_NAME_DESCRIPTION, TaskEntry.COLUMN_NAME_COMPLETED
+        };
+        List<String> conditions = new ArrayList<>(2);
+        List<String> args = new ArrayList<>(2);
+        if (afterKey != null) {
+            conditions.add(TaskEntry.COLUMN_NAME_ENTRY_ID + " > ?");
+            args.add(afterKey);
+        }
+        addFilter(filterType, conditions, args);
+        String where = conditions.isEmpty() ? "" : " WHERE " + TextUtils.join(" AND ", conditions);
+        String sql = String.format(Locale.US, "SELECT %s FROM %s%s ORDER BY %s LIMIT %d",
+                TextUtils.join(",", projection), TaskEntry.TABLE_NAME, where,
+                TaskEntry.COLUMN_NAME_ENTRY_ID, limit);
+        return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, sql, args.toArray(new String[0]))
+                .mapToList(mTaskMapperFunction)
+                .firstOrError();
+    }
+
+    /**
+     * Filters, sorts and limits the tasks in SQL, so that only the returned rows are read. The
+     * filter is looked up in the index on the completed column rather than by scanning the table.
+     */
+    @Override
+    public Single<List<Task>> getTasks(@NonNull TasksQuery query) {
+        checkNotNull(query);
+        String[] projection = {
+                TaskEntry.COLUMN_NAME_ENTRY_ID, TaskEntry.COLUMN_NAME_TITLE,
+                TaskEntry.COLUMN_NAME_DESCRIPTION, TaskEntry.COLUMN_NAME_COMPLETED
+        };
+        List<String> conditions = new ArrayList<>(1);
+        List<String> args = new ArrayList<>(1);
+        addFilter(query.filterType(), conditions, args);
+        StringBuilder sql = new StringBuilder(String.format(Locale.US, "SELECT %s FROM %s",
+                TextUtils.join(",", projection), TaskEntry.TABLE_NAME));
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(TextUtils.join(" AND ", conditions));
+        }
+        switch (query.sort()) {
+            case ID:
+                sql.append(" ORDER BY ").append(TaskEntry.COLUMN_NAME_ENTRY_ID);
+                break;
+            case TITLE:
+                sql.append(" ORDER BY ").append(TaskEntry.COLUMN_NAME_TITLE)
+                        .append(',').append(TaskEntry.COLUMN_NAME_ENTRY_ID);
+                break;
+            default:
+                break;
+        }
+        if (query.limit() != TasksQuery.NO_LIMIT) {
+            sql.append(String.format(Locale.US, " LIMIT %d", query.limit()));
+        }
+        return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, sql.toString(),
+                args.toArray(new String[args.size()]))
+                .mapToList(mTaskMapperFunction)
+                .firstOrError();
+    }
+
+    /**
+     * Counts the tasks of each status with a single aggregate query over the index on the
+     * completed column, without reading the tasks.
+     */
+    @Override
+    public Single<TaskCounts> getTaskCounts() {
+        String sql = String.format("SELECT %1$s, COUNT(*) FROM %2$s GROUP BY %1$s",
+                TaskEntry.COLUMN_NAME_COMPLETED, TaskEntry.TABLE_NAME);
+        return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, sql)
+                .map(query -> {
+                    int activeCount = 0;
+                    int completedCount = 0;
+                    Cursor cursor = query.run();
+                    if (cursor != null) {
+                        try {
+                            while (cursor.moveToNext()) {
+                                // Like the tasks read, anything but 1 is active.
+                                if (cursor.getInt(0) == 1) {
+                                    completedCount += cursor.getInt(1);
+                                } else {
+                                    activeCount += cursor.getInt(1);
+                                }
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                    return TaskCounts.create(activeCount, completedCount);
+                })
+                .firstOrError();
+    }
+
+    /**
+     * Adds the condition matching the filter, if any, with its argument.
+     */
+    private static void addFilter(@NonNull TasksFilterType filterType,
+                                  @NonNull List<String> conditions, @NonNull List<String> args) {
+        if (filterType != TasksFilterType.ALL_TASKS) {
+            conditions.add(TaskEntry.COLUMN_NAME_COMPLETED + " = ?");
+            args.add(filterType == TasksFilterType.COMPLETED_TASKS ? "1" : "0");
+        }
+    }
+
     @Override
     public Single<Task> getTask(@NonNull String taskId) {
         String[] projection = {
@@ -111,16 +256,151 @@ public class TasksLocalDataSource implements TasksDataSource {
                 .firstOrError();
     }
 
+    /**
+     * Reads all the tasks with a single {@code WHERE entryid IN (...)} query per
+     * {@value #MAX_QUERY_ARGS} ids.
+     */
+    @Override
+    public Single<List<Task>> getTasks(@NonNull Collection<String> taskIds) {
+        checkNotNull(taskIds);
+        if (taskIds.isEmpty()) return Single.just(Collections.emptyList());
+        List<String> ids = new ArrayList<>(taskIds);
+        List<Single<List<Task>>> queries = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += MAX_QUERY_ARGS) {
+            List<String> chunk = ids.subList(from, Math.min(from + MAX_QUERY_ARGS, ids.size()));
+            queries.add(getTasksIn(chunk.toArray(new String[chunk.size()])));
+        }
+        return Single.concat(queries)
+                .flatMapIterable(tasks -> tasks)
+                .toList();
+    }
+
+    private Single<List<Task>> getTasksIn(@NonNull String[] taskIds) {
+        String[] projection = {
+                TaskEntry.COLUMN_NAME_ENTRY_ID, TaskEntry.COLUMN_NAME_TITLE,
+                TaskEntry.COLUMN_NAME_DESCRIPTION, TaskEntry.COLUMN_NAME_COMPLETED
+        };
+        String[] placeholders = new String[taskIds.length];
+        Arrays.fill(placeholders, "?");
+        String sql = String.format(Locale.US, "SELECT %s FROM %s WHERE %s IN (%s)",
+                TextUtils.join(",", projection), TaskEntry.TABLE_NAME,
+                TaskEntry.COLUMN_NAME_ENTRY_ID, TextUtils.join(",", placeholders));
+        return mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, sql, taskIds)
+                .mapToList(mTaskMapperFunction)
+                .firstOrError();
+    }
+
+    /**
+     * Sums the stored hashes of the tasks of each bucket with an aggregate query over ranges of
+     * the primary key index, without reading the tasks. SQLite fails when a sum overflows, so the
+     * high and low 32 bits of the hashes are summed apart and added up here, modulo 2^64 like
+     * {@link TaskHashTree} does.
+     */
+    @Override
+    public Single<Map<String, TaskBucket>> getTaskBuckets(
+            int prefixLength, @NonNull Collection<String> parentPrefixes) {
+        checkNotNull(parentPrefixes);
+        List<String> prefixes = new ArrayList<>(parentPrefixes);
+        List<Single<Map<String, TaskBucket>>> queries = new ArrayList<>();
+        for (int from = 0; from < prefixes.size(); from += MAX_QUERY_PREFIXES) {
+            List<String> chunk =
+                    prefixes.subList(from, Math.min(from + MAX_QUERY_PREFIXES, prefixes.size()));
+            List<String> args = new ArrayList<>(chunk.size() * 2);
+            String sql = String.format(Locale.US, "SELECT substr(%1$s, 1, %2$d) AS prefix, "
+                            + "SUM((%3$s) >> 32), SUM((%3$s) & %4$d), COUNT(*), MIN(%1$s), "
+                            + "MAX(%1$s) FROM %5$s WHERE %6$s GROUP BY prefix",
+                    TaskEntry.COLUMN_NAME_ENTRY_ID, prefixLength, TASK_HASH, 0xffffffffL,
+                    TaskEntry.TABLE_NAME, prefixRanges(chunk, args));
+            queries.add(mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, sql,
+                    args.toArray(new String[args.size()]))
+                    .map(query -> {
+                        Map<String, TaskBucket> buckets = new HashMap<>();
+                        Cursor cursor = query.run();
+                        if (cursor != null) {
+                            try {
+                                while (cursor.moveToNext()) {
+                                    long hash = (cursor.getLong(1) << 32) + cursor.getLong(2);
+                                    String commonPrefix = TaskHashTree.commonPrefix(
+                                            cursor.getString(4), cursor.getString(5));
+                                    buckets.put(cursor.getString(0), TaskBucket.create(
+                                            hash, cursor.getInt(3), commonPrefix));
+                                }
+                            } finally {
+                                cursor.close();
+                            }
+                        }
+                        return buckets;
+                    })
+                    .firstOrError());
+        }
+        return Single.concat(queries)
+                .collect(HashMap::new, Map::putAll);
+    }
+
+    /**
+     * Reads the stored hashes of the tasks over ranges of the primary key index, without reading
+     * the tasks.
+     */
+    @Override
+    public Single<Map<String, Long>> getTaskHashes(@NonNull Collection<String> prefixes) {
+        checkNotNull(prefixes);
+        List<String> prefixList = new ArrayList<>(prefixes);
+        List<Single<Map<String, Long>>> queries = new ArrayList<>();
+        for (int from = 0; from < prefixList.size(); from += MAX_QUERY_PREFIXES) {
+            List<String> chunk = prefixList.subList(from,
+                    Math.min(from + MAX_QUERY_PREFIXES, prefixList.size()));
+            List<String> args = new ArrayList<>(chunk.size() * 2);
+            String sql = String.format("SELECT %s, %s FROM %s WHERE %s",
+                    TaskEntry.COLUMN_NAME_ENTRY_ID, TASK_HASH, TaskEntry.TABLE_NAME,
+                    prefixRanges(chunk, args));
+            queries.add(mDatabaseHelper.createQuery(TaskEntry.TABLE_NAME, sql,
+                    args.toArray(new String[args.size()]))
+                    .map(query -> {
+                        Map<String, Long> taskHashes = new HashMap<>();
+                        Cursor cursor = query.run();
+                        if (cursor != null) {
+                            try {
+                                while (cursor.moveToNext()) {
+                                    taskHashes.put(cursor.getString(0), cursor.getLong(1));
+                                }
+                            } finally {
+                                cursor.close();
+                            }
+                        }
+                        return taskHashes;
+                    })
+                    .firstOrError());
+        }
+        return Single.concat(queries)
+                .collect(HashMap::new, Map::putAll);
+    }
+
+    /**
+     * Returns the condition matching the ids starting with one of the prefixes, as ranges of the
+     * primary key index, and adds the ends of the ranges to the arguments.
+     */
+    @NonNull
+    private static String prefixRanges(@NonNull List<String> prefixes,
+                                       @NonNull List<String> args) {
+        List<String> ranges = new ArrayList<>(prefixes.size());
+        for (String prefix : prefixes) {
+            String end = TaskHashTree.nextPrefix(prefix);
+            args.add(prefix);
+            if (end == null) {
+                ranges.add(TaskEntry.COLUMN_NAME_ENTRY_ID + " >= ?");
+            } else {
+                ranges.add("(" + TaskEntry.COLUMN_NAME_ENTRY_ID + " >= ? AND "
+                        + TaskEntry.COLUMN_NAME_ENTRY_ID + " < ?)");
+                args.add(end);
+            }
+        }
+        return TextUtils.join(" OR ", ranges);
+    }
+
     @Override
     public Completable saveTask(@NonNull Task task) {
         checkNotNull(task);
-        ContentValues values = new ContentValues();
-        values.put(TaskEntry.COLUMN_NAME_ENTRY_ID, task.getId());
-        values.put(TaskEntry.COLUMN_NAME_TITLE, task.getTitle());
-        values.put(TaskEntry.COLUMN_NAME_DESCRIPTION, task.getDescription());
-        values.put(TaskEntry.COLUMN_NAME_COMPLETED, task.isCompleted());
-        mDatabaseHelper.insert(TaskEntry.TABLE_NAME, values, SQLiteDatabase.CONFLICT_REPLACE);
-        return Completable.complete();
+        return saveTasks(Collections.singletonList(task));
     }
 
     @Override
@@ -131,12 +411,7 @@ public class TasksLocalDataSource implements TasksDataSource {
 
     @Override
     public Completable completeTask(@NonNull String taskId) {
-        ContentValues values = new ContentValues();
-        values.put(TaskEntry.COLUMN_NAME_COMPLETED, true);
-
-        String selection = TaskEntry.COLUMN_NAME_ENTRY_ID + " LIKE ?";
-        String[] selectionArgs = {taskId};
-        mDatabaseHelper.update(TaskEntry.TABLE_NAME, values, selection, selectionArgs);
+        setCompleted(Collections.singletonList(taskId), true);
         return Completable.complete();
     }
 
@@ -148,12 +423,7 @@ public class TasksLocalDataSource implements TasksDataSource {
 
     @Override
     public Completable activateTask(@NonNull String taskId) {
-        ContentValues values = new ContentValues();
-        values.put(TaskEntry.COLUMN_NAME_COMPLETED, false);
-
-        String selection = TaskEntry.COLUMN_NAME_ENTRY_ID + " LIKE ?";
-        String[] selectionArgs = {taskId};
-        mDatabaseHelper.update(TaskEntry.TABLE_NAME, values, selection, selectionArgs);
+        setCompleted(Collections.singletonList(taskId), false);
         return Completable.complete();
     }
 
@@ -183,4 +453,260 @@ public class TasksLocalDataSource implements TasksDataSource {
         mDatabaseHelper.delete(TaskEntry.TABLE_NAME, selection, selectionArgs);
         return Completable.complete();
     }
+
+    /**
+     * Inserts all the tasks in a single transaction, reusing one compiled statement, so that
+     * subscribers to the tasks table are notified once. The hashes of each task as active and as
+     * completed are stored along, so that completing or activating it doesn't have to read it.
+     */
+    @Override
+    public Completable saveTasks(@NonNull Collection<Task> tasks) {
+        checkNotNull(tasks);
+        if (tasks.isEmpty()) return Completable.complete();
+        String sql = String.format(
+                "INSERT OR REPLACE INTO %s (%s,%s,%s,%s,%s,%s) VALUES (?,?,?,?,?,?)",
+                TaskEntry.TABLE_NAME, TaskEntry.COLUMN_NAME_ENTRY_ID, TaskEntry.COLUMN_NAME_TITLE,
+                TaskEntry.COLUMN_NAME_DESCRIPTION, TaskEntry.COLUMN_NAME_COMPLETED,
+                TaskEntry.COLUMN_NAME_ACTIVE_HASH, TaskEntry.COLUMN_NAME_COMPLETED_HASH);
+        BriteDatabase.Transaction transaction = mDatabaseHelper.newTransaction();
+        try {
+            SQLiteStatement statement = mDatabaseHelper.getWritableDatabase().compileStatement(sql);
+            try {
+                for (Task task : tasks) {
+                    statement.clearBindings();
+                    statement.bindString(1, task.getId());
+                    bindNullableString(statement, 2, task.getTitle());
+                    bindNullableString(statement, 3, task.getDescription());
+                    statement.bindLong(4, task.isCompleted() ? 1 : 0);
+                    statement.bindLong(5, TasksDbHelper.activeHash(task));
+                    statement.bindLong(6, TasksDbHelper.completedHash(task));
+                    mDatabaseHelper.executeInsert(TaskEntry.TABLE_NAME, statement);
+                }
+            } finally {
+                statement.close();
+            }
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
+        return Completable.complete();
+    }
+
+    @Override
+    public Completable completeTasks(@NonNull Collection<String> taskIds) {
+        setCompleted(taskIds, true);
+        return Completable.complete();
+    }
+
+    @Override
+    public Completable activateTasks(@NonNull Collection<String> taskIds) {
+        setCompleted(taskIds, false);
+        return Completable.complete();
+    }
+
+    @Override
+    public Completable deleteTasks(@NonNull Collection<String> taskIds) {
+        String sql = String.format("DELETE FROM %s WHERE %s = ?",
+                TaskEntry.TABLE_NAME, TaskEntry.COLUMN_NAME_ENTRY_ID);
+        executeForEachId(sql, taskIds);
+        return Completable.complete();
+    }
+
+    private void setCompleted(@NonNull Collection<String> taskIds, boolean completed) {
+        String sql = String.format(Locale.US, "UPDATE %s SET %s = %d WHERE %s = ?",
+                TaskEntry.TABLE_NAME, TaskEntry.COLUMN_NAME_COMPLETED, completed ? 1 : 0,
+                TaskEntry.COLUMN_NAME_ENTRY_ID);
+        executeForEachId(sql, taskIds);
+    }
+
+    /**
+     * Executes the statement, whose only argument is a task id, once per id within a single
+     * transaction.
+     */
+    private void executeForEachId(@NonNull String sql, @NonNull Collection<String> taskIds) {
+        checkNotNull(taskIds);
+        if (taskIds.isEmpty()) return;
+        BriteDatabase.Transaction transaction = mDatabaseHelper.newTransaction();
+        try {
+            SQLiteStatement statement = mDatabaseHelper.getWritableDatabase().compileStatement(sql);
+            try {
+                for (String taskId : taskIds) {
+                    statement.bindString(1, taskId);
+                    mDatabaseHelper.executeUpdateDelete(TaskEntry.TABLE_NAME, statement);
+                }
+            } finally {
+                statement.close();
+            }
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getSyncToken() {
+        String sql = String.format("SELECT %s FROM %s",
+                SyncTokenEntry.COLUMN_NAME_TOKEN, SyncTokenEntry.TABLE_NAME);
+        Cursor cursor = mDatabaseHelper.query(sql);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void setSyncToken(@Nullable String syncToken) {
+        BriteDatabase.Transaction transaction = mDatabaseHelper.newTransaction();
+        try {
+            mDatabaseHelper.delete(SyncTokenEntry.TABLE_NAME, null);
+            if (syncToken != null) {
+                ContentValues values = new ContentValues();
+                values.put(SyncTokenEntry.COLUMN_NAME_TOKEN, syncToken);
+                mDatabaseHelper.insert(SyncTokenEntry.TABLE_NAME, values);
+            }
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
+    }
+
+    private static void bindNullableString(@NonNull SQLiteStatement statement, int index,
+                                           @Nullable String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Appends all the operations in a single transaction, reusing one compiled statement.
+     */
+    @Override
+    public void append(@NonNull Collection<OutboxOperation> operations) {
+        checkNotNull(operations);
+        if (operations.isEmpty()) return;
+        String sql = String.format("INSERT INTO %s (%s,%s,%s,%s,%s) VALUES (?,?,?,?,?)",
+                OutboxEntry.TABLE_NAME, OutboxEntry.COLUMN_NAME_OPERATION,
+                OutboxEntry.COLUMN_NAME_ENTRY_ID, OutboxEntry.COLUMN_NAME_TITLE,
+                OutboxEntry.COLUMN_NAME_DESCRIPTION, OutboxEntry.COLUMN_NAME_COMPLETED);
+        BriteDatabase.Transaction transaction = mDatabaseHelper.newTransaction();
+        try {
+            SQLiteStatement statement = mDatabaseHelper.getWritableDatabase().compileStatement(sql);
+            try {
+                for (OutboxOperation operation : operations) {
+                    Task task = operation.task();
+                    statement.clearBindings();
+                    statement.bindString(1, operation.type().name());
+                    bindNullableString(statement, 2, operation.taskId());
+                    if (task != null) {
+                        bindNullableString(statement, 3, task.getTitle());
+                        bindNullableString(statement, 4, task.getDescription());
+                        statement.bindLong(5, task.isCompleted() ? 1 : 0);
+                    }
+                    mDatabaseHelper.executeInsert(OutboxEntry.TABLE_NAME, statement);
+                }
+            } finally {
+                statement.close();
+            }
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
+    }
+
+    /**
+     * Runs the local write, which must write to this data source, and appends the operations in
+     * a single transaction, so that a crash in between can't lose the operations of a write
+     * already kept locally.
+     */
+    @Override
+    public void writeAndAppend(@NonNull Runnable localWrite,
+                               @NonNull Collection<OutboxOperation> operations) {
+        checkNotNull(localWrite);
+        checkNotNull(operations);
+        BriteDatabase.Transaction transaction = mDatabaseHelper.newTransaction();
+        try {
+            localWrite.run();
+            append(operations);
+            transaction.markSuccessful();
+        } finally {
+            transaction.end();
+        }
+    }
+
+    @NonNull
+    @Override
+    public List<OutboxOperation> peek(int limit) {
+        String[] projection = {
+                OutboxEntry.COLUMN_NAME_OPERATION, OutboxEntry.COLUMN_NAME_ENTRY_ID,
+                OutboxEntry.COLUMN_NAME_TITLE, OutboxEntry.COLUMN_NAME_DESCRIPTION,
+                OutboxEntry.COLUMN_NAME_COMPLETED
+        };
+        String sql = String.format(Locale.US, "SELECT %s FROM %s ORDER BY %s LIMIT %d",
+                TextUtils.join(",", projection), OutboxEntry.TABLE_NAME, OutboxEntry._ID, limit);
+        Cursor cursor = mDatabaseHelper.query(sql);
+        try {
+            List<OutboxOperation> operations = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                operations.add(getOutboxOperation(cursor));
+            }
+            return operations;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @NonNull
+    private static OutboxOperation getOutboxOperation(@NonNull Cursor c) {
+        String operation = c.getString(c.getColumnIndexOrThrow(OutboxEntry.COLUMN_NAME_OPERATION));
+        String itemId = c.getString(c.getColumnIndexOrThrow(OutboxEntry.COLUMN_NAME_ENTRY_ID));
+        switch (OutboxOperation.Type.valueOf(operation)) {
+            case SAVE:
+                String title = c.getString(c.getColumnIndexOrThrow(OutboxEntry.COLUMN_NAME_TITLE));
+                String description =
+                        c.getString(c.getColumnIndexOrThrow(OutboxEntry.COLUMN_NAME_DESCRIPTION));
+                boolean completed =
+                        c.getInt(c.getColumnIndexOrThrow(OutboxEntry.COLUMN_NAME_COMPLETED)) == 1;
+                return OutboxOperation.save(new Task(title, description, itemId, completed));
+            case COMPLETE:
+                return OutboxOperation.complete(itemId);
+            case ACTIVATE:
+                return OutboxOperation.activate(itemId);
+            case DELETE:
+                return OutboxOperation.delete(itemId);
+            case CLEAR_COMPLETED:
+                return OutboxOperation.clearCompleted();
+            case DELETE_ALL:
+                return OutboxOperation.deleteAll();
+            default:
+                throw new IllegalStateException("Unknown outbox operation " + operation);
+        }
+    }
+
+    @Override
+    public void removeFirst(int count) {
+        String selection = String.format("%1$s IN (SELECT %1$s FROM %2$s ORDER BY %1$s LIMIT ?)",
+                OutboxEntry._ID, OutboxEntry.TABLE_NAME);
+        mDatabaseHelper.delete(OutboxEntry.TABLE_NAME, selection, String.valueOf(count));
+    }
+
+    @NonNull
+    @Override
+    public Set<String> pendingTaskIds() {
+        String sql = String.format("SELECT DISTINCT %1$s FROM %2$s WHERE %1$s IS NOT NULL",
+                OutboxEntry.COLUMN_NAME_ENTRY_ID, OutboxEntry.TABLE_NAME);
+        Cursor cursor = mDatabaseHelper.query(sql);
+        try {
+            Set<String> taskIds = new HashSet<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                taskIds.add(cursor.getString(0));
+            }
+            return taskIds;
+        } finally {
+            cursor.close();
+        }
+    }
 }
@@ -35,5 +35,29 @@ public final class TasksPersistenceContract {
         public static final String COLUMN_NAME_TITLE = "title";
         public static final String COLUMN_NAME_DESCRIPTION = "description";
         public static final String COLUMN_NAME_COMPLETED = "completed";
+        /* Hash of the task when active, added in version 5 */
+        public static final String COLUMN_NAME_ACTIVE_HASH = "activehash";
+        /* Hash of the task when completed, added in version 5 */
+        public static final String COLUMN_NAME_COMPLETED_HASH = "completedhash";
+        /* Index on the completed and entry id columns, added in version 4 */
+        public static final String INDEX_NAME_COMPLETED = "tasks_completed_idx";
+    }
+
+    /* Inner class that defines the single row table holding the remote sync token, added in
+     * version 2 */
+    public static abstract class SyncTokenEntry implements BaseColumns {
+        public static final String TABLE_NAME = "synctoken";
+        public static final String COLUMN_NAME_TOKEN = "token";
+    }
+
+    /* Inner class that defines the queue of writes to send to the server, added in version 3 */
+    public static abstract class OutboxEntry implements BaseColumns {
+        public static final String TABLE_NAME = "outbox";
+        public static final String COLUMN_NAME_OPERATION = "operation";
+        public static final String COLUMN_NAME_ENTRY_ID = "entryid";
+        public static final String COLUMN_NAME_TITLE = "title";
+        public static final String COLUMN_NAME_DESCRIPTION = "description";
+        public static final String COLUMN_NAME_COMPLETED = "completed";
+        public static final String INDEX_NAME_ENTRY_ID = "outbox_entryid_idx";
     }
 }
@@ -17,14 +17,24 @@
 package com.example.android.architecture.blueprints.todoapp.data.source.remote;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskBucket;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskChangeSet;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskHashTree;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksFilterType;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Completable;
@@ -40,8 +50,33 @@ public class TasksRemoteDataSource implements TasksDataSource {
 
     private static final int SERVICE_LATENCY_IN_MILLIS = 5000;
 
+    /**
+     * Tasks of the server, by id. Like every other piece of server state, only read and written
+     * while holding the lock on this class, as the outbox writes from a background thread while
+     * other background threads read.
+     */
     private final static Map<String, Task> TASKS_SERVICE_DATA;
 
+    /**
+     * Server version at which each task was last written. The server version increases with every
+     * write and a sync token is the server version the changes were read at.
+     */
+    private final static Map<String, Long> TASK_VERSIONS = new HashMap<>();
+
+    /**
+     * Server version at which each deleted task was deleted.
+     */
+    private final static Map<String, Long> TOMBSTONES = new HashMap<>();
+
+    private static long sServerVersion = 0;
+
+    /**
+     * Hash tree of the tasks, kept up to date on every write so that the buckets and hashes asked
+     * for by a reconciliation are computed server side without reading all the tasks.
+     */
+    private final static TaskHashTree TASK_HASH_TREE =
+            TaskHashTree.of(Collections.<Task>emptyList());
+
     static {
         TASKS_SERVICE_DATA = new LinkedHashMap<>(2);
         addTask("Build tower in Pisa", "Ground looks good, no foundation work required.");
@@ -61,32 +96,158 @@ public class TasksRemoteDataSource implements TasksDataSource {
 
     private static void addTask(String title, String description) {
         Task newTask = new Task(title, description);
-        TASKS_SERVICE_DATA.put(newTask.getId(), newTask);
+        putTask(newTask);
+    }
+
+    private static synchronized void putTask(@NonNull Task task) {
+        TASKS_SERVICE_DATA.put(task.getId(), task);
+        TASK_HASH_TREE.put(task);
+        TASK_VERSIONS.put(task.getId(), ++sServerVersion);
+        TOMBSTONES.remove(task.getId());
+    }
+
+    private static synchronized void removeTask(@NonNull String taskId) {
+        if (TASKS_SERVICE_DATA.remove(taskId) != null) {
+            TASK_HASH_TREE.remove(taskId);
+            TASK_VERSIONS.remove(taskId);
+            TOMBSTONES.put(taskId, ++sServerVersion);
+        }
+    }
+
+    private static synchronized List<Task> getServiceTasks() {
+        return new ArrayList<>(TASKS_SERVICE_DATA.values());
+    }
+
+    private static synchronized NavigableMap<String, Task> getServiceTasksById() {
+        return new TreeMap<>(TASKS_SERVICE_DATA);
+    }
+
+    @Nullable
+    private static synchronized Task getServiceTask(@NonNull String taskId) {
+        return TASKS_SERVICE_DATA.get(taskId);
+    }
+
+    private static synchronized List<Task> getServiceTasks(@NonNull Collection<String> taskIds) {
+        List<Task> tasks = new ArrayList<>(taskIds.size());
+        for (String taskId : taskIds) {
+            Task task = TASKS_SERVICE_DATA.get(taskId);
+            if (task != null) tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /**
+     * Returns the tasks and tombstones written after the server version in the sync token, or all
+     * the tasks if there is no token or it can't be read.
+     */
+    @Override
+    public Single<TaskChangeSet> getChangesSince(@Nullable String syncToken) {
+        return Single.fromCallable(() -> {
+            synchronized (TasksRemoteDataSource.class) {
+                String nextSyncToken = String.valueOf(sServerVersion);
+                Long since = parseSyncToken(syncToken);
+                if (since == null) {
+                    return TaskChangeSet.full(new ArrayList<>(TASKS_SERVICE_DATA.values()),
+                            nextSyncToken);
+                }
+                List<Task> updated = new ArrayList<>();
+                for (Task task : TASKS_SERVICE_DATA.values()) {
+                    if (TASK_VERSIONS.get(task.getId()) > since) updated.add(task);
+                }
+                List<String> deletedIds = new ArrayList<>();
+                for (Map.Entry<String, Long> tombstone : TOMBSTONES.entrySet()) {
+                    if (tombstone.getValue() > since) deletedIds.add(tombstone.getKey());
+                }
+                return TaskChangeSet.delta(updated, deletedIds, nextSyncToken);
+            }
+        }).delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Single<String> getLatestSyncToken() {
+        return Single.fromCallable(() -> {
+            synchronized (TasksRemoteDataSource.class) {
+                return String.valueOf(sServerVersion);
+            }
+        }).delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Single<Map<String, TaskBucket>> getTaskBuckets(
+            int prefixLength, @NonNull Collection<String> parentPrefixes) {
+        return Single.fromCallable(() -> {
+            synchronized (TasksRemoteDataSource.class) {
+                return TASK_HASH_TREE.getBuckets(prefixLength, parentPrefixes);
+            }
+        }).delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Single<Map<String, Long>> getTaskHashes(@NonNull Collection<String> prefixes) {
+        return Single.fromCallable(() -> {
+            synchronized (TasksRemoteDataSource.class) {
+                return TASK_HASH_TREE.getTaskHashes(prefixes);
+            }
+        }).delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Nullable
+    private static Long parseSyncToken(@Nullable String syncToken) {
+        if (syncToken == null) return null;
+        try {
+            long version = Long.parseLong(syncToken);
+            // A token from the future comes from another server state, start over.
+            return version <= sServerVersion ? version : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
 
     @Override
     public Single<List<Task>> getTasks() {
-        return Observable.fromIterable(TASKS_SERVICE_DATA.values())
+        return Single.fromCallable(TasksRemoteDataSource::getServiceTasks)
+                .delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Single<List<Task>> getTasksPage(@Nullable String afterKey, int limit,
+                                           @NonNull TasksFilterType filterType) {
+        return Observable.defer(() -> {
+            NavigableMap<String, Task> tasksById = getServiceTasksById();
+            return Observable.fromIterable(afterKey == null
+                    ? tasksById.values() : tasksById.tailMap(afterKey, false).values());
+        })
+                .filter(filterType::matches)
+                .take(limit)
                 .delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS)
                 .toList();
     }
 
     @Override
     public Single<Task> getTask(@NonNull String taskId) {
-        return Single.just(TASKS_SERVICE_DATA.get(taskId))
+        return Single.just(getServiceTask(taskId))
+                .delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Looks all the ids up in a single simulated network request.
+     */
+    @Override
+    public Single<List<Task>> getTasks(@NonNull Collection<String> taskIds) {
+        return Single.fromCallable(() -> getServiceTasks(taskIds))
                 .delay(SERVICE_LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public Completable saveTask(@NonNull Task task) {
-        TASKS_SERVICE_DATA.put(task.getId(), task);
+        putTask(task);
         return Completable.complete();
     }
 
     @Override
     public Completable completeTask(@NonNull Task task) {
         Task completedTask = new Task(task.getTitle(), task.getDescription(), task.getId(), true);
-        TASKS_SERVICE_DATA.put(task.getId(), completedTask);
+        putTask(completedTask);
         return null;
     }
 
@@ -100,7 +261,7 @@ public class TasksRemoteDataSource implements TasksDataSource {
     @Override
     public Completable activateTask(@NonNull Task task) {
         Task activeTask = new Task(task.getTitle(), task.getDescription(), task.getId());
-        TASKS_SERVICE_DATA.put(task.getId(), activeTask);
+        putTask(activeTask);
         return Completable.complete();
     }
 
@@ -113,11 +274,11 @@ public class TasksRemoteDataSource implements TasksDataSource {
 
     @Override
     public Completable clearCompletedTasks() {
-        Iterator<Map.Entry<String, Task>> it = TASKS_SERVICE_DATA.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<String, Task> entry = it.next();
-            if (entry.getValue().isCompleted()) {
-                it.remove();
+        synchronized (TasksRemoteDataSource.class) {
+            for (Task task : getServiceTasks()) {
+                if (task.isCompleted()) {
+                    removeTask(task.getId());
+                }
             }
         }
         return null;
@@ -131,12 +292,50 @@ public class TasksRemoteDataSource implements TasksDataSource {
 
     @Override
     public void deleteAllTasks() {
-        TASKS_SERVICE_DATA.clear();
+        synchronized (TasksRemoteDataSource.class) {
+            for (Task task : getServiceTasks()) {
+                removeTask(task.getId());
+            }
+        }
     }
 
     @Override
     public Completable deleteTask(@NonNull String taskId) {
-        TASKS_SERVICE_DATA.remove(taskId);
+        removeTask(taskId);
+        return Completable.complete();
+    }
+
+    @Override
+    public Completable saveTasks(@NonNull Collection<Task> tasks) {
+        for (Task task : tasks) {
+            putTask(task);
+        }
+        return Completable.complete();
+    }
+
+    @Override
+    public Completable completeTasks(@NonNull Collection<String> taskIds) {
+        for (String taskId : taskIds) {
+            Task task = getServiceTask(taskId);
+            if (task != null) completeTask(task);
+        }
+        return Completable.complete();
+    }
+
+    @Override
+    public Completable activateTasks(@NonNull Collection<String> taskIds) {
+        for (String taskId : taskIds) {
+            Task task = getServiceTask(taskId);
+            if (task != null) activateTask(task);
+        }
+        return Completable.complete();
+    }
+
+    @Override
+    public Completable deleteTasks(@NonNull Collection<String> taskIds) {
+        for (String taskId : taskIds) {
+            removeTask(taskId);
+        }
         return Completable.complete();
     }
 }
@@ -0,0 +1,115 @@
+package com.example.android.architecture.blueprints.todoapp.mvibase;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Sits between the {@link MviViewModel#states()} and {@link MviView#render(MviViewState)}, and
+ * only lets the latest {@link MviViewState} through per display frame.
+ * <p>
+ * When several states land within one frame, such as the results of a burst of actions, only the
+ * last one is rendered: the view only ever shows the latest state, so rendering the ones before it
+ * would be wasted work. How many states are skipped this way is reported to the {@link Metrics}.
+ *
+ * @param <S> Top class of the {@link MviViewState} going through the gate.
+ */
+public final class MviRenderGate<S extends MviViewState> implements ObservableTransformer<S, S> {
+
+    /**
+     * Hook notified of the states skipped by the gates.
+     */
+    public interface Metrics {
+        /**
+         * Called before rendering a state which replaced others within the same frame.
+         *
+         * @param view          view rendering the state
+         * @param skippedStates number of states which were not rendered
+         */
+        void onStatesSkipped(@NonNull MviView<?, ?> view, int skippedStates);
+    }
+
+    @Nullable
+    private static volatile Metrics sMetrics;
+
+    @NonNull
+    private final Scheduler mFrameScheduler;
+
+    @NonNull
+    private final MviView<?, ?> mView;
+
+    private MviRenderGate(@NonNull Scheduler frameScheduler, @NonNull MviView<?, ?> view) {
+        mFrameScheduler = checkNotNull(frameScheduler, "frameScheduler cannot be null");
+        mView = checkNotNull(view, "view cannot be null");
+    }
+
+    /**
+     * Sets the hook notified by all the gates, or null to stop reporting.
+     */
+    public static void setMetrics(@Nullable Metrics metrics) {
+        sMetrics = metrics;
+    }
+
+    /**
+     * Renders the states of the view model in the view, the latest one per frame.
+     *
+     * @param frameScheduler scheduler running its work at the start of the next frame, on the UI
+     *                       thread
+     * @return the subscription to the states, to dispose of with the view
+     */
+    @NonNull
+    public static <I extends MviIntent, S extends MviViewState> Disposable bind(
+            @NonNull MviViewModel<I, S> viewModel, @NonNull MviView<I, S> view,
+            @NonNull Scheduler frameScheduler) {
+        return viewModel.states()
+                .compose(new MviRenderGate<>(frameScheduler, view))
+                .subscribe(view::render);
+    }
+
+    @Override
+    public ObservableSource<S> apply(@NonNull Observable<S> states) {
+        return Observable.create(emitter -> {
+            // State waiting for the next frame, and whether that frame is scheduled already.
+            AtomicReference<S> pending = new AtomicReference<>();
+            AtomicBoolean frameScheduled = new AtomicBoolean();
+            AtomicInteger skippedStates = new AtomicInteger();
+            Scheduler.Worker worker = mFrameScheduler.createWorker();
+            Runnable deliver = () -> {
+                // Cleared before taking the state, so that a state arriving in between schedules
+                // the following frame.
+                frameScheduled.set(false);
+                S state = pending.getAndSet(null);
+                if (state == null) return;
+                int skipped = skippedStates.getAndSet(0);
+                Metrics metrics = sMetrics;
+                if (skipped > 0 && metrics != null) metrics.onStatesSkipped(mView, skipped);
+                emitter.onNext(state);
+            };
+            CompositeDisposable disposables = new CompositeDisposable(worker);
+            emitter.setDisposable(disposables);
+            disposables.add(states.subscribe(
+                    state -> {
+                        if (pending.getAndSet(state) != null) skippedStates.incrementAndGet();
+                        if (frameScheduled.compareAndSet(false, true)) worker.schedule(deliver);
+                    },
+                    emitter::onError,
+                    // Render the last state before completing.
+                    () -> worker.schedule(() -> {
+                        deliver.run();
+                        emitter.onComplete();
+                    })));
+        });
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.architecture.blueprints.todoapp.mvibase;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.common.base.Objects;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the {@link MviViewState} last rendered by a {@link MviView} next to the one being
+ * rendered, so that the view only binds the fields which changed between the two.
+ * <p>
+ * A view calls {@link #next(MviViewState)} at the start of {@link MviView#render(MviViewState)},
+ * then binds each field through {@link #bind(Field, Binder)}, or checks {@link #changed(Field)}
+ * for fields bound together. After its views are created again, the view calls {@link #reset()}
+ * so that the next state is bound in full.
+ *
+ * @param <S> Top class of the {@link MviViewState} rendered by the view.
+ */
+public final class MviStateDiff<S extends MviViewState> {
+
+    /**
+     * Reads one field of a state.
+     */
+    public interface Field<S, T> {
+        @Nullable
+        T get(@NonNull S state);
+    }
+
+    /**
+     * Binds the value of a field to a view.
+     */
+    public interface Binder<T> {
+        void bind(@Nullable T value);
+    }
+
+    @Nullable
+    private S mPrevious;
+
+    @Nullable
+    private S mCurrent;
+
+    /**
+     * Makes the state the current one, and the current one the previous.
+     */
+    public void next(@NonNull S state) {
+        checkNotNull(state, "state cannot be null");
+        mPrevious = mCurrent;
+        mCurrent = state;
+    }
+
+    /**
+     * Forgets the states rendered so far, every field of the next state is then changed.
+     */
+    public void reset() {
+        mPrevious = null;
+        mCurrent = null;
+    }
+
+    /**
+     * @return the state rendered before the current one, null if there is none.
+     */
+    @Nullable
+    public S previous() {
+        return mPrevious;
+    }
+
+    /**
+     * @return the state being rendered.
+     */
+    @NonNull
+    public S current() {
+        return checkNotNull(mCurrent, "no state is being rendered");
+    }
+
+    /**
+     * @return true if there is no previous state, or if the field differs in the current one.
+     */
+    public boolean changed(@NonNull Field<? super S, ?> field) {
+        S current = current();
+        return mPrevious == null || !Objects.equal(field.get(mPrevious), field.get(current));
+    }
+
+    /**
+     * Binds the field of the current state only if it {@link #changed(Field)}.
+     */
+    public <T> void bind(@NonNull Field<? super S, T> field, @NonNull Binder<? super T> binder) {
+        if (changed(field)) binder.bind(field.get(current()));
+    }
+}
@@ -0,0 +1,356 @@
+package com.example.android.architecture.blueprints.todoapp.mvibase;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.subjects.PublishSubject;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs the stream shared by every screen: {@link MviIntent}s are translated to
+ * {@link MviAction}s, processed into {@link MviResult}s, which are reduced into the
+ * {@link MviViewState}s to render.
+ * <p>
+ * The translation of each intent and the reduction of each result are registered by class, in a
+ * table built once with the store. Dispatching is a single hash lookup by class, whichever the
+ * number of intent and result types, where an {@code instanceof} chain tests the types in turn.
+ * A class extending a registered one, such as the AutoValue implementation of an intent, is
+ * resolved on first use then looked up like the registered ones.
+ * How long each result takes to reduce is reported to the {@link Metrics}.
+ *
+ * @param <I> Top class of the {@link MviIntent} processed by the store.
+ * @param <A> Top class of the {@link MviAction} the intents are translated to.
+ * @param <R> Top class of the {@link MviResult} the actions are processed into.
+ * @param <S> Top class of the {@link MviViewState} the store emits.
+ */
+public final class MviStore<I extends MviIntent, A extends MviAction, R extends MviResult,
+        S extends MviViewState> {
+
+    /**
+     * Translates an {@link MviIntent} to an {@link MviAction}.
+     */
+    public interface IntentMapper<X, A> {
+        @NonNull
+        A toAction(@NonNull X intent);
+    }
+
+    /**
+     * Creates a new {@link MviViewState} from the previous one and the latest {@link MviResult}.
+     */
+    public interface Reducer<S, X> {
+        @NonNull
+        S reduce(@NonNull S previousState, @NonNull X result);
+    }
+
+    /**
+     * Hook notified of the results reduced by the stores.
+     */
+    public interface Metrics {
+        /**
+         * Called after a result is reduced, on the thread reducing it.
+         *
+         * @param result        result reduced
+         * @param durationNanos time spent in the reducer
+         */
+        void onResultReduced(@NonNull MviResult result, long durationNanos);
+    }
+
+    @Nullable
+    private static volatile Metrics sMetrics;
+
+    /**
+     * Proxy subject used to keep the stream alive even after the UI gets recycled.
+     * This is basically used to keep ongoing events and the last cached State alive
+     * while the UI disconnects and reconnects on config changes.
+     */
+    @NonNull
+    private final PublishSubject<I> mIntentsSubject = PublishSubject.create();
+    @NonNull
+    private final CompositeDisposable mDisposables = new CompositeDisposable();
+    @NonNull
+    private final ClassTable<IntentMapper<?, ? extends A>> mIntentMappers;
+    @NonNull
+    private final ClassTable<Reducer<S, ?>> mReducers;
+    @NonNull
+    private final Observable<S> mStatesObservable;
+
+    private MviStore(@NonNull Builder<I, A, R, S> builder) {
+        mIntentMappers = new ClassTable<>(builder.mIntentMappers);
+        mReducers = new ClassTable<>(builder.mReducers);
+        mStatesObservable = compose(builder);
+    }
+
+    /**
+     * Sets the hook notified by all the stores, or null to stop reporting.
+     */
+    public static void setMetrics(@Nullable Metrics metrics) {
+        sMetrics = metrics;
+    }
+
+    /**
+     * @param initialState    state emitted before any result is reduced
+     * @param actionProcessor processes the actions into results
+     */
+    @NonNull
+    public static <I extends MviIntent, A extends MviAction, R extends MviResult,
+            S extends MviViewState> Builder<I, A, R, S> builder(
+            @NonNull S initialState, @NonNull ObservableTransformer<A, R> actionProcessor) {
+        return new Builder<>(initialState, actionProcessor);
+    }
+
+    public void processIntents(@NonNull Observable<I> intents) {
+        mDisposables.add(intents.subscribe(mIntentsSubject::onNext));
+    }
+
+    @NonNull
+    public Observable<S> states() {
+        return mStatesObservable;
+    }
+
+    /**
+     * Stops listening to the intents passed so far and tears the stream down, unsubscribing from
+     * the sources the action processor merged in.
+     */
+    public void dispose() {
+        mDisposables.dispose();
+    }
+
+    /**
+     * Compose all components to create the stream logic
+     */
+    private Observable<S> compose(@NonNull Builder<I, A, R, S> builder) {
+        return mIntentsSubject
+                .compose(initialIntentFilter(builder.mInitialIntent))
+                .map(this::toAction)
+                .compose(ignoredActionFilter(builder.mIgnoredActions))
+                .compose(builder.mActionProcessor)
+                // Reduce off the main thread. The scan stays sequential since observeOn delivers
+                // one result at a time.
+                .observeOn(checkNotNull(builder.mReduceScheduler, "reduceOn was not set"))
+                // Cache each state and pass it to the reducer to create a new state from
+                // the previous cached one and the latest Result emitted from the action processor.
+                // The Scan operator is used here for the caching.
+                .scan(builder.mInitialState, this::reduce)
+                // When a reducer just emits previousState, there's no reason to call render. In fact,
+                // redrawing the UI in cases like this can cause jank (e.g. messing up snackbar animations
+                // by showing the same snackbar twice in rapid succession).
+                .distinctUntilChanged()
+                // Only hop to the main thread with the states to render.
+                .observeOn(checkNotNull(builder.mRenderScheduler, "renderOn was not set"))
+                // Emit the last one event of the stream on subscription
+                // Useful when a View rebinds to the ViewModel after rotation.
+                .replay(1)
+                // Create the stream on creation without waiting for anyone to subscribe
+                // This allows the stream to stay alive even when the UI disconnects and
+                // match the stream's lifecycle to the ViewModel's one: the connection is
+                // disposed along with the intents.
+                .autoConnect(0, mDisposables::add);
+    }
+
+    /**
+     * take only the first ever InitialIntent and all intents of other types
+     * to avoid reloading data on config changes. A single filter, rather than two merged ones,
+     * so that each intent is only tested once.
+     */
+    private ObservableTransformer<I, I> initialIntentFilter(
+            @Nullable Class<? extends I> initialIntent) {
+        if (initialIntent == null) return intents -> intents;
+        return intents -> Observable.defer(() -> {
+            boolean[] initialIntentPassed = new boolean[1];
+            return intents.filter(intent -> {
+                if (!initialIntent.isInstance(intent)) return true;
+                if (initialIntentPassed[0]) return false;
+                initialIntentPassed[0] = true;
+                return true;
+            });
+        });
+    }
+
+    /**
+     * Drops the ignored actions, without adding a step to the stream if there are none.
+     */
+    private ObservableTransformer<A, A> ignoredActionFilter(
+            @NonNull List<Class<? extends A>> ignoredActions) {
+        if (ignoredActions.isEmpty()) return actions -> actions;
+        List<Class<? extends A>> ignored = new ArrayList<>(ignoredActions);
+        return actions -> actions.filter(action -> !isInstance(ignored, action));
+    }
+
+    @SuppressWarnings("unchecked")
+    private A toAction(@NonNull I intent) {
+        IntentMapper<I, ? extends A> mapper =
+                (IntentMapper<I, ? extends A>) mIntentMappers.get(intent.getClass());
+        if (mapper == null) {
+            throw new IllegalArgumentException("do not know how to treat this intent " + intent);
+        }
+        return mapper.toAction(intent);
+    }
+
+    @SuppressWarnings("unchecked")
+    private S reduce(@NonNull S previousState, @NonNull R result) {
+        Reducer<S, R> reducer = (Reducer<S, R>) mReducers.get(result.getClass());
+        if (reducer == null) {
+            throw new IllegalArgumentException("Don't know this result " + result);
+        }
+        Metrics metrics = sMetrics;
+        if (metrics == null) return reducer.reduce(previousState, result);
+        long start = System.nanoTime();
+        S state = reducer.reduce(previousState, result);
+        metrics.onResultReduced(result, System.nanoTime() - start);
+        return state;
+    }
+
+    private static boolean isInstance(@NonNull List<? extends Class<?>> types,
+                                      @NonNull Object value) {
+        for (int i = 0; i < types.size(); i++) {
+            if (types.get(i).isInstance(value)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Values registered by class, also found by the classes extending or implementing a registered
+     * one.
+     */
+    private static final class ClassTable<V> {
+        @NonNull
+        private final Map<Class<?>, V> mRegistered;
+        /**
+         * Value of every class looked up so far, registered or resolved, so that a lookup is a
+         * single hash lookup. Read from any thread.
+         */
+        @NonNull
+        private final Map<Class<?>, V> mValues;
+
+        ClassTable(@NonNull Map<Class<?>, V> registered) {
+            mRegistered = new HashMap<>(registered);
+            mValues = new ConcurrentHashMap<>(registered);
+        }
+
+        @Nullable
+        V get(@NonNull Class<?> type) {
+            V value = mValues.get(type);
+            if (value == null) {
+                value = resolve(type);
+                if (value != null) mValues.put(type, value);
+            }
+            return value;
+        }
+
+        @Nullable
+        private V resolve(@NonNull Class<?> type) {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                V value = mRegistered.get(c);
+                if (value != null) return value;
+                for (Class<?> implemented : c.getInterfaces()) {
+                    value = mRegistered.get(implemented);
+                    if (value != null) return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static final class Builder<I extends MviIntent, A extends MviAction,
+            R extends MviResult, S extends MviViewState> {
+        @NonNull
+        private final S mInitialState;
+        @NonNull
+        private final ObservableTransformer<A, R> mActionProcessor;
+        @NonNull
+        private final Map<Class<?>, IntentMapper<?, ? extends A>> mIntentMappers = new HashMap<>();
+        @NonNull
+        private final Map<Class<?>, Reducer<S, ?>> mReducers = new HashMap<>();
+        @NonNull
+        private final List<Class<? extends A>> mIgnoredActions = new ArrayList<>();
+        @Nullable
+        private Class<? extends I> mInitialIntent;
+        @Nullable
+        private Scheduler mReduceScheduler;
+        @Nullable
+        private Scheduler mRenderScheduler;
+
+        private Builder(@NonNull S initialState, @NonNull ObservableTransformer<A, R> actionProcessor) {
+            mInitialState = checkNotNull(initialState, "initialState cannot be null");
+            mActionProcessor = checkNotNull(actionProcessor, "actionProcessor cannot be null");
+        }
+
+        /**
+         * Only lets the first intent of the type through, so that the data isn't loaded again on
+         * config changes.
+         */
+        public Builder<I, A, R, S> initialIntent(@NonNull Class<? extends I> type) {
+            mInitialIntent = checkNotNull(type, "type cannot be null");
+            return this;
+        }
+
+        /**
+         * Translates the intents of the type with the mapper.
+         */
+        public <X extends I> Builder<I, A, R, S> intent(
+                @NonNull Class<X> type, @NonNull IntentMapper<? super X, ? extends A> mapper) {
+            register(mIntentMappers, type, mapper);
+            return this;
+        }
+
+        /**
+         * Drops the actions of the type instead of processing them.
+         */
+        public Builder<I, A, R, S> ignoreAction(@NonNull Class<? extends A> type) {
+            mIgnoredActions.add(checkNotNull(type, "type cannot be null"));
+            return this;
+        }
+
+        /**
+         * Reduces the results of the type with the reducer.
+         */
+        public <X extends R> Builder<I, A, R, S> result(
+                @NonNull Class<X> type, @NonNull Reducer<S, ? super X> reducer) {
+            register(mReducers, type, reducer);
+            return this;
+        }
+
+        /**
+         * Scheduler the results are reduced on.
+         */
+        public Builder<I, A, R, S> reduceOn(@NonNull Scheduler scheduler) {
+            mReduceScheduler = checkNotNull(scheduler, "scheduler cannot be null");
+            return this;
+        }
+
+        /**
+         * Scheduler the states are emitted on.
+         */
+        public Builder<I, A, R, S> renderOn(@NonNull Scheduler scheduler) {
+            mRenderScheduler = checkNotNull(scheduler, "scheduler cannot be null");
+            return this;
+        }
+
+        /**
+         * Creates the store, which starts processing the intents it is passed right away.
+         */
+        public MviStore<I, A, R, S> build() {
+            return new MviStore<>(this);
+        }
+
+        private static <V> void register(@NonNull Map<Class<?>, V> table, @NonNull Class<?> type,
+                                         @NonNull V value) {
+            checkNotNull(type, "type cannot be null");
+            checkNotNull(value, "value cannot be null");
+            if (table.put(type, value) != null) {
+                throw new IllegalArgumentException(type + " is registered already");
+            }
+        }
+    }
+}
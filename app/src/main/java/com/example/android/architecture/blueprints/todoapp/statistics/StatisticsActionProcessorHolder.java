@@ -2,18 +2,18 @@ package com.example.android.architecture.blueprints.todoapp.statistics;
 
 import android.support.annotation.NonNull;
 
-import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.FetchStrategy;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviAction;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviResult;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
-import com.example.android.architecture.blueprints.todoapp.util.Pair;
+import com.example.android.architecture.blueprints.todoapp.router.ActionRouter;
+import com.example.android.architecture.blueprints.todoapp.router.RoutesAction;
+import com.example.android.architecture.blueprints.todoapp.util.ConcurrencyPolicy;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 
 import io.reactivex.Observable;
 import io.reactivex.ObservableTransformer;
-import io.reactivex.Single;
-import io.reactivex.functions.Function;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -24,71 +24,78 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * This could have been included inside the {@link MviViewModel}
  * but was separated to ease maintenance, as the {@link MviViewModel} was getting too big.
  */
+@ActionRouter(actions = StatisticsAction.class, results = StatisticsResult.class)
 public class StatisticsActionProcessorHolder {
     @NonNull
     private TasksRepository mTasksRepository;
     @NonNull
     private BaseSchedulerProvider mSchedulerProvider;
+    @NonNull
+    private FetchStrategy mFetchStrategy;
 
     public StatisticsActionProcessorHolder(@NonNull TasksRepository tasksRepository,
                                            @NonNull BaseSchedulerProvider schedulerProvider) {
+        this(tasksRepository, schedulerProvider, FetchStrategy.sequential());
+    }
+
+    /**
+     * @param fetchStrategy how the repository queries its data sources for the tasks loaded here
+     */
+    public StatisticsActionProcessorHolder(@NonNull TasksRepository tasksRepository,
+                                           @NonNull BaseSchedulerProvider schedulerProvider,
+                                           @NonNull FetchStrategy fetchStrategy) {
         this.mTasksRepository = checkNotNull(tasksRepository, "tasksRepository cannot be null");
         this.mSchedulerProvider = checkNotNull(schedulerProvider, "schedulerProvider cannot be null");
-
+        this.mFetchStrategy = checkNotNull(fetchStrategy, "fetchStrategy cannot be null");
     }
 
-    private ObservableTransformer<StatisticsAction.LoadStatistics, StatisticsResult.LoadStatistics>
-            loadStatisticsProcessor = actions ->
-            actions.flatMap(action ->
-                    mTasksRepository.getTasks()
+    /**
+     * The latest load wins, the previous one is cancelled.
+     */
+    @RoutesAction
+    ObservableTransformer<StatisticsAction.LoadStatistics, StatisticsResult.LoadStatistics>
+            loadStatisticsProcessor =
+            ConcurrencyPolicy.SWITCH.apply(action ->
+                    // The repository counts the tasks without handing them over.
+                    mTasksRepository.getTaskCounts(mFetchStrategy)
                             // Transform the Single to an Observable to allow emission of multiple
                             // events down the stream (e.g. the InFlight event)
                             .toObservable()
-                            // Transform one event of a List<Task> to an observable<Task>.
-                            .flatMap(Observable::fromIterable)
-                            // Count all active and completed tasks and wrap the result into a Pair.
-                            .publish(shared ->
-                                    Single.zip(
-                                            shared.filter(Task::isActive).count(),
-                                            shared.filter(Task::isCompleted).count(),
-                                            Pair::create).toObservable())
                             // Wrap returned data into an immutable object
-                            .map(pair ->
-                                    StatisticsResult.LoadStatistics.success(
-                                            pair.first().intValue(), pair.second().intValue()))
+                            .map(counts -> StatisticsResult.LoadStatistics.success(
+                                    counts.activeCount(), counts.completedCount()))
                             // Wrap any error into an immutable object and pass it down the stream
                             // without crashing.
                             // Because errors are data and hence, should just be part of the stream.
                             .onErrorReturn(StatisticsResult.LoadStatistics::failure)
                             .subscribeOn(mSchedulerProvider.io())
-                            .observeOn(mSchedulerProvider.ui())
                             // Emit an InFlight event to notify the subscribers (e.g. the UI) we are
                             // doing work and waiting on a response.
-                            // We emit it after observing on the UI thread to allow the event to be emitted
-                            // on the current frame and avoid jank.
                             .startWith(StatisticsResult.LoadStatistics.inFlight()));
 
     /**
-     * Splits the {@link Observable<MviAction>} to match each type of {@link MviAction} to
-     * its corresponding business logic processor. Each processor takes a defined {@link MviAction},
-     * returns a defined {@link MviResult}
-     * The global actionProcessor then merges all {@link Observable<MviResult>} back to
-     * one unique {@link Observable<MviResult>}.
+     * Turns the task counts pushed by the repository after every change into results, so that the
+     * statistics stay up to date without reloading nor counting the tasks.
+     */
+    private Observable<StatisticsResult.TaskCountsChanged> taskCounts() {
+        return mTasksRepository.taskCounts()
+                .map(StatisticsResult.TaskCountsChanged::create)
+                .subscribeOn(mSchedulerProvider.io());
+    }
+
+    /**
+     * Routes each {@link MviAction} to its business logic processor, the field annotated with
+     * {@link RoutesAction} for its type. Each processor takes a defined {@link MviAction},
+     * returns a defined {@link MviResult}, and the router merges all of them back to one unique
+     * {@link Observable<MviResult>}.
      * <p>
-     * The splitting is done using {@link Observable#publish(Function)} which allows almost anything
-     * on the passed {@link Observable} as long as one and only one {@link Observable} is returned.
+     * The router is generated at compile time, which fails if an action has no processor.
      * <p>
-     * An security layer is also added for unhandled {@link MviAction} to allow early crash
-     * at runtime to easy the maintenance.
+     * The task counts pushed by the repository are merged in as well, for as long as the actions
+     * are being processed.
      */
     ObservableTransformer<StatisticsAction, StatisticsResult> actionProcessor =
-            actions -> actions.publish(shared ->
-                    // Match LoadStatistics to loadStatisticsProcessor
-                    shared.ofType(StatisticsAction.LoadStatistics.class).compose(loadStatisticsProcessor)
-                            .cast(StatisticsResult.class).mergeWith(
-                            // Error for not implemented actions
-                            shared.filter(v -> !(v instanceof StatisticsAction.LoadStatistics))
-                                    .flatMap(w -> Observable.error(
-                                            new IllegalArgumentException("Unknown Action type: " + w)))));
-
+            actions -> actions.compose(StatisticsActionProcessorHolder_ActionRouter.create(this))
+                    // Apply the repository changes
+                    .mergeWith(taskCounts());
 }
@@ -27,8 +27,11 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.example.android.architecture.blueprints.todoapp.Injection;
 import com.example.android.architecture.blueprints.todoapp.R;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviIntent;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviRenderGate;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviStateDiff;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviView;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewState;
@@ -48,6 +51,8 @@ public class StatisticsFragment extends Fragment
     private StatisticsViewModel mViewModel;
     // Used to manage the data flow lifecycle and avoid memory leak.
     private CompositeDisposable mDisposables;
+    // Last rendered state next to the one being rendered, to only bind what changed.
+    private final MviStateDiff<StatisticsViewState> mStateDiff = new MviStateDiff<>();
 
     public static StatisticsFragment newInstance() {
         return new StatisticsFragment();
@@ -58,6 +63,8 @@ public class StatisticsFragment extends Fragment
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         View root = inflater.inflate(R.layout.statistics_frag, container, false);
+        // The new views display nothing yet, the next state is bound in full.
+        mStateDiff.reset();
         mStatisticsTV = (TextView) root.findViewById(R.id.statistics);
         return root;
     }
@@ -78,8 +85,9 @@ public class StatisticsFragment extends Fragment
      * emitted {@link MviViewState}s could be lost
      */
     private void bind() {
-        // Subscribe to the ViewModel and call render for every emitted state
-        mDisposables.add(mViewModel.states().subscribe(this::render));
+        // Subscribe to the ViewModel and call render with the latest state of every frame
+        mDisposables.add(MviRenderGate.bind(mViewModel, this,
+                Injection.provideSchedulerProvider().frame()));
         // Pass the UI's intents to the ViewModel
         mViewModel.processIntents(intents());
     }
@@ -108,6 +116,15 @@ public class StatisticsFragment extends Fragment
 
     @Override
     public void render(StatisticsViewState state) {
+        mStateDiff.next(state);
+        // Every field is displayed in the same text, which is only set again if one changed.
+        if (!mStateDiff.changed(StatisticsViewState::isLoading)
+                && !mStateDiff.changed(StatisticsViewState::error)
+                && !mStateDiff.changed(StatisticsViewState::activeCount)
+                && !mStateDiff.changed(StatisticsViewState::completedCount)) {
+            return;
+        }
+
         if (state.isLoading()) mStatisticsTV.setText(getString(R.string.loading));
         if (state.error() != null) {
             mStatisticsTV.setText(getResources().getString(R.string.statistics_error));
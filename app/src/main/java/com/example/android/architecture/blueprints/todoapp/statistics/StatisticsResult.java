@@ -3,6 +3,7 @@ package com.example.android.architecture.blueprints.todoapp.statistics;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskCounts;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviResult;
 import com.example.android.architecture.blueprints.todoapp.util.LceStatus;
 import com.google.auto.value.AutoValue;
@@ -36,4 +37,15 @@ interface StatisticsResult extends MviResult {
             return new AutoValue_StatisticsResult_LoadStatistics(LceStatus.IN_FLIGHT, 0, 0, null);
         }
     }
+
+    @AutoValue
+    abstract class TaskCountsChanged implements StatisticsResult {
+        @NonNull
+        abstract TaskCounts counts();
+
+        @NonNull
+        static TaskCountsChanged create(@NonNull TaskCounts counts) {
+            return new AutoValue_StatisticsResult_TaskCountsChanged(counts);
+        }
+    }
 }
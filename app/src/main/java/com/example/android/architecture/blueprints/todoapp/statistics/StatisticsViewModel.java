@@ -19,18 +19,15 @@ package com.example.android.architecture.blueprints.todoapp.statistics;
 import android.arch.lifecycle.ViewModel;
 import android.support.annotation.NonNull;
 
-import com.example.android.architecture.blueprints.todoapp.mvibase.MviAction;
-import com.example.android.architecture.blueprints.todoapp.mvibase.MviIntent;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskCounts;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviResult;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviStore;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviView;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewState;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 
 import io.reactivex.Observable;
-import io.reactivex.ObservableTransformer;
-import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.functions.BiFunction;
-import io.reactivex.subjects.PublishSubject;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -42,119 +39,79 @@ public class StatisticsViewModel extends ViewModel
         implements MviViewModel<StatisticsIntent, StatisticsViewState> {
 
     /**
-     * Proxy subject used to keep the stream alive even after the UI gets recycled.
-     * This is basically used to keep ongoing events and the last cached State alive
-     * while the UI disconnects and reconnects on config changes.
+     * Translates the intents, runs their actions and reduces the results.
      */
     @NonNull
-    private PublishSubject<StatisticsIntent> mIntentsSubject;
-    @NonNull
-    private Observable<StatisticsViewState> mStatesObservable;
-    @NonNull
-    private CompositeDisposable mDisposables = new CompositeDisposable();
-    /**
-     * Contains and executes the business logic of all emitted actions.
-     */
-    @NonNull
-    private StatisticsActionProcessorHolder mActionProcessorHolder;
-
-    public StatisticsViewModel(@NonNull StatisticsActionProcessorHolder actionProcessorHolder) {
-        this.mActionProcessorHolder = checkNotNull(actionProcessorHolder, "actionProcessorHolder cannot be null");
-
-        mIntentsSubject = PublishSubject.create();
-        mStatesObservable = compose();
+    private final MviStore<StatisticsIntent, StatisticsAction, StatisticsResult, StatisticsViewState>
+            mStore;
+
+    public StatisticsViewModel(@NonNull StatisticsActionProcessorHolder actionProcessorHolder,
+                               @NonNull BaseSchedulerProvider schedulerProvider) {
+        checkNotNull(actionProcessorHolder, "actionProcessorHolder cannot be null");
+        checkNotNull(schedulerProvider, "schedulerProvider cannot be null");
+
+        mStore = MviStore.<StatisticsIntent, StatisticsAction, StatisticsResult, StatisticsViewState>builder(
+                StatisticsViewState.idle(), actionProcessorHolder.actionProcessor)
+                .initialIntent(StatisticsIntent.InitialIntent.class)
+                .intent(StatisticsIntent.InitialIntent.class, intent ->
+                        StatisticsAction.LoadStatistics.create())
+                .result(StatisticsResult.LoadStatistics.class,
+                        StatisticsViewModel::reduceLoadStatistics)
+                .result(StatisticsResult.TaskCountsChanged.class,
+                        StatisticsViewModel::reduceTaskCountsChanged)
+                // Reduce off the main thread, like the other screens.
+                .reduceOn(schedulerProvider.computation())
+                .renderOn(schedulerProvider.ui())
+                .build();
     }
 
     @Override
     public void processIntents(Observable<StatisticsIntent> intents) {
-        mDisposables.add(intents.subscribe(mIntentsSubject::onNext));
+        mStore.processIntents(intents);
     }
 
     @Override
     public Observable<StatisticsViewState> states() {
-        return mStatesObservable;
+        return mStore.states();
     }
 
-    /**
-     * Compose all components to create the stream logic
-     */
-    private Observable<StatisticsViewState> compose() {
-        return mIntentsSubject
-                .compose(intentFilter)
-                .map(this::actionFromIntent)
-                .compose(mActionProcessorHolder.actionProcessor)
-                // Cache each state and pass it to the reducer to create a new state from
-                // the previous cached one and the latest Result emitted from the action processor.
-                // The Scan operator is used here for the caching.
-                .scan(StatisticsViewState.idle(), reducer)
-                // When a reducer just emits previousState, there's no reason to call render. In fact,
-                // redrawing the UI in cases like this can cause jank (e.g. messing up snackbar animations
-                // by showing the same snackbar twice in rapid succession).
-                .distinctUntilChanged()
-                // Emit the last one event of the stream on subscription.
-                // Useful when a View rebinds to the ViewModel after rotation.
-                .replay(1)
-                // Create the stream on creation without waiting for anyone to subscribe
-                // This allows the stream to stay alive even when the UI disconnects and
-                // match the stream's lifecycle to the ViewModel's one.
-                .autoConnect(0);
+    @Override
+    protected void onCleared() {
+        mStore.dispose();
     }
 
     /**
-     * take only the first ever InitialIntent and all intents of other types
-     * to avoid reloading data on config changes
-     */
-    private ObservableTransformer<StatisticsIntent, StatisticsIntent> intentFilter =
-            intents -> intents.publish(shared ->
-                    Observable.merge(
-                            shared.ofType(StatisticsIntent.InitialIntent.class).take(1),
-                            shared.filter(intent -> !(intent instanceof StatisticsIntent.InitialIntent))
-                    )
-            );
-
-    /**
-     * Translate an {@link MviIntent} to an {@link MviAction}.
-     * Used to decouple the UI and the business logic to allow easy testings and reusability.
+     * The reducers are where {@link MviViewState}, that the {@link MviView} will use to
+     * render itself, are created.
+     * Each takes the last cached {@link MviViewState}, the latest {@link MviResult} of its type
+     * and creates a new {@link MviViewState} by only updating the related fields.
      */
-    private StatisticsAction actionFromIntent(MviIntent intent) {
-        if (intent instanceof StatisticsIntent.InitialIntent) {
-            return StatisticsAction.LoadStatistics.create();
+    private static StatisticsViewState reduceLoadStatistics(
+            @NonNull StatisticsViewState previousState,
+            @NonNull StatisticsResult.LoadStatistics loadResult) {
+        StatisticsViewState.Builder stateBuilder = previousState.buildWith();
+        switch (loadResult.status()) {
+            case SUCCESS:
+                return stateBuilder.isLoading(false)
+                        .activeCount(loadResult.activeCount())
+                        .completedCount(loadResult.completedCount())
+                        .build();
+            case FAILURE:
+                return stateBuilder.isLoading(false).error(loadResult.error()).build();
+            case IN_FLIGHT:
+                return stateBuilder.isLoading(true).build();
         }
-        throw new IllegalArgumentException("do not know how to treat this intent " + intent);
+        // Fail for unhandled results
+        throw new IllegalStateException("Mishandled result? Should not happen (as always)");
     }
 
-    @Override
-    protected void onCleared() {
-        mDisposables.dispose();
+    private static StatisticsViewState reduceTaskCountsChanged(
+            @NonNull StatisticsViewState previousState,
+            @NonNull StatisticsResult.TaskCountsChanged result) {
+        TaskCounts counts = result.counts();
+        return previousState.buildWith()
+                .activeCount(counts.activeCount())
+                .completedCount(counts.completedCount())
+                .build();
     }
-
-    /**
-     * The Reducer is where {@link MviViewState}, that the {@link MviView} will use to
-     * render itself, are created.
-     * It takes the last cached {@link MviViewState}, the latest {@link MviResult} and
-     * creates a new {@link MviViewState} by only updating the related fields.
-     * This is basically like a big switch statement of all possible types for the {@link MviResult}
-     */
-    private static BiFunction<StatisticsViewState, StatisticsResult, StatisticsViewState> reducer =
-            (previousState, result) -> {
-                StatisticsViewState.Builder stateBuilder = previousState.buildWith();
-                if (result instanceof StatisticsResult.LoadStatistics) {
-                    StatisticsResult.LoadStatistics loadResult = (StatisticsResult.LoadStatistics) result;
-                    switch (loadResult.status()) {
-                        case SUCCESS:
-                            return stateBuilder.isLoading(false)
-                                    .activeCount(loadResult.activeCount())
-                                    .completedCount(loadResult.completedCount())
-                                    .build();
-                        case FAILURE:
-                            return stateBuilder.isLoading(false).error(loadResult.error()).build();
-                        case IN_FLIGHT:
-                            return stateBuilder.isLoading(true).build();
-                    }
-                } else {
-                    throw new IllegalArgumentException("Don't know this result " + result);
-                }
-                // Fail for unhandled results
-                throw new IllegalStateException("Mishandled result? Should not happen (as always)");
-            };
 }
@@ -34,10 +34,13 @@ import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.TextView;
 
+import com.example.android.architecture.blueprints.todoapp.Injection;
 import com.example.android.architecture.blueprints.todoapp.R;
 import com.example.android.architecture.blueprints.todoapp.addedittask.AddEditTaskActivity;
 import com.example.android.architecture.blueprints.todoapp.addedittask.AddEditTaskFragment;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviIntent;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviRenderGate;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviStateDiff;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviView;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewState;
@@ -70,6 +73,8 @@ public class TaskDetailFragment extends Fragment implements MviView<TaskDetailIn
 
     // Used to manage the data flow lifecycle and avoid memory leak.
     private CompositeDisposable mDisposables = new CompositeDisposable();
+    // Last rendered state next to the one being rendered, to only bind what changed.
+    private final MviStateDiff<TaskDetailViewState> mStateDiff = new MviStateDiff<>();
     private PublishSubject<TaskDetailIntent.DeleteTask> mDeleteTaskIntentPublisher = PublishSubject.create();
 
     public static TaskDetailFragment newInstance(@Nullable String taskId) {
@@ -85,6 +90,8 @@ public class TaskDetailFragment extends Fragment implements MviView<TaskDetailIn
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         View root = inflater.inflate(R.layout.taskdetail_frag, container, false);
+        // The new views display nothing yet, the next state is bound in full.
+        mStateDiff.reset();
         setHasOptionsMenu(true);
         mDetailTitle = (TextView) root.findViewById(R.id.task_detail_title);
         mDetailDescription = (TextView) root.findViewById(R.id.task_detail_description);
@@ -113,8 +120,9 @@ public class TaskDetailFragment extends Fragment implements MviView<TaskDetailIn
      * emitted {@link MviViewState}s could be lost
      */
     private void bind() {
-        // Subscribe to the ViewModel and call render for every emitted state
-        mDisposables.add(mViewModel.states().subscribe(this::render));
+        // Subscribe to the ViewModel and call render with the latest state of every frame
+        mDisposables.add(MviRenderGate.bind(mViewModel, this,
+                Injection.provideSchedulerProvider().frame()));
         // Pass the UI's intents to the ViewModel
         mViewModel.processIntents(intents());
 
@@ -170,35 +178,40 @@ public class TaskDetailFragment extends Fragment implements MviView<TaskDetailIn
 
     @Override
     public void render(TaskDetailViewState state) {
+        mStateDiff.next(state);
+
+        // The loading indicator writes over the title and description, they are bound together.
+        if (mStateDiff.changed(TaskDetailViewState::loading)
+                || mStateDiff.changed(TaskDetailViewState::title)
+                || mStateDiff.changed(TaskDetailViewState::description)) {
+            setLoadingIndicator(state.loading());
+
+            if (!state.title().isEmpty()) {
+                showTitle(state.title());
+            } else {
+                hideTitle();
+            }
 
-        setLoadingIndicator(state.loading());
-
-        if (!state.title().isEmpty()) {
-            showTitle(state.title());
-        } else {
-            hideTitle();
+            if (!state.description().isEmpty()) {
+                showDescription(state.description());
+            } else {
+                hideDescription();
+            }
         }
 
-        if (!state.description().isEmpty()) {
-            showDescription(state.description());
-        } else {
-            hideDescription();
-        }
+        mStateDiff.bind(TaskDetailViewState::active, this::showActive);
 
-        showActive(state.active());
+        mStateDiff.bind(TaskDetailViewState::taskComplete, complete -> {
+            if (complete) showTaskMarkedComplete();
+        });
 
-        if (state.taskComplete()) {
-            showTaskMarkedComplete();
-        }
-
-        if (state.taskActivated()) {
-            showTaskMarkedActive();
-        }
-
-        if (state.taskDeleted()) {
-            getActivity().finish();
-        }
+        mStateDiff.bind(TaskDetailViewState::taskActivated, activated -> {
+            if (activated) showTaskMarkedActive();
+        });
 
+        mStateDiff.bind(TaskDetailViewState::taskDeleted, deleted -> {
+            if (deleted) getActivity().finish();
+        });
     }
 
     @Override
@@ -20,18 +20,14 @@ import android.arch.lifecycle.ViewModel;
 import android.support.annotation.NonNull;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
-import com.example.android.architecture.blueprints.todoapp.mvibase.MviAction;
-import com.example.android.architecture.blueprints.todoapp.mvibase.MviIntent;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviResult;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviStore;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviView;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewState;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 
 import io.reactivex.Observable;
-import io.reactivex.ObservableTransformer;
-import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.functions.BiFunction;
-import io.reactivex.subjects.PublishSubject;
 
 import static com.example.android.architecture.blueprints.todoapp.util.UiNotificationStatus.SHOW;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -44,184 +40,138 @@ public class TaskDetailViewModel extends ViewModel
         implements MviViewModel<TaskDetailIntent, TaskDetailViewState> {
 
     /**
-     * Proxy subject used to keep the stream alive even after the UI gets recycled.
-     * This is basically used to keep ongoing events and the last cached State alive
-     * while the UI disconnects and reconnects on config changes.
+     * Translates the intents, runs their actions and reduces the results.
      */
     @NonNull
-    private PublishSubject<TaskDetailIntent> mIntentsSubject;
-    @NonNull
-    private Observable<TaskDetailViewState> mStatesObservable;
-    @NonNull
-    private CompositeDisposable mDisposables = new CompositeDisposable();
-    /**
-     * Contains and executes the business logic of all emitted actions.
-     */
-    @NonNull
-    private TaskDetailActionProcessorHolder mActionProcessorHolder;
-
-    public TaskDetailViewModel(@NonNull TaskDetailActionProcessorHolder actionProcessorHolder) {
-        mActionProcessorHolder = checkNotNull(actionProcessorHolder);
-
-        mIntentsSubject = PublishSubject.create();
-        mStatesObservable = compose();
+    private final MviStore<TaskDetailIntent, TaskDetailAction, TaskDetailResult, TaskDetailViewState>
+            mStore;
+
+    public TaskDetailViewModel(@NonNull TaskDetailActionProcessorHolder actionProcessorHolder,
+                               @NonNull BaseSchedulerProvider schedulerProvider) {
+        checkNotNull(actionProcessorHolder);
+        checkNotNull(schedulerProvider);
+
+        mStore = MviStore.<TaskDetailIntent, TaskDetailAction, TaskDetailResult, TaskDetailViewState>builder(
+                TaskDetailViewState.idle(), actionProcessorHolder.actionProcessor)
+                .initialIntent(TaskDetailIntent.InitialIntent.class)
+                .intent(TaskDetailIntent.InitialIntent.class, intent ->
+                        TaskDetailAction.PopulateTask.create(checkNotNull(intent.taskId())))
+                .intent(TaskDetailIntent.DeleteTask.class, intent ->
+                        TaskDetailAction.DeleteTask.create(intent.taskId()))
+                .intent(TaskDetailIntent.CompleteTaskIntent.class, intent ->
+                        TaskDetailAction.CompleteTask.create(intent.taskId()))
+                .intent(TaskDetailIntent.ActivateTaskIntent.class, intent ->
+                        TaskDetailAction.ActivateTask.create(intent.taskId()))
+                .result(TaskDetailResult.PopulateTask.class, TaskDetailViewModel::reducePopulateTask)
+                .result(TaskDetailResult.DeleteTaskResult.class, TaskDetailViewModel::reduceDeleteTask)
+                .result(TaskDetailResult.ActivateTaskResult.class,
+                        TaskDetailViewModel::reduceActivateTask)
+                .result(TaskDetailResult.CompleteTaskResult.class,
+                        TaskDetailViewModel::reduceCompleteTask)
+                // Reduce off the main thread, like the other screens.
+                .reduceOn(schedulerProvider.computation())
+                .renderOn(schedulerProvider.ui())
+                .build();
     }
 
     @Override
     public void processIntents(Observable<TaskDetailIntent> intents) {
-        mDisposables.add(intents.subscribe(mIntentsSubject::onNext));
+        mStore.processIntents(intents);
     }
 
     @Override
     public Observable<TaskDetailViewState> states() {
-        return mStatesObservable;
+        return mStore.states();
     }
 
-    /**
-     * Compose all components to create the stream logic
-     */
-    private Observable<TaskDetailViewState> compose() {
-        return mIntentsSubject
-                .compose(intentFilter)
-                .map(this::actionFromIntent)
-                .compose(mActionProcessorHolder.actionProcessor)
-                // Cache each state and pass it to the reducer to create a new state from
-                // the previous cached one and the latest Result emitted from the action processor.
-                // The Scan operator is used here for the caching.
-                .scan(TaskDetailViewState.idle(), reducer)
-                // When a reducer just emits previousState, there's no reason to call render. In fact,
-                // redrawing the UI in cases like this can cause jank (e.g. messing up snackbar animations
-                // by showing the same snackbar twice in rapid succession).
-                .distinctUntilChanged()
-                // Emit the last one event of the stream on subscription
-                // Useful when a View rebinds to the ViewModel after rotation.
-                .replay(1)
-                // Create the stream on creation without waiting for anyone to subscribe
-                // This allows the stream to stay alive even when the UI disconnects and
-                // match the stream's lifecycle to the ViewModel's one.
-                .autoConnect(0);
+    @Override
+    protected void onCleared() {
+        mStore.dispose();
     }
 
     /**
-     * take only the first ever InitialIntent and all intents of other types
-     * to avoid reloading data on config changes
-     */
-    private ObservableTransformer<TaskDetailIntent, TaskDetailIntent> intentFilter =
-            intents -> intents.publish(shared ->
-                    Observable.merge(
-                            shared.ofType(TaskDetailIntent.InitialIntent.class).take(1),
-                            shared.filter(intent -> !(intent instanceof TaskDetailIntent.InitialIntent))
-                    )
-            );
-
-    /**
-     * Translate an {@link MviIntent} to an {@link MviAction}.
-     * Used to decouple the UI and the business logic to allow easy testings and reusability.
+     * The reducers are where {@link MviViewState}, that the {@link MviView} will use to
+     * render itself, are created.
+     * Each takes the last cached {@link MviViewState}, the latest {@link MviResult} of its type
+     * and creates a new {@link MviViewState} by only updating the related fields.
      */
-    private TaskDetailAction actionFromIntent(MviIntent intent) {
-        if (intent instanceof TaskDetailIntent.InitialIntent) {
-            String taskId = ((TaskDetailIntent.InitialIntent) intent).taskId();
-            checkNotNull(taskId);
-            return TaskDetailAction.PopulateTask.create(taskId);
-        }
-        if (intent instanceof TaskDetailIntent.DeleteTask) {
-            TaskDetailIntent.DeleteTask deleteTaskIntent = (TaskDetailIntent.DeleteTask) intent;
-            final String taskId = deleteTaskIntent.taskId();
-            return TaskDetailAction.DeleteTask.create(taskId);
+    private static TaskDetailViewState reducePopulateTask(
+            @NonNull TaskDetailViewState previousState,
+            @NonNull TaskDetailResult.PopulateTask populateTaskResult) {
+        TaskDetailViewState.Builder stateBuilder = previousState.buildWith();
+        switch (populateTaskResult.status()) {
+            case SUCCESS:
+                Task task = checkNotNull(populateTaskResult.task());
+                stateBuilder.title(task.getTitle());
+                stateBuilder.description(task.getDescription());
+                stateBuilder.active(task.isActive());
+                stateBuilder.loading(false);
+                return stateBuilder.build();
+            case FAILURE:
+                Throwable error = checkNotNull(populateTaskResult.error());
+                stateBuilder.loading(false);
+                return stateBuilder.error(error).build();
+            case IN_FLIGHT:
+                stateBuilder.loading(true);
+                return stateBuilder.build();
         }
+        // Fail for unhandled results
+        throw new IllegalStateException("Mishandled result? Should not happen―as always: " + populateTaskResult);
+    }
 
-        if (intent instanceof TaskDetailIntent.CompleteTaskIntent) {
-            TaskDetailIntent.CompleteTaskIntent completeTaskIntent = (TaskDetailIntent.CompleteTaskIntent) intent;
-            final String taskId = completeTaskIntent.taskId();
-            return TaskDetailAction.CompleteTask.create(taskId);
+    private static TaskDetailViewState reduceDeleteTask(
+            @NonNull TaskDetailViewState previousState,
+            @NonNull TaskDetailResult.DeleteTaskResult deleteTaskResult) {
+        TaskDetailViewState.Builder stateBuilder = previousState.buildWith();
+        switch (deleteTaskResult.status()) {
+            case SUCCESS:
+                return stateBuilder.taskDeleted(true).build();
+            case FAILURE:
+                return stateBuilder.error(deleteTaskResult.error()).build();
+            case IN_FLIGHT:
+                return stateBuilder.build();
         }
+        // Fail for unhandled results
+        throw new IllegalStateException("Mishandled result? Should not happen―as always: " + deleteTaskResult);
+    }
 
-        if (intent instanceof TaskDetailIntent.ActivateTaskIntent) {
-            TaskDetailIntent.ActivateTaskIntent activateTaskIntent = (TaskDetailIntent.ActivateTaskIntent) intent;
-            final String taskId = activateTaskIntent.taskId();
-            return TaskDetailAction.ActivateTask.create(taskId);
+    private static TaskDetailViewState reduceActivateTask(
+            @NonNull TaskDetailViewState previousState,
+            @NonNull TaskDetailResult.ActivateTaskResult activateTaskResult) {
+        TaskDetailViewState.Builder stateBuilder = previousState.buildWith();
+        switch (activateTaskResult.status()) {
+            case SUCCESS:
+                return stateBuilder
+                        .taskActivated(activateTaskResult.uiNotificationStatus() == SHOW)
+                        .active(true)
+                        .build();
+
+            case FAILURE:
+                return stateBuilder.error(activateTaskResult.error()).build();
+            case IN_FLIGHT:
+                return stateBuilder.build();
         }
-        throw new IllegalArgumentException("do not know how to treat this intent " + intent);
+        // Fail for unhandled results
+        throw new IllegalStateException("Mishandled result? Should not happen―as always: " + activateTaskResult);
     }
 
-    @Override
-    protected void onCleared() {
-        mDisposables.dispose();
+    private static TaskDetailViewState reduceCompleteTask(
+            @NonNull TaskDetailViewState previousState,
+            @NonNull TaskDetailResult.CompleteTaskResult completeTaskResult) {
+        TaskDetailViewState.Builder stateBuilder = previousState.buildWith();
+        switch (completeTaskResult.status()) {
+            case SUCCESS:
+                return stateBuilder
+                        .taskComplete(completeTaskResult.uiNotificationStatus() == SHOW)
+                        .active(false)
+                        .build();
+
+            case FAILURE:
+                return stateBuilder.error(completeTaskResult.error()).build();
+            case IN_FLIGHT:
+                return stateBuilder.build();
+        }
+        // Fail for unhandled results
+        throw new IllegalStateException("Mishandled result? Should not happen―as always: " + completeTaskResult);
     }
-
-    /**
-     * The Reducer is where {@link MviViewState}, that the {@link MviView} will use to
-     * render itself, are created.
-     * It takes the last cached {@link MviViewState}, the latest {@link MviResult} and
-     * creates a new {@link MviViewState} by only updating the related fields.
-     * This is basically like a big switch statement of all possible types for the {@link MviResult}
-     */
-    private static BiFunction<TaskDetailViewState, TaskDetailResult, TaskDetailViewState> reducer =
-            (previousState, result) -> {
-                TaskDetailViewState.Builder stateBuilder = previousState.buildWith();
-                if (result instanceof TaskDetailResult.PopulateTask) {
-                    TaskDetailResult.PopulateTask populateTaskResult =
-                            (TaskDetailResult.PopulateTask) result;
-                    switch (populateTaskResult.status()) {
-                        case SUCCESS:
-                            Task task = checkNotNull(populateTaskResult.task());
-                            stateBuilder.title(task.getTitle());
-                            stateBuilder.description(task.getDescription());
-                            stateBuilder.active(task.isActive());
-                            stateBuilder.loading(false);
-                            return stateBuilder.build();
-                        case FAILURE:
-                            Throwable error = checkNotNull(populateTaskResult.error());
-                            stateBuilder.loading(false);
-                            return stateBuilder.error(error).build();
-                        case IN_FLIGHT:
-                            stateBuilder.loading(true);
-                            return stateBuilder.build();
-                    }
-                }
-                if (result instanceof TaskDetailResult.DeleteTaskResult) {
-                    TaskDetailResult.DeleteTaskResult deleteTaskResult =
-                            (TaskDetailResult.DeleteTaskResult) result;
-                    switch (deleteTaskResult.status()) {
-                        case SUCCESS:
-                            return stateBuilder.taskDeleted(true).build();
-                        case FAILURE:
-                            return stateBuilder.error(deleteTaskResult.error()).build();
-                        case IN_FLIGHT:
-                            return stateBuilder.build();
-                    }
-                } else if (result instanceof TaskDetailResult.ActivateTaskResult) {
-                    TaskDetailResult.ActivateTaskResult activateTaskResult =
-                            (TaskDetailResult.ActivateTaskResult) result;
-                    switch (activateTaskResult.status()) {
-                        case SUCCESS:
-                            return stateBuilder
-                                    .taskActivated(activateTaskResult.uiNotificationStatus() == SHOW)
-                                    .active(true)
-                                    .build();
-
-                        case FAILURE:
-                            return stateBuilder.error(activateTaskResult.error()).build();
-                        case IN_FLIGHT:
-                            return stateBuilder.build();
-                    }
-                } else if (result instanceof TaskDetailResult.CompleteTaskResult) {
-                    TaskDetailResult.CompleteTaskResult completeTaskResult =
-                            (TaskDetailResult.CompleteTaskResult) result;
-                    switch (completeTaskResult.status()) {
-                        case SUCCESS:
-                            return stateBuilder
-                                    .taskComplete(completeTaskResult.uiNotificationStatus() == SHOW)
-                                    .active(false)
-                                    .build();
-
-                        case FAILURE:
-                            return stateBuilder.error(completeTaskResult.error()).build();
-                        case IN_FLIGHT:
-                            return stateBuilder.build();
-                    }
-                }
-                // Fail for unhandled results
-                throw new IllegalStateException("Mishandled result? Should not happen―as always: " + result);
-            };
 }
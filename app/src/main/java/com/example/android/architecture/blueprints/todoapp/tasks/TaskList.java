@@ -0,0 +1,110 @@
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Immutable snapshot of the tasks displayed by {@link TasksViewState}, stamped with a version.
+ * <p>
+ * Every snapshot gets a new version, so two snapshots are equal only if they are the same one.
+ * Comparing view states then costs the same whatever the number of tasks, and still tells apart
+ * lists differing only by the completion of a task, which {@link Task#equals(Object)} ignores.
+ * The reducer must therefore keep the previous snapshot when the tasks don't change.
+ * <p>
+ * The position of a task is looked up by id in a map built on the first lookup, which only the
+ * reducer makes. A snapshot replacing a task in place shares the map of the previous one.
+ */
+final class TaskList {
+
+    private static final AtomicLong sNextVersion = new AtomicLong();
+
+    static final TaskList EMPTY = of(Collections.emptyList());
+
+    @NonNull
+    private final List<Task> mTasks;
+
+    private final long mVersion;
+
+    @Nullable
+    private Map<String, Integer> mIndexes;
+
+    private TaskList(@NonNull List<Task> tasks, long version,
+                     @Nullable Map<String, Integer> indexes) {
+        mTasks = Collections.unmodifiableList(tasks);
+        mVersion = version;
+        mIndexes = indexes;
+    }
+
+    /**
+     * Takes a new snapshot of the tasks. The list is wrapped rather than copied, so the caller must
+     * not modify it afterwards.
+     */
+    @NonNull
+    static TaskList of(@NonNull List<Task> tasks) {
+        return new TaskList(checkNotNull(tasks), sNextVersion.getAndIncrement(), null);
+    }
+
+    @NonNull
+    List<Task> tasks() {
+        return mTasks;
+    }
+
+    /**
+     * Returns the position of the task with the id, or -1 if it isn't in the snapshot.
+     */
+    int indexOf(@NonNull String taskId) {
+        if (mIndexes == null) {
+            Map<String, Integer> indexes = new HashMap<>(mTasks.size() * 4 / 3 + 1);
+            // Backwards, so that the first of duplicate ids wins.
+            for (int i = mTasks.size() - 1; i >= 0; i--) {
+                indexes.put(mTasks.get(i).getId(), i);
+            }
+            mIndexes = indexes;
+        }
+        Integer index = mIndexes.get(taskId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Takes a new snapshot of the tasks, with the task at the position replaced by one having the
+     * same id.
+     */
+    @NonNull
+    TaskList replace(int index, @NonNull Task task) {
+        List<Task> tasks = new ArrayList<>(mTasks);
+        tasks.set(index, checkNotNull(task));
+        return new TaskList(tasks, sNextVersion.getAndIncrement(), mIndexes);
+    }
+
+    long version() {
+        return mVersion;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return mVersion == ((TaskList) o).mVersion;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mVersion ^ (mVersion >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "TaskList{version=" + mVersion + ", size=" + mTasks.size() + "}";
+    }
+}
@@ -23,6 +23,27 @@ interface TasksAction extends MviAction {
         }
     }
 
+    @AutoValue
+    abstract class LoadTasksPage implements TasksAction {
+        /**
+         * Id of the last task of the previous page, null to load the first page.
+         */
+        @Nullable
+        public abstract String afterKey();
+
+        public abstract int limit();
+
+        public abstract TasksFilterType filterType();
+
+        public static LoadTasksPage firstPage(int limit, TasksFilterType filterType) {
+            return new AutoValue_TasksAction_LoadTasksPage(null, limit, filterType);
+        }
+
+        public static LoadTasksPage nextPage(String afterKey, int limit, TasksFilterType filterType) {
+            return new AutoValue_TasksAction_LoadTasksPage(afterKey, limit, filterType);
+        }
+    }
+
     @AutoValue
     abstract class ActivateTaskAction implements TasksAction {
         abstract Task task();
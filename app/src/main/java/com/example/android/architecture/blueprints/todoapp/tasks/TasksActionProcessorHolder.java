@@ -2,15 +2,24 @@ package com.example.android.architecture.blueprints.todoapp.tasks;
 
 import android.support.annotation.NonNull;
 
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.FetchStrategy;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskChange;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviAction;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviResult;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
+import com.example.android.architecture.blueprints.todoapp.router.ActionRouter;
+import com.example.android.architecture.blueprints.todoapp.router.RoutesAction;
+import com.example.android.architecture.blueprints.todoapp.util.ConcurrencyPolicy;
+import com.example.android.architecture.blueprints.todoapp.util.KeyedSerializer;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 
+import java.util.List;
+
+import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.ObservableTransformer;
-import io.reactivex.functions.Function;
 
 import static com.example.android.architecture.blueprints.todoapp.util.ObservableUtils.pairWithDelay;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -22,23 +31,58 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * This could have been included inside the {@link MviViewModel}
  * but was separated to ease maintenance, as the {@link MviViewModel} was getting too big.
  */
+@ActionRouter(actions = TasksAction.class, results = TasksResult.class)
 public class TasksActionProcessorHolder {
     @NonNull
     private TasksRepository mTasksRepository;
     @NonNull
     private BaseSchedulerProvider mSchedulerProvider;
+    @NonNull
+    private FetchStrategy mFetchStrategy;
+    /**
+     * Serializes the writes to the same task, so that they reach the repository in order.
+     */
+    @NonNull
+    private final KeyedSerializer<String> mTaskWrites = new KeyedSerializer<>();
 
     public TasksActionProcessorHolder(@NonNull TasksRepository tasksRepository,
                                       @NonNull BaseSchedulerProvider schedulerProvider) {
+        this(tasksRepository, schedulerProvider, FetchStrategy.sequential());
+    }
+
+    /**
+     * @param fetchStrategy how the repository queries its data sources for the tasks loaded here
+     */
+    public TasksActionProcessorHolder(@NonNull TasksRepository tasksRepository,
+                                      @NonNull BaseSchedulerProvider schedulerProvider,
+                                      @NonNull FetchStrategy fetchStrategy) {
         this.mTasksRepository = checkNotNull(tasksRepository, "tasksRepository cannot be null");
         this.mSchedulerProvider = checkNotNull(schedulerProvider, "schedulerProvider cannot be null");
+        this.mFetchStrategy = checkNotNull(fetchStrategy, "fetchStrategy cannot be null");
     }
 
-    private ObservableTransformer<TasksAction.LoadTasks, TasksResult.LoadTasks> loadTasksProcessor =
-            actions -> actions.flatMap(action -> mTasksRepository.getTasks(action.forceUpdate())
-                    // Transform the Single to an Observable to allow emission of multiple
-                    // events down the stream (e.g. the InFlight event)
-                    .toObservable()
+    /**
+     * Loads the tasks matching the filter of the action, so that the repository only reads the
+     * matching ones, or all the tasks if the action has no filter.
+     */
+    private Observable<List<Task>> loadTasks(@NonNull TasksAction.LoadTasks action) {
+        TasksFilterType filterType = action.filterType() == null
+                ? TasksFilterType.ALL_TASKS : action.filterType();
+        return action.forceUpdate()
+                // A forced update first emits the known tasks, then the ones from the network,
+                // so that the list is never blocked on the network.
+                ? mTasksRepository.getTasksAndRevalidate(filterType)
+                // Transform the Single to an Observable to allow emission of multiple
+                // events down the stream (e.g. the InFlight event)
+                : mTasksRepository.getTasks(mFetchStrategy, filterType).toObservable();
+    }
+
+    /**
+     * Refreshes are ignored while one is running, as it will bring the same tasks.
+     */
+    @RoutesAction
+    ObservableTransformer<TasksAction.LoadTasks, TasksResult.LoadTasks> loadTasksProcessor =
+            ConcurrencyPolicy.EXHAUST.apply(action -> loadTasks(action)
                     // Wrap returned data into an immutable object
                     .map(tasks -> TasksResult.LoadTasks.success(tasks, action.filterType()))
                     // Wrap any error into an immutable object and pass it down the stream
@@ -46,120 +90,136 @@ public class TasksActionProcessorHolder {
                     // Because errors are data and hence, should just be part of the stream.
                     .onErrorReturn(TasksResult.LoadTasks::failure)
                     .subscribeOn(mSchedulerProvider.io())
-                    .observeOn(mSchedulerProvider.ui())
                     // Emit an InFlight event to notify the subscribers (e.g. the UI) we are
                     // doing work and waiting on a response.
-                    // We emit it after observing on the UI thread to allow the event to be emitted
-                    // on the current frame and avoid jank.
                     .startWith(TasksResult.LoadTasks.inFlight()));
 
-    private ObservableTransformer<TasksAction.ActivateTaskAction, TasksResult.ActivateTaskResult>
-            activateTaskProcessor = actions -> actions.flatMap(
-            action -> mTasksRepository.activateTask(action.task())
-                    .andThen(mTasksRepository.getTasks())
-                    // Transform the Single to an Observable to allow emission of multiple
-                    // events down the stream (e.g. the InFlight event)
-                    .toObservable()
-                    .flatMap(tasks ->
-                            // Emit two events to allow the UI notification to be hidden after
-                            // some delay
-                            pairWithDelay(
-                                    TasksResult.ActivateTaskResult.success(tasks),
-                                    TasksResult.ActivateTaskResult.hideUiNotification())
-                    )
-                    // Wrap any error into an immutable object and pass it down the stream
-                    // without crashing.
-                    // Because errors are data and hence, should just be part of the stream.
-                    .onErrorReturn(TasksResult.ActivateTaskResult::failure)
-                    .subscribeOn(mSchedulerProvider.io())
-                    .observeOn(mSchedulerProvider.ui())
-                    // Emit an InFlight event to notify the subscribers (e.g. the UI) we are
-                    // doing work and waiting on a response.
-                    // We emit it after observing on the UI thread to allow the event to be emitted
-                    // on the current frame and avoid jank.
-                    .startWith(TasksResult.ActivateTaskResult.inFlight()));
-
-    private ObservableTransformer<TasksAction.CompleteTaskAction, TasksResult.CompleteTaskResult>
-            completeTaskProcessor = actions -> actions.flatMap(
-            action -> mTasksRepository.completeTask(action.task())
-                    .andThen(mTasksRepository.getTasks())
+    /**
+     * The latest page requested wins: changing the filter cancels the loading of the pages of the
+     * previous one, whose results would otherwise land out of order.
+     */
+    @RoutesAction
+    ObservableTransformer<TasksAction.LoadTasksPage, TasksResult.LoadTasksPage>
+            loadTasksPageProcessor = ConcurrencyPolicy.SWITCH.apply(
+            action -> mTasksRepository.getTasksPage(action.afterKey(), action.limit(), action.filterType())
                     // Transform the Single to an Observable to allow emission of multiple
                     // events down the stream (e.g. the InFlight event)
                     .toObservable()
-                    .flatMap(tasks ->
-                            // Emit two events to allow the UI notification to be hidden after
-                            // some delay
-                            pairWithDelay(
-                                    TasksResult.CompleteTaskResult.success(tasks),
-                                    TasksResult.CompleteTaskResult.hideUiNotification())
-                    )
+                    // Wrap returned data into an immutable object. A full page tells there might
+                    // be more tasks after its last one.
+                    .map(tasks -> TasksResult.LoadTasksPage.success(tasks, action.afterKey(),
+                            tasks.size() < action.limit() ? null : tasks.get(tasks.size() - 1).getId(),
+                            action.filterType()))
                     // Wrap any error into an immutable object and pass it down the stream
                     // without crashing.
                     // Because errors are data and hence, should just be part of the stream.
-                    .onErrorReturn(TasksResult.CompleteTaskResult::failure)
+                    .onErrorReturn(TasksResult.LoadTasksPage::failure)
                     .subscribeOn(mSchedulerProvider.io())
-                    .observeOn(mSchedulerProvider.ui())
                     // Emit an InFlight event to notify the subscribers (e.g. the UI) we are
                     // doing work and waiting on a response.
-                    // We emit it after observing on the UI thread to allow the event to be emitted
-                    // on the current frame and avoid jank.
-                    .startWith(TasksResult.CompleteTaskResult.inFlight()));
-
-    private ObservableTransformer<TasksAction.ClearCompletedTasksAction, TasksResult.ClearCompletedTasksResult>
-            clearCompletedTasksProcessor = actions -> actions.flatMap(
-            action -> mTasksRepository.clearCompletedTasks()
-                    .andThen(mTasksRepository.getTasks())
-                    // Transform the Single to an Observable to allow emission of multiple
-                    // events down the stream (e.g. the InFlight event)
-                    .toObservable()
-                    .flatMap(tasks ->
-                            // Emit two events to allow the UI notification to be hidden after
-                            // some delay
-                            pairWithDelay(
-                                    TasksResult.ClearCompletedTasksResult.success(tasks),
-                                    TasksResult.ClearCompletedTasksResult.hideUiNotification())
-                    )
+                    .startWith(TasksResult.LoadTasksPage.inFlight()));
+
+    /**
+     * Writes to different tasks run concurrently, the ones to the same task in order.
+     */
+    @RoutesAction
+    ObservableTransformer<TasksAction.ActivateTaskAction, TasksResult.ActivateTaskResult>
+            activateTaskProcessor = ConcurrencyPolicy.MERGE.apply(action -> {
+        Task task = action.task();
+        // Deferred so that the write runs on the io scheduler and its errors go down the stream.
+        return mTaskWrites.serialize(task.getId(),
+                Completable.defer(() -> mTasksRepository.activateTask(task)))
+                // The updated tasks are pushed by the repository's change stream, hence
+                // there is no need to read them all back here.
+                // Emit two events to allow the UI notification to be hidden after some delay
+                .andThen(pairWithDelay(
+                        TasksResult.ActivateTaskResult.success(),
+                        TasksResult.ActivateTaskResult.hideUiNotification()))
+                // Wrap any error into an immutable object and pass it down the stream
+                // without crashing. It carries the task as it was to undo the optimistic update.
+                // Because errors are data and hence, should just be part of the stream.
+                .onErrorReturn(error -> TasksResult.ActivateTaskResult.failure(task, error))
+                .subscribeOn(mSchedulerProvider.io())
+                // Emit an InFlight event carrying the activated task, so that the UI displays
+                // it without waiting on the write.
+                .startWith(TasksResult.ActivateTaskResult.inFlight(
+                        new Task(task.getTitle(), task.getDescription(), task.getId(), false)));
+    });
+
+    /**
+     * Writes to different tasks run concurrently, the ones to the same task in order.
+     */
+    @RoutesAction
+    ObservableTransformer<TasksAction.CompleteTaskAction, TasksResult.CompleteTaskResult>
+            completeTaskProcessor = ConcurrencyPolicy.MERGE.apply(action -> {
+        Task task = action.task();
+        // Deferred so that the write runs on the io scheduler and its errors go down the stream.
+        return mTaskWrites.serialize(task.getId(),
+                Completable.defer(() -> mTasksRepository.completeTask(task)))
+                // The updated tasks are pushed by the repository's change stream, hence
+                // there is no need to read them all back here.
+                // Emit two events to allow the UI notification to be hidden after some delay
+                .andThen(pairWithDelay(
+                        TasksResult.CompleteTaskResult.success(),
+                        TasksResult.CompleteTaskResult.hideUiNotification()))
+                // Wrap any error into an immutable object and pass it down the stream
+                // without crashing. It carries the task as it was to undo the optimistic update.
+                // Because errors are data and hence, should just be part of the stream.
+                .onErrorReturn(error -> TasksResult.CompleteTaskResult.failure(task, error))
+                .subscribeOn(mSchedulerProvider.io())
+                // Emit an InFlight event carrying the completed task, so that the UI displays
+                // it without waiting on the write.
+                .startWith(TasksResult.CompleteTaskResult.inFlight(
+                        new Task(task.getTitle(), task.getDescription(), task.getId(), true)));
+    });
+
+    /**
+     * Clears run concurrently, each one clearing the tasks completed when it runs.
+     */
+    @RoutesAction
+    ObservableTransformer<TasksAction.ClearCompletedTasksAction, TasksResult.ClearCompletedTasksResult>
+            clearCompletedTasksProcessor = ConcurrencyPolicy.MERGE.apply(
+            // Deferred so that the write runs on the io scheduler and its errors go down the stream.
+            action -> Completable.defer(() -> mTasksRepository.clearCompletedTasks())
+                    // The updated tasks are pushed by the repository's change stream, hence
+                    // there is no need to read them all back here.
+                    // Emit two events to allow the UI notification to be hidden after some delay
+                    .andThen(pairWithDelay(
+                            TasksResult.ClearCompletedTasksResult.success(),
+                            TasksResult.ClearCompletedTasksResult.hideUiNotification()))
                     // Wrap any error into an immutable object and pass it down the stream
-                    // without crashing.
+                    // without crashing. The reducer displays again the tasks the optimistic
+                    // update removed.
                     // Because errors are data and hence, should just be part of the stream.
                     .onErrorReturn(TasksResult.ClearCompletedTasksResult::failure)
                     .subscribeOn(mSchedulerProvider.io())
-                    .observeOn(mSchedulerProvider.ui())
                     // Emit an InFlight event to notify the subscribers (e.g. the UI) we are
-                    // doing work and waiting on a response.
-                    // We emit it after observing on the UI thread to allow the event to be emitted
-                    // on the current frame and avoid jank.
+                    // doing work, and to remove the completed tasks without waiting on it.
                     .startWith(TasksResult.ClearCompletedTasksResult.inFlight()));
 
     /**
-     * Splits the {@link Observable<MviAction>} to match each type of {@link MviAction} to
-     * its corresponding business logic processor. Each processor takes a defined {@link MviAction},
-     * returns a defined {@link MviResult}
-     * The global actionProcessor then merges all {@link Observable<MviResult>} back to
-     * one unique {@link Observable<MviResult>}.
+     * Turns every {@link TaskChange} pushed by the repository into a result, so that the reducer
+     * can apply it to the displayed tasks without reloading them.
+     */
+    private Observable<TasksResult.TasksChanged> taskChanges() {
+        return mTasksRepository.changes()
+                .map(TasksResult.TasksChanged::create)
+                .subscribeOn(mSchedulerProvider.io());
+    }
+
+    /**
+     * Routes each {@link MviAction} to its business logic processor, the field annotated with
+     * {@link RoutesAction} for its type. Each processor takes a defined {@link MviAction},
+     * returns a defined {@link MviResult}, and the router merges all of them back to one unique
+     * {@link Observable<MviResult>}.
      * <p>
-     * The splitting is done using {@link Observable#publish(Function)} which allows almost anything
-     * on the passed {@link Observable} as long as one and only one {@link Observable} is returned.
+     * The router is generated at compile time, which fails if an action has no processor.
      * <p>
-     * An security layer is also added for unhandled {@link MviAction} to allow early crash
-     * at runtime to easy the maintenance.
+     * The changes pushed by the repository are merged in as well, for as long as the actions are
+     * being processed.
      */
     ObservableTransformer<TasksAction, TasksResult> actionProcessor =
-            actions -> actions.publish(shared -> Observable.merge(
-                    // Match LoadTasks to loadTasksProcessor
-                    shared.ofType(TasksAction.LoadTasks.class).compose(loadTasksProcessor),
-                    // Match ActivateTaskAction to populateTaskProcessor
-                    shared.ofType(TasksAction.ActivateTaskAction.class).compose(activateTaskProcessor),
-                    // Match CompleteTaskAction to completeTaskProcessor
-                    shared.ofType(TasksAction.CompleteTaskAction.class).compose(completeTaskProcessor),
-                    // Match ClearCompletedTasksAction to clearCompletedTasksProcessor
-                    shared.ofType(TasksAction.ClearCompletedTasksAction.class).compose(clearCompletedTasksProcessor))
-                    .mergeWith(
-                            // Error for not implemented actions
-                            shared.filter(v -> !(v instanceof TasksAction.LoadTasks)
-                                    && !(v instanceof TasksAction.ActivateTaskAction)
-                                    && !(v instanceof TasksAction.CompleteTaskAction)
-                                    && !(v instanceof TasksAction.ClearCompletedTasksAction))
-                                    .flatMap(w -> Observable.error(
-                                            new IllegalArgumentException("Unknown Action type: " + w)))));
+            actions -> actions.compose(TasksActionProcessorHolder_ActionRouter.create(this))
+                    // Apply the repository changes
+                    .mergeWith(taskChanges());
 }
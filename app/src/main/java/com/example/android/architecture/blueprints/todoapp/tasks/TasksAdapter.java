@@ -1,35 +1,107 @@
 package com.example.android.architecture.blueprints.todoapp.tasks;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.CheckBox;
 import android.widget.TextView;
 
 import com.example.android.architecture.blueprints.todoapp.R;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
+import com.google.common.base.Objects;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.disposables.SerialDisposable;
 import io.reactivex.subjects.PublishSubject;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public class TasksAdapter extends BaseAdapter {
+/**
+ * Displays the tasks, rebinding only the rows which changed.
+ * <p>
+ * The differences between the displayed tasks and the new ones are computed on the computation
+ * scheduler, then dispatched on the UI thread as item changes, insertions, removals and moves.
+ */
+public class TasksAdapter extends RecyclerView.Adapter<TasksAdapter.TaskViewHolder> {
 
+    @NonNull
+    private final BaseSchedulerProvider mSchedulerProvider;
     private PublishSubject<Task> mTaskClickObservable = PublishSubject.create();
     private PublishSubject<Task> mTaskToggleObservable = PublishSubject.create();
-    private List<Task> mTasks;
+    @NonNull
+    private List<Task> mTasks = Collections.emptyList();
+    /**
+     * Stable id of the displayed tasks, by task id, as task ids are not numbers. The ids of the
+     * tasks no longer displayed are dropped whenever new tasks are.
+     */
+    @VisibleForTesting
+    @NonNull
+    final Map<String, Long> mStableIds = new HashMap<>();
+    private long mNextStableId;
+    /**
+     * Diff being computed, replaced as soon as newer tasks are to be displayed.
+     */
+    @NonNull
+    private final SerialDisposable mPendingDiff = new SerialDisposable();
+
+    public TasksAdapter(@NonNull BaseSchedulerProvider schedulerProvider) {
+        mSchedulerProvider = checkNotNull(schedulerProvider, "schedulerProvider cannot be null");
+        setHasStableIds(true);
+    }
+
+    /**
+     * Displays the tasks once their differences with the displayed ones are known. Tasks passed
+     * before that are dropped.
+     */
+    public void replaceData(@NonNull List<Task> tasks) {
+        checkNotNull(tasks);
+        List<Task> oldTasks = mTasks;
+        if (oldTasks.isEmpty() || tasks.isEmpty()) {
+            // Nothing to compare, every row is added or removed.
+            mPendingDiff.set(null);
+            setTasks(tasks);
+            notifyDataSetChanged();
+            return;
+        }
+        mPendingDiff.set(Single.fromCallable(
+                () -> DiffUtil.calculateDiff(new TasksDiffCallback(oldTasks, tasks)))
+                .subscribeOn(mSchedulerProvider.computation())
+                .observeOn(mSchedulerProvider.ui())
+                .subscribe(diff -> {
+                    setTasks(tasks);
+                    diff.dispatchUpdatesTo(this);
+                }));
+    }
 
-    public TasksAdapter(List<Task> tasks) {
-        setList(tasks);
+    private void setTasks(@NonNull List<Task> tasks) {
+        mTasks = tasks;
+        if (mStableIds.isEmpty()) return;
+        Set<String> taskIds = new HashSet<>(tasks.size() * 4 / 3 + 1);
+        for (Task task : tasks) {
+            taskIds.add(task.getId());
+        }
+        mStableIds.keySet().retainAll(taskIds);
     }
 
-    public void replaceData(List<Task> tasks) {
-        setList(tasks);
-        notifyDataSetChanged();
+    /**
+     * Cancels the diff being computed, if any.
+     */
+    public void dispose() {
+        mPendingDiff.dispose();
     }
 
     Observable<Task> getTaskClickObservable() {
@@ -40,55 +112,114 @@ public class TasksAdapter extends BaseAdapter {
         return mTaskToggleObservable;
     }
 
-    private void setList(List<Task> tasks) {
-        this.mTasks = checkNotNull(tasks);
-    }
-
     @Override
-    public int getCount() {
+    public int getItemCount() {
         return mTasks.size();
     }
 
-    @Override
+    @NonNull
     public Task getItem(int position) {
         return mTasks.get(position);
     }
 
     @Override
     public long getItemId(int position) {
-        return position;
+        String taskId = getItem(position).getId();
+        Long stableId = mStableIds.get(taskId);
+        if (stableId == null) {
+            stableId = mNextStableId++;
+            mStableIds.put(taskId, stableId);
+        }
+        return stableId;
     }
 
     @Override
-    public View getView(int position, View view, ViewGroup viewGroup) {
-        View rowView = view;
-        if (rowView == null) {
-            LayoutInflater inflater = LayoutInflater.from(viewGroup.getContext());
-            rowView = inflater.inflate(R.layout.task_item, viewGroup, false);
-        }
+    public TaskViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View rowView = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.task_item, parent, false);
+        return new TaskViewHolder(rowView);
+    }
 
-        final Task task = getItem(position);
+    @Override
+    public void onBindViewHolder(TaskViewHolder holder, int position) {
+        holder.bind(getItem(position));
+    }
 
-        TextView titleTV = (TextView) rowView.findViewById(R.id.title);
-        titleTV.setText(task.getTitleForList());
+    /**
+     * Holds the views of a row, looked up once, and the task it displays.
+     */
+    class TaskViewHolder extends RecyclerView.ViewHolder {
+        private final TextView mTitleView;
+        private final CheckBox mCompleteView;
+        @Nullable
+        private Task mTask;
+        // Completion the background was last set for, null before the first bind.
+        @Nullable
+        private Boolean mBackgroundCompleted;
+
+        TaskViewHolder(@NonNull View rowView) {
+            super(rowView);
+            mTitleView = (TextView) rowView.findViewById(R.id.title);
+            mCompleteView = (CheckBox) rowView.findViewById(R.id.complete);
+            mCompleteView.setOnClickListener(ignored -> {
+                if (mTask != null) mTaskToggleObservable.onNext(mTask);
+            });
+            rowView.setOnClickListener(ignored -> {
+                if (mTask != null) mTaskClickObservable.onNext(mTask);
+            });
+        }
+
+        void bind(@NonNull Task task) {
+            mTask = task;
+            mTitleView.setText(task.getTitleForList());
+
+            // Active/completed task UI
+            boolean completed = task.isCompleted();
+            mCompleteView.setChecked(completed);
+            if (!Boolean.valueOf(completed).equals(mBackgroundCompleted)) {
+                itemView.setBackgroundResource(completed
+                        ? R.drawable.list_completed_touch_feedback : R.drawable.touch_feedback);
+                mBackgroundCompleted = completed;
+            }
+        }
+    }
 
-        CheckBox completeCB = (CheckBox) rowView.findViewById(R.id.complete);
+    /**
+     * Matches the tasks by id, and tells a row changed only if what it displays did.
+     */
+    private static class TasksDiffCallback extends DiffUtil.Callback {
+        @NonNull
+        private final List<Task> mOldTasks;
+        @NonNull
+        private final List<Task> mNewTasks;
+
+        TasksDiffCallback(@NonNull List<Task> oldTasks, @NonNull List<Task> newTasks) {
+            mOldTasks = oldTasks;
+            mNewTasks = newTasks;
+        }
 
-        // Active/completed task UI
-        completeCB.setChecked(task.isCompleted());
-        if (task.isCompleted()) {
-            rowView.setBackgroundDrawable(viewGroup.getContext()
-                    .getResources()
-                    .getDrawable(R.drawable.list_completed_touch_feedback));
-        } else {
-            rowView.setBackgroundDrawable(
-                    viewGroup.getContext().getResources().getDrawable(R.drawable.touch_feedback));
+        @Override
+        public int getOldListSize() {
+            return mOldTasks.size();
         }
 
-        completeCB.setOnClickListener(ignored -> mTaskToggleObservable.onNext(task));
+        @Override
+        public int getNewListSize() {
+            return mNewTasks.size();
+        }
 
-        rowView.setOnClickListener(ignored -> mTaskClickObservable.onNext(task));
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldTasks.get(oldItemPosition).getId()
+                    .equals(mNewTasks.get(newItemPosition).getId());
+        }
 
-        return rowView;
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            Task oldTask = mOldTasks.get(oldItemPosition);
+            Task newTask = mNewTasks.get(newItemPosition);
+            return oldTask.isCompleted() == newTask.isCompleted()
+                    && Objects.equal(oldTask.getTitleForList(), newTask.getTitleForList());
+        }
     }
 }
@@ -16,6 +16,10 @@
 
 package com.example.android.architecture.blueprints.todoapp.tasks;
 
+import android.support.annotation.NonNull;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
 /**
  * Used with the filter spinner in the tasks list.
  */
@@ -33,5 +37,19 @@ public enum TasksFilterType {
     /**
      * Filters only the completed tasks.
      */
-    COMPLETED_TASKS
+    COMPLETED_TASKS;
+
+    /**
+     * Returns true if the task is to be shown when this filter is selected.
+     */
+    public boolean matches(@NonNull Task task) {
+        switch (this) {
+            case ACTIVE_TASKS:
+                return task.isActive();
+            case COMPLETED_TASKS:
+                return task.isCompleted();
+            default:
+                return true;
+        }
+    }
 }
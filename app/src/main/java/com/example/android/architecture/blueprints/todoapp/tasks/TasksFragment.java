@@ -27,7 +27,9 @@ import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.PopupMenu;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -36,13 +38,15 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
-import android.widget.ListView;
 import android.widget.TextView;
 
+import com.example.android.architecture.blueprints.todoapp.Injection;
 import com.example.android.architecture.blueprints.todoapp.R;
 import com.example.android.architecture.blueprints.todoapp.addedittask.AddEditTaskActivity;
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviIntent;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviRenderGate;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviStateDiff;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviView;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewState;
@@ -50,8 +54,6 @@ import com.example.android.architecture.blueprints.todoapp.taskdetail.TaskDetail
 import com.example.android.architecture.blueprints.todoapp.util.ToDoViewModelFactory;
 import com.jakewharton.rxbinding2.support.v4.widget.RxSwipeRefreshLayout;
 
-import java.util.ArrayList;
-
 import io.reactivex.Observable;
 import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.subjects.PublishSubject;
@@ -65,6 +67,11 @@ import static com.example.android.architecture.blueprints.todoapp.tasks.TasksFil
  */
 public class TasksFragment extends Fragment
         implements LifecycleRegistryOwner, MviView<TasksIntent, TasksViewState> {
+    /**
+     * Number of rows left below the last visible one under which the next page gets loaded.
+     */
+    private static final int LOAD_MORE_THRESHOLD = 10;
+
     private LifecycleRegistry mLifecycleRegistry = new LifecycleRegistry(this);
 
     private TasksViewModel mViewModel;
@@ -82,6 +89,13 @@ public class TasksFragment extends Fragment
             PublishSubject.create();
     private PublishSubject<TasksIntent.ChangeFilterIntent> mChangeFilterIntentPublisher =
             PublishSubject.create();
+    private PublishSubject<TasksIntent.LoadMoreIntent> mLoadMoreIntentPublisher =
+            PublishSubject.create();
+    // Last rendered state, used to know which page to load next when scrolling.
+    @Nullable
+    private TasksViewState mLastState;
+    // Last rendered state next to the one being rendered, to only bind what changed.
+    private final MviStateDiff<TasksViewState> mStateDiff = new MviStateDiff<>();
     // Used to manage the data flow lifecycle and avoid memory leak.
     private CompositeDisposable mDisposables = new CompositeDisposable();
 
@@ -92,7 +106,7 @@ public class TasksFragment extends Fragment
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mListAdapter = new TasksAdapter(new ArrayList<>(0));
+        mListAdapter = new TasksAdapter(Injection.provideSchedulerProvider());
     }
 
     @Override
@@ -111,8 +125,9 @@ public class TasksFragment extends Fragment
      * emitted {@link MviViewState}s could be lost
      */
     private void bind() {
-        // Subscribe to the ViewModel and call render for every emitted state
-        mDisposables.add(mViewModel.states().subscribe(this::render));
+        // Subscribe to the ViewModel and call render with the latest state of every frame
+        mDisposables.add(MviRenderGate.bind(mViewModel, this,
+                Injection.provideSchedulerProvider().frame()));
         // Pass the UI's intents to the ViewModel
         mViewModel.processIntents(intents());
 
@@ -120,19 +135,12 @@ public class TasksFragment extends Fragment
                 mListAdapter.getTaskClickObservable().subscribe(task -> showTaskDetailsUi(task.getId())));
     }
 
-    @Override
-    public void onResume() {
-        super.onResume();
-        // conflicting with the initial intent but needed when coming back from the
-        // AddEditTask activity to refresh the list.
-        mRefreshIntentPublisher.onNext(TasksIntent.RefreshIntent.create(false));
-    }
-
     @Override
     public void onDestroy() {
         super.onDestroy();
 
         mDisposables.dispose();
+        mListAdapter.dispose();
     }
 
     @Override
@@ -148,10 +156,23 @@ public class TasksFragment extends Fragment
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         View root = inflater.inflate(R.layout.tasks_frag, container, false);
+        // The new views display nothing yet, the next state is bound in full.
+        mStateDiff.reset();
 
         // Set up tasks view
-        ListView listView = (ListView) root.findViewById(R.id.tasks_list);
+        RecyclerView listView = (RecyclerView) root.findViewById(R.id.tasks_list);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(getContext());
+        listView.setLayoutManager(layoutManager);
         listView.setAdapter(mListAdapter);
+        listView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (layoutManager.findLastVisibleItemPosition()
+                        >= layoutManager.getItemCount() - 1 - LOAD_MORE_THRESHOLD) {
+                    loadMore();
+                }
+            }
+        });
         mFilteringLabelView = (TextView) root.findViewById(R.id.filteringLabel);
         mTasksView = (LinearLayout) root.findViewById(R.id.tasksLL);
 
@@ -192,7 +213,8 @@ public class TasksFragment extends Fragment
                 showFilteringPopUpMenu();
                 break;
             case R.id.menu_refresh:
-                mRefreshIntentPublisher.onNext(TasksIntent.RefreshIntent.create(true));
+                mRefreshIntentPublisher.onNext(
+                        TasksIntent.RefreshIntent.create(true, currentFilterType()));
                 break;
         }
         return true;
@@ -207,22 +229,37 @@ public class TasksFragment extends Fragment
     @Override
     public Observable<TasksIntent> intents() {
         return Observable.merge(initialIntent(), refreshIntent(), adapterIntents(),
-                clearCompletedTaskIntent()).mergeWith(changeFilterIntent());
+                clearCompletedTaskIntent()).mergeWith(changeFilterIntent())
+                .mergeWith(loadMoreIntent());
     }
 
     @Override
     public void render(TasksViewState state) {
-        mSwipeRefreshLayout.setRefreshing(state.isLoading());
-        if (state.error() != null) {
-            showLoadingTasksError();
-            return;
-        }
+        mLastState = state;
+        mStateDiff.next(state);
+        mStateDiff.bind(TasksViewState::isLoading, mSwipeRefreshLayout::setRefreshing);
+        // The error stays in the following states, it is only shown once.
+        mStateDiff.bind(TasksViewState::error, error -> {
+            if (error != null) showLoadingTasksError();
+        });
 
-        if (state.taskActivated()) showMessage(getString(R.string.task_marked_active));
+        mStateDiff.bind(TasksViewState::taskActivated, activated -> {
+            if (activated) showMessage(getString(R.string.task_marked_active));
+        });
 
-        if (state.taskComplete()) showMessage(getString(R.string.task_marked_complete));
+        mStateDiff.bind(TasksViewState::taskComplete, complete -> {
+            if (complete) showMessage(getString(R.string.task_marked_complete));
+        });
 
-        if (state.completedTasksCleared()) showMessage(getString(R.string.completed_tasks_cleared));
+        mStateDiff.bind(TasksViewState::completedTasksCleared, cleared -> {
+            if (cleared) showMessage(getString(R.string.completed_tasks_cleared));
+        });
+
+        // The task lists are compared by snapshot version, without going through the tasks.
+        if (!mStateDiff.changed(TasksViewState::taskList)
+                && !mStateDiff.changed(TasksViewState::tasksFilterType)) {
+            return;
+        }
 
         if (state.tasks().isEmpty()) {
             switch (state.tasksFilterType()) {
@@ -301,10 +338,18 @@ public class TasksFragment extends Fragment
 
     private Observable<TasksIntent.RefreshIntent> refreshIntent() {
         return RxSwipeRefreshLayout.refreshes(mSwipeRefreshLayout)
-                .map(ignored -> TasksIntent.RefreshIntent.create(false))
+                .map(ignored -> TasksIntent.RefreshIntent.create(false, currentFilterType()))
                 .mergeWith(mRefreshIntentPublisher);
     }
 
+    /**
+     * Filter of the displayed tasks, so that a refresh only loads the matching ones.
+     */
+    @Nullable
+    private TasksFilterType currentFilterType() {
+        return mLastState == null ? null : mLastState.tasksFilterType();
+    }
+
     private Observable<TasksIntent.ClearCompletedTasksIntent> clearCompletedTaskIntent() {
         return mClearCompletedTaskIntentPublisher;
     }
@@ -313,6 +358,22 @@ public class TasksFragment extends Fragment
         return mChangeFilterIntentPublisher;
     }
 
+    /**
+     * Requests each page once, even though scrolling near the end of the list reports the same
+     * position many times.
+     */
+    private Observable<TasksIntent.LoadMoreIntent> loadMoreIntent() {
+        return mLoadMoreIntentPublisher.distinctUntilChanged();
+    }
+
+    private void loadMore() {
+        if (mLastState == null || mLastState.isLoading()) return;
+        String nextPageKey = mLastState.nextPageKey();
+        if (nextPageKey == null) return;
+        mLoadMoreIntentPublisher.onNext(
+                TasksIntent.LoadMoreIntent.create(nextPageKey, mLastState.tasksFilterType()));
+    }
+
     private Observable<TasksIntent> adapterIntents() {
         return mListAdapter.getTaskToggleObservable().map(task -> {
             if (!task.isCompleted()) {
@@ -1,5 +1,7 @@
 package com.example.android.architecture.blueprints.todoapp.tasks;
 
+import android.support.annotation.Nullable;
+
 import com.example.android.architecture.blueprints.todoapp.data.Task;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviIntent;
 import com.google.auto.value.AutoValue;
@@ -16,8 +18,30 @@ interface TasksIntent extends MviIntent {
     abstract class RefreshIntent implements TasksIntent {
         abstract boolean forceUpdate();
 
+        /**
+         * Filter of the displayed tasks, null to keep the one of the previous state.
+         */
+        @Nullable
+        abstract TasksFilterType filterType();
+
         public static RefreshIntent create(boolean forceUpdate) {
-            return new AutoValue_TasksIntent_RefreshIntent(forceUpdate);
+            return new AutoValue_TasksIntent_RefreshIntent(forceUpdate, null);
+        }
+
+        public static RefreshIntent create(boolean forceUpdate,
+                                           @Nullable TasksFilterType filterType) {
+            return new AutoValue_TasksIntent_RefreshIntent(forceUpdate, filterType);
+        }
+    }
+
+    @AutoValue
+    abstract class LoadMoreIntent implements TasksIntent {
+        abstract String afterKey();
+
+        abstract TasksFilterType filterType();
+
+        public static LoadMoreIntent create(String afterKey, TasksFilterType filterType) {
+            return new AutoValue_TasksIntent_LoadMoreIntent(afterKey, filterType);
         }
     }
 
@@ -4,6 +4,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskChange;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviResult;
 import com.example.android.architecture.blueprints.todoapp.util.LceStatus;
 import com.example.android.architecture.blueprints.todoapp.util.UiNotificationStatus;
@@ -48,6 +49,51 @@ interface TasksResult extends MviResult {
         }
     }
 
+    @AutoValue
+    abstract class LoadTasksPage implements TasksResult {
+        @NonNull
+        abstract LceStatus status();
+
+        @Nullable
+        abstract List<Task> tasks();
+
+        /**
+         * Key the page was loaded after, null for the first page.
+         */
+        @Nullable
+        abstract String afterKey();
+
+        /**
+         * Key of the following page, null if this page is the last one.
+         */
+        @Nullable
+        abstract String nextPageKey();
+
+        @Nullable
+        abstract TasksFilterType filterType();
+
+        @Nullable
+        abstract Throwable error();
+
+        @NonNull
+        static LoadTasksPage success(@NonNull List<Task> tasks, @Nullable String afterKey,
+                                     @Nullable String nextPageKey,
+                                     @NonNull TasksFilterType filterType) {
+            return new AutoValue_TasksResult_LoadTasksPage(SUCCESS, tasks, afterKey, nextPageKey,
+                    filterType, null);
+        }
+
+        @NonNull
+        static LoadTasksPage failure(Throwable error) {
+            return new AutoValue_TasksResult_LoadTasksPage(FAILURE, null, null, null, null, error);
+        }
+
+        @NonNull
+        static LoadTasksPage inFlight() {
+            return new AutoValue_TasksResult_LoadTasksPage(IN_FLIGHT, null, null, null, null, null);
+        }
+    }
+
     @AutoValue
     abstract class ActivateTaskResult implements TasksResult {
         @NonNull
@@ -56,8 +102,12 @@ interface TasksResult extends MviResult {
         @Nullable
         abstract UiNotificationStatus uiNotificationStatus();
 
+        /**
+         * Task to display right away: the activated task while in flight, the task as it was before
+         * on failure, so that the optimistic update is rolled back.
+         */
         @Nullable
-        abstract List<Task> tasks();
+        abstract Task task();
 
         @Nullable
         abstract Throwable error();
@@ -68,18 +118,18 @@ interface TasksResult extends MviResult {
         }
 
         @NonNull
-        static ActivateTaskResult success(@NonNull List<Task> tasks) {
-            return new AutoValue_TasksResult_ActivateTaskResult(SUCCESS, SHOW, tasks, null);
+        static ActivateTaskResult success() {
+            return new AutoValue_TasksResult_ActivateTaskResult(SUCCESS, SHOW, null, null);
         }
 
         @NonNull
-        static ActivateTaskResult failure(Throwable error) {
-            return new AutoValue_TasksResult_ActivateTaskResult(FAILURE, null, null, error);
+        static ActivateTaskResult failure(@NonNull Task task, Throwable error) {
+            return new AutoValue_TasksResult_ActivateTaskResult(FAILURE, null, task, error);
         }
 
         @NonNull
-        static ActivateTaskResult inFlight() {
-            return new AutoValue_TasksResult_ActivateTaskResult(IN_FLIGHT, null, null, null);
+        static ActivateTaskResult inFlight(@NonNull Task task) {
+            return new AutoValue_TasksResult_ActivateTaskResult(IN_FLIGHT, null, task, null);
         }
     }
 
@@ -91,8 +141,12 @@ interface TasksResult extends MviResult {
         @Nullable
         abstract UiNotificationStatus uiNotificationStatus();
 
+        /**
+         * Task to display right away: the completed task while in flight, the task as it was before
+         * on failure, so that the optimistic update is rolled back.
+         */
         @Nullable
-        abstract List<Task> tasks();
+        abstract Task task();
 
         @Nullable
         abstract Throwable error();
@@ -103,18 +157,18 @@ interface TasksResult extends MviResult {
         }
 
         @NonNull
-        static CompleteTaskResult success(@NonNull List<Task> tasks) {
-            return new AutoValue_TasksResult_CompleteTaskResult(SUCCESS, SHOW, tasks, null);
+        static CompleteTaskResult success() {
+            return new AutoValue_TasksResult_CompleteTaskResult(SUCCESS, SHOW, null, null);
         }
 
         @NonNull
-        static CompleteTaskResult failure(Throwable error) {
-            return new AutoValue_TasksResult_CompleteTaskResult(FAILURE, null, null, error);
+        static CompleteTaskResult failure(@NonNull Task task, Throwable error) {
+            return new AutoValue_TasksResult_CompleteTaskResult(FAILURE, null, task, error);
         }
 
         @NonNull
-        static CompleteTaskResult inFlight() {
-            return new AutoValue_TasksResult_CompleteTaskResult(IN_FLIGHT, null, null, null);
+        static CompleteTaskResult inFlight(@NonNull Task task) {
+            return new AutoValue_TasksResult_CompleteTaskResult(IN_FLIGHT, null, task, null);
         }
     }
 
@@ -126,30 +180,38 @@ interface TasksResult extends MviResult {
         @Nullable
         abstract UiNotificationStatus uiNotificationStatus();
 
-        @Nullable
-        abstract List<Task> tasks();
-
         @Nullable
         abstract Throwable error();
 
         @NonNull
         static ClearCompletedTasksResult hideUiNotification() {
-            return new AutoValue_TasksResult_ClearCompletedTasksResult(SUCCESS, HIDE, null, null);
+            return new AutoValue_TasksResult_ClearCompletedTasksResult(SUCCESS, HIDE, null);
         }
 
         @NonNull
-        static ClearCompletedTasksResult success(@NonNull List<Task> tasks) {
-            return new AutoValue_TasksResult_ClearCompletedTasksResult(SUCCESS, SHOW, tasks, null);
+        static ClearCompletedTasksResult success() {
+            return new AutoValue_TasksResult_ClearCompletedTasksResult(SUCCESS, SHOW, null);
         }
 
         @NonNull
         static ClearCompletedTasksResult failure(Throwable error) {
-            return new AutoValue_TasksResult_ClearCompletedTasksResult(FAILURE, null, null, error);
+            return new AutoValue_TasksResult_ClearCompletedTasksResult(FAILURE, null, error);
         }
 
         @NonNull
         static ClearCompletedTasksResult inFlight() {
-            return new AutoValue_TasksResult_ClearCompletedTasksResult(IN_FLIGHT, null, null, null);
+            return new AutoValue_TasksResult_ClearCompletedTasksResult(IN_FLIGHT, null, null);
+        }
+    }
+
+    @AutoValue
+    abstract class TasksChanged implements TasksResult {
+        @NonNull
+        abstract TaskChange change();
+
+        @NonNull
+        static TasksChanged create(@NonNull TaskChange change) {
+            return new AutoValue_TasksResult_TasksChanged(change);
         }
     }
 }
@@ -18,23 +18,24 @@ package com.example.android.architecture.blueprints.todoapp.tasks;
 
 import android.arch.lifecycle.ViewModel;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
-import com.example.android.architecture.blueprints.todoapp.mvibase.MviAction;
-import com.example.android.architecture.blueprints.todoapp.mvibase.MviIntent;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskChange;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviResult;
+import com.example.android.architecture.blueprints.todoapp.mvibase.MviStore;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviView;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewModel;
 import com.example.android.architecture.blueprints.todoapp.mvibase.MviViewState;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import io.reactivex.Observable;
-import io.reactivex.ObservableTransformer;
-import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.functions.BiFunction;
-import io.reactivex.subjects.PublishSubject;
 
 import static com.example.android.architecture.blueprints.todoapp.util.UiNotificationStatus.SHOW;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -46,194 +47,250 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class TasksViewModel extends ViewModel implements MviViewModel<TasksIntent, TasksViewState> {
 
     /**
-     * Proxy subject used to keep the stream alive even after the UI gets recycled.
-     * This is basically used to keep ongoing events and the last cached State alive
-     * while the UI disconnects and reconnects on config changes.
+     * Number of tasks loaded at once, enough to fill a screen a few times over.
      */
-    @NonNull
-    private PublishSubject<TasksIntent> mIntentsSubject;
-    @NonNull
-    private Observable<TasksViewState> mStatesObservable;
-    @NonNull
-    private CompositeDisposable mDisposables = new CompositeDisposable();
+    private static final int TASKS_PAGE_SIZE = 50;
+
     /**
-     * Contains and executes the business logic of all emitted actions.
+     * Translates the intents, runs their actions and reduces the results.
      */
     @NonNull
-    private TasksActionProcessorHolder mActionProcessorHolder;
+    private final MviStore<TasksIntent, TasksAction, TasksResult, TasksViewState> mStore;
 
-    public TasksViewModel(@NonNull TasksActionProcessorHolder taskActionProcessorHolder) {
-        this.mActionProcessorHolder = checkNotNull(taskActionProcessorHolder, "taskActionProcessorHolder cannot be null");
+    public TasksViewModel(@NonNull TasksActionProcessorHolder taskActionProcessorHolder,
+                          @NonNull BaseSchedulerProvider schedulerProvider) {
+        checkNotNull(taskActionProcessorHolder, "taskActionProcessorHolder cannot be null");
+        checkNotNull(schedulerProvider, "schedulerProvider cannot be null");
 
-        mIntentsSubject = PublishSubject.create();
-        mStatesObservable = compose();
+        mStore = MviStore.<TasksIntent, TasksAction, TasksResult, TasksViewState>builder(
+                TasksViewState.idle(), taskActionProcessorHolder.actionProcessor)
+                .initialIntent(TasksIntent.InitialIntent.class)
+                .intent(TasksIntent.InitialIntent.class, intent ->
+                        TasksAction.LoadTasksPage.firstPage(TASKS_PAGE_SIZE, TasksFilterType.ALL_TASKS))
+                .intent(TasksIntent.ChangeFilterIntent.class, intent ->
+                        TasksAction.LoadTasksPage.firstPage(TASKS_PAGE_SIZE, intent.filterType()))
+                .intent(TasksIntent.LoadMoreIntent.class, intent ->
+                        TasksAction.LoadTasksPage.nextPage(intent.afterKey(), TASKS_PAGE_SIZE,
+                                intent.filterType()))
+                .intent(TasksIntent.RefreshIntent.class, intent ->
+                        TasksAction.LoadTasks.loadAndFilter(intent.forceUpdate(), intent.filterType()))
+                .intent(TasksIntent.ActivateTaskIntent.class, intent ->
+                        TasksAction.ActivateTaskAction.create(intent.task()))
+                .intent(TasksIntent.CompleteTaskIntent.class, intent ->
+                        TasksAction.CompleteTaskAction.create(intent.task()))
+                .intent(TasksIntent.ClearCompletedTasksIntent.class, intent ->
+                        TasksAction.ClearCompletedTasksAction.create())
+                .result(TasksResult.LoadTasks.class, TasksViewModel::reduceLoadTasks)
+                .result(TasksResult.LoadTasksPage.class, TasksViewModel::reduceLoadTasksPage)
+                .result(TasksResult.CompleteTaskResult.class, TasksViewModel::reduceCompleteTask)
+                .result(TasksResult.ActivateTaskResult.class, TasksViewModel::reduceActivateTask)
+                .result(TasksResult.ClearCompletedTasksResult.class,
+                        TasksViewModel::reduceClearCompletedTasks)
+                .result(TasksResult.TasksChanged.class, TasksViewModel::reduceTasksChanged)
+                // Reduce on a background thread, as a reducer can walk all the tasks.
+                .reduceOn(schedulerProvider.computation())
+                .renderOn(schedulerProvider.ui())
+                .build();
     }
 
     @Override
     public void processIntents(Observable<TasksIntent> intents) {
-        mDisposables.add(intents.subscribe(mIntentsSubject::onNext));
+        mStore.processIntents(intents);
     }
 
     @Override
     public Observable<TasksViewState> states() {
-        return mStatesObservable;
+        return mStore.states();
     }
 
-    /**
-     * Compose all components to create the stream logic
-     */
-    private Observable<TasksViewState> compose() {
-        return mIntentsSubject
-                .compose(intentFilter)
-                .map(this::actionFromIntent)
-                .compose(mActionProcessorHolder.actionProcessor)
-                // Cache each state and pass it to the reducer to create a new state from
-                // the previous cached one and the latest Result emitted from the action processor.
-                // The Scan operator is used here for the caching.
-                .scan(TasksViewState.idle(), reducer)
-                // When a reducer just emits previousState, there's no reason to call render. In fact,
-                // redrawing the UI in cases like this can cause jank (e.g. messing up snackbar animations
-                // by showing the same snackbar twice in rapid succession).
-                .distinctUntilChanged()
-                // Emit the last one event of the stream on subscription
-                // Useful when a View rebinds to the ViewModel after rotation.
-                .replay(1)
-                // Create the stream on creation without waiting for anyone to subscribe
-                // This allows the stream to stay alive even when the UI disconnects and
-                // match the stream's lifecycle to the ViewModel's one.
-                .autoConnect(0);
+    @Override
+    protected void onCleared() {
+        mStore.dispose();
     }
 
     /**
-     * take only the first ever InitialIntent and all intents of other types
-     * to avoid reloading data on config changes
+     * The reducers are where {@link MviViewState}, that the {@link MviView} will use to
+     * render itself, are created.
+     * Each takes the last cached {@link MviViewState}, the latest {@link MviResult} of its type
+     * and creates a new {@link MviViewState} by only updating the related fields.
      */
-    private ObservableTransformer<TasksIntent, TasksIntent> intentFilter =
-            intents -> intents.publish(shared ->
-                    Observable.merge(
-                            shared.ofType(TasksIntent.InitialIntent.class).take(1),
-                            shared.filter(intent -> !(intent instanceof TasksIntent.InitialIntent))
-                    )
-            );
+    private static TasksViewState reduceLoadTasks(@NonNull TasksViewState previousState,
+                                                  @NonNull TasksResult.LoadTasks loadResult) {
+        TasksViewState.Builder stateBuilder = previousState.buildWith();
+        switch (loadResult.status()) {
+            case SUCCESS:
+                TasksFilterType filterType = loadResult.filterType();
+                List<Task> tasks = checkNotNull(loadResult.tasks());
+                if (filterType == null) {
+                    // Only the tasks loaded for a filter are filtered already.
+                    filterType = previousState.tasksFilterType();
+                    tasks = filteredTasks(tasks, filterType);
+                }
+                // All the tasks are loaded, there is no page left.
+                return stateBuilder.isLoading(false).tasks(tasks).nextPageKey(null)
+                        .tasksFilterType(filterType).build();
+            case FAILURE:
+                return stateBuilder.isLoading(false).error(loadResult.error()).build();
+            case IN_FLIGHT:
+                return stateBuilder.isLoading(true).build();
+        }
+        throw new IllegalStateException("Mishandled result? Should not happen (as always)");
+    }
 
-    /**
-     * Translate an {@link MviIntent} to an {@link MviAction}.
-     * Used to decouple the UI and the business logic to allow easy testings and reusability.
-     */
-    private TasksAction actionFromIntent(MviIntent intent) {
-        if (intent instanceof TasksIntent.InitialIntent) {
-            return TasksAction.LoadTasks.loadAndFilter(true, TasksFilterType.ALL_TASKS);
+    private static TasksViewState reduceLoadTasksPage(@NonNull TasksViewState previousState,
+                                                      @NonNull TasksResult.LoadTasksPage pageResult) {
+        TasksViewState.Builder stateBuilder = previousState.buildWith();
+        switch (pageResult.status()) {
+            case SUCCESS:
+                List<Task> page = checkNotNull(pageResult.tasks());
+                List<Task> tasks;
+                if (pageResult.afterKey() == null) {
+                    tasks = page;
+                } else {
+                    // Append the page to the tasks already displayed.
+                    tasks = new ArrayList<>(previousState.tasks().size() + page.size());
+                    tasks.addAll(previousState.tasks());
+                    tasks.addAll(page);
+                }
+                return stateBuilder.isLoading(false)
+                        .tasks(tasks)
+                        .nextPageKey(pageResult.nextPageKey())
+                        .tasksFilterType(checkNotNull(pageResult.filterType()))
+                        .build();
+            case FAILURE:
+                return stateBuilder.isLoading(false).error(pageResult.error()).build();
+            case IN_FLIGHT:
+                return stateBuilder.isLoading(true).build();
         }
-        if (intent instanceof TasksIntent.ChangeFilterIntent) {
-            return TasksAction.LoadTasks.loadAndFilter(false,
-                    ((TasksIntent.ChangeFilterIntent) intent).filterType());
+        throw new IllegalStateException("Mishandled result? Should not happen (as always)");
+    }
+
+    private static TasksViewState reduceCompleteTask(
+            @NonNull TasksViewState previousState,
+            @NonNull TasksResult.CompleteTaskResult completeTaskResult) {
+        TasksViewState.Builder stateBuilder = previousState.buildWith();
+        switch (completeTaskResult.status()) {
+            case SUCCESS:
+                return stateBuilder.taskComplete(completeTaskResult.uiNotificationStatus() == SHOW)
+                        .build();
+            case FAILURE:
+                // Roll the optimistic update back.
+                return patchTask(previousState, stateBuilder,
+                        checkNotNull(completeTaskResult.task()), true)
+                        .error(completeTaskResult.error()).build();
+            case IN_FLIGHT:
+                // Display the task right away, the write is confirmed later on.
+                return patchTask(previousState, stateBuilder,
+                        checkNotNull(completeTaskResult.task()), false).build();
         }
-        if (intent instanceof TasksIntent.RefreshIntent) {
-            return TasksAction.LoadTasks.load(((TasksIntent.RefreshIntent) intent).forceUpdate());
+        throw new IllegalStateException("Mishandled result? Should not happen (as always)");
+    }
+
+    private static TasksViewState reduceActivateTask(
+            @NonNull TasksViewState previousState,
+            @NonNull TasksResult.ActivateTaskResult activateTaskResult) {
+        TasksViewState.Builder stateBuilder = previousState.buildWith();
+        switch (activateTaskResult.status()) {
+            case SUCCESS:
+                return stateBuilder.taskActivated(activateTaskResult.uiNotificationStatus() == SHOW)
+                        .build();
+            case FAILURE:
+                // Roll the optimistic update back.
+                return patchTask(previousState, stateBuilder,
+                        checkNotNull(activateTaskResult.task()), true)
+                        .error(activateTaskResult.error()).build();
+            case IN_FLIGHT:
+                // Display the task right away, the write is confirmed later on.
+                return patchTask(previousState, stateBuilder,
+                        checkNotNull(activateTaskResult.task()), false).build();
         }
-        if (intent instanceof TasksIntent.ActivateTaskIntent) {
-            return TasksAction.ActivateTaskAction.create(
-                    ((TasksIntent.ActivateTaskIntent) intent).task());
+        throw new IllegalStateException("Mishandled result? Should not happen (as always)");
+    }
+
+    private static TasksViewState reduceClearCompletedTasks(
+            @NonNull TasksViewState previousState,
+            @NonNull TasksResult.ClearCompletedTasksResult clearCompletedTasks) {
+        TasksViewState.Builder stateBuilder = previousState.buildWith();
+        switch (clearCompletedTasks.status()) {
+            case SUCCESS:
+                return stateBuilder.completedTasksCleared(clearCompletedTasks.uiNotificationStatus() == SHOW)
+                        .clearingTasks(Collections.emptyList())
+                        .build();
+            case FAILURE:
+                // Display again the completed tasks the optimistic update removed.
+                return restoreTasks(previousState, stateBuilder, previousState.clearingTasks())
+                        .clearingTasks(Collections.emptyList())
+                        .error(clearCompletedTasks.error()).build();
+            case IN_FLIGHT:
+                // Remove the completed tasks right away, the write is confirmed later on. They are
+                // kept aside, along with the ones of a clear still running, to roll back.
+                List<Task> activeTasks = filteredTasks(previousState.tasks(),
+                        TasksFilterType.ACTIVE_TASKS);
+                if (activeTasks.size() != previousState.tasks().size()) {
+                    List<Task> clearingTasks = new ArrayList<>(previousState.clearingTasks());
+                    clearingTasks.addAll(filteredTasks(previousState.tasks(),
+                            TasksFilterType.COMPLETED_TASKS));
+                    stateBuilder.tasks(activeTasks).clearingTasks(clearingTasks);
+                }
+                return stateBuilder.build();
         }
-        if (intent instanceof TasksIntent.CompleteTaskIntent) {
-            return TasksAction.CompleteTaskAction.create(
-                    ((TasksIntent.CompleteTaskIntent) intent).task());
+        throw new IllegalStateException("Mishandled result? Should not happen (as always)");
+    }
+
+    private static TasksViewState reduceTasksChanged(@NonNull TasksViewState previousState,
+                                                     @NonNull TasksResult.TasksChanged result) {
+        TasksViewState.Builder stateBuilder = previousState.buildWith();
+        TaskChange change = result.change();
+        if (change.type() == TaskChange.Type.SNAPSHOT) {
+            // A snapshot holds all the tasks, there is no page left.
+            stateBuilder.nextPageKey(null);
         }
-        if (intent instanceof TasksIntent.ClearCompletedTasksIntent) {
-            return TasksAction.ClearCompletedTasksAction.create();
+        TaskList tasks = applyChange(previousState.taskList(), change,
+                previousState.tasksFilterType(), previousState.nextPageKey());
+        if (tasks != previousState.taskList()) {
+            // Only a new snapshot makes the displayed tasks differ.
+            stateBuilder.taskList(tasks);
         }
-        throw new IllegalArgumentException("do not know how to treat this intent " + intent);
+        return stateBuilder.build();
     }
 
-    @Override
-    protected void onCleared() {
-        mDisposables.dispose();
+    /**
+     * Replaces the displayed task having the same id by the given one, or removes it if it doesn't
+     * match the filter anymore, keeping the previous snapshot if that changes nothing.
+     *
+     * @param addIfMissing whether to add the task if it isn't displayed, such as when rolling back
+     *                     the update which removed it
+     */
+    private static TasksViewState.Builder patchTask(@NonNull TasksViewState previousState,
+                                                    @NonNull TasksViewState.Builder stateBuilder,
+                                                    @NonNull Task task, boolean addIfMissing) {
+        if (!addIfMissing && previousState.taskList().indexOf(task.getId()) < 0) {
+            return stateBuilder;
+        }
+        TaskList tasks = applyChange(previousState.taskList(), TaskChange.update(task, task),
+                previousState.tasksFilterType(), previousState.nextPageKey());
+        return tasks == previousState.taskList() ? stateBuilder : stateBuilder.taskList(tasks);
     }
 
     /**
-     * The Reducer is where {@link MviViewState}, that the {@link MviView} will use to
-     * render itself, are created.
-     * It takes the last cached {@link MviViewState}, the latest {@link MviResult} and
-     * creates a new {@link MviViewState} by only updating the related fields.
-     * This is basically like a big switch statement of all possible types for the {@link MviResult}
+     * Adds back the tasks which are not displayed but should be, after the displayed ones.
      */
-    private static BiFunction<TasksViewState, TasksResult, TasksViewState> reducer =
-            (previousState, result) -> {
-                TasksViewState.Builder stateBuilder = previousState.buildWith();
-                if (result instanceof TasksResult.LoadTasks) {
-                    TasksResult.LoadTasks loadResult = (TasksResult.LoadTasks) result;
-                    switch (loadResult.status()) {
-                        case SUCCESS:
-                            TasksFilterType filterType = loadResult.filterType();
-                            if (filterType == null) {
-                                filterType = previousState.tasksFilterType();
-                            }
-                            List<Task> tasks = filteredTasks(checkNotNull(loadResult.tasks()), filterType);
-                            return stateBuilder.isLoading(false).tasks(tasks).tasksFilterType(filterType).build();
-                        case FAILURE:
-                            return stateBuilder.isLoading(false).error(loadResult.error()).build();
-                        case IN_FLIGHT:
-                            return stateBuilder.isLoading(true).build();
-                    }
-                } else if (result instanceof TasksResult.CompleteTaskResult) {
-                    TasksResult.CompleteTaskResult completeTaskResult =
-                            (TasksResult.CompleteTaskResult) result;
-                    switch (completeTaskResult.status()) {
-                        case SUCCESS:
-                            stateBuilder.taskComplete(completeTaskResult.uiNotificationStatus() == SHOW);
-                            if (completeTaskResult.tasks() != null) {
-                                List<Task> tasks =
-                                        filteredTasks(checkNotNull(completeTaskResult.tasks()),
-                                                previousState.tasksFilterType());
-                                stateBuilder.tasks(tasks);
-                            }
-                            return stateBuilder.build();
-                        case FAILURE:
-                            return stateBuilder.error(completeTaskResult.error()).build();
-                        case IN_FLIGHT:
-                            return stateBuilder.build();
-                    }
-                } else if (result instanceof TasksResult.ActivateTaskResult) {
-                    TasksResult.ActivateTaskResult activateTaskResult =
-                            (TasksResult.ActivateTaskResult) result;
-                    switch (activateTaskResult.status()) {
-                        case SUCCESS:
-                            stateBuilder.taskActivated(activateTaskResult.uiNotificationStatus() == SHOW);
-                            if (activateTaskResult.tasks() != null) {
-                                List<Task> tasks =
-                                        filteredTasks(checkNotNull(activateTaskResult.tasks()),
-                                                previousState.tasksFilterType());
-                                stateBuilder.tasks(tasks);
-                            }
-                            return stateBuilder.build();
-                        case FAILURE:
-                            return stateBuilder.error(activateTaskResult.error()).build();
-                        case IN_FLIGHT:
-                            return stateBuilder.build();
-                    }
-                } else if (result instanceof TasksResult.ClearCompletedTasksResult) {
-                    TasksResult.ClearCompletedTasksResult clearCompletedTasks =
-                            (TasksResult.ClearCompletedTasksResult) result;
-                    switch (clearCompletedTasks.status()) {
-                        case SUCCESS:
-                            stateBuilder.completedTasksCleared(clearCompletedTasks.uiNotificationStatus() == SHOW);
-                            if (clearCompletedTasks.tasks() != null) {
-                                List<Task> tasks =
-                                        filteredTasks(checkNotNull(clearCompletedTasks.tasks()),
-                                                previousState.tasksFilterType());
-                                stateBuilder.tasks(tasks);
-                            }
-                            return stateBuilder.build();
-                        case FAILURE:
-                            return stateBuilder.error(clearCompletedTasks.error()).build();
-                        case IN_FLIGHT:
-                            return stateBuilder.build();
-                    }
-                } else {
-                    throw new IllegalArgumentException("Don't know this result " + result);
-                }
-                throw new IllegalStateException("Mishandled result? Should not happen (as always)");
-            };
+    private static TasksViewState.Builder restoreTasks(@NonNull TasksViewState previousState,
+                                                       @NonNull TasksViewState.Builder stateBuilder,
+                                                       @NonNull List<Task> restoredTasks) {
+        String nextPageKey = previousState.nextPageKey();
+        List<Task> tasks = new ArrayList<>(previousState.tasks());
+        for (Task task : restoredTasks) {
+            if (previousState.taskList().indexOf(task.getId()) >= 0
+                    || !previousState.tasksFilterType().matches(task)
+                    // A task belonging to a page not loaded yet is left for that page to bring.
+                    || (nextPageKey != null && task.getId().compareTo(nextPageKey) > 0)) {
+                continue;
+            }
+            tasks.add(task);
+        }
+        return tasks.size() == previousState.tasks().size() ? stateBuilder : stateBuilder.tasks(tasks);
+    }
 
     private static List<Task> filteredTasks(@NonNull List<Task> tasks,
                                             @NonNull TasksFilterType filterType) {
@@ -255,4 +312,67 @@ public class TasksViewModel extends ViewModel implements MviViewModel<TasksInten
         }
         return filteredTasks;
     }
+
+    /**
+     * Applies a {@link TaskChange} to the displayed tasks. Only a snapshot walks the whole list of
+     * tasks; a single task change is patched in place, keeping the position of an updated task.
+     * A task belonging to a page not loaded yet is left for that page to bring.
+     */
+    private static TaskList applyChange(@NonNull TaskList shownTasks,
+                                        @NonNull TaskChange change,
+                                        @NonNull TasksFilterType filterType,
+                                        @Nullable String nextPageKey) {
+        if (change.type() == TaskChange.Type.SNAPSHOT) {
+            return TaskList.of(filteredTasks(checkNotNull(change.tasks()), filterType));
+        }
+        if (change.type() == TaskChange.Type.BATCH_DELETE) {
+            return removeTasks(shownTasks, checkNotNull(change.tasks()));
+        }
+        Task task = checkNotNull(change.task());
+        int index = shownTasks.indexOf(task.getId());
+        boolean shown = change.type() != TaskChange.Type.DELETE && filterType.matches(task);
+        if (index < 0 && nextPageKey != null && task.getId().compareTo(nextPageKey) > 0) {
+            shown = false;
+        }
+        if (index < 0 && !shown) return shownTasks;
+        if (index >= 0 && shown) {
+            if (isSameTask(shownTasks.tasks().get(index), task)) {
+                // Typically the confirmation of an optimistic update, which is displayed already.
+                return shownTasks;
+            }
+            return shownTasks.replace(index, task);
+        }
+
+        List<Task> tasks = new ArrayList<>(shownTasks.tasks());
+        if (index < 0) {
+            tasks.add(task);
+        } else {
+            tasks.remove(index);
+        }
+        return TaskList.of(tasks);
+    }
+
+    /**
+     * Removes the deleted tasks from the displayed ones in a single pass, keeping the displayed
+     * list if none of them is displayed.
+     */
+    private static TaskList removeTasks(@NonNull TaskList shownTasks,
+                                        @NonNull List<Task> deletedTasks) {
+        Set<String> deletedIds = new HashSet<>();
+        for (Task task : deletedTasks) {
+            deletedIds.add(task.getId());
+        }
+        List<Task> tasks = new ArrayList<>(shownTasks.tasks().size());
+        for (Task task : shownTasks.tasks()) {
+            if (!deletedIds.contains(task.getId())) tasks.add(task);
+        }
+        return tasks.size() == shownTasks.tasks().size() ? shownTasks : TaskList.of(tasks);
+    }
+
+    /**
+     * Unlike {@link Task#equals(Object)}, also compares the completion of the tasks.
+     */
+    private static boolean isSameTask(@NonNull Task shownTask, @NonNull Task task) {
+        return shownTask.equals(task) && shownTask.isCompleted() == task.isCompleted();
+    }
 }
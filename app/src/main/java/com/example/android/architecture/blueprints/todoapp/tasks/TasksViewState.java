@@ -17,7 +17,20 @@ abstract class TasksViewState implements MviViewState {
 
     public abstract TasksFilterType tasksFilterType();
 
-    public abstract List<Task> tasks();
+    /**
+     * Snapshot of the displayed tasks, compared by version so that comparing states is cheap.
+     */
+    abstract TaskList taskList();
+
+    public List<Task> tasks() {
+        return taskList().tasks();
+    }
+
+    /**
+     * Key to pass when loading the next page of tasks, null if all of them are displayed.
+     */
+    @Nullable
+    public abstract String nextPageKey();
 
     @Nullable
     abstract Throwable error();
@@ -28,16 +41,24 @@ abstract class TasksViewState implements MviViewState {
 
     public abstract boolean completedTasksCleared();
 
+    /**
+     * Completed tasks removed from the displayed ones while they are being cleared, to display
+     * them again if the clear fails.
+     */
+    abstract List<Task> clearingTasks();
+
     public abstract Builder buildWith();
 
     static TasksViewState idle() {
         return new AutoValue_TasksViewState.Builder().isLoading(false)
                 .tasksFilterType(ALL_TASKS)
-                .tasks(Collections.emptyList())
+                .taskList(TaskList.EMPTY)
+                .nextPageKey(null)
                 .error(null)
                 .taskComplete(false)
                 .taskActivated(false)
                 .completedTasksCleared(false)
+                .clearingTasks(Collections.emptyList())
                 .build();
     }
 
@@ -47,7 +68,16 @@ abstract class TasksViewState implements MviViewState {
 
         abstract Builder tasksFilterType(TasksFilterType tasksFilterType);
 
-        abstract Builder tasks(@Nullable List<Task> tasks);
+        abstract Builder taskList(TaskList taskList);
+
+        /**
+         * Sets a new snapshot of the tasks, which makes the state differ from the previous one.
+         */
+        Builder tasks(List<Task> tasks) {
+            return taskList(TaskList.of(tasks));
+        }
+
+        abstract Builder nextPageKey(@Nullable String nextPageKey);
 
         abstract Builder error(@Nullable Throwable error);
 
@@ -57,6 +87,8 @@ abstract class TasksViewState implements MviViewState {
 
         abstract Builder completedTasksCleared(boolean completedTasksCleared);
 
+        abstract Builder clearingTasks(List<Task> clearingTasks);
+
         abstract TasksViewState build();
     }
 }
@@ -0,0 +1,131 @@
+package com.example.android.architecture.blueprints.todoapp.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
+import io.reactivex.subjects.SingleSubject;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Collects the keys requested one at a time within a short window and loads them in one batch.
+ * <p>
+ * The first {@link #load(Object)} after a batch was dispatched opens a new window. Every key
+ * requested until the window closes joins the same batch, a key requested twice being loaded only
+ * once. The batch function then loads all the keys at once and each caller receives the value of
+ * its own key, or a {@link NoSuchElementException} if the batch didn't return it. A batch with more
+ * keys than the maximum size is split into several calls to the batch function.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the loaded values
+ */
+public final class BatchLoader<K, V> {
+    @NonNull
+    private final Function<Set<K>, Single<Map<K, V>>> mBatchFunction;
+
+    private final long mWindowMillis;
+
+    private final int mMaxBatchSize;
+
+    @NonNull
+    private final Scheduler mScheduler;
+
+    @NonNull
+    private final Object mLock = new Object();
+
+    @NonNull
+    private Map<K, SingleSubject<V>> mPending = new LinkedHashMap<>();
+
+    /**
+     * @param batchFunction loads the values of a set of keys, skipping the ones not found
+     * @param maxBatchSize  most keys passed to a single call of the batch function
+     * @param window        how long requests are collected before the batch is loaded
+     * @param scheduler     scheduler on which the window is waited and the batch is loaded
+     */
+    public BatchLoader(@NonNull Function<Set<K>, Single<Map<K, V>>> batchFunction,
+                       int maxBatchSize, long window, @NonNull TimeUnit unit,
+                       @NonNull Scheduler scheduler) {
+        checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+        mBatchFunction = checkNotNull(batchFunction, "batchFunction cannot be null");
+        mMaxBatchSize = maxBatchSize;
+        mWindowMillis = checkNotNull(unit, "unit cannot be null").toMillis(window);
+        mScheduler = checkNotNull(scheduler, "scheduler cannot be null");
+    }
+
+    /**
+     * Returns the value of the key, loaded along with the other keys requested within the same
+     * window. Nothing is requested until the returned {@link Single} is subscribed to.
+     */
+    @NonNull
+    public Single<V> load(@NonNull K key) {
+        checkNotNull(key);
+        return Single.defer(() -> {
+            SingleSubject<V> result;
+            boolean opensWindow;
+            synchronized (mLock) {
+                result = mPending.get(key);
+                if (result != null) return result;
+                result = SingleSubject.create();
+                opensWindow = mPending.isEmpty();
+                mPending.put(key, result);
+            }
+            if (opensWindow) {
+                mScheduler.scheduleDirect(this::dispatch, mWindowMillis, TimeUnit.MILLISECONDS);
+            }
+            return result;
+        });
+    }
+
+    private void dispatch() {
+        Map<K, SingleSubject<V>> pending;
+        synchronized (mLock) {
+            pending = mPending;
+            mPending = new LinkedHashMap<>();
+        }
+        Map<K, SingleSubject<V>> batch = new LinkedHashMap<>();
+        for (Map.Entry<K, SingleSubject<V>> entry : pending.entrySet()) {
+            batch.put(entry.getKey(), entry.getValue());
+            if (batch.size() == mMaxBatchSize) {
+                load(batch);
+                batch = new LinkedHashMap<>();
+            }
+        }
+        if (!batch.isEmpty()) load(batch);
+    }
+
+    private void load(@NonNull Map<K, SingleSubject<V>> batch) {
+        Single<Map<K, V>> values;
+        try {
+            values = mBatchFunction.apply(Collections.unmodifiableSet(batch.keySet()));
+        } catch (Exception e) {
+            values = Single.error(e);
+        }
+        values.subscribe(
+                loaded -> {
+                    for (Map.Entry<K, SingleSubject<V>> entry : batch.entrySet()) {
+                        V value = loaded.get(entry.getKey());
+                        if (value != null) {
+                            entry.getValue().onSuccess(value);
+                        } else {
+                            entry.getValue().onError(
+                                    new NoSuchElementException("No value for " + entry.getKey()));
+                        }
+                    }
+                },
+                error -> {
+                    for (SingleSubject<V> result : batch.values()) {
+                        result.onError(error);
+                    }
+                });
+    }
+}
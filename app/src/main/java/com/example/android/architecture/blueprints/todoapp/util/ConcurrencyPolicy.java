@@ -0,0 +1,61 @@
+package com.example.android.architecture.blueprints.todoapp.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Observable;
+import io.reactivex.ObservableSource;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.functions.Function;
+
+/**
+ * How a processor handles an action arriving while the work of previous ones is still running.
+ */
+public enum ConcurrencyPolicy {
+    /**
+     * Runs the work of every action concurrently; results may land in any order.
+     */
+    MERGE,
+    /**
+     * Latest wins: a new action cancels the work of the previous one, whose results are dropped.
+     */
+    SWITCH,
+    /**
+     * Runs the work of the actions one after the other, in the order they arrive.
+     */
+    CONCAT,
+    /**
+     * Ignores the actions arriving while the work of a previous one is running.
+     */
+    EXHAUST;
+
+    /**
+     * Turns a processor of single actions into one processing a stream of actions with this
+     * policy.
+     *
+     * @param processor work to run for each action, subscribed to according to this policy
+     */
+    @NonNull
+    public <A, R> ObservableTransformer<A, R> apply(
+            @NonNull Function<? super A, ? extends ObservableSource<? extends R>> processor) {
+        switch (this) {
+            case MERGE:
+                return actions -> actions.flatMap(processor);
+            case SWITCH:
+                return actions -> actions.switchMap(processor);
+            case CONCAT:
+                return actions -> actions.concatMap(processor);
+            case EXHAUST:
+                return actions -> Observable.defer(() -> {
+                    // One flag per subscription to the actions.
+                    AtomicBoolean busy = new AtomicBoolean();
+                    return actions.filter(action -> busy.compareAndSet(false, true))
+                            .flatMap(action -> Observable.<R>defer(() -> processor.apply(action))
+                                    // Released when the work ends, even if it is disposed of.
+                                    .doFinally(() -> busy.set(false)));
+                });
+        }
+        throw new IllegalStateException("Unknown policy " + this);
+    }
+}
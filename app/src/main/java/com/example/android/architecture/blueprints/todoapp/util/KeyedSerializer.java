@@ -0,0 +1,50 @@
+package com.example.android.architecture.blueprints.todoapp.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Completable;
+
+/**
+ * Serializes the work submitted for the same key, such as the writes to one task, while work for
+ * different keys runs concurrently.
+ * <p>
+ * Work submitted for a key starts once the work previously submitted for it has ended, whether
+ * it succeeded or failed. Once the last work for a key has ended, the key is released.
+ *
+ * @param <K> type of the key identifying what the work touches
+ */
+public final class KeyedSerializer<K> {
+    @NonNull
+    private final Map<K, Completable> mTails = new HashMap<>();
+
+    /**
+     * Returns the work, to be started after the work previously submitted for the key. Submission
+     * happens when the returned {@link Completable} is subscribed to, and the work runs once even
+     * if it is subscribed to again or disposed of.
+     */
+    @NonNull
+    public Completable serialize(@NonNull K key, @NonNull Completable work) {
+        return Completable.defer(() -> {
+            AtomicReference<Completable> tail = new AtomicReference<>();
+            synchronized (mTails) {
+                Completable previous = mTails.get(key);
+                tail.set((previous == null ? work : previous.onErrorComplete().andThen(work))
+                        // Release the key, unless more work was submitted for it since.
+                        .doOnTerminate(() -> release(key, tail.get()))
+                        .cache());
+                mTails.put(key, tail.get());
+            }
+            return tail.get();
+        });
+    }
+
+    private void release(@NonNull K key, @NonNull Completable tail) {
+        synchronized (mTails) {
+            if (mTails.get(key) == tail) mTails.remove(key);
+        }
+    }
+}
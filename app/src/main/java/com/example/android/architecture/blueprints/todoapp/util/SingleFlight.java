@@ -0,0 +1,75 @@
+package com.example.android.architecture.blueprints.todoapp.util;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.reactivex.Single;
+
+/**
+ * Coalesces concurrent requests for the same key into a single in-flight {@link Single}.
+ * <p>
+ * The first caller for a key starts the work; any caller arriving while it is still running
+ * receives the same shared {@link Single} instead of starting its own. Once the work succeeds or
+ * fails, the key is released and the next caller starts a new request.
+ *
+ * @param <K> type of the key identifying a request
+ * @param <V> type of the value emitted by a request
+ */
+public final class SingleFlight<K, V> {
+    @NonNull
+    private final ConcurrentMap<K, Single<V>> mInFlight = new ConcurrentHashMap<>();
+
+    @NonNull
+    private final AtomicLong mCallCount = new AtomicLong();
+
+    @NonNull
+    private final AtomicLong mDeduplicatedCount = new AtomicLong();
+
+    /**
+     * Returns the in-flight request for the key if there is one, or one created by
+     * {@code request} otherwise. The request is only created when the returned {@link Single} is
+     * subscribed to.
+     */
+    @NonNull
+    public Single<V> execute(@NonNull K key, @NonNull Callable<Single<V>> request) {
+        return Single.defer(() -> {
+            mCallCount.incrementAndGet();
+            Single<V> inFlight = mInFlight.get(key);
+            if (inFlight != null) {
+                mDeduplicatedCount.incrementAndGet();
+                return inFlight;
+            }
+            AtomicReference<Single<V>> shared = new AtomicReference<>();
+            shared.set(Single.defer(request)
+                    // Release the key before the result reaches the subscribers so that a
+                    // subscriber reacting to it with a new call starts a fresh request.
+                    .doOnEvent((value, error) -> mInFlight.remove(key, shared.get()))
+                    .cache());
+            Single<V> existing = mInFlight.putIfAbsent(key, shared.get());
+            if (existing != null) {
+                mDeduplicatedCount.incrementAndGet();
+                return existing;
+            }
+            return shared.get();
+        });
+    }
+
+    /**
+     * Number of calls made through {@link #execute(Object, Callable)} once subscribed.
+     */
+    public long getCallCount() {
+        return mCallCount.get();
+    }
+
+    /**
+     * Number of calls which joined an in-flight request instead of starting their own.
+     */
+    public long getDeduplicatedCount() {
+        return mDeduplicatedCount.get();
+    }
+}
@@ -39,25 +39,33 @@ public class ToDoViewModelFactory implements ViewModelProvider.Factory {
             return (T) new StatisticsViewModel(
                     new StatisticsActionProcessorHolder(
                             Injection.provideTasksRepository(applicationContext),
-                            Injection.provideSchedulerProvider()));
+                            Injection.provideSchedulerProvider(),
+                            Injection.provideFetchStrategy()),
+                    Injection.provideSchedulerProvider());
         }
         if (modelClass == TasksViewModel.class) {
             return (T) new TasksViewModel(
                     new TasksActionProcessorHolder(
                             Injection.provideTasksRepository(applicationContext),
-                            Injection.provideSchedulerProvider()));
+                            Injection.provideSchedulerProvider(),
+                            Injection.provideFetchStrategy()),
+                    Injection.provideSchedulerProvider());
         }
         if (modelClass == AddEditTaskViewModel.class) {
             return (T) new AddEditTaskViewModel(
                     new AddEditTaskActionProcessorHolder(
                             Injection.provideTasksRepository(applicationContext),
-                            Injection.provideSchedulerProvider()));
+                            Injection.provideSchedulerProvider(),
+                            Injection.provideFetchStrategy()),
+                    Injection.provideSchedulerProvider());
         }
         if (modelClass == TaskDetailViewModel.class) {
             return (T) new TaskDetailViewModel(
                     new TaskDetailActionProcessorHolder(
                             Injection.provideTasksRepository(applicationContext),
-                            Injection.provideSchedulerProvider()));
+                            Injection.provideSchedulerProvider(),
+                            Injection.provideFetchStrategy()),
+                    Injection.provideSchedulerProvider());
         }
         throw new IllegalArgumentException("unknown model class " + modelClass);
     }
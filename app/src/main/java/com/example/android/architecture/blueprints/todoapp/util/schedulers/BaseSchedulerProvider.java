@@ -17,4 +17,13 @@ public interface BaseSchedulerProvider {
 
     @NonNull
     Scheduler ui();
+
+    /**
+     * Runs the work on the UI thread when the next display frame starts, so that it can be
+     * aligned on the frames. Defaults to {@link #ui()}.
+     */
+    @NonNull
+    default Scheduler frame() {
+        return ui();
+    }
 }
@@ -0,0 +1,126 @@
+package com.example.android.architecture.blueprints.todoapp.util.schedulers;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
+
+/**
+ * {@link Scheduler} running its work on the UI thread at the start of the next display frame,
+ * through a {@link Choreographer} frame callback.
+ * <p>
+ * Before Jelly Bean, which has no {@link Choreographer}, the work runs one frame duration later
+ * instead.
+ */
+public final class FrameScheduler extends Scheduler {
+
+    /**
+     * Duration of a frame at 60 frames per second, used when frames can't be observed.
+     */
+    private static final long FRAME_MILLIS = 16;
+
+    private static final FrameScheduler INSTANCE = new FrameScheduler();
+
+    @NonNull
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Prevent direct instantiation.
+    private FrameScheduler() {
+    }
+
+    public static FrameScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public Worker createWorker() {
+        return new FrameWorker();
+    }
+
+    private final class FrameWorker extends Worker {
+        @NonNull
+        private final CompositeDisposable mTasks = new CompositeDisposable();
+
+        @Override
+        public Disposable schedule(@NonNull Runnable run, long delay, @NonNull TimeUnit unit) {
+            if (mTasks.isDisposed()) return Disposables.disposed();
+            FrameTask task = new FrameTask(run);
+            mTasks.add(task);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                // The Choreographer of the UI thread is only available from that thread.
+                mMainHandler.postDelayed(task.mPostFrameCallback, unit.toMillis(delay));
+            } else {
+                mMainHandler.postDelayed(task, unit.toMillis(delay) + FRAME_MILLIS);
+            }
+            return task;
+        }
+
+        @Override
+        public void dispose() {
+            mTasks.dispose();
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return mTasks.isDisposed();
+        }
+
+        private final class FrameTask implements Runnable, Disposable {
+            @NonNull
+            private final Runnable mRun;
+            @NonNull
+            private final AtomicBoolean mDisposed = new AtomicBoolean();
+            /**
+             * Posted to the UI thread, kept so that disposing the task can remove it.
+             */
+            @NonNull
+            final Runnable mPostFrameCallback = this::postFrameCallback;
+
+            FrameTask(@NonNull Runnable run) {
+                mRun = run;
+            }
+
+            @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+            void postFrameCallback() {
+                // Not implemented by the task itself, the callback interface is missing before
+                // Jelly Bean.
+                if (isDisposed()) return;
+                Choreographer.getInstance().postFrameCallback(frameTimeNanos -> run());
+            }
+
+            @Override
+            public void run() {
+                // A disposed task is not removed from the Choreographer, it does nothing instead.
+                if (mDisposed.compareAndSet(false, true)) {
+                    mTasks.delete(this);
+                    mRun.run();
+                }
+            }
+
+            @Override
+            public void dispose() {
+                if (mDisposed.compareAndSet(false, true)) {
+                    mMainHandler.removeCallbacks(this);
+                    mMainHandler.removeCallbacks(mPostFrameCallback);
+                    // Does nothing while the whole worker is being disposed.
+                    mTasks.delete(this);
+                }
+            }
+
+            @Override
+            public boolean isDisposed() {
+                return mDisposed.get();
+            }
+        }
+    }
+}
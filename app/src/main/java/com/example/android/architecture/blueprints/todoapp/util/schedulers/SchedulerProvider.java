@@ -43,4 +43,10 @@ public class SchedulerProvider implements BaseSchedulerProvider {
     public Scheduler ui() {
         return AndroidSchedulers.mainThread();
     }
+
+    @Override
+    @NonNull
+    public Scheduler frame() {
+        return FrameScheduler.getInstance();
+    }
 }
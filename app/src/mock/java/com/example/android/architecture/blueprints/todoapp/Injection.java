@@ -20,6 +20,7 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 
 import com.example.android.architecture.blueprints.todoapp.data.FakeTasksRemoteDataSource;
+import com.example.android.architecture.blueprints.todoapp.data.source.FetchStrategy;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksLocalDataSource;
@@ -37,11 +38,23 @@ public class Injection {
 
     public static TasksRepository provideTasksRepository(@NonNull Context context) {
         checkNotNull(context);
-        return TasksRepository.getInstance(FakeTasksRemoteDataSource.getInstance(),
-                TasksLocalDataSource.getInstance(context, provideSchedulerProvider()));
+        TasksLocalDataSource tasksLocalDataSource =
+                TasksLocalDataSource.getInstance(context, provideSchedulerProvider());
+        // The local database also keeps the writes waiting to be sent, across restarts.
+        return TasksRepository.getInstance(FakeTasksRemoteDataSource.getInstance(), tasksLocalDataSource,
+                tasksLocalDataSource, provideSchedulerProvider().computation(),
+                provideSchedulerProvider().io());
     }
 
     public static BaseSchedulerProvider provideSchedulerProvider() {
         return SchedulerProvider.getInstance();
     }
+
+    /**
+     * The fake remote data source answers instantly, so racing it brings nothing but flakiness to
+     * the UI tests.
+     */
+    public static FetchStrategy provideFetchStrategy() {
+        return FetchStrategy.sequential();
+    }
 }
@@ -19,6 +19,7 @@ package com.example.android.architecture.blueprints.todoapp;
 import android.content.Context;
 import android.support.annotation.NonNull;
 
+import com.example.android.architecture.blueprints.todoapp.data.source.FetchStrategy;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksDataSource;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.data.source.local.TasksLocalDataSource;
@@ -26,6 +27,8 @@ import com.example.android.architecture.blueprints.todoapp.data.source.remote.Ta
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.SchedulerProvider;
 
+import java.util.concurrent.TimeUnit;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -34,13 +37,26 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public class Injection {
 
+    private static final long HEDGE_DELAY_MILLIS = 100;
+
     public static TasksRepository provideTasksRepository(@NonNull Context context) {
         checkNotNull(context);
-        return TasksRepository.getInstance(TasksRemoteDataSource.getInstance(),
-                TasksLocalDataSource.getInstance(context, provideSchedulerProvider()));
+        TasksLocalDataSource tasksLocalDataSource =
+                TasksLocalDataSource.getInstance(context, provideSchedulerProvider());
+        // The local database also keeps the writes waiting to be sent, across restarts.
+        return TasksRepository.getInstance(TasksRemoteDataSource.getInstance(), tasksLocalDataSource,
+                tasksLocalDataSource, provideSchedulerProvider().computation(),
+                provideSchedulerProvider().io());
     }
 
     public static BaseSchedulerProvider provideSchedulerProvider() {
         return SchedulerProvider.getInstance();
     }
+
+    /**
+     * Gives the local storage a short head start before also querying the network.
+     */
+    public static FetchStrategy provideFetchStrategy() {
+        return FetchStrategy.race(HEDGE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
 }
@@ -0,0 +1,89 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Single;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.when;
+
+/**
+ * Fixtures of the {@link TaskReconciler} tests, shared by the unit tests and the benchmark.
+ */
+final class ReconciliationFixtures {
+
+    private ReconciliationFixtures() {
+    }
+
+    /**
+     * Makes a mocked data source answer the hash tree requests and the lookups by id from the
+     * tasks, like a server keeping a {@link TaskHashTree} of its tasks up to date.
+     */
+    @SuppressWarnings("unchecked")
+    static void setTaskHashTreeAvailable(TasksDataSource dataSource, List<Task> tasks) {
+        TaskHashTree hashTree = TaskHashTree.of(tasks);
+        Map<String, Task> tasksById = new LinkedHashMap<>();
+        for (Task task : tasks) {
+            tasksById.put(task.getId(), task);
+        }
+        when(dataSource.getTaskBuckets(anyInt(), any(Collection.class))).thenAnswer(invocation ->
+                Single.just(hashTree.getBuckets((Integer) invocation.getArguments()[0],
+                        (Collection<String>) invocation.getArguments()[1])));
+        when(dataSource.getTaskHashes(any(Collection.class))).thenAnswer(invocation ->
+                Single.just(hashTree.getTaskHashes(
+                        (Collection<String>) invocation.getArguments()[0])));
+        when(dataSource.getTasks(any(Collection.class))).thenAnswer(invocation -> {
+            List<Task> found = new ArrayList<>();
+            for (String taskId : (Collection<String>) invocation.getArguments()[0]) {
+                if (tasksById.containsKey(taskId)) found.add(tasksById.get(taskId));
+            }
+            return Single.just(found);
+        });
+    }
+
+    /**
+     * Local and remote tasks of which a number differ: half of them are edited, a quarter are
+     * missing locally and the rest were deleted remotely.
+     */
+    static final class DivergentTasks {
+
+        final List<Task> mRemoteTasks;
+
+        final List<Task> mLocalTasks;
+
+        /**
+         * Remote version of the tasks edited or missing locally.
+         */
+        final List<Task> mUpdatedTasks;
+
+        final int mDeletedCount;
+
+        DivergentTasks(int taskCount, int divergentCount) {
+            mRemoteTasks = new ArrayList<>(taskCount);
+            for (int i = 0; i < taskCount; i++) {
+                mRemoteTasks.add(new Task("Title " + i, "Description " + i, i % 3 == 0));
+            }
+            mLocalTasks = new ArrayList<>(mRemoteTasks);
+            int edited = divergentCount / 2;
+            int missing = divergentCount / 4;
+            mDeletedCount = divergentCount - edited - missing;
+            for (int i = 0; i < edited; i++) {
+                Task task = mLocalTasks.get(i);
+                mLocalTasks.set(i, new Task(task.getTitle(), task.getDescription(), task.getId(),
+                        !task.isCompleted()));
+            }
+            mLocalTasks.subList(edited, edited + missing).clear();
+            for (int i = 0; i < mDeletedCount; i++) {
+                mLocalTasks.add(new Task("Local " + i, "Deleted remotely"));
+            }
+            mUpdatedTasks = mRemoteTasks.subList(0, edited + missing);
+        }
+    }
+}
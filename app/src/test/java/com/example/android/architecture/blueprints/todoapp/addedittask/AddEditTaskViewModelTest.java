@@ -17,6 +17,7 @@
 package com.example.android.architecture.blueprints.todoapp.addedittask;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.FetchStrategy;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.ImmediateSchedulerProvider;
@@ -59,7 +60,8 @@ public class AddEditTaskViewModelTest {
         mSchedulerProvider = new ImmediateSchedulerProvider();
 
         mAddEditTaskViewModel = new AddEditTaskViewModel(
-                new AddEditTaskActionProcessorHolder(mTasksRepository, mSchedulerProvider));
+                new AddEditTaskActionProcessorHolder(mTasksRepository, mSchedulerProvider),
+                mSchedulerProvider);
         mTestObserver = mAddEditTaskViewModel.states().test();
     }
 
@@ -104,7 +106,7 @@ public class AddEditTaskViewModelTest {
     @Test
     public void populateTask_callsRepoAndUpdatesViewOnSuccess() {
         final Task testTask = new Task("TITLE", "DESCRIPTION");
-        when(mTasksRepository.getTask(testTask.getId())).thenReturn(Single.just(testTask));
+        when(mTasksRepository.getTask(eq(testTask.getId()), any(FetchStrategy.class))).thenReturn(Single.just(testTask));
 
         // When populating a task is initiated by an initial intent
         mAddEditTaskViewModel.processIntents(Observable.just(
@@ -112,7 +114,7 @@ public class AddEditTaskViewModelTest {
         ));
 
         // Then the task repository is queried and a stated is emitted back
-        verify(mTasksRepository).getTask(eq(testTask.getId()));
+        verify(mTasksRepository).getTask(eq(testTask.getId()), any(FetchStrategy.class));
         mTestObserver.assertValueAt(2, state ->
                 state.title().equals(testTask.getTitle()) &&
                         state.description().equals(testTask.getDescription()));
@@ -121,7 +123,7 @@ public class AddEditTaskViewModelTest {
     @Test
     public void populateTask_callsRepoAndUpdatesViewOnError() {
         Task testTask = new Task("TITLE", "DESCRIPTION");
-        when(mTasksRepository.getTask(testTask.getId())).thenReturn(
+        when(mTasksRepository.getTask(eq(testTask.getId()), any(FetchStrategy.class))).thenReturn(
                 Single.error(new NoSuchElementException("The MaybeSource is empty")));
 
         // When populating a task is initiated by an initial intent
@@ -130,7 +132,7 @@ public class AddEditTaskViewModelTest {
         ));
 
         // Then the task repository is queried and a stated is emitted back
-        verify(mTasksRepository).getTask(eq(testTask.getId()));
+        verify(mTasksRepository).getTask(eq(testTask.getId()), any(FetchStrategy.class));
         mTestObserver.assertValueAt(2, state ->
                 state.error() != null &&
                         state.title().isEmpty() &&
@@ -0,0 +1,84 @@
+package com.example.android.architecture.blueprints.todoapp.data;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link TaskId}.
+ */
+public class TaskIdTest {
+
+    @Test
+    public void next_withinTheSameMillisecond_isMonotonic() {
+        // Given an id generated at some time
+        String previous = TaskId.next(1_000_000);
+
+        for (int i = 0; i < 10_000; i++) {
+            // When more ids are generated at the same time, or the clock goes back
+            String id = TaskId.next(i % 2 == 0 ? 1_000_000 : 999_999);
+
+            // Then each one sorts after the previous one
+            assertTrue(id.compareTo(previous) > 0);
+            previous = id;
+        }
+    }
+
+    @Test
+    public void next_hasTheTimestampAndTheBinaryFormRoundTrips() {
+        // When an id is generated
+        String id = TaskId.next(System.currentTimeMillis() + 1000);
+
+        // Then it is 26 characters long and holds its timestamp
+        assertThat(id.length(), is(TaskId.LENGTH));
+        assertTrue(TaskId.isTimeOrdered(id));
+        assertTrue(TaskId.getTimestamp(id) > System.currentTimeMillis());
+        // And it can be stored in 16 bytes
+        assertThat(TaskId.toBytes(id).length, is(TaskId.BINARY_LENGTH));
+        assertThat(TaskId.fromBytes(TaskId.toBytes(id)), is(id));
+    }
+
+    @Test
+    public void legacyUuid_isStillParsed() {
+        // Given an id created before ids were time-ordered
+        UUID uuid = UUID.randomUUID();
+        String id = uuid.toString();
+
+        // When parsed
+        byte[] bytes = TaskId.toBytes(id);
+
+        // Then it isn't taken for a time-ordered id, and keeps its 16 bytes after a tag
+        assertFalse(TaskId.isTimeOrdered(id));
+        assertThat(bytes.length, is(TaskId.LEGACY_BINARY_LENGTH));
+        assertThat(bytes[0], is((byte) 0xFF));
+        assertThat(bytes[1], is((byte) (uuid.getMostSignificantBits() >>> 56)));
+        assertThat(bytes[16], is((byte) uuid.getLeastSignificantBits()));
+    }
+
+    @Test
+    public void legacyUuid_binaryFormRoundTrips() {
+        // Given an id created before ids were time-ordered
+        String id = UUID.randomUUID().toString();
+
+        // When stored in binary form and read back
+        String readId = TaskId.fromBytes(TaskId.toBytes(id));
+
+        // Then it is the same id
+        assertThat(readId, is(id));
+    }
+
+    @Test
+    public void legacyUuid_sortsAfterTimeOrderedIds() {
+        // Given a legacy id and a time-ordered one
+        byte[] legacy = TaskId.toBytes(UUID.randomUUID().toString());
+        byte[] timeOrdered = TaskId.toBytes(TaskId.next());
+
+        // Then compared as unsigned bytes, the legacy one sorts after
+        assertTrue((legacy[0] & 0xFF) > (timeOrdered[0] & 0xFF));
+    }
+}
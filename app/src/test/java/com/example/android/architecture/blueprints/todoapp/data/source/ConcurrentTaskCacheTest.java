@@ -0,0 +1,177 @@
+/*
+ * Copyright 2016, The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksFilterType;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link ConcurrentTaskCache}, including a multi-threaded stress test.
+ */
+public class ConcurrentTaskCacheTest {
+
+    private static final int TASK_COUNT = 100_000;
+
+    private static final int WRITER_COUNT = 8;
+
+    private ConcurrentTaskCache mCache;
+
+    @Before
+    public void setupCache() {
+        mCache = new ConcurrentTaskCache();
+    }
+
+    @Test
+    public void put_keepsInsertionOrder_whenTaskIsReplaced() {
+        // Given three tasks inserted in order
+        Task task1 = new Task("Title1", "Description1", "1");
+        Task task2 = new Task("Title2", "Description2", "2");
+        Task task3 = new Task("Title3", "Description3", "3");
+        mCache.put(task1);
+        mCache.put(task2);
+        mCache.put(task3);
+
+        // When the first task is replaced by its completed version
+        Task completedTask1 = new Task("Title1", "Description1", "1", true);
+        mCache.put(completedTask1);
+
+        // Then the replaced task keeps its position
+        List<Task> snapshot = mCache.snapshot();
+        assertThat(snapshot.size(), is(3));
+        assertThat(snapshot.get(0).isCompleted(), is(true));
+        assertThat(snapshot.get(1), is(task2));
+        assertThat(snapshot.get(2), is(task3));
+    }
+
+    @Test
+    public void removeIf_removesOnlyMatchingTasks() {
+        // Given one active and two completed tasks
+        mCache.put(new Task("Title1", "Description1", "1", true));
+        mCache.put(new Task("Title2", "Description2", "2"));
+        mCache.put(new Task("Title3", "Description3", "3", true));
+
+        // When completed tasks are removed
+        mCache.removeIf(Task::isCompleted);
+
+        // Then only the active task is left
+        assertThat(mCache.size(), is(1));
+        assertThat(mCache.get("1"), is(nullValue()));
+        assertTrue(mCache.get("2").isActive());
+        assertThat(mCache.values().size(), is(1));
+    }
+
+    @Test
+    public void statusIndex_followsCompletionAndClear() {
+        // Given two active tasks and a completed one
+        Task task1 = new Task("Title1", "Description1", "1");
+        Task task2 = new Task("Title2", "Description2", "2");
+        Task task3 = new Task("Title3", "Description3", "3", true);
+        mCache.put(task1);
+        mCache.put(task2);
+        mCache.put(task3);
+
+        // When the first task is completed
+        Task completedTask1 = new Task("Title1", "Description1", "1", true);
+        mCache.put(completedTask1);
+
+        // Then it moves to the completed tasks, keeping its position
+        assertThat(mCache.snapshot(TasksFilterType.ACTIVE_TASKS), is(Lists.newArrayList(task2)));
+        assertThat(mCache.snapshot(TasksFilterType.COMPLETED_TASKS),
+                is(Lists.newArrayList(completedTask1, task3)));
+
+        // And clearing the completed tasks only leaves the active one
+        assertThat(mCache.removeCompleted(), is(Lists.newArrayList(completedTask1, task3)));
+        assertThat(mCache.snapshot(), is(Lists.newArrayList(task2)));
+        assertTrue(mCache.snapshot(TasksFilterType.COMPLETED_TASKS).isEmpty());
+    }
+
+    @Test
+    public void concurrentWritesAndReads_neverLoseUpdatesNorThrow() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITER_COUNT + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        // Given a reader continuously iterating and looking up tasks
+        Future<Integer> reader = executor.submit(() -> {
+            start.await();
+            int reads = 0;
+            while (writing.get()) {
+                for (Task task : mCache.values()) {
+                    // Each task seen through iteration must also be found by id, unless a
+                    // writer removed it in between.
+                    Task byId = mCache.get(task.getId());
+                    if (byId != null) reads++;
+                }
+            }
+            return reads;
+        });
+
+        // When many writers insert, complete and delete 100k tasks concurrently
+        List<Future<?>> writers = new ArrayList<>();
+        for (int writer = 0; writer < WRITER_COUNT; writer++) {
+            final int offset = writer;
+            writers.add(executor.submit(() -> {
+                start.await();
+                for (int i = offset; i < TASK_COUNT; i += WRITER_COUNT) {
+                    String id = String.valueOf(i);
+                    mCache.put(new Task("Title" + i, "Description" + i, id));
+                    mCache.put(new Task("Title" + i, "Description" + i, id, true));
+                    if (i % 10 == 0) mCache.remove(id);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> writerFuture : writers) {
+            writerFuture.get(60, TimeUnit.SECONDS);
+        }
+        writing.set(false);
+        reader.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        // Then every surviving task is present, completed, and visible through both views
+        int expectedSize = TASK_COUNT - TASK_COUNT / 10;
+        assertThat(mCache.size(), is(expectedSize));
+        assertThat(mCache.snapshot().size(), is(expectedSize));
+        for (int i = 0; i < TASK_COUNT; i++) {
+            Task task = mCache.get(String.valueOf(i));
+            if (i % 10 == 0) {
+                assertThat(task, is(nullValue()));
+            } else {
+                assertTrue(task.isCompleted());
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for the sending and the compaction of the outbox operations by {@link OutboxDrainer}.
+ */
+public class OutboxDrainerTest {
+
+    private static final String TASK_ID = "1";
+
+    private static final String TASK_ID2 = "2";
+
+    @Mock
+    private TasksDataSource mTasksRemoteDataSource;
+
+    private TasksOutbox mOutbox;
+
+    private TestScheduler mScheduler;
+
+    private OutboxDrainer mOutboxDrainer;
+
+    @Before
+    public void setupOutboxDrainer() {
+        MockitoAnnotations.initMocks(this);
+
+        mOutbox = new InMemoryTasksOutbox();
+        mScheduler = new TestScheduler();
+        mOutboxDrainer = new OutboxDrainer(mOutbox, mTasksRemoteDataSource, mScheduler);
+    }
+
+    @Test
+    public void drain_sendsTheOperations_andRemovesThemFromTheOutbox() {
+        // Given a saved task and a completed one waiting in the outbox
+        Task task = new Task("title", "description", TASK_ID);
+        mOutbox.append(Lists.newArrayList(
+                OutboxOperation.save(task), OutboxOperation.complete(TASK_ID2)));
+        when(mTasksRemoteDataSource.saveTasks(anyCollectionOf(Task.class)))
+                .thenReturn(Completable.complete());
+        when(mTasksRemoteDataSource.completeTasks(anyCollectionOf(String.class)))
+                .thenReturn(Completable.complete());
+
+        // When drained
+        mOutboxDrainer.requestDrain();
+        mScheduler.triggerActions();
+
+        // Then the operations are sent to the remote data source and removed from the outbox
+        verify(mTasksRemoteDataSource).saveTasks(Collections.singletonList(task));
+        verify(mTasksRemoteDataSource).completeTasks(Collections.singletonList(TASK_ID2));
+        assertTrue(mOutbox.peek(OutboxDrainer.BATCH_SIZE).isEmpty());
+    }
+
+    @Test
+    public void drain_whenTheRemoteDataSourceIsUnreachable_keepsTheOperationsUntilTheRetry() {
+        // Given a completed task waiting in the outbox, and a remote data source unreachable once
+        mOutbox.append(Collections.singletonList(OutboxOperation.complete(TASK_ID)));
+        when(mTasksRemoteDataSource.completeTasks(anyCollectionOf(String.class)))
+                .thenReturn(Completable.error(new IOException()), Completable.complete());
+
+        // When drained
+        mOutboxDrainer.requestDrain();
+        mScheduler.triggerActions();
+
+        // Then the operation is kept in the outbox
+        assertThat(mOutbox.peek(OutboxDrainer.BATCH_SIZE),
+                is(Collections.singletonList(OutboxOperation.complete(TASK_ID))));
+
+        // When the retry delay elapses
+        mScheduler.advanceTimeBy(OutboxDrainer.INITIAL_RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Then the operation is sent again, and this time removed from the outbox
+        verify(mTasksRemoteDataSource, times(2))
+                .completeTasks(Collections.singletonList(TASK_ID));
+        assertTrue(mOutbox.peek(OutboxDrainer.BATCH_SIZE).isEmpty());
+    }
+
+    @Test
+    public void drain_whenTheRemoteDataSourceStaysUnreachable_doublesTheRetryDelay() {
+        // Given a completed task waiting in the outbox, and an unreachable remote data source
+        mOutbox.append(Collections.singletonList(OutboxOperation.complete(TASK_ID)));
+        when(mTasksRemoteDataSource.completeTasks(anyCollectionOf(String.class)))
+                .thenReturn(Completable.error(new IOException()));
+
+        // When drained, then retried once
+        mOutboxDrainer.requestDrain();
+        mScheduler.triggerActions();
+        mScheduler.advanceTimeBy(OutboxDrainer.INITIAL_RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+
+        // Then the next retry only happens after twice the delay
+        mScheduler.advanceTimeBy(
+                2 * OutboxDrainer.INITIAL_RETRY_DELAY_MILLIS - 1, TimeUnit.MILLISECONDS);
+        verify(mTasksRemoteDataSource, times(2)).completeTasks(anyCollectionOf(String.class));
+        mScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        verify(mTasksRemoteDataSource, times(3)).completeTasks(anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void drain_whenTheRemoteDataSourceRejectsAnOperation_dropsItAndSendsTheOthers() {
+        // Given a rejected operation waiting in the outbox before a valid one
+        Task task = new Task("title", "description", TASK_ID2);
+        mOutbox.append(Lists.newArrayList(
+                OutboxOperation.complete(TASK_ID), OutboxOperation.save(task)));
+        when(mTasksRemoteDataSource.completeTasks(anyCollectionOf(String.class)))
+                .thenReturn(Completable.error(new IllegalArgumentException()));
+        when(mTasksRemoteDataSource.saveTasks(anyCollectionOf(Task.class)))
+                .thenReturn(Completable.complete());
+
+        // When drained
+        mOutboxDrainer.requestDrain();
+        mScheduler.triggerActions();
+
+        // Then the valid operation is sent, and both are removed from the outbox
+        verify(mTasksRemoteDataSource, times(2)).saveTasks(Collections.singletonList(task));
+        assertTrue(mOutbox.peek(OutboxDrainer.BATCH_SIZE).isEmpty());
+    }
+
+    @Test
+    public void compact_completeThenActivate_cancelsOut() {
+        // Given a task completed then activated again
+        List<OutboxOperation> operations = Lists.newArrayList(
+                OutboxOperation.complete(TASK_ID), OutboxOperation.activate(TASK_ID));
+
+        // When compacted
+        List<OutboxOperation> compacted = OutboxDrainer.compact(operations);
+
+        // Then nothing is left to send
+        assertTrue(compacted.isEmpty());
+    }
+
+    @Test
+    public void compact_severalSaves_collapseIntoTheLastOneWithLaterToggles() {
+        // Given a task saved twice, then completed
+        Task task = new Task("title", "description", TASK_ID);
+        Task editedTask = new Task("title2", "description", TASK_ID);
+        List<OutboxOperation> operations = Lists.newArrayList(
+                OutboxOperation.save(task), OutboxOperation.save(editedTask),
+                OutboxOperation.complete(TASK_ID));
+
+        // When compacted
+        List<OutboxOperation> compacted = OutboxDrainer.compact(operations);
+
+        // Then only the last version is saved, already completed
+        assertThat(compacted.size(), is(1));
+        assertThat(compacted.get(0).type(), is(OutboxOperation.Type.SAVE));
+        assertThat(compacted.get(0).task().getTitle(), is("title2"));
+        assertTrue(compacted.get(0).task().isCompleted());
+    }
+
+    @Test
+    public void compact_keepsClearCompletedBetweenWrites_andDropsWritesBeforeDeleteAll() {
+        // Given writes around a clear of the completed tasks and a delete of all of them
+        List<OutboxOperation> operations = Lists.newArrayList(
+                OutboxOperation.complete(TASK_ID), OutboxOperation.deleteAll(),
+                OutboxOperation.complete(TASK_ID2), OutboxOperation.clearCompleted(),
+                OutboxOperation.delete(TASK_ID2), OutboxOperation.delete(TASK_ID2));
+
+        // When compacted
+        List<OutboxOperation> compacted = OutboxDrainer.compact(operations);
+
+        // Then the writes before the delete of all the tasks are dropped, and the others are kept
+        // on their side of the clear
+        assertThat(compacted, is((List<OutboxOperation>) Lists.newArrayList(
+                OutboxOperation.deleteAll(), OutboxOperation.complete(TASK_ID2),
+                OutboxOperation.clearCompleted(), OutboxOperation.delete(TASK_ID2))));
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.ReconciliationFixtures.DivergentTasks;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static com.example.android.architecture.blueprints.todoapp.data.source.ReconciliationFixtures.setTaskHashTreeAvailable;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link TaskReconciler}.
+ */
+public class TaskReconcilerTest {
+
+    private static final int TASK_COUNT = 1_000;
+
+    private static final int DIVERGENT_COUNT = 12;
+
+    @Mock
+    private TasksDataSource mTasksRemoteDataSource;
+
+    @Mock
+    private TasksDataSource mTasksLocalDataSource;
+
+    private TaskReconciler mTaskReconciler;
+
+    @Before
+    public void setupTaskReconciler() {
+        MockitoAnnotations.initMocks(this);
+        mTaskReconciler = new TaskReconciler(mTasksLocalDataSource, mTasksRemoteDataSource);
+    }
+
+    @Test
+    public void reconcile_sameTasks_onlyComparesTheRoot() {
+        // Given the same tasks on both sides
+        List<Task> tasks = Lists.newArrayList(new Task("Title1", "Description1"),
+                new Task("Title2", "Description2"));
+        setTaskHashTreeAvailable(mTasksLocalDataSource, tasks);
+        setTaskHashTreeAvailable(mTasksRemoteDataSource, tasks);
+
+        // When reconciled
+        TaskReconciliation reconciliation = mTaskReconciler.reconcile().blockingGet();
+
+        // Then a single bucket is compared and nothing is fetched
+        assertThat(reconciliation.roundTrips(), is(1));
+        assertThat(reconciliation.bucketsCompared(), is(1));
+        assertTrue(reconciliation.updated().isEmpty());
+        assertTrue(reconciliation.deletedIds().isEmpty());
+        verify(mTasksRemoteDataSource, never()).getTasks(any(Collection.class));
+    }
+
+    @Test
+    public void reconcile_onlyCompletionChanged_fetchesTheTask() {
+        // Given a task completed remotely but not locally
+        Task localTask = new Task("Title1", "Description1", "1", false);
+        Task remoteTask = new Task("Title1", "Description1", "1", true);
+        setTaskHashTreeAvailable(mTasksLocalDataSource, Lists.newArrayList(localTask));
+        setTaskHashTreeAvailable(mTasksRemoteDataSource, Lists.newArrayList(remoteTask));
+
+        // When reconciled
+        TaskReconciliation reconciliation = mTaskReconciler.reconcile().blockingGet();
+
+        // Then the remote version is fetched
+        assertThat(reconciliation.updated().size(), is(1));
+        assertTrue(reconciliation.updated().get(0).isCompleted());
+    }
+
+    @Test
+    public void reconcile_divergentTasks_findsExactlyThem() {
+        // Given tasks of which a few are edited, missing locally or deleted remotely
+        DivergentTasks tasks = new DivergentTasks(TASK_COUNT, DIVERGENT_COUNT);
+        setTaskHashTreeAvailable(mTasksLocalDataSource, tasks.mLocalTasks);
+        setTaskHashTreeAvailable(mTasksRemoteDataSource, tasks.mRemoteTasks);
+
+        // When reconciled
+        TaskReconciliation reconciliation = mTaskReconciler.reconcile().blockingGet();
+
+        // Then exactly the divergent tasks are found, and only those are fetched
+        assertThat(reconciliation.updated().size(), is(tasks.mUpdatedTasks.size()));
+        assertThat(new HashSet<>(reconciliation.updated()), is(new HashSet<>(tasks.mUpdatedTasks)));
+        assertThat(reconciliation.deletedIds().size(), is(tasks.mDeletedCount));
+    }
+
+    @Test
+    public void reconcile_idsWithACommonPrefix_startsBelowIt() {
+        // Given more tasks than a leaf holds, sharing the first characters of their ids
+        List<Task> localTasks = new ArrayList<>();
+        for (int i = 0; i < 2 * TaskReconciler.LEAF_SIZE; i++) {
+            localTasks.add(new Task("Title " + i, "Description " + i, "0123456789-" + i, false));
+        }
+        // And one of them completed remotely
+        List<Task> remoteTasks = new ArrayList<>(localTasks);
+        Task task = localTasks.get(5);
+        remoteTasks.set(5, new Task(task.getTitle(), task.getDescription(), task.getId(), true));
+        setTaskHashTreeAvailable(mTasksLocalDataSource, localTasks);
+        setTaskHashTreeAvailable(mTasksRemoteDataSource, remoteTasks);
+
+        // When reconciled
+        TaskReconciliation reconciliation = mTaskReconciler.reconcile().blockingGet();
+
+        // Then the buckets compared after the root are the ones right below the common prefix,
+        // rather than one level per character of the prefix
+        assertThat(reconciliation.roundTrips(), is(4));
+        assertThat(reconciliation.updated(), is(Collections.singletonList(remoteTasks.get(5))));
+    }
+}
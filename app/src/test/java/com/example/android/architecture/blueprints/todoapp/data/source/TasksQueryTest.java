@@ -0,0 +1,69 @@
+package com.example.android.architecture.blueprints.todoapp.data.source;
+
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksFilterType;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for the in-memory evaluation of {@link TasksQuery}.
+ */
+public class TasksQueryTest {
+
+    private static final Task TASK_C = new Task("C", "Description", "1");
+    private static final Task TASK_A = new Task("A", "Description", "2", true);
+    private static final Task TASK_B = new Task("B", "Description", "3");
+    private static final Task TASK_NO_TITLE = new Task(null, "Description", "4");
+
+    private static final List<Task> TASKS = Lists.newArrayList(TASK_C, TASK_A, TASK_B, TASK_NO_TITLE);
+
+    @Test
+    public void unsorted_keepsTheOrderAndStopsAtTheLimit() {
+        // When querying two active tasks, unsorted
+        List<Task> tasks = TasksQuery.builder()
+                .filterType(TasksFilterType.ACTIVE_TASKS)
+                .limit(2)
+                .build()
+                .apply(TASKS);
+
+        // Then the first two active tasks are returned, in their order
+        assertThat(tasks, is(Lists.newArrayList(TASK_C, TASK_B)));
+    }
+
+    @Test
+    public void sortedByTitle_putsTasksWithoutTitleFirst() {
+        // When querying all the tasks by title
+        List<Task> tasks = TasksQuery.builder()
+                .sort(TasksQuery.Sort.TITLE)
+                .build()
+                .apply(TASKS);
+
+        // Then the tasks without title come first, then the others by title
+        assertThat(tasks, is(Lists.newArrayList(TASK_NO_TITLE, TASK_A, TASK_B, TASK_C)));
+    }
+
+    @Test
+    public void sortedById_isLimitedAfterSorting() {
+        // When querying the first completed task by id
+        List<Task> tasks = TasksQuery.builder()
+                .filterType(TasksFilterType.COMPLETED_TASKS)
+                .sort(TasksQuery.Sort.ID)
+                .limit(1)
+                .build()
+                .apply(TASKS);
+
+        // Then only the completed task is returned
+        assertThat(tasks, is(Lists.newArrayList(TASK_A)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeLimit_isRejected() {
+        TasksQuery.builder().limit(-1).build();
+    }
+}
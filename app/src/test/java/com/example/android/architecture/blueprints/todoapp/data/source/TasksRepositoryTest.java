@@ -17,7 +17,9 @@
 package com.example.android.architecture.blueprints.todoapp.data.source;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.tasks.TasksFilterType;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import org.junit.After;
 import org.junit.Before;
@@ -25,12 +27,23 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 
+import io.reactivex.Completable;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.disposables.Disposables;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.SingleSubject;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertFalse;
@@ -54,6 +67,10 @@ public class TasksRepositoryTest {
 
     private final static String TASK_TITLE3 = "title3";
 
+    private final static String SYNC_TOKEN = "1";
+
+    private final static String NEXT_SYNC_TOKEN = "2";
+
     private static List<Task> TASKS =
             Lists.newArrayList(new Task("Title1", "Description1"), new Task("Title2", "Description2"));
 
@@ -74,7 +91,8 @@ public class TasksRepositoryTest {
         MockitoAnnotations.initMocks(this);
 
         // Get a reference to the class under test
-        mTasksRepository = TasksRepository.getInstance(mTasksRemoteDataSource, mTasksLocalDataSource);
+        mTasksRepository = TasksRepository.getInstance(mTasksRemoteDataSource, mTasksLocalDataSource,
+                new InMemoryTasksOutbox(), Schedulers.trampoline(), new WithoutRetriesScheduler());
 
         mTasksTestObserver = new TestObserver<>();
     }
@@ -153,7 +171,7 @@ public class TasksRepositoryTest {
         mTasksRepository.saveTask(newTask);
 
         // Then the service API and persistent repository are called and the cache is updated
-        verify(mTasksRemoteDataSource).saveTask(newTask);
+        verify(mTasksRemoteDataSource).saveTasks(Collections.singletonList(newTask));
         verify(mTasksLocalDataSource).saveTask(newTask);
         assertThat(mTasksRepository.mCachedTasks.size(), is(1));
     }
@@ -168,7 +186,7 @@ public class TasksRepositoryTest {
         mTasksRepository.completeTask(newTask);
 
         // Then the service API and persistent repository are called and the cache is updated
-        verify(mTasksRemoteDataSource).completeTask(newTask);
+        verify(mTasksRemoteDataSource).completeTasks(Collections.singletonList(newTask.getId()));
         verify(mTasksLocalDataSource).completeTask(newTask);
         assertThat(mTasksRepository.mCachedTasks.size(), is(1));
         assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()).isActive(), is(false));
@@ -184,7 +202,7 @@ public class TasksRepositoryTest {
         mTasksRepository.completeTask(newTask.getId());
 
         // Then the service API and persistent repository are called and the cache is updated
-        verify(mTasksRemoteDataSource).completeTask(newTask);
+        verify(mTasksRemoteDataSource).completeTasks(Collections.singletonList(newTask.getId()));
         verify(mTasksLocalDataSource).completeTask(newTask);
         assertThat(mTasksRepository.mCachedTasks.size(), is(1));
         assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()).isActive(), is(false));
@@ -200,7 +218,7 @@ public class TasksRepositoryTest {
         mTasksRepository.activateTask(newTask);
 
         // Then the service API and persistent repository are called and the cache is updated
-        verify(mTasksRemoteDataSource).activateTask(newTask);
+        verify(mTasksRemoteDataSource).activateTasks(Collections.singletonList(newTask.getId()));
         verify(mTasksLocalDataSource).activateTask(newTask);
         assertThat(mTasksRepository.mCachedTasks.size(), is(1));
         assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()).isActive(), is(true));
@@ -216,7 +234,7 @@ public class TasksRepositoryTest {
         mTasksRepository.activateTask(newTask.getId());
 
         // Then the service API and persistent repository are called and the cache is updated
-        verify(mTasksRemoteDataSource).activateTask(newTask);
+        verify(mTasksRemoteDataSource).activateTasks(Collections.singletonList(newTask.getId()));
         verify(mTasksLocalDataSource).activateTask(newTask);
         assertThat(mTasksRepository.mCachedTasks.size(), is(1));
         assertThat(mTasksRepository.mCachedTasks.get(newTask.getId()).isActive(), is(true));
@@ -235,12 +253,12 @@ public class TasksRepositoryTest {
         mTasksRepository.getTask(task.getId()).subscribe(testObserver);
 
         // Then the task is loaded from the database
-        verify(mTasksLocalDataSource).getTask(eq(task.getId()));
+        verify(mTasksLocalDataSource).getTasks(eq(Collections.singleton(task.getId())));
         testObserver.assertValue(task);
     }
 
     @Test
-    public void getTask_whenDataNotLocal_fails() {
+    public void getTask_whenDataNotLocal_loadsAndSavesRemoteTask() {
         // Given a stub completed task with title and description in the remote repository
         Task task = new Task(TASK_TITLE, "Some Task Description", true);
         setTaskAvailable(mTasksRemoteDataSource, task);
@@ -251,8 +269,41 @@ public class TasksRepositoryTest {
         TestObserver<Task> testObserver = new TestObserver<>();
         mTasksRepository.getTask(task.getId()).subscribe(testObserver);
 
-        // Verify no data is returned
-        testObserver.assertError(NoSuchElementException.class);
+        // Then the remote task is returned and saved locally
+        testObserver.assertValue(task);
+        verify(mTasksLocalDataSource).saveTasks(Collections.singletonList(task));
+    }
+
+    @Test
+    public void getTask_lookupsWithinBatchWindow_areLoadedWithOneQueryPerDataSource() {
+        // Given a repository batching lookups on a controlled scheduler
+        TasksRepository.destroyInstance();
+        TestScheduler batchScheduler = new TestScheduler();
+        mTasksRepository = TasksRepository.getInstance(mTasksRemoteDataSource, mTasksLocalDataSource,
+                new InMemoryTasksOutbox(), batchScheduler, new WithoutRetriesScheduler());
+        // And one task stored locally and another one only remotely
+        Task localTask = new Task(TASK_TITLE, "Local");
+        Task remoteTask = new Task(TASK_TITLE2, "Remote");
+        when(mTasksLocalDataSource.getTasks(any(Collection.class)))
+                .thenReturn(Single.just(Collections.singletonList(localTask)));
+        when(mTasksRemoteDataSource.getTasks(any(Collection.class)))
+                .thenReturn(Single.just(Collections.singletonList(remoteTask)));
+
+        // When both tasks are requested within the batch window
+        TestObserver<Task> testObserver1 = mTasksRepository.getTask(localTask.getId()).test();
+        TestObserver<Task> testObserver2 = mTasksRepository.getTask(remoteTask.getId()).test();
+        testObserver1.assertNoValues();
+        batchScheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+
+        // Then the local data source is queried once for both ids
+        verify(mTasksLocalDataSource).getTasks(
+                eq(Sets.newHashSet(localTask.getId(), remoteTask.getId())));
+        // And the remote data source once for the id missing locally
+        verify(mTasksRemoteDataSource).getTasks(
+                eq(Collections.singletonList(remoteTask.getId())));
+        verify(mTasksLocalDataSource, never()).getTask(any(String.class));
+        testObserver1.assertValue(localTask);
+        testObserver2.assertValue(remoteTask);
     }
 
     @Test
@@ -308,7 +359,7 @@ public class TasksRepositoryTest {
         mTasksRepository.deleteTask(newTask.getId());
 
         // Verify the data sources were called
-        verify(mTasksRemoteDataSource).deleteTask(newTask.getId());
+        verify(mTasksRemoteDataSource).deleteTasks(Collections.singletonList(newTask.getId()));
         verify(mTasksLocalDataSource).deleteTask(newTask.getId());
 
         // Verify it's removed from repository
@@ -319,14 +370,15 @@ public class TasksRepositoryTest {
     public void getTasksWithDirtyCache_tasksAreRetrievedFromRemote() {
         // Given that the remote data source has data available
         setTasksAvailable(mTasksRemoteDataSource, TASKS);
+        // And the local data source does not have any data available
+        setTasksNotAvailable(mTasksLocalDataSource);
 
         // When calling getTasks in the repository with dirty cache
         mTasksRepository.refreshTasks();
         mTasksRepository.getTasks().subscribe(mTasksTestObserver);
 
-        // Verify the tasks from the remote data source are returned, not the local
-        verify(mTasksLocalDataSource, never()).getTasks();
-        verify(mTasksRemoteDataSource).getTasks();
+        // Verify the tasks from the remote data source are returned
+        verify(mTasksRemoteDataSource).getChangesSince(null);
         mTasksTestObserver.assertValue(TASKS);
     }
 
@@ -382,6 +434,7 @@ public class TasksRepositoryTest {
     public void getTasks_refreshesLocalDataSource() {
         // Given that the remote data source has data available
         setTasksAvailable(mTasksRemoteDataSource, TASKS);
+        setTasksNotAvailable(mTasksLocalDataSource);
 
         // Mark cache as dirty to force a reload of data from remote data source.
         mTasksRepository.refreshTasks();
@@ -389,27 +442,522 @@ public class TasksRepositoryTest {
         // When calling getTasks in the repository
         mTasksRepository.getTasks().subscribe(mTasksTestObserver);
 
-        // Verify that the data fetched from the remote data source was saved in local.
-        verify(mTasksLocalDataSource, times(TASKS.size())).saveTask(any(Task.class));
+        // Verify that the data fetched from the remote data source was saved in local at once.
+        verify(mTasksLocalDataSource).saveTasks(TASKS);
+        verify(mTasksLocalDataSource, never()).saveTask(any(Task.class));
         mTasksTestObserver.assertValue(TASKS);
     }
 
+    @Test
+    public void changes_emitsSnapshotThenEveryMutation() {
+        // Given tasks loaded in the cache from the local data source
+        setTasksAvailable(mTasksLocalDataSource, TASKS);
+        setTasksNotAvailable(mTasksRemoteDataSource);
+        mTasksRepository.getTasks().subscribe(mTasksTestObserver);
+
+        // When subscribing to the changes and mutating the tasks
+        TestObserver<TaskChange> changesObserver = mTasksRepository.changes().test();
+        Task newTask = new Task(TASK_TITLE, "Some Task Description");
+        mTasksRepository.saveTask(newTask);
+        mTasksRepository.completeTask(newTask);
+        mTasksRepository.deleteTask(newTask.getId());
+
+        // Then a snapshot of the cache is emitted first, followed by one change per mutation
+        changesObserver.assertValueCount(4);
+        changesObserver.assertValueAt(0, change -> change.type() == TaskChange.Type.SNAPSHOT
+                && TASKS.equals(change.tasks()));
+        changesObserver.assertValueAt(1, change -> change.type() == TaskChange.Type.INSERT
+                && change.task() == newTask);
+        changesObserver.assertValueAt(2, change -> change.type() == TaskChange.Type.UPDATE
+                && change.previous() == newTask && change.task().isCompleted());
+        changesObserver.assertValueAt(3, change -> change.type() == TaskChange.Type.DELETE
+                && change.task().getId().equals(newTask.getId()));
+    }
+
+    @Test
+    public void clearCompletedTasks_emitsASingleBatchDelete() {
+        // Given an active task and two completed ones loaded in the cache
+        Task activeTask = new Task(TASK_TITLE, "Some Task Description");
+        Task completedTask1 = new Task(TASK_TITLE2, "Some Task Description", true);
+        Task completedTask2 = new Task(TASK_TITLE3, "Some Task Description", true);
+        setTasksAvailable(mTasksLocalDataSource,
+                Lists.newArrayList(activeTask, completedTask1, completedTask2));
+        mTasksRepository.getTasks().subscribe(mTasksTestObserver);
+        TestObserver<TaskChange> changesObserver = mTasksRepository.changes().test();
+
+        // When the completed tasks are cleared
+        mTasksRepository.clearCompletedTasks();
+
+        // Then a single change holding both is emitted after the snapshot
+        changesObserver.assertValueCount(2);
+        changesObserver.assertValueAt(1, change -> change.type() == TaskChange.Type.BATCH_DELETE
+                && Sets.newHashSet(completedTask1, completedTask2)
+                .equals(Sets.newHashSet(change.tasks())));
+    }
+
+    @Test
+    public void getTaskWithIdFromLocalRepository_doesNotEmitAChange() {
+        // Given a task stored locally
+        Task task = new Task(TASK_TITLE, "Some Task Description");
+        setTaskAvailable(mTasksLocalDataSource, task);
+        TestObserver<TaskChange> changesObserver = mTasksRepository.changes().test();
+
+        // When it is read
+        mTasksRepository.getTaskWithIdFromLocalRepository(task.getId()).test().assertValue(task);
+
+        // Then it is cached without being published, as nothing changed
+        assertThat(mTasksRepository.mCachedTasks.get(task.getId()), is(task));
+        changesObserver.assertNoValues();
+    }
+
+    @Test
+    public void getTasksPage_whenLocalStorageEmpty_fetchesRemoteThenReadsLocalPage() {
+        // Given an empty local storage, filled by the remote data source once fetched
+        when(mTasksLocalDataSource.getTasksPage(null, 10, TasksFilterType.ALL_TASKS))
+                .thenReturn(Single.just(Collections.emptyList()))
+                .thenReturn(Single.just(TASKS));
+        setTasksNotAvailable(mTasksLocalDataSource);
+        setTasksAvailable(mTasksRemoteDataSource, TASKS);
+
+        // When the first page is requested
+        mTasksRepository.getTasksPage(null, 10, TasksFilterType.ALL_TASKS)
+                .subscribe(mTasksTestObserver);
+
+        // Then the remote tasks are saved locally and the page is read again from local
+        verify(mTasksLocalDataSource).saveTasks(TASKS);
+        verify(mTasksLocalDataSource, times(2)).getTasksPage(null, 10, TasksFilterType.ALL_TASKS);
+        mTasksTestObserver.assertValue(TASKS);
+    }
+
+    @Test
+    public void getTasks_concurrentCallersShareOneRemoteLoad() {
+        // Given a remote data source still loading
+        SingleSubject<List<Task>> remoteTasks = SingleSubject.create();
+        setChangesAvailable(remoteTasks);
+        setTasksNotAvailable(mTasksLocalDataSource);
+        // And a dirty cache forcing the use of the remote data source
+        mTasksRepository.refreshTasks();
+
+        // When tasks are requested twice before the remote data source responds
+        TestObserver<List<Task>> testObserver1 = mTasksRepository.getTasks().test();
+        TestObserver<List<Task>> testObserver2 = mTasksRepository.getTasks().test();
+        remoteTasks.onSuccess(TASKS);
+
+        // Then the remote data source is only called once and both callers get the tasks
+        verify(mTasksRemoteDataSource).getChangesSince(null);
+        testObserver1.assertValue(TASKS);
+        testObserver2.assertValue(TASKS);
+        assertThat(mTasksRepository.getLoadCallCount(), is(2L));
+        assertThat(mTasksRepository.getDeduplicatedLoadCount(), is(1L));
+    }
+
+    @Test
+    public void getTasksAndRevalidate_emitsLocalTasksBeforeRemoteOnes() {
+        // Given tasks available locally
+        setTasksAvailable(mTasksLocalDataSource, TASKS);
+        when(mTasksLocalDataSource.getSyncToken()).thenReturn(SYNC_TOKEN);
+        // And the remote data source still loading
+        SingleSubject<List<Task>> remoteTasks = SingleSubject.create();
+        when(mTasksRemoteDataSource.getChangesSince(SYNC_TOKEN)).thenReturn(
+                remoteTasks.map(tasks -> TaskChangeSet.full(tasks, NEXT_SYNC_TOKEN)));
+
+        // When the tasks are requested and revalidated
+        TestObserver<List<Task>> testObserver = mTasksRepository.getTasksAndRevalidate().test();
+
+        // Then the local tasks are emitted without waiting for the remote data source
+        testObserver.assertValue(TASKS);
+        testObserver.assertNotComplete();
+
+        // And the remote tasks are emitted and saved locally once they arrive
+        List<Task> freshTasks = Lists.newArrayList(new Task("Title3", "Description3"));
+        remoteTasks.onSuccess(freshTasks);
+        testObserver.assertValues(TASKS, freshTasks);
+        testObserver.assertComplete();
+        verify(mTasksLocalDataSource).saveTasks(freshTasks);
+        assertFalse(mTasksRepository.mCacheIsDirty);
+    }
+
+    @Test
+    public void getTasks_raceStrategy_startsRemoteAfterHedgeDelayAndTakesFirstResult() {
+        // Given a local data source which doesn't respond
+        when(mTasksLocalDataSource.getTasks()).thenReturn(SingleSubject.create());
+        // And a remote data source still loading
+        SingleSubject<List<Task>> remoteTasks = SingleSubject.create();
+        when(mTasksRemoteDataSource.getTasks()).thenReturn(remoteTasks);
+        TestScheduler hedgeScheduler = new TestScheduler();
+
+        // When the tasks are raced with a hedge delay
+        TestObserver<List<Task>> testObserver = mTasksRepository
+                .getTasks(FetchStrategy.race(100, TimeUnit.MILLISECONDS, hedgeScheduler)).test();
+
+        // Then the remote data source is only queried once the hedge delay elapsed
+        assertFalse(remoteTasks.hasObservers());
+        hedgeScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        assertTrue(remoteTasks.hasObservers());
+
+        // And its tasks are returned without waiting for the local data source
+        remoteTasks.onSuccess(TASKS);
+        testObserver.assertValue(TASKS);
+    }
+
+    @Test
+    public void getTasks_raceStrategy_remoteTasksDoNotOverwriteNewerLocalWrites() {
+        // Given a local data source which doesn't respond
+        when(mTasksLocalDataSource.getTasks()).thenReturn(SingleSubject.create());
+        // And a remote data source still loading
+        SingleSubject<List<Task>> remoteTasks = SingleSubject.create();
+        when(mTasksRemoteDataSource.getTasks()).thenReturn(remoteTasks);
+        Task activeTask = TASKS.get(0);
+
+        // When the tasks are raced
+        TestObserver<List<Task>> testObserver = mTasksRepository
+                .getTasks(FetchStrategy.race(0, TimeUnit.MILLISECONDS)).test();
+        // And a task is completed locally before the remote data source responds
+        mTasksRepository.completeTask(activeTask);
+        remoteTasks.onSuccess(TASKS);
+
+        // Then the stale remote version of the completed task is neither saved nor returned
+        verify(mTasksLocalDataSource).saveTasks(Collections.singletonList(TASKS.get(1)));
+        assertTrue(mTasksRepository.mCachedTasks.get(activeTask.getId()).isCompleted());
+        testObserver.assertValueCount(1);
+        assertTrue(testObserver.values().get(0).get(0).isCompleted());
+    }
+
+    @Test
+    public void getTasks_raceStrategy_remoteTasksDoNotOverwriteLocalWritesNoLongerRemembered() {
+        // Given a local data source which doesn't respond
+        when(mTasksLocalDataSource.getTasks()).thenReturn(SingleSubject.create());
+        // And a remote data source still loading
+        SingleSubject<List<Task>> remoteTasks = SingleSubject.create();
+        when(mTasksRemoteDataSource.getTasks()).thenReturn(remoteTasks);
+        Task activeTask = TASKS.get(0);
+
+        // When the tasks are raced
+        mTasksRepository.getTasks(FetchStrategy.race(0, TimeUnit.MILLISECONDS)).test();
+        // And a task is completed locally, followed by more writes than are remembered, before
+        // the remote data source responds
+        mTasksRepository.completeTask(activeTask);
+        List<Task> newTasks = new ArrayList<>();
+        for (int i = 0; i < TasksRepository.MAX_LOCAL_WRITES; i++) {
+            newTasks.add(new Task(TASK_TITLE, "Description " + i));
+        }
+        mTasksRepository.saveTasks(newTasks);
+        remoteTasks.onSuccess(TASKS);
+
+        // Then the stale remote version of the completed task still doesn't overwrite it
+        assertTrue(mTasksRepository.mCachedTasks.get(activeTask.getId()).isCompleted());
+    }
+
+    @Test
+    public void getTasks_raceStrategy_remoteTasksDoNotRestoreTasksClearedLocally() {
+        // Given a local data source which doesn't respond
+        when(mTasksLocalDataSource.getTasks()).thenReturn(SingleSubject.create());
+        // And a remote data source still loading a completed task missing from the cache
+        SingleSubject<List<Task>> remoteTasks = SingleSubject.create();
+        when(mTasksRemoteDataSource.getTasks()).thenReturn(remoteTasks);
+        Task completedTask = new Task(TASK_TITLE, "Some Task Description", true);
+
+        // When the tasks are raced
+        TestObserver<List<Task>> testObserver = mTasksRepository
+                .getTasks(FetchStrategy.race(0, TimeUnit.MILLISECONDS)).test();
+        // And the completed tasks are cleared locally before the remote data source responds
+        mTasksRepository.clearCompletedTasks();
+        remoteTasks.onSuccess(Lists.newArrayList(completedTask, TASKS.get(0)));
+
+        // Then the completed task is neither saved again nor returned
+        verify(mTasksLocalDataSource).saveTasks(Collections.singletonList(TASKS.get(0)));
+        assertFalse(mTasksRepository.mCachedTasks.containsKey(completedTask.getId()));
+        testObserver.assertValue(Collections.singletonList(TASKS.get(0)));
+    }
+
+    @Test
+    public void completeTasks_writesOnceToEachDataSourceAndUpdatesCache() {
+        // Given two active tasks in the repository
+        Task task1 = new Task(TASK_TITLE, "Some Task Description");
+        Task task2 = new Task(TASK_TITLE2, "Some Task Description");
+        mTasksRepository.saveTasks(Lists.newArrayList(task1, task2));
+        List<String> taskIds = Lists.newArrayList(task1.getId(), task2.getId());
+
+        // When both are completed at once
+        mTasksRepository.completeTasks(taskIds);
+
+        // Then each data source is written to once
+        verify(mTasksRemoteDataSource).completeTasks(taskIds);
+        verify(mTasksLocalDataSource).completeTasks(taskIds);
+        verify(mTasksLocalDataSource, never()).completeTask(any(String.class));
+        // And both tasks are completed in the cache
+        assertTrue(mTasksRepository.mCachedTasks.get(task1.getId()).isCompleted());
+        assertTrue(mTasksRepository.mCachedTasks.get(task2.getId()).isCompleted());
+    }
+
+    @Test
+    public void writes_whileRemoteFails_areKeptAndSentCompactedOnceBackOnline() {
+        // Given an unreachable remote data source
+        when(mTasksRemoteDataSource.saveTasks(any(Collection.class)))
+                .thenReturn(Completable.error(new IOException()));
+        Task task = new Task(TASK_TITLE, "Some Task Description");
+
+        // When a task is saved, completed then activated again while offline
+        mTasksRepository.saveTask(task);
+        mTasksRepository.completeTask(task);
+        mTasksRepository.activateTask(task);
+        // And another task is saved once back online
+        when(mTasksRemoteDataSource.saveTasks(any(Collection.class)))
+                .thenReturn(Completable.complete());
+        Task task2 = new Task(TASK_TITLE2, "Some Task Description");
+        mTasksRepository.saveTask(task2);
+
+        // Then the pending writes are sent with the new one, the toggles cancelling out
+        verify(mTasksRemoteDataSource).saveTasks(Lists.newArrayList(task, task2));
+        verify(mTasksRemoteDataSource, never()).completeTasks(any(Collection.class));
+        verify(mTasksRemoteDataSource, never()).activateTasks(any(Collection.class));
+        assertTrue(mTasksRepository.mCachedTasks.get(task.getId()).isActive());
+    }
+
+    @Test
+    public void getTasksWithDirtyCache_andSyncToken_onlyAppliesRemoteChanges() {
+        // Given tasks stored locally and synced at a known token
+        setTasksAvailable(mTasksLocalDataSource, TASKS);
+        when(mTasksLocalDataSource.getSyncToken()).thenReturn(SYNC_TOKEN);
+        // And a remote task inserted and another one deleted since
+        Task insertedTask = new Task(TASK_TITLE3, "Some Task Description");
+        String deletedId = TASKS.get(0).getId();
+        when(mTasksRemoteDataSource.getChangesSince(SYNC_TOKEN)).thenReturn(Single.just(
+                TaskChangeSet.delta(Collections.singletonList(insertedTask),
+                        Collections.singletonList(deletedId), NEXT_SYNC_TOKEN)));
+
+        // When calling getTasks in the repository with dirty cache
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks().subscribe(mTasksTestObserver);
+
+        // Then only the changes are fetched and written locally
+        verify(mTasksRemoteDataSource, never()).getTasks();
+        verify(mTasksLocalDataSource).saveTasks(Collections.singletonList(insertedTask));
+        verify(mTasksLocalDataSource).deleteTasks(Collections.singletonList(deletedId));
+        verify(mTasksLocalDataSource).setSyncToken(NEXT_SYNC_TOKEN);
+        // And the known tasks are returned with the changes applied
+        mTasksTestObserver.assertValue(Lists.newArrayList(TASKS.get(1), insertedTask));
+    }
+
+    @Test
+    public void getTasksWithDirtyCache_andFullChangeSet_deletesTheTasksMissingRemotely() {
+        // Given two tasks stored locally, one of them deleted remotely
+        setTasksAvailable(mTasksLocalDataSource, TASKS);
+        when(mTasksLocalDataSource.getSyncToken()).thenReturn(SYNC_TOKEN);
+        // And the remote data source answering with all its tasks
+        when(mTasksRemoteDataSource.getChangesSince(SYNC_TOKEN)).thenReturn(
+                Single.just(TaskChangeSet.full(TASKS.subList(1, 2), NEXT_SYNC_TOKEN)));
+        // And a task created locally but not sent yet
+        Task newTask = new Task(TASK_TITLE3, "Some Task Description");
+        when(mTasksRemoteDataSource.saveTasks(any(Collection.class)))
+                .thenReturn(Completable.error(new IOException()));
+        mTasksRepository.saveTask(newTask);
+
+        // When calling getTasks in the repository with dirty cache
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks().subscribe(mTasksTestObserver);
+
+        // Then the task deleted remotely is deleted locally, but not the one waiting to be sent
+        verify(mTasksLocalDataSource).deleteTasks(
+                Collections.singletonList(TASKS.get(0).getId()));
+        mTasksTestObserver.assertValue(Lists.newArrayList(newTask, TASKS.get(1)));
+    }
+
+    @Test
+    public void getTasksWithDirtyCache_andNoSyncToken_reconcilesInsteadOfDownloadingAllTasks() {
+        // Given tasks stored locally but never synced
+        setTasksAvailable(mTasksLocalDataSource, TASKS);
+        ReconciliationFixtures.setTaskHashTreeAvailable(mTasksLocalDataSource, TASKS);
+        // And the first one completed remotely, the second one deleted remotely
+        Task task = TASKS.get(0);
+        Task completedTask =
+                new Task(task.getTitle(), task.getDescription(), task.getId(), true);
+        ReconciliationFixtures.setTaskHashTreeAvailable(
+                mTasksRemoteDataSource, Collections.singletonList(completedTask));
+        when(mTasksRemoteDataSource.getLatestSyncToken()).thenReturn(Single.just(SYNC_TOKEN));
+
+        // When calling getTasks in the repository with dirty cache
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks().subscribe(mTasksTestObserver);
+
+        // Then only the divergent tasks are fetched and written locally
+        verify(mTasksRemoteDataSource, never()).getChangesSince(any(String.class));
+        verify(mTasksRemoteDataSource, never()).getTasks();
+        verify(mTasksLocalDataSource).saveTasks(Collections.singletonList(completedTask));
+        verify(mTasksLocalDataSource).deleteTasks(
+                Collections.singletonList(TASKS.get(1).getId()));
+        // And the changes are followed from the latest token onwards
+        verify(mTasksLocalDataSource).setSyncToken(SYNC_TOKEN);
+        mTasksTestObserver.assertValue(Collections.singletonList(completedTask));
+    }
+
+    @Test
+    public void getTaskCounts_beforeTasksAreCached_countsLocallyWithoutLoadingTasks() {
+        // Given tasks counted by the local data source
+        when(mTasksLocalDataSource.getTaskCounts()).thenReturn(Single.just(TaskCounts.create(2, 1)));
+
+        // When the task counts are requested
+        TestObserver<TaskCounts> testObserver = mTasksRepository.getTaskCounts().test();
+
+        // Then the local counts are returned without loading any task
+        testObserver.assertValue(TaskCounts.create(2, 1));
+        verify(mTasksLocalDataSource, never()).getTasks();
+        verify(mTasksRemoteDataSource, never()).getTasks();
+    }
+
+    @Test
+    public void getTaskCounts_onceTasksAreCached_followsTheWrites() {
+        // Given two active tasks loaded in the repository
+        Task task1 = new Task(TASK_TITLE, "Some Task Description");
+        Task task2 = new Task(TASK_TITLE2, "Some Task Description");
+        setTasksAvailable(mTasksLocalDataSource, Lists.newArrayList(task1, task2));
+        mTasksRepository.getTasks().test();
+
+        // When one is completed, then the completed ones are cleared
+        mTasksRepository.completeTask(task1);
+        TestObserver<TaskCounts> completed = mTasksRepository.getTaskCounts().test();
+        mTasksRepository.clearCompletedTasks();
+        TestObserver<TaskCounts> cleared = mTasksRepository.getTaskCounts().test();
+
+        // Then the counts are read from the cache, without querying the data sources
+        completed.assertValue(TaskCounts.create(1, 1));
+        cleared.assertValue(TaskCounts.create(1, 0));
+        verify(mTasksLocalDataSource, never()).getTaskCounts();
+    }
+
+    @Test
+    public void taskCounts_emitsCurrentCountsThenAfterEveryStatusChange() {
+        // Given an active task loaded in the repository
+        Task task1 = new Task(TASK_TITLE, "Some Task Description");
+        setTasksAvailable(mTasksLocalDataSource, Collections.singletonList(task1));
+        mTasksRepository.getTasks().test();
+
+        // When subscribing to the counts, then completing the task and adding another one
+        TestObserver<TaskCounts> testObserver = mTasksRepository.taskCounts().test();
+        mTasksRepository.completeTask(task1);
+        mTasksRepository.saveTask(new Task(TASK_TITLE2, "Some Task Description"));
+        // And editing the first one without changing its status
+        mTasksRepository.saveTask(new Task(TASK_TITLE3, "Some Task Description",
+                task1.getId(), true));
+
+        // Then the counts are emitted on subscription and after each change of status
+        testObserver.assertValues(TaskCounts.create(1, 0), TaskCounts.create(0, 1),
+                TaskCounts.create(1, 1));
+    }
+
+    @Test
+    public void taskCounts_whileOnlyAPageIsCached_countsTheTasksLocally() {
+        // Given a page of the tasks cached, out of two active and one completed stored locally
+        Task task1 = new Task(TASK_TITLE, "Some Task Description");
+        Task task2 = new Task(TASK_TITLE2, "Some Task Description");
+        when(mTasksLocalDataSource.getTasksPage(null, 2, TasksFilterType.ALL_TASKS))
+                .thenReturn(Single.just(Lists.newArrayList(task1, task2)));
+        mTasksRepository.getTasksPage(null, 2, TasksFilterType.ALL_TASKS).test();
+        when(mTasksLocalDataSource.getTaskCounts())
+                .thenReturn(Single.just(TaskCounts.create(2, 1)))
+                .thenReturn(Single.just(TaskCounts.create(1, 2)));
+
+        // When subscribing to the counts, then completing a task of the page
+        TestObserver<TaskCounts> testObserver = mTasksRepository.taskCounts().test();
+        mTasksRepository.completeTask(task1);
+
+        // Then all the tasks are counted by the local data source, not only the cached ones
+        testObserver.assertValues(TaskCounts.create(2, 1), TaskCounts.create(1, 2));
+        verify(mTasksLocalDataSource, times(2)).getTaskCounts();
+    }
+
+    @Test
+    public void getTaskCounts_afterTogglingATaskOfAPage_countsAllTheTasks() {
+        // Given a page of the tasks stored locally, synced at a known token
+        Task task1 = new Task(TASK_TITLE, "Some Task Description");
+        Task task2 = new Task(TASK_TITLE2, "Some Task Description");
+        Task task3 = new Task(TASK_TITLE3, "Some Task Description");
+        when(mTasksLocalDataSource.getTasksPage(null, 2, TasksFilterType.ALL_TASKS))
+                .thenReturn(Single.just(Lists.newArrayList(task1, task2)));
+        when(mTasksLocalDataSource.getSyncToken()).thenReturn(SYNC_TOKEN);
+        when(mTasksRemoteDataSource.getChangesSince(SYNC_TOKEN)).thenReturn(Single.just(
+                TaskChangeSet.delta(Collections.emptyList(), Collections.emptyList(),
+                        NEXT_SYNC_TOKEN)));
+        mTasksRepository.getTasksPage(null, 2, TasksFilterType.ALL_TASKS).test();
+
+        // When a task of the page is completed
+        mTasksRepository.completeTask(task1);
+        Task completedTask1 = new Task(TASK_TITLE, "Some Task Description", task1.getId(), true);
+        setTasksAvailable(mTasksLocalDataSource, Lists.newArrayList(completedTask1, task2, task3));
+        // And the tasks are refreshed
+        mTasksRepository.refreshTasks();
+        mTasksRepository.getTasks().subscribe(mTasksTestObserver);
+        TestObserver<TaskCounts> testObserver = mTasksRepository.getTaskCounts().test();
+
+        // Then all the tasks are returned and counted, not only the completed one
+        mTasksTestObserver.assertValue(tasks -> tasks.size() == 3);
+        testObserver.assertValue(TaskCounts.create(2, 1));
+    }
+
+    @Test
+    public void completeTaskId_whenTaskNotCached_completesTheLocalTask() {
+        // Given a task stored locally but not cached
+        Task task = new Task(TASK_TITLE, "Some Task Description");
+        setTaskAvailable(mTasksLocalDataSource, task);
+
+        // When the task is completed by id
+        mTasksRepository.completeTask(task.getId()).test();
+
+        // Then it is completed locally and cached
+        verify(mTasksLocalDataSource).completeTask(task);
+        assertTrue(mTasksRepository.mCachedTasks.get(task.getId()).isCompleted());
+    }
+
     private void setTasksNotAvailable(TasksDataSource dataSource) {
         when(dataSource.getTasks()).thenReturn(Single.just(Collections.emptyList()));
+        when(dataSource.getChangesSince(null)).thenReturn(
+                Single.just(TaskChangeSet.full(Collections.emptyList(), SYNC_TOKEN)));
     }
 
     private void setTasksAvailable(TasksDataSource dataSource, List<Task> tasks) {
         // don't allow the data sources to complete.
         when(dataSource.getTasks()).thenReturn(
                 Single.just(tasks).concatWith(Single.never()).firstOrError());
+        when(dataSource.getChangesSince(null)).thenReturn(
+                Single.just(TaskChangeSet.full(tasks, SYNC_TOKEN)));
+    }
+
+    private void setChangesAvailable(Single<List<Task>> remoteTasks) {
+        when(mTasksRemoteDataSource.getChangesSince(null)).thenReturn(
+                remoteTasks.map(tasks -> TaskChangeSet.full(tasks, SYNC_TOKEN)));
     }
 
     private void setTaskNotAvailable(TasksDataSource dataSource, String taskId) {
         when(dataSource.getTask(eq(taskId))).thenReturn(
                 Single.error(new NoSuchElementException("The MaybeSource is empty")));
+        when(dataSource.getTasks(eq(Collections.singleton(taskId))))
+                .thenReturn(Single.just(Collections.emptyList()));
+        when(dataSource.getTasks(eq(Collections.singletonList(taskId))))
+                .thenReturn(Single.just(Collections.emptyList()));
     }
 
     private void setTaskAvailable(TasksDataSource dataSource, Task task) {
         when(dataSource.getTask(eq(task.getId()))).thenReturn(Single.just(task));
+        when(dataSource.getTasks(eq(Collections.singleton(task.getId()))))
+                .thenReturn(Single.just(Collections.singletonList(task)));
+        when(dataSource.getTasks(eq(Collections.singletonList(task.getId()))))
+                .thenReturn(Single.just(Collections.singletonList(task)));
+    }
+
+    /**
+     * Runs the drains of the outbox right away, but never the retries scheduled after the remote
+     * data source couldn't be reached, which {@link OutboxDrainerTest} covers.
+     */
+    private static final class WithoutRetriesScheduler extends Scheduler {
+        @Override
+        public Disposable scheduleDirect(Runnable run, long delay, TimeUnit unit) {
+            if (delay <= 0) run.run();
+            return Disposables.disposed();
+        }
+
+        @Override
+        public Worker createWorker() {
+            return Schedulers.trampoline().createWorker();
+        }
     }
 }
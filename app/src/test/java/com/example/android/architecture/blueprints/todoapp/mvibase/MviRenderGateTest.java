@@ -0,0 +1,104 @@
+package com.example.android.architecture.blueprints.todoapp.mvibase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.PublishSubject;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link MviRenderGate}, with frames driven by a virtual-time scheduler.
+ */
+public class MviRenderGateTest {
+    private TestScheduler mFrameScheduler;
+    private PublishSubject<State> mStates;
+    private FakeView mView;
+    private List<Integer> mSkippedStates;
+    private Disposable mDisposable;
+
+    @Before
+    public void setupGate() {
+        mFrameScheduler = new TestScheduler();
+        mStates = PublishSubject.create();
+        mView = new FakeView();
+        mSkippedStates = new ArrayList<>();
+        MviRenderGate.setMetrics((view, skippedStates) -> mSkippedStates.add(skippedStates));
+
+        MviViewModel<MviIntent, State> viewModel = new MviViewModel<MviIntent, State>() {
+            @Override
+            public void processIntents(Observable<MviIntent> intents) {
+            }
+
+            @Override
+            public Observable<State> states() {
+                return mStates;
+            }
+        };
+        mDisposable = MviRenderGate.bind(viewModel, mView, mFrameScheduler);
+    }
+
+    @After
+    public void tearDown() {
+        mDisposable.dispose();
+        MviRenderGate.setMetrics(null);
+    }
+
+    @Test
+    public void statesWithinOneFrame_onlyRenderTheLatest() {
+        // When three states land within one frame
+        State last = new State();
+        mStates.onNext(new State());
+        mStates.onNext(new State());
+        mStates.onNext(last);
+        assertTrue(mView.mRendered.isEmpty());
+
+        // Then only the last one is rendered at the frame
+        mFrameScheduler.triggerActions();
+        assertThat(mView.mRendered.size(), is(1));
+        assertThat(mView.mRendered.get(0), is(last));
+        // And the other two are reported as skipped
+        assertThat(mSkippedStates.size(), is(1));
+        assertThat(mSkippedStates.get(0), is(2));
+    }
+
+    @Test
+    public void statesInDifferentFrames_areAllRendered() {
+        // When two states land in two frames
+        mStates.onNext(new State());
+        mFrameScheduler.advanceTimeBy(16, TimeUnit.MILLISECONDS);
+        mStates.onNext(new State());
+        mFrameScheduler.advanceTimeBy(16, TimeUnit.MILLISECONDS);
+
+        // Then both are rendered, none skipped
+        assertThat(mView.mRendered.size(), is(2));
+        assertTrue(mSkippedStates.isEmpty());
+    }
+
+    private static class State implements MviViewState {
+    }
+
+    private static class FakeView implements MviView<MviIntent, State> {
+        final List<State> mRendered = new ArrayList<>();
+
+        @Override
+        public Observable<MviIntent> intents() {
+            return Observable.never();
+        }
+
+        @Override
+        public void render(State state) {
+            mRendered.add(state);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.android.architecture.blueprints.todoapp.mvibase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link MviStateDiff}.
+ */
+public class MviStateDiffTest {
+    private MviStateDiff<State> mStateDiff;
+    private List<String> mBoundTitles;
+
+    @Before
+    public void setupStateDiff() {
+        mStateDiff = new MviStateDiff<>();
+        mBoundTitles = new ArrayList<>();
+    }
+
+    @Test
+    public void firstState_bindsEveryField() {
+        // When the first state is rendered
+        mStateDiff.next(new State("Title", 1));
+        mStateDiff.bind(State::title, mBoundTitles::add);
+
+        // Then its fields are bound
+        assertThat(mBoundTitles.size(), is(1));
+        assertTrue(mStateDiff.changed(State::count));
+    }
+
+    @Test
+    public void unchangedField_isNotBoundAgain() {
+        // Given a rendered state
+        mStateDiff.next(new State("Title", 1));
+        mStateDiff.bind(State::title, mBoundTitles::add);
+
+        // When a state with the same title but another count is rendered
+        mStateDiff.next(new State("Title", 2));
+        mStateDiff.bind(State::title, mBoundTitles::add);
+
+        // Then only the count changed
+        assertThat(mBoundTitles.size(), is(1));
+        assertTrue(mStateDiff.changed(State::count));
+    }
+
+    @Test
+    public void reset_bindsEveryFieldAgain() {
+        // Given a rendered state
+        mStateDiff.next(new State("Title", 1));
+
+        // When the views are created again and the same state is rendered
+        mStateDiff.reset();
+        mStateDiff.next(new State("Title", 1));
+
+        // Then its fields are bound again
+        assertTrue(mStateDiff.changed(State::title));
+    }
+
+    @Test
+    public void sameState_changesNothing() {
+        // When the same state is rendered twice
+        State state = new State("Title", 1);
+        mStateDiff.next(state);
+        mStateDiff.next(state);
+
+        // Then no field changed
+        assertFalse(mStateDiff.changed(State::title));
+        assertFalse(mStateDiff.changed(State::count));
+    }
+
+    private static class State implements MviViewState {
+        private final String mTitle;
+        private final int mCount;
+
+        State(String title, int count) {
+            mTitle = title;
+            mCount = count;
+        }
+
+        String title() {
+            return mTitle;
+        }
+
+        int count() {
+            return mCount;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.architecture.blueprints.todoapp.mvibase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link MviStore}.
+ */
+public class MviStoreTest {
+    private PublishSubject<Intent> mIntents;
+    private List<Class<?>> mReducedResults;
+    private MviStore<Intent, Action, Result, State> mStore;
+    private TestObserver<State> mTestObserver;
+
+    @Before
+    public void setupStore() {
+        mIntents = PublishSubject.create();
+        mReducedResults = new ArrayList<>();
+        MviStore.setMetrics((result, durationNanos) -> mReducedResults.add(result.getClass()));
+
+        mStore = MviStore.<Intent, Action, Result, State>builder(new State(0),
+                actions -> actions.map(action -> new Result(action.mDelta)))
+                .initialIntent(InitialIntent.class)
+                .intent(InitialIntent.class, intent -> new Action(1))
+                .intent(AddIntent.class, intent -> new Action(intent.mDelta))
+                .ignoreAction(IgnoredAction.class)
+                .intent(IgnoredIntent.class, intent -> new IgnoredAction())
+                .result(Result.class, (previousState, result) ->
+                        new State(previousState.mTotal + result.mDelta))
+                .reduceOn(Schedulers.trampoline())
+                .renderOn(Schedulers.trampoline())
+                .build();
+        mStore.processIntents(mIntents);
+        mTestObserver = mStore.states().test();
+    }
+
+    @After
+    public void tearDown() {
+        mStore.dispose();
+        MviStore.setMetrics(null);
+    }
+
+    @Test
+    public void initialIntent_isOnlyProcessedOnce() {
+        // When the initial intent is passed twice, on config changes
+        mIntents.onNext(new InitialIntent());
+        mIntents.onNext(new InitialIntent());
+
+        // Then it is only processed once
+        assertThat(mTestObserver.values().get(mTestObserver.valueCount() - 1).mTotal, is(1));
+    }
+
+    @Test
+    public void subclassOfARegisteredIntent_isTranslated() {
+        // When an intent extending a registered one is passed
+        mIntents.onNext(new AutoValue_AddIntent(2));
+        mIntents.onNext(new AutoValue_AddIntent(3));
+
+        // Then it is translated and its result reduced
+        assertThat(mTestObserver.values().get(mTestObserver.valueCount() - 1).mTotal, is(5));
+        // And reported to the metrics
+        assertThat(mReducedResults.size(), is(2));
+    }
+
+    @Test
+    public void ignoredAction_isNotProcessed() {
+        // When an intent translated to an ignored action is passed
+        mIntents.onNext(new IgnoredIntent());
+
+        // Then only the initial state is emitted
+        mTestObserver.assertValueCount(1);
+        assertThat(mReducedResults.isEmpty(), is(true));
+    }
+
+    @Test
+    public void unknownIntent_isAnError() {
+        // When an intent which is not registered is passed
+        mIntents.onNext(new Intent() {
+        });
+
+        // Then the stream fails
+        mTestObserver.assertError(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void dispose_unsubscribesFromTheSourcesMergedByTheProcessor() {
+        // Given a store whose processor merges in changes pushed from elsewhere
+        PublishSubject<Result> changes = PublishSubject.create();
+        MviStore<Intent, Action, Result, State> store =
+                MviStore.<Intent, Action, Result, State>builder(new State(0),
+                        actions -> actions.map(action -> new Result(action.mDelta))
+                                .mergeWith(changes))
+                        .intent(AddIntent.class, intent -> new Action(intent.mDelta))
+                        .result(Result.class, (previousState, result) ->
+                                new State(previousState.mTotal + result.mDelta))
+                        .reduceOn(Schedulers.trampoline())
+                        .renderOn(Schedulers.trampoline())
+                        .build();
+        assertTrue(changes.hasObservers());
+
+        // When the store is disposed
+        store.dispose();
+
+        // Then it doesn't listen to them anymore
+        assertFalse(changes.hasObservers());
+    }
+
+    private interface Intent extends MviIntent {
+    }
+
+    private static class InitialIntent implements Intent {
+    }
+
+    private static abstract class AddIntent implements Intent {
+        final int mDelta;
+
+        AddIntent(int delta) {
+            mDelta = delta;
+        }
+    }
+
+    // Stands for the class generated by AutoValue.
+    private static final class AutoValue_AddIntent extends AddIntent {
+        AutoValue_AddIntent(int delta) {
+            super(delta);
+        }
+    }
+
+    private static class IgnoredIntent implements Intent {
+    }
+
+    private static class Action implements MviAction {
+        final int mDelta;
+
+        Action(int delta) {
+            mDelta = delta;
+        }
+    }
+
+    private static class IgnoredAction extends Action {
+        IgnoredAction() {
+            super(0);
+        }
+    }
+
+    private static class Result implements MviResult {
+        final int mDelta;
+
+        Result(int delta) {
+            mDelta = delta;
+        }
+    }
+
+    private static class State implements MviViewState {
+        final int mTotal;
+
+        State(int total) {
+            mTotal = total;
+        }
+    }
+}
@@ -17,6 +17,8 @@
 package com.example.android.architecture.blueprints.todoapp.statistics;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.FetchStrategy;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskCounts;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.ImmediateSchedulerProvider;
@@ -32,7 +34,12 @@ import java.util.List;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -47,6 +54,7 @@ public class StatisticsViewModelTest {
     private BaseSchedulerProvider mSchedulerProvider;
     private StatisticsViewModel mStatisticsViewModel;
     private TestObserver<StatisticsViewState> mTestObserver;
+    private PublishSubject<TaskCounts> mTaskCounts;
 
     @Before
     public void setupStatisticsViewModel() {
@@ -57,9 +65,14 @@ public class StatisticsViewModelTest {
         // Make the sure that all schedulers are immediate.
         mSchedulerProvider = new ImmediateSchedulerProvider();
 
+        // Counts are pushed by the test through this subject
+        mTaskCounts = PublishSubject.create();
+        when(mTasksRepository.taskCounts()).thenReturn(mTaskCounts);
+
         // Get a reference to the class under test
         mStatisticsViewModel = new StatisticsViewModel(
-                new StatisticsActionProcessorHolder(mTasksRepository, mSchedulerProvider));
+                new StatisticsActionProcessorHolder(mTasksRepository, mSchedulerProvider),
+                mSchedulerProvider);
 
         // We subscribe the tasks to 3, with one active and two completed
         TASKS = Lists.newArrayList(new Task("Title1", "Description1"),
@@ -80,8 +93,9 @@ public class StatisticsViewModelTest {
         // Then loading state is emitted
         mTestObserver.assertValueAt(1, StatisticsViewState::isLoading);
 
-        // Callback is captured and invoked with stubbed tasks
-        verify(mTasksRepository).getTasks();
+        // Callback is captured and invoked with stubbed counts, without loading the tasks
+        verify(mTasksRepository).getTaskCounts(any(FetchStrategy.class));
+        verify(mTasksRepository, never()).getTasks(any(FetchStrategy.class));
 
         // Then not loading, data furnished state in emitted to the view
         mTestObserver.assertValueAt(2,
@@ -118,11 +132,42 @@ public class StatisticsViewModelTest {
         mTestObserver.assertValueAt(2, state -> state.error() != null);
     }
 
+    @Test
+    public void taskCountsChange_updatesCountsWithoutReloading() {
+        // Given loaded statistics of 1 active and 2 completed tasks
+        setTasksAvailable(TASKS);
+        mStatisticsViewModel.processIntents(Observable.just(StatisticsIntent.InitialIntent.create()));
+
+        // When the repository pushes the counts after the active task was completed elsewhere
+        mTaskCounts.onNext(TaskCounts.create(0, 3));
+
+        // Then the counts are updated without reloading the tasks
+        verify(mTasksRepository).getTaskCounts(any(FetchStrategy.class));
+        mTestObserver.assertValueAt(3,
+                state -> !state.isLoading() && state.activeCount() == 0 && state.completedCount() == 3);
+    }
+
+    @Test
+    public void clearedViewModel_stopsListeningToTheTaskCounts() {
+        // Given loaded statistics following the task counts
+        setTasksAvailable(TASKS);
+        mStatisticsViewModel.processIntents(Observable.just(StatisticsIntent.InitialIntent.create()));
+        assertTrue(mTaskCounts.hasObservers());
+
+        // When the view model is cleared
+        mStatisticsViewModel.onCleared();
+
+        // Then the repository has no subscriber left
+        assertFalse(mTaskCounts.hasObservers());
+    }
+
     private void setTasksAvailable(List<Task> tasks) {
-        when(mTasksRepository.getTasks()).thenReturn(Single.just(tasks));
+        when(mTasksRepository.getTaskCounts(any(FetchStrategy.class)))
+                .thenReturn(Single.just(TaskCounts.of(tasks)));
     }
 
     private void setTasksNotAvailable() {
-        when(mTasksRepository.getTasks()).thenReturn(Single.error(new Exception()));
+        when(mTasksRepository.getTaskCounts(any(FetchStrategy.class)))
+                .thenReturn(Single.error(new Exception()));
     }
 }
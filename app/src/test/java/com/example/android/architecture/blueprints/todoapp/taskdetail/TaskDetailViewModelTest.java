@@ -1,6 +1,7 @@
 package com.example.android.architecture.blueprints.todoapp.taskdetail;
 
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.FetchStrategy;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.ImmediateSchedulerProvider;
@@ -17,6 +18,7 @@ import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.observers.TestObserver;
 
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
@@ -44,7 +46,8 @@ public class TaskDetailViewModelTest {
 
         // Get a reference to the class under test
         mTaskDetailViewModel = new TaskDetailViewModel(
-                new TaskDetailActionProcessorHolder(mTasksRepository, mSchedulerProvider));
+                new TaskDetailActionProcessorHolder(mTasksRepository, mSchedulerProvider),
+                mSchedulerProvider);
 
         mTestObserver = mTaskDetailViewModel.states().test();
     }
@@ -53,7 +56,7 @@ public class TaskDetailViewModelTest {
     @Test
     public void populateTask_callsRepoAndUpdatesViewOnSuccess() {
         final Task testTask = new Task("TITLE", "DESCRIPTION");
-        when(mTasksRepository.getTask(testTask.getId())).thenReturn(Single.just(testTask));
+        when(mTasksRepository.getTask(eq(testTask.getId()), any(FetchStrategy.class))).thenReturn(Single.just(testTask));
 
         // When populating a task is initiated by an initial intent
         mTaskDetailViewModel.processIntents(Observable.just(
@@ -61,7 +64,7 @@ public class TaskDetailViewModelTest {
         ));
 
         // Then the task repository is queried and a stated is emitted back
-        verify(mTasksRepository).getTask(eq(testTask.getId()));
+        verify(mTasksRepository).getTask(eq(testTask.getId()), any(FetchStrategy.class));
         mTestObserver.assertValueAt(2, state ->
                 state.title().equals(testTask.getTitle()) &&
                         state.description().equals(testTask.getDescription()));
@@ -70,7 +73,7 @@ public class TaskDetailViewModelTest {
     @Test
     public void populateTask_callsRepoAndUpdatesViewOnError() {
         final Task testTask = new Task("TITLE", "DESCRIPTION");
-        when(mTasksRepository.getTask(testTask.getId()))
+        when(mTasksRepository.getTask(eq(testTask.getId()), any(FetchStrategy.class)))
                 .thenReturn(Single.error(new NoSuchElementException("The MaybeSource is empty")));
 
         // When populating a task is initiated by an initial intent
@@ -79,7 +82,7 @@ public class TaskDetailViewModelTest {
         ));
 
         // Then the task repository is queried and a stated is emitted back
-        verify(mTasksRepository).getTask(eq(testTask.getId()));
+        verify(mTasksRepository).getTask(eq(testTask.getId()), any(FetchStrategy.class));
         mTestObserver.assertValueAt(2, state ->
                 state.error() != null &&
                         state.title().isEmpty() &&
@@ -120,7 +123,7 @@ public class TaskDetailViewModelTest {
         Task task = new Task("Complete Requested", "For this task");
 
         when(mTasksRepository.completeTask(anyString())).thenReturn(Completable.complete());
-        when(mTasksRepository.getTask(anyString())).thenReturn(Single.just(task));
+        when(mTasksRepository.getTask(anyString(), any(FetchStrategy.class))).thenReturn(Single.just(task));
 
         // When an existing task saving intent is emitted by the view
         mTaskDetailViewModel.processIntents(Observable.just(
@@ -129,7 +132,7 @@ public class TaskDetailViewModelTest {
 
         // Then a task is saved in the repository and the view updates
         verify(mTasksRepository).completeTask(anyString());
-        verify(mTasksRepository).getTask(anyString());
+        verify(mTasksRepository).getTask(anyString(), any(FetchStrategy.class));
         mTestObserver.assertValueAt(2, TaskDetailViewState::taskComplete);
     }
 
@@ -137,7 +140,7 @@ public class TaskDetailViewModelTest {
     public void completeTask_showsErrorMessageUi() {
         when(mTasksRepository.completeTask(anyString()))
                 .thenReturn(Completable.complete());
-        when(mTasksRepository.getTask(anyString()))
+        when(mTasksRepository.getTask(anyString(), any(FetchStrategy.class)))
                 .thenReturn(Single.error(new NoSuchElementException("The MaybeSource is empty")));
 
         // When an existing task saving intent is emitted by the view
@@ -153,7 +156,7 @@ public class TaskDetailViewModelTest {
         Task task = new Task("Activate Requested", "For this task");
 
         when(mTasksRepository.activateTask(anyString())).thenReturn(Completable.complete());
-        when(mTasksRepository.getTask(anyString())).thenReturn(Single.just(task));
+        when(mTasksRepository.getTask(anyString(), any(FetchStrategy.class))).thenReturn(Single.just(task));
 
         // When an existing task saving intent is emitted by the view
         mTaskDetailViewModel.processIntents(Observable.just(
@@ -162,14 +165,14 @@ public class TaskDetailViewModelTest {
 
         // Then a task is saved in the repository and the view updates
         verify(mTasksRepository).activateTask(anyString());
-        verify(mTasksRepository).getTask(anyString());
+        verify(mTasksRepository).getTask(anyString(), any(FetchStrategy.class));
         mTestObserver.assertValueAt(2, TaskDetailViewState::taskActivated);
     }
 
     @Test
     public void activateTask_showsErrorMessageUi() {
         when(mTasksRepository.activateTask(anyString())).thenReturn(Completable.complete());
-        when(mTasksRepository.getTask(anyString()))
+        when(mTasksRepository.getTask(anyString(), any(FetchStrategy.class)))
                 .thenReturn(Single.error(new NoSuchElementException("The MaybeSource is empty")));
 
         // When an existing task saving intent is emitted by the view
@@ -0,0 +1,126 @@
+package com.example.android.architecture.blueprints.todoapp.tasks;
+
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import com.example.android.architecture.blueprints.todoapp.R;
+import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.util.schedulers.ImmediateSchedulerProvider;
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Robolectric tests for {@link TasksAdapter} laid out in a {@link RecyclerView}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TasksAdapterTest {
+    private static final int TASK_COUNT = 5000;
+
+    private List<Task> mTasks;
+    private CountingTasksAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+
+    @Before
+    public void setupRecyclerView() {
+        mTasks = new ArrayList<>(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            mTasks.add(new Task("Title" + i, "Description" + i));
+        }
+
+        // The diffs are computed and dispatched right away.
+        mAdapter = new CountingTasksAdapter();
+        mRecyclerView = new RecyclerView(
+                new ContextThemeWrapper(RuntimeEnvironment.application, R.style.AppTheme));
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(mRecyclerView.getContext()));
+        // Without animations, a changed row is rebound in place.
+        mRecyclerView.setItemAnimator(null);
+        mRecyclerView.setAdapter(mAdapter);
+    }
+
+    @Test
+    public void toggleInALargeList_rebindsOnlyTheToggledRow() {
+        // Given the tasks displayed
+        mAdapter.replaceData(mTasks);
+        layout();
+        assertThat(mAdapter.mBindCount, greaterThan(1));
+
+        // When a task is completed
+        List<Task> tasks = new ArrayList<>(mTasks);
+        Task task = tasks.get(2);
+        tasks.set(2, new Task(task.getTitle(), task.getDescription(), task.getId(), true));
+        mAdapter.mBindCount = 0;
+        mAdapter.replaceData(tasks);
+        layout();
+
+        // Then only its row is bound again
+        assertThat(mAdapter.mBindCount, is(1));
+    }
+
+    @Test
+    public void stableIds_followTheTasks() {
+        // Given the tasks displayed
+        mAdapter.replaceData(mTasks);
+        long stableId = mAdapter.getItemId(1);
+
+        // When the first task is removed
+        mAdapter.replaceData(mTasks.subList(1, TASK_COUNT));
+
+        // Then the second task keeps its id
+        assertThat(mAdapter.getItemId(0), is(stableId));
+    }
+
+    @Test
+    public void stableIds_ofTheTasksNoLongerDisplayed_areDropped() {
+        // Given the tasks displayed
+        mAdapter.replaceData(mTasks);
+        layout();
+        long stableId = mAdapter.getItemId(1);
+
+        // When all the tasks but the second one are removed, then a new task is added
+        mAdapter.replaceData(mTasks.subList(1, 2));
+        Task newTask = new Task("New title", "New description");
+        mAdapter.replaceData(Lists.newArrayList(mTasks.get(1), newTask));
+        layout();
+
+        // Then only the ids of the displayed tasks are kept, and the new task gets an unused one
+        assertThat(mAdapter.mStableIds.size(), is(2));
+        assertThat(mAdapter.getItemId(0), is(stableId));
+        assertThat(mAdapter.getItemId(1), not(stableId));
+    }
+
+    private void layout() {
+        mRecyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(480, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(800, View.MeasureSpec.EXACTLY));
+        mRecyclerView.layout(0, 0, 480, 800);
+    }
+
+    private static class CountingTasksAdapter extends TasksAdapter {
+        int mBindCount;
+
+        CountingTasksAdapter() {
+            super(new ImmediateSchedulerProvider());
+        }
+
+        @Override
+        public void onBindViewHolder(TaskViewHolder holder, int position) {
+            mBindCount++;
+            super.onBindViewHolder(holder, position);
+        }
+    }
+}
@@ -16,7 +16,12 @@
 
 package com.example.android.architecture.blueprints.todoapp.tasks;
 
+import android.support.annotation.NonNull;
+
 import com.example.android.architecture.blueprints.todoapp.data.Task;
+import com.example.android.architecture.blueprints.todoapp.data.source.FetchStrategy;
+import com.example.android.architecture.blueprints.todoapp.data.source.TaskChange;
+import com.example.android.architecture.blueprints.todoapp.data.source.TasksQuery;
 import com.example.android.architecture.blueprints.todoapp.data.source.TasksRepository;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.BaseSchedulerProvider;
 import com.example.android.architecture.blueprints.todoapp.util.schedulers.ImmediateSchedulerProvider;
@@ -29,13 +34,27 @@ import org.mockito.MockitoAnnotations;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import io.reactivex.Completable;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
 import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
 
-import static org.mockito.Matchers.anyBoolean;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -49,6 +68,7 @@ public class TasksViewModelTest {
     private BaseSchedulerProvider mSchedulerProvider;
     private TasksViewModel mTasksViewModel;
     private TestObserver<TasksViewState> mTestObserver;
+    private PublishSubject<TaskChange> mTaskChanges;
 
     @Before
     public void setupTasksViewModel() {
@@ -59,9 +79,14 @@ public class TasksViewModelTest {
         // Make the sure that all schedulers are immediate.
         mSchedulerProvider = new ImmediateSchedulerProvider();
 
+        // Changes are pushed by the test through this subject
+        mTaskChanges = PublishSubject.create();
+        when(mTasksRepository.changes()).thenReturn(mTaskChanges);
+
         // Get a reference to the class under test
         mTasksViewModel = new TasksViewModel(
-                new TasksActionProcessorHolder(mTasksRepository, mSchedulerProvider));
+                new TasksActionProcessorHolder(mTasksRepository, mSchedulerProvider),
+                mSchedulerProvider);
 
         // We subscribe the tasks to 3, with one active and two completed
         TASKS = Lists.newArrayList(new Task("Title1", "Description1"),
@@ -73,7 +98,7 @@ public class TasksViewModelTest {
     @Test
     public void loadAllTasksFromRepositoryAndLoadIntoView() {
         // Given an initialized TasksViewModel with initialized tasks
-        when(mTasksRepository.getTasks(anyBoolean())).thenReturn(Single.just(TASKS));
+        setTasksPageAvailable(TASKS);
         // When loading of Tasks is initiated
         mTasksViewModel.processIntents(Observable.just(TasksIntent.InitialIntent.create()));
 
@@ -86,7 +111,7 @@ public class TasksViewModelTest {
     @Test
     public void loadActiveTasksFromRepositoryAndLoadIntoView() {
         // Given an initialized TasksViewModel with initialized tasks
-        when(mTasksRepository.getTasks(anyBoolean())).thenReturn(Single.just(TASKS));
+        setTasksPageAvailable(TASKS);
         // When loading of Tasks is initiated
         mTasksViewModel.processIntents(
                 Observable.just(TasksIntent.ChangeFilterIntent.create(TasksFilterType.ACTIVE_TASKS)));
@@ -100,7 +125,7 @@ public class TasksViewModelTest {
     @Test
     public void loadCompletedTasksFromRepositoryAndLoadIntoView() {
         // Given an initialized TasksViewModel with initialized tasks
-        when(mTasksRepository.getTasks(anyBoolean())).thenReturn(Single.just(TASKS));
+        setTasksPageAvailable(TASKS);
         // When loading of Tasks is requested
         mTasksViewModel.processIntents(
                 Observable.just(TasksIntent.ChangeFilterIntent.create(TasksFilterType.COMPLETED_TASKS)));
@@ -115,16 +140,16 @@ public class TasksViewModelTest {
     public void completeTask_ShowsTaskMarkedComplete() {
         // Given a stubbed task
         Task task = new Task("Details Requested", "For this task");
-        // And no tasks available in the repository
+        // And the repository completing it
         when(mTasksRepository.completeTask(task)).thenReturn(Completable.complete());
-        when(mTasksRepository.getTasks()).thenReturn(Single.just(Collections.emptyList()));
 
         // When task is marked as complete
         mTasksViewModel.processIntents(Observable.just(TasksIntent.CompleteTaskIntent.create(task)));
 
-        // Then repository is called and task marked complete state is emitted
+        // Then repository is called, without reloading all tasks, and task marked complete
+        // state is emitted
         verify(mTasksRepository).completeTask(task);
-        verify(mTasksRepository).getTasks();
+        verifyTasksNotReloaded();
         mTestObserver.assertValueAt(2, TasksViewState::taskComplete);
     }
 
@@ -132,23 +157,91 @@ public class TasksViewModelTest {
     public void activateTask_ShowsTaskMarkedActive() {
         // Given a stubbed completed task
         Task task = new Task("Details Requested", "For this task", true);
-        // And no tasks available in the repository
+        // And the repository activating it
         when(mTasksRepository.activateTask(task)).thenReturn(Completable.complete());
-        when(mTasksRepository.getTasks()).thenReturn(Single.just(Collections.emptyList()));
 
         // When task is marked as activated
         mTasksViewModel.processIntents(Observable.just(TasksIntent.ActivateTaskIntent.create(task)));
 
-        // Then repository is called and task marked active state is emitted
+        // Then repository is called, without reloading all tasks, and task marked active state
+        // is emitted
         verify(mTasksRepository).activateTask(task);
-        verify(mTasksRepository).getTasks();
+        verifyTasksNotReloaded();
         mTestObserver.assertValueAt(2, TasksViewState::taskActivated);
     }
 
+    @Test
+    public void completeTask_isDisplayedBeforeTheWriteConfirms() {
+        // Given all the tasks being displayed
+        setTasksPageAvailable(TASKS);
+        mTasksViewModel.processIntents(Observable.just(TasksIntent.InitialIntent.create()));
+        Task activeTask = TASKS.get(0);
+        // And a write which doesn't confirm
+        when(mTasksRepository.completeTask(activeTask)).thenReturn(Completable.never());
+
+        // When the task is marked as complete
+        mTasksViewModel.processIntents(
+                Observable.just(TasksIntent.CompleteTaskIntent.create(activeTask)));
+
+        // Then the task is displayed completed, in place
+        mTestObserver.assertValueAt(mTestObserver.valueCount() - 1,
+                state -> state.tasks().size() == TASKS.size()
+                        && state.tasks().get(0).isCompleted());
+    }
+
+    @Test
+    public void completeTask_failing_rollsBack() {
+        // Given the active task being displayed
+        setTasksPageAvailable(TASKS.subList(0, 1));
+        mTasksViewModel.processIntents(
+                Observable.just(TasksIntent.ChangeFilterIntent.create(TasksFilterType.ACTIVE_TASKS)));
+        Task activeTask = TASKS.get(0);
+        // And a write which fails
+        when(mTasksRepository.completeTask(activeTask))
+                .thenReturn(Completable.error(new Exception()));
+        int valueCount = mTestObserver.valueCount();
+
+        // When the task is marked as complete
+        mTasksViewModel.processIntents(
+                Observable.just(TasksIntent.CompleteTaskIntent.create(activeTask)));
+
+        // Then the task is first removed from the active tasks
+        mTestObserver.assertValueAt(valueCount, state -> state.tasks().isEmpty());
+        // Then it is displayed again, active, along with the error
+        mTestObserver.assertValueAt(mTestObserver.valueCount() - 1,
+                state -> state.error() != null
+                        && state.tasks().size() == 1
+                        && state.tasks().get(0).isActive());
+    }
+
+    @Test
+    public void clearCompletedTasks_failing_restoresThem() {
+        // Given all the tasks being displayed
+        setTasksPageAvailable(TASKS);
+        mTasksViewModel.processIntents(Observable.just(TasksIntent.InitialIntent.create()));
+        // And a clear which fails
+        when(mTasksRepository.clearCompletedTasks()).thenReturn(Completable.error(new Exception()));
+        int valueCount = mTestObserver.valueCount();
+
+        // When the completed tasks are cleared
+        mTasksViewModel.processIntents(
+                Observable.just(TasksIntent.ClearCompletedTasksIntent.create()));
+
+        // Then only the active task is displayed first
+        mTestObserver.assertValueAt(valueCount, state -> state.tasks().size() == 1);
+        // Then the completed tasks are displayed again, along with the error
+        mTestObserver.assertValueAt(mTestObserver.valueCount() - 1,
+                state -> state.error() != null && state.tasks().equals(TASKS));
+        // And they were restored from the displayed ones, without reading them again
+        verify(mTasksRepository, never())
+                .getTasks(any(FetchStrategy.class), eq(TasksFilterType.COMPLETED_TASKS));
+    }
+
     @Test
     public void errorLoadingTasks_ShowsError() {
         // Given that no tasks are available in the repository
-        when(mTasksRepository.getTasks(anyBoolean())).thenReturn(Single.error(new Exception()));
+        when(mTasksRepository.getTasksPage(any(), anyInt(), any()))
+                .thenReturn(Single.error(new Exception()));
 
         // When tasks are loaded
         mTasksViewModel.processIntents(Observable.just(TasksIntent.InitialIntent.create()));
@@ -156,4 +249,210 @@ public class TasksViewModelTest {
         // Then an error containing state is emitted
         mTestObserver.assertValueAt(2, state -> state.error() != null);
     }
+
+    @Test
+    public void taskChange_patchesDisplayedTasks() {
+        // Given the active tasks being displayed
+        setTasksPageAvailable(TASKS);
+        mTasksViewModel.processIntents(
+                Observable.just(TasksIntent.ChangeFilterIntent.create(TasksFilterType.ACTIVE_TASKS)));
+        Task activeTask = TASKS.get(0);
+
+        // When the repository pushes the completion of the active task
+        Task completedTask = new Task(activeTask.getTitle(), activeTask.getDescription(),
+                activeTask.getId(), true);
+        mTaskChanges.onNext(TaskChange.update(activeTask, completedTask));
+
+        // Then the task is removed from the displayed tasks without reloading them
+        verify(mTasksRepository).getTasksPage(any(), anyInt(), any());
+        mTestObserver.assertValueAt(mTestObserver.valueCount() - 1,
+                state -> state.tasks().isEmpty());
+    }
+
+    @Test
+    public void taskChange_completionOnly_emitsNewState() {
+        // Given all the tasks being displayed
+        setTasksPageAvailable(TASKS);
+        mTasksViewModel.processIntents(Observable.just(TasksIntent.InitialIntent.create()));
+        int valueCount = mTestObserver.valueCount();
+        Task activeTask = TASKS.get(0);
+
+        // When the repository pushes the completion of the active task, which is equal to it
+        Task completedTask = new Task(activeTask.getTitle(), activeTask.getDescription(),
+                activeTask.getId(), true);
+        assertThat(completedTask, is(activeTask));
+        mTaskChanges.onNext(TaskChange.update(activeTask, completedTask));
+
+        // Then a new state is emitted, showing the task completed
+        mTestObserver.assertValueCount(valueCount + 1);
+        mTestObserver.assertValueAt(valueCount, state -> state.tasks().get(0).isCompleted());
+    }
+
+    @Test
+    public void taskChange_notDisplayed_keepsState() {
+        // Given the active task being displayed
+        setTasksPageAvailable(TASKS.subList(0, 1));
+        mTasksViewModel.processIntents(
+                Observable.just(TasksIntent.ChangeFilterIntent.create(TasksFilterType.ACTIVE_TASKS)));
+        int valueCount = mTestObserver.valueCount();
+
+        // When the repository pushes the deletion of a completed task, which isn't displayed
+        mTaskChanges.onNext(TaskChange.delete(TASKS.get(1)));
+
+        // Then the tasks snapshot is kept and no state is emitted
+        mTestObserver.assertValueCount(valueCount);
+    }
+
+    @Test
+    public void loadMore_appendsNextPage() {
+        // Given a first page of tasks displayed
+        setTasksPageAvailable(TASKS.subList(0, 2));
+        mTasksViewModel.processIntents(Observable.just(TasksIntent.InitialIntent.create()));
+
+        // When the next page is requested
+        Task lastTask = TASKS.get(1);
+        when(mTasksRepository.getTasksPage(eq(lastTask.getId()), anyInt(), any()))
+                .thenReturn(Single.just(TASKS.subList(2, 3)));
+        mTasksViewModel.processIntents(Observable.just(
+                TasksIntent.LoadMoreIntent.create(lastTask.getId(), TasksFilterType.ALL_TASKS)));
+
+        // Then the page is appended to the displayed tasks and there is no page left
+        mTestObserver.assertValueAt(mTestObserver.valueCount() - 1,
+                state -> !state.isLoading()
+                        && state.tasks().equals(TASKS)
+                        && state.nextPageKey() == null);
+    }
+
+    @Test
+    public void states_areLoadedOnIo_reducedOnComputation_andRenderedOnUi() throws Exception {
+        // Given a thread per scheduler, recording the threads handing work over to each of them
+        List<String> toComputation = new CopyOnWriteArrayList<>();
+        List<String> toUi = new CopyOnWriteArrayList<>();
+        BaseSchedulerProvider schedulerProvider = new BaseSchedulerProvider() {
+            private final Scheduler mComputation = namedScheduler("computation", toComputation);
+            private final Scheduler mIo = namedScheduler("io", new CopyOnWriteArrayList<>());
+            private final Scheduler mUi = namedScheduler("ui", toUi);
+
+            @NonNull
+            @Override
+            public Scheduler computation() {
+                return mComputation;
+            }
+
+            @NonNull
+            @Override
+            public Scheduler io() {
+                return mIo;
+            }
+
+            @NonNull
+            @Override
+            public Scheduler ui() {
+                return mUi;
+            }
+        };
+        TasksViewModel tasksViewModel = new TasksViewModel(
+                new TasksActionProcessorHolder(mTasksRepository, schedulerProvider),
+                schedulerProvider);
+        // And a repository recording the thread it is read on
+        List<String> loadThreads = new CopyOnWriteArrayList<>();
+        when(mTasksRepository.getTasksPage(any(), anyInt(), any())).thenReturn(
+                Single.fromCallable(() -> {
+                    loadThreads.add(Thread.currentThread().getName());
+                    return TASKS;
+                }));
+        List<String> renderThreads = new CopyOnWriteArrayList<>();
+        TestObserver<TasksViewState> testObserver = tasksViewModel.states()
+                .doOnNext(state -> renderThreads.add(Thread.currentThread().getName()))
+                .test();
+
+        // When loading of Tasks is initiated
+        tasksViewModel.processIntents(Observable.just(TasksIntent.InitialIntent.create()));
+        testObserver.awaitCount(3);
+
+        // Then the tasks are loaded on io
+        testObserver.assertValueAt(2, state -> !state.isLoading() && state.tasks().equals(TASKS));
+        assertThat(loadThreads, is(Collections.singletonList("io")));
+        // And the results are reduced and compared on computation, never on ui
+        assertFalse(toComputation.isEmpty());
+        assertFalse(toComputation.contains("ui"));
+        // And only the final states are handed over to ui, from computation, to be rendered. The
+        // first hand-over is the idle state, emitted when the view model is created.
+        assertTrue(toUi.size() > 1);
+        for (String thread : toUi.subList(1, toUi.size())) {
+            assertThat(thread, is("computation"));
+        }
+        // The idle state may have been replayed on subscription, on the subscribing thread.
+        for (String thread : renderThreads.subList(1, renderThreads.size())) {
+            assertThat(thread, is("ui"));
+        }
+    }
+
+    /**
+     * Returns a scheduler running on a single thread with the given name, which records the names
+     * of the threads scheduling work on it.
+     */
+    private static Scheduler namedScheduler(String name, List<String> callerThreads) {
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        return Schedulers.from(command -> {
+            callerThreads.add(Thread.currentThread().getName());
+            executor.execute(command);
+        });
+    }
+
+    @Test
+    public void clearedViewModel_stopsListeningToTheTaskChanges() {
+        // Given a view model following the task changes
+        assertTrue(mTaskChanges.hasObservers());
+
+        // When it is cleared
+        mTasksViewModel.onCleared();
+
+        // Then the repository has no subscriber left
+        assertFalse(mTaskChanges.hasObservers());
+    }
+
+    @Test
+    public void batchDelete_removesTheDeletedTasksAtOnce() {
+        // Given all the tasks displayed
+        setTasksPageAvailable(TASKS);
+        mTasksViewModel.processIntents(Observable.just(TasksIntent.InitialIntent.create()));
+
+        // When the repository pushes the deletion of the completed tasks
+        mTaskChanges.onNext(TaskChange.batchDelete(TASKS.subList(1, 3)));
+
+        // Then they are removed in a single state
+        mTestObserver.assertValueCount(4);
+        mTestObserver.assertValueAt(3,
+                state -> state.tasks().equals(Collections.singletonList(TASKS.get(0))));
+    }
+
+    private void setTasksPageAvailable(List<Task> tasks) {
+        for (TasksFilterType filterType : TasksFilterType.values()) {
+            when(mTasksRepository.getTasksPage(any(), anyInt(), eq(filterType))).thenReturn(
+                    Single.just(TasksQuery.filtered(filterType).apply(tasks)));
+        }
+    }
+
+    /**
+     * Checks that the tasks were not read again, by any of the repository's reads.
+     */
+    private void verifyTasksNotReloaded() {
+        verify(mTasksRepository, never()).getTasks();
+        verify(mTasksRepository, never()).getTasks(any(FetchStrategy.class));
+        verify(mTasksRepository, never()).getTasks(any(TasksFilterType.class));
+        verify(mTasksRepository, never())
+                .getTasks(any(FetchStrategy.class), any(TasksFilterType.class));
+        verify(mTasksRepository, never()).getTasks(any(TasksQuery.class));
+        verify(mTasksRepository, never())
+                .getTasks(any(FetchStrategy.class), any(TasksQuery.class));
+        verify(mTasksRepository, never()).getTasks(anyCollectionOf(String.class));
+        verify(mTasksRepository, never()).getTasksAndRevalidate();
+        verify(mTasksRepository, never()).getTasksAndRevalidate(any(TasksFilterType.class));
+        verify(mTasksRepository, never()).getTasksPage(any(), anyInt(), any());
+    }
 }
@@ -0,0 +1,79 @@
+package com.example.android.architecture.blueprints.todoapp.util;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Unit tests for {@link BatchLoader}, in virtual time.
+ */
+public class BatchLoaderTest {
+    private static final int MAX_BATCH_SIZE = 999;
+
+    private TestScheduler mScheduler;
+    private List<Integer> mBatchSizes;
+    private BatchLoader<Integer, String> mBatchLoader;
+
+    @Before
+    public void setUp() {
+        mScheduler = new TestScheduler();
+        mBatchSizes = new ArrayList<>();
+        mBatchLoader = new BatchLoader<>(this::loadValues, MAX_BATCH_SIZE, 10,
+                TimeUnit.MILLISECONDS, mScheduler);
+    }
+
+    @Test
+    public void keysRequestedWithinTheWindow_areLoadedInOneBatch() {
+        // When two keys are requested within the window
+        TestObserver<String> first = mBatchLoader.load(1).test();
+        TestObserver<String> second = mBatchLoader.load(2).test();
+        mScheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+
+        // Then they are loaded together, and each caller receives its own value
+        assertThat(mBatchSizes, is((List<Integer>) Lists.newArrayList(2)));
+        first.assertValue("1");
+        second.assertValue("2");
+    }
+
+    @Test
+    public void batchLargerThanTheMaximum_isSplit() {
+        // When more keys than the maximum batch size are requested within the window
+        List<TestObserver<String>> observers = new ArrayList<>();
+        for (int key = 0; key < 2 * MAX_BATCH_SIZE + 2; key++) {
+            observers.add(mBatchLoader.load(key).test());
+        }
+        mScheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+
+        // Then they are loaded in batches of at most the maximum size
+        assertThat(mBatchSizes,
+                is((List<Integer>) Lists.newArrayList(MAX_BATCH_SIZE, MAX_BATCH_SIZE, 2)));
+        // And every caller receives its value
+        for (int key = 0; key < observers.size(); key++) {
+            observers.get(key).assertValue(String.valueOf(key));
+        }
+    }
+
+    private Single<Map<Integer, String>> loadValues(Set<Integer> keys) {
+        mBatchSizes.add(keys.size());
+        Map<Integer, String> values = new HashMap<>();
+        for (Integer key : keys) {
+            values.put(key, String.valueOf(key));
+        }
+        return Single.just(values);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.architecture.blueprints.todoapp.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.ObservableTransformer;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.PublishSubject;
+
+/**
+ * Unit tests for {@link ConcurrencyPolicy} and {@link KeyedSerializer}, in virtual time.
+ */
+public class ConcurrencyPolicyTest {
+    private TestScheduler mScheduler;
+    private PublishSubject<Long> mActions;
+
+    @Before
+    public void setUp() {
+        mScheduler = new TestScheduler();
+        mActions = PublishSubject.create();
+    }
+
+    @Test
+    public void switch_cancelsStaleWork() {
+        TestObserver<Long> results = process(ConcurrencyPolicy.SWITCH);
+
+        // When an action taking 3 seconds is followed by another one after a second
+        mActions.onNext(3L);
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        mActions.onNext(1L);
+        mScheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+
+        // Then only the result of the latest action lands
+        results.assertValues(1L);
+    }
+
+    @Test
+    public void merge_letsResultsLandOutOfOrder() {
+        TestObserver<Long> results = process(ConcurrencyPolicy.MERGE);
+
+        // When an action taking 3 seconds is followed by one taking 1 second
+        mActions.onNext(3L);
+        mActions.onNext(1L);
+        mScheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+
+        // Then the results land as their work ends
+        results.assertValues(1L, 3L);
+    }
+
+    @Test
+    public void concat_keepsTheOrderOfTheActions() {
+        TestObserver<Long> results = process(ConcurrencyPolicy.CONCAT);
+
+        // When an action taking 3 seconds is followed by one taking 1 second
+        mActions.onNext(3L);
+        mActions.onNext(1L);
+
+        // Then the second one only starts once the first one is done
+        mScheduler.advanceTimeBy(3, TimeUnit.SECONDS);
+        results.assertValues(3L);
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        results.assertValues(3L, 1L);
+    }
+
+    @Test
+    public void exhaust_ignoresActionsWhileBusy() {
+        TestObserver<Long> results = process(ConcurrencyPolicy.EXHAUST);
+
+        // When an action arrives while the work of a previous one is running
+        mActions.onNext(3L);
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        mActions.onNext(1L);
+        mScheduler.advanceTimeBy(5, TimeUnit.SECONDS);
+        // And another one once it is done
+        mActions.onNext(2L);
+        mScheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+
+        // Then the action arrived while busy is ignored
+        results.assertValues(3L, 2L);
+    }
+
+    @Test
+    public void keyedSerializer_serializesWorkForTheSameKeyOnly() {
+        KeyedSerializer<String> serializer = new KeyedSerializer<>();
+        TestObserver<Void> first = serializer.serialize("1", delay(3)).test();
+        TestObserver<Void> second = serializer.serialize("1", delay(1)).test();
+        TestObserver<Void> other = serializer.serialize("2", delay(1)).test();
+
+        // When a second passes
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        // Then only the work for the other key is done
+        other.assertComplete();
+        second.assertNotComplete();
+
+        // When the first work is done, the second one starts after it
+        mScheduler.advanceTimeBy(2, TimeUnit.SECONDS);
+        first.assertComplete();
+        second.assertNotComplete();
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        second.assertComplete();
+    }
+
+    @Test
+    public void keyedSerializer_runsTheNextWorkAfterAFailure() {
+        KeyedSerializer<String> serializer = new KeyedSerializer<>();
+        TestObserver<Void> failed = serializer.serialize("1", Completable.error(new Exception()))
+                .test();
+        TestObserver<Void> next = serializer.serialize("1", delay(1)).test();
+
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        failed.assertError(Exception.class);
+        next.assertComplete();
+    }
+
+    /**
+     * Processes the actions with the policy, each action being the number of seconds its work
+     * takes before emitting it back.
+     */
+    private TestObserver<Long> process(ConcurrencyPolicy policy) {
+        ObservableTransformer<Long, Long> processor = policy.apply(
+                seconds -> Observable.timer(seconds, TimeUnit.SECONDS, mScheduler)
+                        .map(ignored -> seconds));
+        return mActions.compose(processor).test();
+    }
+
+    private Completable delay(long seconds) {
+        return Completable.timer(seconds, TimeUnit.SECONDS, mScheduler);
+    }
+}
@@ -0,0 +1,401 @@
+package com.example.android.architecture.blueprints.todoapp.router.compiler;
+
+import com.example.android.architecture.blueprints.todoapp.router.ActionRouter;
+import com.example.android.architecture.blueprints.todoapp.router.RoutesAction;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates the router of each class annotated with {@link ActionRouter}, and fails the
+ * compilation if an action has no processor or a processor takes an unknown action.
+ */
+public final class ActionRouterProcessor extends AbstractProcessor {
+
+    private static final String OBSERVABLE_TRANSFORMER = "io.reactivex.ObservableTransformer";
+    private static final String ROUTER_SUFFIX = "_ActionRouter";
+
+    private Types mTypes;
+    private Elements mElements;
+    private Messager mMessager;
+    private Filer mFiler;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        mTypes = processingEnv.getTypeUtils();
+        mElements = processingEnv.getElementUtils();
+        mMessager = processingEnv.getMessager();
+        mFiler = processingEnv.getFiler();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new HashSet<>(Arrays.asList(
+                ActionRouter.class.getCanonicalName(), RoutesAction.class.getCanonicalName()));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element processor : roundEnv.getElementsAnnotatedWith(RoutesAction.class)) {
+            if (processor.getEnclosingElement().getAnnotation(ActionRouter.class) == null) {
+                error(processor, "@RoutesAction is only read in a class annotated with @ActionRouter");
+            }
+        }
+        for (Element holder : roundEnv.getElementsAnnotatedWith(ActionRouter.class)) {
+            if (holder.getKind() != ElementKind.CLASS) {
+                error(holder, "@ActionRouter only applies to classes");
+                continue;
+            }
+            Router router = readRouter((TypeElement) holder);
+            if (router != null) writeRouter(router);
+        }
+        return true;
+    }
+
+    /**
+     * @return the router of the holder, null if it is invalid, in which case the errors are
+     * reported already.
+     */
+    private Router readRouter(TypeElement holder) {
+        AnnotationMirror annotation = annotationMirror(holder, ActionRouter.class);
+        TypeElement actions = typeValue(annotation, "actions");
+        TypeElement results = typeValue(annotation, "results");
+        List<TypeElement> ignored = typeValues(annotation, "ignore");
+        boolean valid = true;
+
+        Map<String, Route> routes = new LinkedHashMap<>();
+        for (Element member : holder.getEnclosedElements()) {
+            if (member.getAnnotation(RoutesAction.class) == null) continue;
+            Route route = readRoute(member, actions, results);
+            if (route == null) {
+                valid = false;
+            } else if (routes.containsKey(route.mAction)) {
+                error(member, "%s is processed by %s already", route.mAction,
+                        routes.get(route.mAction).mAccess);
+                valid = false;
+            } else {
+                routes.put(route.mAction, route);
+            }
+        }
+
+        Set<String> ignoredNames = new HashSet<>();
+        for (TypeElement ignoredAction : ignored) {
+            String name = ignoredAction.getQualifiedName().toString();
+            if (!isAction(ignoredAction, actions)) {
+                error(holder, annotation, "%s is not an action of %s", name, actions.getQualifiedName());
+                valid = false;
+            } else if (routes.containsKey(name)) {
+                error(holder, annotation, "%s is ignored but processed by %s", name,
+                        routes.get(name).mAccess);
+                valid = false;
+            }
+            ignoredNames.add(name);
+        }
+
+        // Every action is either processed or ignored, none can reach the router unhandled.
+        for (Element nested : actions.getEnclosedElements()) {
+            if (!nested.getKind().isClass() && !nested.getKind().isInterface()) continue;
+            TypeElement action = (TypeElement) nested;
+            String name = action.getQualifiedName().toString();
+            if (!isAction(action, actions) || routes.containsKey(name) || ignoredNames.contains(name)) {
+                continue;
+            }
+            error(holder, "%s has no processor annotated with @RoutesAction and is not ignored", name);
+            valid = false;
+        }
+
+        if (!valid) return null;
+        return new Router(holder, actions, results, new ArrayList<>(routes.values()),
+                new ArrayList<>(ignoredNames));
+    }
+
+    /**
+     * @return the route to the processor, null if it is invalid, in which case the error is
+     * reported already.
+     */
+    private Route readRoute(Element member, TypeElement actions, TypeElement results) {
+        if (member.getModifiers().contains(Modifier.PRIVATE)) {
+            error(member, "A processor can't be private, the generated router reads it");
+            return null;
+        }
+        TypeMirror type;
+        String access;
+        if (member.getKind() == ElementKind.FIELD) {
+            type = member.asType();
+            access = "holder." + member.getSimpleName();
+        } else if (member.getKind() == ElementKind.METHOD
+                && ((ExecutableElement) member).getParameters().isEmpty()) {
+            type = ((ExecutableElement) member).getReturnType();
+            access = "holder." + member.getSimpleName() + "()";
+        } else {
+            error(member, "A processor is a field or a method without parameters");
+            return null;
+        }
+
+        TypeElement transformer = mElements.getTypeElement(OBSERVABLE_TRANSFORMER);
+        if (transformer == null) {
+            error(member, "%s is missing from the classpath", OBSERVABLE_TRANSFORMER);
+            return null;
+        }
+        if (type.getKind() != TypeKind.DECLARED
+                || !mTypes.isSameType(mTypes.erasure(type), mTypes.erasure(transformer.asType()))) {
+            error(member, "A processor is an %s<Action, Result>", OBSERVABLE_TRANSFORMER);
+            return null;
+        }
+        List<? extends TypeMirror> typeArguments = ((DeclaredType) type).getTypeArguments();
+        if (typeArguments.size() != 2
+                || typeArguments.get(0).getKind() != TypeKind.DECLARED
+                || typeArguments.get(1).getKind() != TypeKind.DECLARED) {
+            error(member, "A processor is an %s<Action, Result>", OBSERVABLE_TRANSFORMER);
+            return null;
+        }
+        TypeElement action = (TypeElement) ((DeclaredType) typeArguments.get(0)).asElement();
+        TypeElement result = (TypeElement) ((DeclaredType) typeArguments.get(1)).asElement();
+        if (!isAction(action, actions)) {
+            error(member, "%s is not an action of %s", action.getQualifiedName(),
+                    actions.getQualifiedName());
+            return null;
+        }
+        if (!mTypes.isAssignable(mTypes.erasure(result.asType()), mTypes.erasure(results.asType()))) {
+            error(member, "%s is not a result of %s", result.getQualifiedName(),
+                    results.getQualifiedName());
+            return null;
+        }
+        return new Route(action.getQualifiedName().toString(), access);
+    }
+
+    /**
+     * The actions are the types nested in the top class of the actions which extend it.
+     */
+    private boolean isAction(TypeElement type, TypeElement actions) {
+        return type.getEnclosingElement().equals(actions)
+                && mTypes.isAssignable(mTypes.erasure(type.asType()), mTypes.erasure(actions.asType()));
+    }
+
+    private void writeRouter(Router router) {
+        PackageElement packageElement = mElements.getPackageOf(router.mHolder);
+        String packageName = packageElement.getQualifiedName().toString();
+        String holderName = router.mHolder.getQualifiedName().toString();
+        String routerName = binarySimpleName(router.mHolder) + ROUTER_SUFFIX;
+        String actions = router.mActions.getQualifiedName().toString();
+        String results = router.mResults.getQualifiedName().toString();
+        List<Route> routes = router.mRoutes;
+
+        StringBuilder source = new StringBuilder();
+        source.append("// Generated by ").append(ActionRouterProcessor.class.getSimpleName())
+                .append(" from ").append(holderName).append(", do not edit.\n");
+        if (!packageElement.isUnnamed()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n")
+                .append(" * Routes each {@link ").append(actions).append("} to its processor in\n")
+                .append(" * {@link ").append(holderName).append("}.\n")
+                .append(" */\n")
+                .append("final class ").append(routerName).append(" {\n")
+                .append("    private static final int IGNORED = -1;\n")
+                .append("    private static final int UNKNOWN = -2;\n\n")
+                .append("    /**\n")
+                .append("     * Route of each action class met so far, read from any thread.\n")
+                .append("     */\n")
+                .append("    private static final java.util.Map<Class<?>, Integer> ROUTES =\n")
+                .append("            new java.util.concurrent.ConcurrentHashMap<>();\n\n")
+                .append("    private ").append(routerName).append("() {\n")
+                .append("    }\n\n");
+
+        // The processors only see the actions routed to them, and complete with the actions.
+        source.append("    @SuppressWarnings(\"unchecked\")\n")
+                .append("    static io.reactivex.ObservableTransformer<").append(actions).append(", ")
+                .append(results).append("> create(\n")
+                .append("            final ").append(holderName).append(" holder) {\n")
+                .append("        return actions -> io.reactivex.Observable.defer(() -> {\n");
+        for (int i = 0; i < routes.size(); i++) {
+            source.append("            final io.reactivex.subjects.PublishSubject<")
+                    .append(routes.get(i).mAction).append("> route").append(i).append(" =\n")
+                    .append("                    io.reactivex.subjects.PublishSubject.create();\n");
+        }
+        source.append("            return io.reactivex.Observable.<").append(results)
+                .append(">mergeArray(\n");
+        for (int i = 0; i < routes.size(); i++) {
+            source.append("                    route").append(i).append(".compose(")
+                    .append(routes.get(i).mAccess).append("),\n");
+        }
+        source.append("                    actions.doOnNext(action -> {\n")
+                .append("                        switch (routeOf(action)) {\n");
+        for (int i = 0; i < routes.size(); i++) {
+            source.append("                            case ").append(i).append(":\n")
+                    .append("                                route").append(i).append(".onNext((")
+                    .append(routes.get(i).mAction).append(") action);\n")
+                    .append("                                break;\n");
+        }
+        source.append("                            case IGNORED:\n")
+                .append("                                break;\n")
+                .append("                            default:\n")
+                .append("                                throw new IllegalArgumentException(")
+                .append("\"Unknown Action type: \" + action);\n")
+                .append("                        }\n")
+                .append("                    }).doOnComplete(() -> {\n");
+        for (int i = 0; i < routes.size(); i++) {
+            source.append("                        route").append(i).append(".onComplete();\n");
+        }
+        source.append("                    }).ignoreElements().<").append(results)
+                .append(">toObservable());\n")
+                .append("        });\n")
+                .append("    }\n\n");
+
+        source.append("    private static int routeOf(").append(actions).append(" action) {\n")
+                .append("        Class<?> type = action.getClass();\n")
+                .append("        Integer route = ROUTES.get(type);\n")
+                .append("        if (route == null) {\n")
+                .append("            route = resolveRoute(type);\n")
+                .append("            ROUTES.put(type, route);\n")
+                .append("        }\n")
+                .append("        return route;\n")
+                .append("    }\n\n");
+
+        // Only run once per action class, usually the AutoValue implementation of an action.
+        source.append("    private static int resolveRoute(Class<?> type) {\n");
+        for (int i = 0; i < routes.size(); i++) {
+            source.append("        if (").append(routes.get(i).mAction)
+                    .append(".class.isAssignableFrom(type)) return ").append(i).append(";\n");
+        }
+        for (String ignored : router.mIgnored) {
+            source.append("        if (").append(ignored)
+                    .append(".class.isAssignableFrom(type)) return IGNORED;\n");
+        }
+        source.append("        return UNKNOWN;\n")
+                .append("    }\n")
+                .append("}\n");
+
+        String qualifiedName = packageElement.isUnnamed() ? routerName : packageName + "." + routerName;
+        try (Writer writer = mFiler.createSourceFile(qualifiedName, router.mHolder).openWriter()) {
+            writer.write(source.toString());
+        } catch (IOException e) {
+            error(router.mHolder, "Could not write %s: %s", qualifiedName, e.getMessage());
+        }
+    }
+
+    /**
+     * Name of a class within its package, with its enclosing classes joined by '_'.
+     */
+    private static String binarySimpleName(TypeElement type) {
+        String name = type.getSimpleName().toString();
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing.getKind().isClass() || enclosing.getKind().isInterface()) {
+            name = enclosing.getSimpleName() + "_" + name;
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name;
+    }
+
+    private AnnotationMirror annotationMirror(Element element, Class<?> annotationClass) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(annotationClass.getCanonicalName())) {
+                return mirror;
+            }
+        }
+        throw new IllegalArgumentException(element + " is not annotated with " + annotationClass);
+    }
+
+    private TypeElement typeValue(AnnotationMirror annotation, String name) {
+        return (TypeElement) ((DeclaredType) annotationValue(annotation, name).getValue()).asElement();
+    }
+
+    private List<TypeElement> typeValues(AnnotationMirror annotation, String name) {
+        AnnotationValue value = annotationValue(annotation, name);
+        if (value == null) return Collections.emptyList();
+        List<TypeElement> types = new ArrayList<>();
+        for (Object type : (List<?>) value.getValue()) {
+            types.add((TypeElement) ((DeclaredType) ((AnnotationValue) type).getValue()).asElement());
+        }
+        return types;
+    }
+
+    /**
+     * @return the value of the annotation, null if it isn't set and has a default.
+     */
+    private AnnotationValue annotationValue(AnnotationMirror annotation, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : annotation.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) return entry.getValue();
+        }
+        return null;
+    }
+
+    private void error(Element element, String format, Object... args) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, String.format(format, args), element);
+    }
+
+    private void error(Element element, AnnotationMirror annotation, String format, Object... args) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, String.format(format, args), element,
+                annotation);
+    }
+
+    private static final class Router {
+        final TypeElement mHolder;
+        final TypeElement mActions;
+        final TypeElement mResults;
+        final List<Route> mRoutes;
+        final List<String> mIgnored;
+
+        Router(TypeElement holder, TypeElement actions, TypeElement results, List<Route> routes,
+               List<String> ignored) {
+            mHolder = holder;
+            mActions = actions;
+            mResults = results;
+            mRoutes = routes;
+            mIgnored = ignored;
+        }
+    }
+
+    private static final class Route {
+        /**
+         * Qualified name of the action processed.
+         */
+        final String mAction;
+        /**
+         * Expression reading the processor from the holder.
+         */
+        final String mAccess;
+
+        Route(String action, String access) {
+            mAction = action;
+            mAccess = access;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.android.architecture.blueprints.todoapp.router.compiler;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compiles holders with the {@link ActionRouterProcessor} and checks what it reports.
+ */
+public class ActionRouterProcessorTest {
+    private static final String ACTION = "package demo;\n"
+            + "interface DemoAction {\n"
+            + "    abstract class Load implements DemoAction {}\n"
+            + "    abstract class Save implements DemoAction {}\n"
+            + "}\n";
+    private static final String RESULT = "package demo;\n"
+            + "interface DemoResult {\n"
+            + "    abstract class Loaded implements DemoResult {}\n"
+            + "    abstract class Saved implements DemoResult {}\n"
+            + "}\n";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private DiagnosticCollector<JavaFileObject> mDiagnostics;
+    private File mGeneratedDir;
+
+    @Before
+    public void setupCompiler() throws IOException {
+        mDiagnostics = new DiagnosticCollector<>();
+        mGeneratedDir = mTemporaryFolder.newFolder("generated");
+    }
+
+    @Test
+    public void everyActionProcessed_generatesTheRouter() throws IOException {
+        // When a holder processes every action
+        boolean compiled = compile(holder(""
+                + "    @RoutesAction\n"
+                + "    ObservableTransformer<DemoAction.Load, DemoResult.Loaded> load;\n"
+                + "    @RoutesAction\n"
+                + "    ObservableTransformer<DemoAction.Save, DemoResult.Saved> save() {\n"
+                + "        return null;\n"
+                + "    }\n"
+                + "    ObservableTransformer<DemoAction, DemoResult> actionProcessor =\n"
+                + "            DemoHolder_ActionRouter.create(this);\n"));
+
+        // Then it compiles against its generated router
+        assertTrue(errors().toString(), compiled);
+        assertTrue(new File(mGeneratedDir, "demo/DemoHolder_ActionRouter.java").exists());
+    }
+
+    @Test
+    public void actionWithoutProcessor_failsTheCompilation() throws IOException {
+        // When a holder doesn't process an action
+        boolean compiled = compile(holder(""
+                + "    @RoutesAction\n"
+                + "    ObservableTransformer<DemoAction.Load, DemoResult.Loaded> load;\n"));
+
+        // Then the compilation fails on it
+        assertThat(compiled, is(false));
+        assertThat(errors().toString(),
+                containsString("demo.DemoAction.Save has no processor annotated with @RoutesAction"));
+    }
+
+    @Test
+    public void ignoredAction_needsNoProcessor() throws IOException {
+        // When a holder ignores the action it doesn't process
+        boolean compiled = compile(ACTION, RESULT, ""
+                + "package demo;\n"
+                + "import com.example.android.architecture.blueprints.todoapp.router.*;\n"
+                + "import io.reactivex.ObservableTransformer;\n"
+                + "@ActionRouter(actions = DemoAction.class, results = DemoResult.class,\n"
+                + "        ignore = DemoAction.Save.class)\n"
+                + "class DemoHolder {\n"
+                + "    @RoutesAction\n"
+                + "    ObservableTransformer<DemoAction.Load, DemoResult.Loaded> load;\n"
+                + "}\n");
+
+        // Then it compiles
+        assertTrue(errors().toString(), compiled);
+    }
+
+    @Test
+    public void processorOfAnUnknownAction_failsTheCompilation() throws IOException {
+        // When a holder processes a type which is not one of its actions
+        boolean compiled = compile(holder(""
+                + "    @RoutesAction\n"
+                + "    ObservableTransformer<DemoAction.Load, DemoResult.Loaded> load;\n"
+                + "    @RoutesAction\n"
+                + "    ObservableTransformer<DemoAction.Save, DemoResult.Saved> save;\n"
+                + "    @RoutesAction\n"
+                + "    ObservableTransformer<Other, DemoResult.Saved> other;\n"
+                + "    static abstract class Other implements DemoAction {}\n"));
+
+        // Then the compilation fails on it
+        assertThat(compiled, is(false));
+        assertThat(errors().toString(),
+                containsString("demo.DemoHolder.Other is not an action of demo.DemoAction"));
+    }
+
+    @Test
+    public void privateProcessor_failsTheCompilation() throws IOException {
+        // When a processor is private
+        boolean compiled = compile(holder(""
+                + "    @RoutesAction\n"
+                + "    private ObservableTransformer<DemoAction.Load, DemoResult.Loaded> load;\n"
+                + "    @RoutesAction\n"
+                + "    ObservableTransformer<DemoAction.Save, DemoResult.Saved> save;\n"));
+
+        // Then the compilation fails on it
+        assertThat(compiled, is(false));
+        assertThat(errors().toString(), containsString("A processor can't be private"));
+    }
+
+    private static String[] holder(String members) {
+        return new String[]{ACTION, RESULT, ""
+                + "package demo;\n"
+                + "import com.example.android.architecture.blueprints.todoapp.router.*;\n"
+                + "import io.reactivex.ObservableTransformer;\n"
+                + "@ActionRouter(actions = DemoAction.class, results = DemoResult.class)\n"
+                + "class DemoHolder {\n"
+                + members
+                + "}\n"};
+    }
+
+    private boolean compile(String... sources) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<JavaFileObject> files = new ArrayList<>();
+        for (String source : sources) {
+            files.add(new SourceFile(source));
+        }
+        List<String> options = Arrays.asList(
+                "-classpath", System.getProperty("java.class.path"),
+                "-d", mTemporaryFolder.newFolder().getPath(),
+                "-s", mGeneratedDir.getPath());
+        JavaCompiler.CompilationTask task =
+                compiler.getTask(null, null, mDiagnostics, options, null, files);
+        task.setProcessors(Collections.singletonList(new ActionRouterProcessor()));
+        return task.call();
+    }
+
+    private List<String> errors() {
+        List<String> errors = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : mDiagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                errors.add(diagnostic.getMessage(Locale.ROOT));
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * In-memory source, named after the type it declares.
+     */
+    private static class SourceFile extends SimpleJavaFileObject {
+        private final String mSource;
+
+        SourceFile(String source) {
+            super(URI.create("string:///demo/" + typeName(source) + ".java"), Kind.SOURCE);
+            mSource = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mSource;
+        }
+
+        private static String typeName(String source) {
+            String[] words = source.substring(source.indexOf("\ninterface ") >= 0
+                    ? source.indexOf("\ninterface ") : source.indexOf("\nclass ")).trim().split("\\s+");
+            return words[1];
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.android.architecture.blueprints.todoapp.router;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generates the router of an action processor holder, which sends each action to the processor
+ * annotated with {@link RoutesAction} for its type.
+ * <p>
+ * The router of {@code TasksActionProcessorHolder} is generated as
+ * {@code TasksActionProcessorHolder_ActionRouter}, in the same package, and is created with
+ * {@code TasksActionProcessorHolder_ActionRouter.create(holder)}. It looks the route of each
+ * action class up once, then dispatches with a single switch.
+ * <p>
+ * The actions are the types nested in {@link #actions()} which extend it. Compilation fails if one
+ * of them has no processor and isn't {@link #ignore() ignored}, or if a processor takes a type
+ * which is not one of them.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface ActionRouter {
+    /**
+     * Top class of the actions routed.
+     */
+    Class<?> actions();
+
+    /**
+     * Top class of the results emitted by the processors.
+     */
+    Class<?> results();
+
+    /**
+     * Actions dropped by the router instead of being processed.
+     */
+    Class<?>[] ignore() default {};
+}
@@ -0,0 +1,19 @@
+package com.example.android.architecture.blueprints.todoapp.router;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the processor of one type of action in a class annotated with {@link ActionRouter}.
+ * <p>
+ * The processor is a non-private field, or a non-private method without parameters, of type
+ * {@code ObservableTransformer<Action, Result>}; the action it processes is read from that type.
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target({ElementType.FIELD, ElementType.METHOD})
+public @interface RoutesAction {
+}